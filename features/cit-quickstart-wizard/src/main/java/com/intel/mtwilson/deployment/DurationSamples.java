@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent durations, such as how long each order took to
+ * plan or to become ACTIVE, to report their percentiles. Safe to record
+ * from several threads.
+ *
+ * @author jbuhacoff
+ */
+public class DurationSamples {
+
+    private final long[] samples;
+    private int size = 0;
+    private int next = 0;
+    private long count = 0;
+
+    /**
+     *
+     * @param window the number of recent samples kept, at least 1
+     */
+    public DurationSamples(int window) {
+        this.samples = new long[Math.max(1, window)];
+    }
+
+    /**
+     *
+     * @param duration in milliseconds
+     */
+    public synchronized void record(long duration) {
+        count++;
+        samples[next] = duration;
+        next = (next + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+    }
+
+    /**
+     *
+     * @return the number of durations recorded, including those no longer kept
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @param percentile from 0 to 100
+     * @return the duration in milliseconds at the given percentile of the recent samples, or 0 if there are no samples yet
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.min(size - 1, Math.max(0, index))];
+    }
+}
@@ -4,6 +4,7 @@
  */
 package com.intel.mtwilson.deployment;
 
+import com.intel.mtwilson.util.task.ReachabilityIndex;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -44,6 +45,25 @@ public class FeatureUtils {
         }        
     }
 
+    /**
+     * Same as {@link #collectAllFeatureNames(java.util.Collection, java.util.Set)} but
+     * reads the dependencies of each item from an index that was built once
+     * for the whole graph, so checking many items with shared dependencies
+     * doesn't walk the same parts of the graph again.
+     * 
+     * @param features
+     * @param index of the dependency graph; items not yet in the index are added
+     * @param output 
+     */
+    public static void collectAllFeatureNames(Collection<Feature> features, ReachabilityIndex<Feature> index, Set<String> output) {
+        for(Feature item : features) {
+            output.add(item.getName());
+            for(Feature dependency : index.getAllDependencies(item)) {
+                output.add(dependency.getName());
+            }
+        }
+    }
+
     public static List<String> listFeatureNames(Collection<Feature> features) {
         ArrayList<String> list = new ArrayList<>();
         for(Feature item : features) {
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the host syntax of a target group. Each entry is one of:
+ * <pre>
+ * host.example.com          a single host name or address
+ * 10.1.0.5-10.1.0.200       an inclusive range of IPv4 addresses
+ * 10.1.0.5-200              the same range, with only the last octet of the end address
+ * 10.1.0.0/24               a CIDR block; the network and broadcast addresses are excluded for blocks larger than /31
+ * node[001-120].example.com an inclusive numeric range in a host name; a leading zero in the start pads all numbers to its width
+ * </pre>
+ *
+ * A range is not expanded when it is parsed; its hosts are computed from
+ * their index as they are needed.
+ *
+ * @author jbuhacoff
+ */
+public class HostRanges {
+
+    /**
+     * The maximum number of hosts in one entry, the size of a /16 block
+     */
+    public static final long MAX_SIZE = 65536;
+    private static final Pattern IPV4 = Pattern.compile("(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})");
+    private static final Pattern CIDR = Pattern.compile("(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3})/(\\d{1,2})");
+    private static final Pattern IPV4_RANGE = Pattern.compile("(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3})-(\\d{1,3}(?:\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3})?)");
+    private static final Pattern NAME_RANGE = Pattern.compile("([^\\[\\]]*)\\[(\\d{1,9})-(\\d{1,9})\\]([^\\[\\]]*)");
+
+    /**
+     *
+     * @param entry
+     * @return the hosts described by the entry
+     * @throws IllegalArgumentException if the entry is empty, is not a valid range, or has more than MAX_SIZE hosts
+     */
+    public static HostRange parse(String entry) {
+        if (entry == null || entry.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty host");
+        }
+        String text = entry.trim();
+        Matcher matcher = CIDR.matcher(text);
+        if (matcher.matches()) {
+            int prefix = Integer.parseInt(matcher.group(2));
+            if (prefix > 32) {
+                throw new IllegalArgumentException("Invalid CIDR prefix: " + text);
+            }
+            long size = 1L << (32 - prefix);
+            long network = toLong(matcher.group(1)) & ~(size - 1) & 0xFFFFFFFFL;
+            if (size > 2) {
+                return new IPv4Range(network + 1, network + size - 2);
+            }
+            return new IPv4Range(network, network + size - 1);
+        }
+        matcher = IPV4_RANGE.matcher(text);
+        if (matcher.matches()) {
+            String start = matcher.group(1);
+            String end = matcher.group(2);
+            if (end.indexOf('.') < 0) {
+                end = start.substring(0, start.lastIndexOf('.') + 1) + end;
+            }
+            return new IPv4Range(toLong(start), toLong(end));
+        }
+        matcher = NAME_RANGE.matcher(text);
+        if (matcher.matches()) {
+            String start = matcher.group(2);
+            int width = start.length() > 1 && start.charAt(0) == '0' ? start.length() : 0;
+            return new NameRange(matcher.group(1), Long.parseLong(start), Long.parseLong(matcher.group(3)), width, matcher.group(4));
+        }
+        if (text.indexOf('[') >= 0 || text.indexOf(']') >= 0 || text.indexOf('/') >= 0 || text.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Invalid host: " + text);
+        }
+        if (text.matches("[0-9.]+")) {
+            toLong(text); // an address must be valid, not just look like one
+        }
+        return new NameRange(text, 0, 0, -1, "");
+    }
+
+    /**
+     *
+     * @param entry
+     * @return the number of hosts described by the entry
+     * @throws IllegalArgumentException if the entry is not valid
+     */
+    public static long count(String entry) {
+        return parse(entry).size();
+    }
+
+    private static long toLong(String address) {
+        Matcher matcher = IPV4.matcher(address);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid IPv4 address: " + address);
+        }
+        long value = 0;
+        for (int i = 1; i <= 4; i++) {
+            int octet = Integer.parseInt(matcher.group(i));
+            if (octet > 255) {
+                throw new IllegalArgumentException("Invalid IPv4 address: " + address);
+            }
+            value = (value << 8) | octet;
+        }
+        return value;
+    }
+
+    private static String toAddress(long value) {
+        return ((value >> 24) & 0xFF) + "." + ((value >> 16) & 0xFF) + "." + ((value >> 8) & 0xFF) + "." + (value & 0xFF);
+    }
+
+    /**
+     * A range of hosts that can be iterated more than once, each time
+     * computing the hosts again.
+     */
+    public static abstract class HostRange implements Iterable<String> {
+
+        private final long size;
+
+        protected HostRange(long first, long last) {
+            if (last < first) {
+                throw new IllegalArgumentException("Range end is before its start");
+            }
+            size = last - first + 1;
+            if (size > MAX_SIZE) {
+                throw new IllegalArgumentException("Range has more than " + MAX_SIZE + " hosts");
+            }
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /**
+         *
+         * @param index from 0 to size() - 1
+         * @return the host at the index
+         */
+        public abstract String get(long index);
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private long next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public String next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return get(next++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    public static class IPv4Range extends HostRange {
+
+        private final long first;
+
+        public IPv4Range(long first, long last) {
+            super(first, last);
+            this.first = first;
+        }
+
+        @Override
+        public String get(long index) {
+            return toAddress(first + index);
+        }
+    }
+
+    /**
+     * A numeric range in a host name, or a single host name when the
+     * width is -1.
+     */
+    public static class NameRange extends HostRange {
+
+        private final String prefix, suffix;
+        private final long first;
+        private final int width;
+
+        public NameRange(String prefix, long first, long last, int width, String suffix) {
+            super(first, last);
+            this.prefix = prefix;
+            this.first = first;
+            this.width = width;
+            this.suffix = suffix;
+        }
+
+        @Override
+        public String get(long index) {
+            if (width < 0) {
+                return prefix;
+            }
+            String number = String.valueOf(first + index);
+            StringBuilder host = new StringBuilder(prefix);
+            for (int i = number.length(); i < width; i++) {
+                host.append('0');
+            }
+            return host.append(number).append(suffix).toString();
+        }
+    }
+}
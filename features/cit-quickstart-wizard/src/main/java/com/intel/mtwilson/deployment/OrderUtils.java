@@ -5,6 +5,7 @@
 package com.intel.mtwilson.deployment;
 
 import com.intel.mtwilson.deployment.descriptor.Target;
+import com.intel.mtwilson.deployment.descriptor.TargetGroup;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentCollection;
 import java.util.HashSet;
@@ -54,7 +55,26 @@ public class OrderUtils {
             }
             clean.setTargets(cleanTargets);
         }
+        Set<TargetGroup> targetGroups = order.getTargetGroups();
+        if( targetGroups != null ) {
+            HashSet<TargetGroup> cleanTargetGroups = new HashSet<>();
+            for(TargetGroup targetGroup : targetGroups) {
+                TargetGroup cleanTargetGroup = new TargetGroup();
+                cleanTargetGroup.setHost(targetGroup.getHost());
+                cleanTargetGroup.setHosts(targetGroup.getHosts());
+                cleanTargetGroup.setPackages(targetGroup.getPackages());
+                cleanTargetGroup.setPassword(null); // intentional
+                cleanTargetGroup.setPort(targetGroup.getPort());
+                cleanTargetGroup.setPublicKeyDigest(targetGroup.getPublicKeyDigest());
+                cleanTargetGroup.setPublicKeyDigests(targetGroup.getPublicKeyDigests());
+                cleanTargetGroup.setTimeout(null); // intentional
+                cleanTargetGroup.setUsername(null); // intentional
+                cleanTargetGroups.add(cleanTargetGroup);
+            }
+            clean.setTargetGroups(cleanTargetGroups);
+        }
         clean.setTasks(order.getTasks());
+        clean.setHosts(order.getHosts());
         return clean;
     }
     
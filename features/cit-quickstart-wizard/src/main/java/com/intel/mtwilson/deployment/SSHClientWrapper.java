@@ -4,26 +4,31 @@
  */
 package com.intel.mtwilson.deployment;
 
+import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.crypto.key.password.Password;
 import com.intel.dcsg.cpg.performance.AlarmClock;
 import com.intel.dcsg.cpg.performance.Observer;
 import com.intel.dcsg.cpg.performance.Progress;
+import com.intel.mtwilson.configuration.ConfigurationFactory;
 import com.intel.mtwilson.deployment.descriptor.SSH;
 import com.intel.mtwilson.deployment.retry.Backoff;
 import com.intel.mtwilson.deployment.retry.ConstantBackoff;
 import com.intel.mtwilson.deployment.retry.Retry;
 import com.intel.mtwilson.deployment.retry.Retryable;
+import com.intel.mtwilson.deployment.ssh.AdaptiveConcurrencyLimiter;
 import com.intel.mtwilson.deployment.ssh.ByteArraySourceFile;
 import com.intel.mtwilson.deployment.ssh.Exit;
 import com.intel.mtwilson.deployment.ssh.Output;
 import com.intel.mtwilson.deployment.ssh.RemoteEndpoint;
 import com.intel.mtwilson.util.ssh.RemoteHostKeyDigestVerifier;
+import com.intel.mtwilson.util.task.CancellationToken;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.common.StreamCopier;
 import net.schmizz.sshj.connection.channel.direct.Session;
@@ -35,12 +40,29 @@ import net.schmizz.sshj.xfer.LocalSourceFile;
 import net.schmizz.sshj.xfer.TransferListener;
 
 /**
+ * The number of concurrent connections and commands across all instances is
+ * limited by a shared AdaptiveConcurrencyLimiter, which raises the limit
+ * while connections succeed quickly and lowers it when connections or 
+ * commands fail with transport errors or timeouts. An instance holds at
+ * most one permit at a time, so a command that connects first does not
+ * need two permits.
+ * 
+ * When a cancellation token is set, cancelling it closes the connection so
+ * a command or file transfer blocked on the network fails right away, and
+ * no further attempts or connections are made; the operation in progress
+ * throws CancellationException.
+ * 
+ * When a deadline is set, the connection and command timeouts are 
+ * shortened to the time remaining until the deadline, and a command still
+ * running at the deadline fails with TimeoutException, which is not 
+ * retried.
  *
  * @author jbuhacoff
  */
 public class SSHClientWrapper implements Closeable {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(SSHClientWrapper.class);
+    private static final AdaptiveConcurrencyLimiter concurrencyLimiter = createConcurrencyLimiter();
     private RemoteEndpoint endpoint;
     private Password password;
     private String publicKeyDigest;
@@ -48,7 +70,21 @@ public class SSHClientWrapper implements Closeable {
     private long readInterval = TimeUnit.MILLISECONDS.convert(100, TimeUnit.MILLISECONDS);
     private long timeout = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
     private Backoff backoff = new ConstantBackoff(5000);
-    private SSHClient client;
+    private volatile SSHClient client; // closed from another thread on cancel
+    private boolean permit = false;
+    private CancellationToken cancellationToken;
+    private long deadline = 0;
+    private final Runnable closeOnCancel = new Runnable() {
+        @Override
+        public void run() {
+            log.debug("Closing connection to {} because the task was cancelled", endpoint.getHost());
+            try {
+                disconnect();
+            } catch (IOException e) {
+                log.debug("Cannot close connection to {}", endpoint.getHost(), e);
+            }
+        }
+    };
 
     public SSHClientWrapper(SSH remote) {
         this.endpoint = new RemoteEndpoint(remote.getHost(), remote.getPort(), remote.getUsername());
@@ -66,20 +102,85 @@ public class SSHClientWrapper implements Closeable {
 
     @Override
     public void close() throws IOException {
-        if (client != null && client.isConnected()) {
-            client.close();
+        if (cancellationToken != null) {
+            cancellationToken.unregister(closeOnCancel);
+        }
+        disconnect();
+    }
+
+    private void disconnect() throws IOException {
+        SSHClient current = client;
+        if (current != null && current.isConnected()) {
+            current.close();
+        }
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * 
+     * @return the deadline in milliseconds since the epoch, or 0 for no deadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * 
+     * @param deadline in milliseconds since the epoch, or 0 for no deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * 
+     * @param timeout in milliseconds
+     * @return the timeout, or the time remaining until the deadline if that is shorter, but at least 1
+     */
+    private long limit(long timeout) {
+        if (deadline <= 0) {
+            return timeout;
+        }
+        return Math.max(1, Math.min(timeout, deadline - System.currentTimeMillis()));
+    }
+
+    private boolean isDeadlineExceeded() {
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * 
+     * @param cancellationToken of the task using this client, may be null
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        if (this.cancellationToken != null) {
+            this.cancellationToken.unregister(closeOnCancel);
+        }
+        this.cancellationToken = cancellationToken;
+        if (cancellationToken != null) {
+            cancellationToken.register(closeOnCancel);
         }
     }
 
     // just move to the RetryableSSHConnection?  or rewrite all the other code to just use this directly with tight binding?
     public Exit execute(String command, Output output) throws Exception {
-        SSHClientWrapper.RetryableCommand retryable = new SSHClientWrapper.RetryableCommand(this, command, output);
-        return Retry.limited(retryable, 5, backoff);
+        boolean acquired = acquirePermit();
+        try {
+            SSHClientWrapper.RetryableCommand retryable = new SSHClientWrapper.RetryableCommand(this, command, output);
+            return Retry.limited(retryable, 5, backoff, cancellationToken);
+        } finally {
+            if (acquired) {
+                releasePermit();
+            }
+        }
     }
 
     public void upload(File source, String remotePath) throws Exception {
         SSHClientWrapper.RetryableFileTransfer retryable = new SSHClientWrapper.RetryableFileTransfer(this, source, remotePath);
-        if (!Retry.limited(retryable, 5, backoff)) {
+        if (!Retry.limited(retryable, 5, backoff, cancellationToken)) {
             throw new Exception("upload failed");
         }
     }
@@ -87,7 +188,7 @@ public class SSHClientWrapper implements Closeable {
     public void upload(File source, String remotePath, Observer<Progress> listener) throws Exception {
         // make progress object, pass it to this,  then 
         SSHClientWrapper.RetryableFileTransfer retryable = new SSHClientWrapper.RetryableFileTransfer(this, source, remotePath, listener);
-        if (!Retry.limited(retryable, 5, backoff)) {
+        if (!Retry.limited(retryable, 5, backoff, cancellationToken)) {
             throw new Exception("upload failed");
         }
     }
@@ -95,7 +196,7 @@ public class SSHClientWrapper implements Closeable {
     public void upload(LocalSourceFile source, String remotePath, Observer<Progress> listener) throws Exception {
         // make progress object, pass it to this,  then 
         SSHClientWrapper.RetryableFileTransfer retryable = new SSHClientWrapper.RetryableFileTransfer(this, source, remotePath, listener);
-        if (!Retry.limited(retryable, 5, backoff)) {
+        if (!Retry.limited(retryable, 5, backoff, cancellationToken)) {
             throw new Exception("upload failed");
         }
     }
@@ -104,9 +205,79 @@ public class SSHClientWrapper implements Closeable {
         if (client != null && client.isConnected()) {
             return client;
         }
-        SSHClientWrapper.RetryableConnection retryable = new SSHClientWrapper.RetryableConnection(this);
-        client = Retry.limited(retryable, 5, backoff);
-        return client;
+        boolean acquired = acquirePermit();
+        try {
+            SSHClientWrapper.RetryableConnection retryable = new SSHClientWrapper.RetryableConnection(this);
+            client = Retry.limited(retryable, 5, backoff, cancellationToken);
+            return client;
+        } finally {
+            if (acquired) {
+                releasePermit();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return true if a permit was acquired, false if this instance already held one
+     * @throws InterruptedException 
+     * @throws java.util.concurrent.CancellationException if the token is cancelled while waiting for a permit
+     */
+    private boolean acquirePermit() throws InterruptedException {
+        if (permit) {
+            return false;
+        }
+        if (cancellationToken == null) {
+            concurrencyLimiter.acquire();
+        } else {
+            while (!concurrencyLimiter.tryAcquire(readInterval)) {
+                cancellationToken.throwIfCancelled();
+            }
+        }
+        permit = true;
+        return true;
+    }
+
+    private void releasePermit() {
+        permit = false;
+        concurrencyLimiter.release();
+    }
+
+    /**
+     * Authentication failures are not counted because they do not indicate
+     * that the remote host or the network is overloaded.
+     * 
+     * @param e
+     * @return true if the exception indicates overload, such as a timeout or transport error
+     */
+    private static boolean isOverload(Exception e) {
+        return e instanceof IOException && !(e instanceof UserAuthException);
+    }
+
+    private static AdaptiveConcurrencyLimiter createConcurrencyLimiter() {
+        int initial = 16, min = 1, max = 256;
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            initial = Integer.valueOf(configuration.get("mtwilson.quickstart.ssh.concurrency.initial", "16")).intValue();
+            min = Integer.valueOf(configuration.get("mtwilson.quickstart.ssh.concurrency.min", "1")).intValue();
+            max = Integer.valueOf(configuration.get("mtwilson.quickstart.ssh.concurrency.max", "256")).intValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load SSH concurrency limits from configuration, using defaults", e);
+        }
+        try {
+            return new AdaptiveConcurrencyLimiter(initial, min, max);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid SSH concurrency limits initial {} min {} max {}, using defaults", initial, min, max, e);
+            return new AdaptiveConcurrencyLimiter(16, 1, 256);
+        }
+    }
+
+    /**
+     * 
+     * @return the limiter shared by all instances, to monitor its current limit and latency percentiles
+     */
+    public static AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
     }
 
     public RemoteEndpoint getEndpoint() {
@@ -197,12 +368,17 @@ public class SSHClientWrapper implements Closeable {
                 SSHClient client = new SSHClient();
                 RemoteHostKeyDigestVerifier hostKeyVerifier = new RemoteHostKeyDigestVerifier(factory.endpoint.getHost(), factory.endpoint.getPort(), "MD5", factory.publicKeyDigest); // md5 is insecure but this is done for compatibility with command-line ssh clients that show md5 hash of remote host public key for user to verify
                 client.addHostKeyVerifier(hostKeyVerifier);
-                client.setConnectTimeout((int) factory.connectionTimeout);
+                client.setConnectTimeout((int) factory.limit(factory.connectionTimeout));
+                long started = System.currentTimeMillis();
                 client.connect(factory.endpoint.getHost(), factory.endpoint.getPort());
                 client.authPassword(factory.endpoint.getUsername(), factory.password.toCharArray());
+                concurrencyLimiter.recordLatency(System.currentTimeMillis() - started);
                 return client;
             } catch (IOException e) {
                 log.error("Connect to {} failed: {}", factory.endpoint.getHost(), e.getMessage());
+                if (isOverload(e)) {
+                    concurrencyLimiter.recordError();
+                }
                 throw e;
             }
         }
@@ -246,6 +422,17 @@ public class SSHClientWrapper implements Closeable {
         public Exit call() throws Exception { // ConnectionException, TransportException, IOException
             open();
             log.debug("executing command: {}", command);
+            try {
+                return exec();
+            } catch (IOException e) {
+                if (isOverload(e)) {
+                    concurrencyLimiter.recordError();
+                }
+                throw e;
+            }
+        }
+
+        private Exit exec() throws Exception {
             try (Session session = client.startSession()) {
                 log.debug("calling schmizz exec for command: {}", command);
                 Session.Command sshresult = session.exec(command); // throws ConnectionException, TransportException
@@ -259,6 +446,12 @@ public class SSHClientWrapper implements Closeable {
                     //while ( stdoutAvailable > 0 || stdoutReceived > -1 || stderrAvailable > 0 || stderrReceived > -1) {
                     log.debug("waiting to receive data...");
                     while (stdoutReceived > -1 || stderrReceived > -1) {
+                        if (factory.cancellationToken != null) {
+                            factory.cancellationToken.throwIfCancelled();
+                        }
+                        if (factory.isDeadlineExceeded()) {
+                            throw new TimeoutException("Deadline exceeded while reading output of command: " + command);
+                        }
                         log.debug("stdout avail: {} recvd: {}   stderr avail: {} recvd: {}", stdoutAvailable, stdoutReceived, stderrAvailable, stderrReceived);
                         stdoutAvailable = stdout.available();
                         stderrAvailable = stderr.available();
@@ -284,7 +477,7 @@ public class SSHClientWrapper implements Closeable {
                     }
                 }
                 log.debug("waiting with timeout for command to finish");
-                sshresult.join((int) factory.timeout, TimeUnit.MILLISECONDS);
+                sshresult.join((int) factory.limit(factory.timeout), TimeUnit.MILLISECONDS);
 
                 /*
                  String stdoutText = IOUtils.toString(stdout, "UTF-8"); // throws IOException
@@ -4,6 +4,7 @@
  */
 package com.intel.mtwilson.deployment;
 
+import com.intel.mtwilson.util.task.ReachabilityIndex;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -44,6 +45,25 @@ public class SoftwarePackageUtils {
         }        
     }
 
+    /**
+     * Same as {@link #collectAllSoftwarePackageNames(java.util.Collection, java.util.Set)} but
+     * reads the dependencies of each item from an index that was built once
+     * for the whole graph, so checking many items with shared dependencies
+     * doesn't walk the same parts of the graph again.
+     * 
+     * @param softwarePackages
+     * @param index of the dependency graph; items not yet in the index are added
+     * @param output 
+     */
+    public static void collectAllSoftwarePackageNames(Collection<SoftwarePackage> softwarePackages, ReachabilityIndex<SoftwarePackage> index, Set<String> output) {
+        for(SoftwarePackage item : softwarePackages) {
+            output.add(item.getPackageName());
+            for(SoftwarePackage dependency : index.getAllDependencies(item)) {
+                output.add(dependency.getPackageName());
+            }
+        }
+    }
+
     public static List<String> listSoftwarePackageNames(Collection<SoftwarePackage> softwarePackages) {
         ArrayList<String> list = new ArrayList<>();
         for(SoftwarePackage item : softwarePackages) {
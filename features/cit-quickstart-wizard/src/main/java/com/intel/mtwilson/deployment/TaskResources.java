@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+/**
+ * Names of the resources that deployment tasks declare through 
+ * {@link com.intel.mtwilson.util.task.Resources} so the task manager can 
+ * limit how many tasks use each one at the same time. 
+ * 
+ * The limits are configured with "mtwilson.quickstart.order.task.limit." 
+ * followed by the resource type, for example 
+ * "mtwilson.quickstart.order.task.limit.ssh=4" allows 4 concurrent
+ * SSH sessions to each host.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskResources {
+    /**
+     * One per host; a task that opens an SSH session to a host needs
+     * ssh(host)
+     */
+    public static final String SSH = "ssh";
+    /**
+     * Shared by all remote install tasks
+     */
+    public static final String REMOTE_INSTALL = "remote_install";
+    /**
+     * Shared by all file transfers from the quickstart server
+     */
+    public static final String FILE_TRANSFER = "file_transfer";
+    
+    public static String ssh(String host) {
+        return SSH + ":" + host;
+    }
+}
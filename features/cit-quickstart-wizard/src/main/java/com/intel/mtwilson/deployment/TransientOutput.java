@@ -0,0 +1,17 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+/**
+ * Used to mark tasks whose output is only kept in memory, for example
+ * information retrieved from a remote host for use by other tasks. 
+ * When an order is resumed from a checkpoint these tasks are run again
+ * even if they completed before.
+ * 
+ * @author jbuhacoff
+ */
+public interface TransientOutput {
+    
+}
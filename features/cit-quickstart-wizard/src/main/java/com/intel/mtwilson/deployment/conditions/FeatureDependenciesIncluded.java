@@ -7,6 +7,7 @@ package com.intel.mtwilson.deployment.conditions;
 import com.intel.mtwilson.deployment.Feature;
 import com.intel.mtwilson.deployment.FeatureUtils;
 import com.intel.mtwilson.util.task.Condition;
+import com.intel.mtwilson.util.task.ReachabilityIndex;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -42,10 +43,11 @@ public class FeatureDependenciesIncluded implements Condition {
         // now for each selected software package, check if all its dependencies
         // are included
         notIncluded = new HashSet<>();
+        ReachabilityIndex<Feature> index = new ReachabilityIndex<>(selected);
         for (Feature item : selected) {
             // first, flatten the dependencies for the selected software package
             HashSet<String> dependencies = new HashSet<>();
-            FeatureUtils.collectAllFeatureNames(item.getDependencies(), dependencies);
+            FeatureUtils.collectAllFeatureNames(item.getDependencies(), index, dependencies);
             // second, check if any of these dependencies are not included
             // NOTE: we could use Collection.containsAll to just check, but
             // then we wouldn't also be able to report WHICH ones are missing
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.descriptor;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.intel.mtwilson.deployment.HostRanges;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Many target hosts that share the same SSH credentials and packages, in
+ * a compact form for large orders. Example:
+ * <pre>
+ * {"hosts":["10.1.0.0/24","10.1.1.5-40","node[001-120].example.com"],
+ *  "password":"...","packages":["trustagent"],
+ *  "public_key_digests":{"10.1.0.7":"..."}}
+ * </pre>
+ *
+ * See HostRanges for the syntax of each entry in hosts. The host, if set,
+ * is one more host of the group. Each host uses its digest from
+ * publicKeyDigests if present, otherwise the publicKeyDigest of the group.
+ *
+ * The hosts are expanded into targets only when the order is planned;
+ * the order document keeps the group as it was submitted.
+ *
+ * @author jbuhacoff
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class TargetGroup extends SSH {
+
+    private List<String> hosts;
+    private Map<String, String> publicKeyDigests;
+    private Set<String> packages;
+
+    public TargetGroup() {
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(List<String> hosts) {
+        this.hosts = hosts;
+    }
+
+    public Map<String, String> getPublicKeyDigests() {
+        return publicKeyDigests;
+    }
+
+    public void setPublicKeyDigests(Map<String, String> publicKeyDigests) {
+        this.publicKeyDigests = publicKeyDigests;
+    }
+
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    public void setPackages(Set<String> packages) {
+        this.packages = packages;
+    }
+
+    /**
+     *
+     * @return the parsed host entries, including the host if it is set
+     * @throws IllegalArgumentException if any entry is not valid
+     */
+    public List<HostRanges.HostRange> parse() {
+        ArrayList<HostRanges.HostRange> ranges = new ArrayList<>();
+        if (getHost() != null) {
+            ranges.add(HostRanges.parse(getHost()));
+        }
+        if (hosts != null) {
+            for (String entry : hosts) {
+                ranges.add(HostRanges.parse(entry));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     *
+     * @return the number of hosts in the group, counting a host listed more than once each time
+     * @throws IllegalArgumentException if any entry is not valid
+     */
+    public long count() {
+        long count = 0;
+        for (HostRanges.HostRange range : parse()) {
+            count += range.size();
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @return the hosts of the group, computed as they are iterated
+     * @throws IllegalArgumentException if any entry is not valid
+     */
+    public Iterable<String> expand() {
+        final List<HostRanges.HostRange> ranges = parse();
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private final Iterator<HostRanges.HostRange> rangeIterator = ranges.iterator();
+                    private Iterator<String> current = null;
+
+                    @Override
+                    public boolean hasNext() {
+                        while ((current == null || !current.hasNext()) && rangeIterator.hasNext()) {
+                            current = rangeIterator.next().iterator();
+                        }
+                        return current != null && current.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     *
+     * @param host one of the hosts of the group
+     * @return a target for the host with the credentials and packages of the group
+     */
+    public Target createTarget(String host) {
+        Target target = new Target();
+        target.setHost(host);
+        target.setPort(getPort());
+        target.setUsername(getUsername());
+        target.setPassword(getPassword());
+        target.setTimeout(getTimeout());
+        String digest = publicKeyDigests == null ? null : publicKeyDigests.get(host);
+        target.setPublicKeyDigest(digest == null ? getPublicKeyDigest() : digest);
+        target.setPackages(packages == null ? new HashSet<String>() : new HashSet<>(packages));
+        return target;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || !getClass().isInstance(obj)) {
+            return false;
+        }
+        TargetGroup other = (TargetGroup) obj;
+        return Objects.equals(hosts, other.getHosts()) && Objects.equals(publicKeyDigests, other.getPublicKeyDigests()) && Objects.equals(packages, other.getPackages()) && super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 59 * hash + super.hashCode();
+        hash = 59 * hash + Objects.hashCode(this.hosts);
+        hash = 59 * hash + Objects.hashCode(this.packages);
+        return hash;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.jaxrs;
+
+import com.intel.mtwilson.deployment.DurationSamples;
+import com.intel.mtwilson.deployment.threads.OrderAdmission;
+import com.intel.mtwilson.deployment.threads.OrderDispatchQueue;
+import com.intel.mtwilson.deployment.threads.OrderJournal;
+import com.intel.mtwilson.launcher.ws.ext.V2;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Reports the orders waiting, being planned, and running, the admission
+ * limits, how long recent orders took to plan, and how long they took from
+ * submission until they were ACTIVE.
+ *
+ * @author jbuhacoff
+ */
+@V2
+@Path("/quickstart/dispatch")
+public class OrderDispatchStatus {
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public DispatchStatus getDispatchStatus() {
+        OrderAdmission admission = OrderDispatchQueue.getAdmission();
+        DispatchStatus status = new DispatchStatus();
+        status.queued = admission.getQueued();
+        status.queueLimit = admission.getQueueLimit();
+        status.planning = OrderDispatchQueue.getPlanningCount();
+        status.planned = OrderDispatchQueue.getPlannedCount();
+        status.running = OrderDispatchQueue.getCurrentOrders().size();
+        status.runningLimit = admission.getRunningLimit();
+        status.tasksInFlight = OrderDispatchQueue.getTasksInFlight();
+        status.hostsLeased = OrderDispatchQueue.getHostLeases().size();
+        status.taskLimit = admission.getTaskLimit();
+        status.dispatchedCount = admission.getDispatched();
+        status.finishedCount = admission.getFinished();
+        status.averageDuration = admission.getAverageDuration();
+        status.latencyP50 = admission.getDispatchLatencyPercentile(50);
+        status.latencyP90 = admission.getDispatchLatencyPercentile(90);
+        status.latencyP99 = admission.getDispatchLatencyPercentile(99);
+        OrderJournal journal = OrderDispatchQueue.getJournal();
+        if (journal != null) {
+            status.journalOpen = journal.getOpen();
+            status.journalRecords = journal.getRecords();
+            status.journalCommits = journal.getCommits();
+        }
+        DurationSamples planningTimes = OrderDispatchQueue.getPlanningTimes();
+        status.plannedCount = planningTimes.getCount();
+        status.planningTimeP50 = planningTimes.getPercentile(50);
+        status.planningTimeP90 = planningTimes.getPercentile(90);
+        status.planningTimeP99 = planningTimes.getPercentile(99);
+        return status;
+    }
+
+    /**
+     * Durations and latencies are in milliseconds.
+     */
+    public static class DispatchStatus {
+        public int queued;
+        public int queueLimit;
+        public int planning;
+        public int planned;
+        public int running;
+        public int runningLimit;
+        public long tasksInFlight;
+        public int hostsLeased;
+        public long taskLimit;
+        public long dispatchedCount;
+        public long finishedCount;
+        public long averageDuration;
+        public long latencyP50;
+        public long latencyP90;
+        public long latencyP99;
+        public long plannedCount;
+        public long planningTimeP50;
+        public long planningTimeP90;
+        public long planningTimeP99;
+        public int journalOpen;
+        public long journalRecords;
+        public long journalCommits;
+    }
+}
@@ -4,12 +4,16 @@
  */
 package com.intel.mtwilson.deployment.jaxrs;
 
+import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.mtwilson.configuration.ConfigurationFactory;
 import com.intel.mtwilson.deployment.OrderUtils;
+import com.intel.mtwilson.deployment.descriptor.TargetGroup;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentCollection;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentRepository;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderFilterCriteria;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderLocator;
+import com.intel.mtwilson.deployment.threads.OrderAdmission;
 import com.intel.mtwilson.deployment.threads.OrderDispatchQueue;
 import com.intel.mtwilson.jaxrs2.NoLinks;
 import com.intel.mtwilson.jaxrs2.Patch;
@@ -20,6 +24,7 @@ import com.intel.mtwilson.shiro.Username;
 import com.intel.mtwilson.shiro.UsernameWithPermissions;
 import com.intel.mtwilson.shiro.authc.token.Token;
 import com.intel.mtwilson.shiro.authc.token.TokenAuthenticationToken;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 import javax.servlet.http.HttpServletRequest;
@@ -46,12 +51,24 @@ import org.apache.shiro.subject.Subject;
 @Path("/quickstart/orders")
 public class Orders extends AbstractJsonapiResource<OrderDocument, OrderDocumentCollection, OrderFilterCriteria, NoLinks<OrderDocument>, OrderLocator> {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Orders.class);
+    private static final long DEFAULT_HOST_LIMIT = 10000;
+    private static final long hostLimit = loadHostLimit();
     private OrderDocumentRepository repository;
     
     public Orders() {
         repository = new OrderDocumentRepository();
     }
     
+    private static long loadHostLimit() {
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            return Long.valueOf(configuration.get("mtwilson.quickstart.order.hosts.limit", String.valueOf(DEFAULT_HOST_LIMIT))).longValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load order host limit from configuration, using default {}", DEFAULT_HOST_LIMIT, e);
+            return DEFAULT_HOST_LIMIT;
+        }
+    }
+
     @Override
     protected OrderDocumentCollection createEmptyCollection() {
         return new OrderDocumentCollection();
@@ -74,6 +91,15 @@ public class Orders extends AbstractJsonapiResource<OrderDocument, OrderDocument
      * to see the status of the task or POST /v1/orders/9e80cc60-b6c9-417a-8073-0def8a31e53a/cancel
      * to cancel the order.
      * 
+     * An order with invalid host ranges, or with more hosts in its targets
+     * and target groups together than "mtwilson.quickstart.order.hosts.limit",
+     * is rejected with 400 Bad Request.
+     * 
+     * When the dispatch queue is full the response is 503 Service 
+     * Unavailable, and when the client already has as many orders waiting
+     * as one owner may have it is 429 Too Many Requests; both have a 
+     * Retry-After header with the number of seconds to wait.
+     * 
      * @param locator
      * @param item
      * @param httpServletRequest
@@ -85,7 +111,52 @@ public class Orders extends AbstractJsonapiResource<OrderDocument, OrderDocument
     @Produces(MediaType.APPLICATION_JSON)
     @Override
     public OrderDocument createOne(@BeanParam OrderLocator locator, OrderDocument item, @Context HttpServletRequest httpServletRequest, @Context HttpServletResponse httpServletResponse) {
-        OrderDocument created = super.createOne(locator, item, httpServletRequest, httpServletResponse);
+        // reject invalid host ranges and too many hosts now instead of when the order is dispatched
+        long hosts = item.getTargets() == null ? 0 : item.getTargets().size();
+        if( item.getTargetGroups() != null ) {
+            try {
+                for(TargetGroup targetGroup : item.getTargetGroups()) {
+                    // each entry is at least one host, so too many entries are rejected without parsing them
+                    if( targetGroup.getHosts() != null && hosts + targetGroup.getHosts().size() > hostLimit ) {
+                        hosts += targetGroup.getHosts().size();
+                        break;
+                    }
+                    hosts += targetGroup.count();
+                    if( hosts > hostLimit ) {
+                        break;
+                    }
+                }
+            }
+            catch(IllegalArgumentException e) {
+                log.debug("Invalid target group hosts", e);
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+        }
+        if( hosts > hostLimit ) {
+            log.warn("Refusing order with more than {} hosts", hostLimit);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        // protect the order by associating EITHER an anonymous user's session token OR an authenticated user's username; later to retrieve the order a client would need to be logged in with that session token (user in the same UI session) or username (same API client or at least shared credentials) 
+        String owner = getSubjectIdentity();
+        
+        // refuse the order before storing it if the server cannot take on more orders
+        OrderAdmission admission = OrderDispatchQueue.getAdmission();
+        OrderAdmission.Saturation saturation = admission.reserve(owner);
+        if( saturation != OrderAdmission.Saturation.NONE ) {
+            long retryAfter = admission.getRetryAfter();
+            log.warn("Refusing order of owner {}, {} queue limit reached, retry after {} seconds", owner, saturation, retryAfter);
+            int status = saturation == OrderAdmission.Saturation.OWNER ? 429 : Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+            throw new WebApplicationException(Response.status(status).header("Retry-After", String.valueOf(retryAfter)).build());
+        }
+        
+        OrderDocument created;
+        try {
+            created = super.createOne(locator, item, httpServletRequest, httpServletResponse);
+        }
+        catch(RuntimeException e) {
+            admission.dequeued(owner);
+            throw e;
+        }
 
         // add links to this order and to the progress monitor
         String orderId = created.getId().toString();
@@ -94,14 +165,32 @@ public class Orders extends AbstractJsonapiResource<OrderDocument, OrderDocument
         created.getLinks().put("cancel", getCancelLink(orderId));        
 //        created.getLinks().put("status", getStatusLink(orderId));
         
-        // protect the order by associating EITHER an anonymous user's session token OR an authenticated user's username; later to retrieve the order a client would need to be logged in with that session token (user in the same UI session) or username (same API client or at least shared credentials) 
-        String owner = getSubjectIdentity();
         created.getMeta().put("owner", owner);
         log.debug("Created order with owner: {}", owner);
         
-        OrderDispatchQueue.getDispatchQueue().add(created);
+        OrderDispatchQueue.submit(created);
         
-        return OrderUtils.sanitize(created);
+        return addQueuePosition(OrderUtils.sanitize(created));
+    }
+    
+    /**
+     * Adds the position of a pending order in the dispatch queue, and the
+     * estimated time it will start in milliseconds since the epoch, to the
+     * meta data of the order; they are not stored because they change as
+     * other orders are dispatched.
+     * 
+     * @param order a copy of the stored order
+     * @return the same order
+     */
+    private OrderDocument addQueuePosition(OrderDocument order) {
+        if( !"PENDING".equals(order.getStatus()) ) { return order; }
+        int position = OrderDispatchQueue.getQueuePosition(order.getId().toString());
+        if( position > 0 ) {
+            long wait = OrderDispatchQueue.getAdmission().estimateWait(position, OrderDispatchQueue.getCurrentOrders().size());
+            order.getMeta().put("queue_position", String.valueOf(position));
+            order.getMeta().put("estimated_start", String.valueOf(System.currentTimeMillis() + wait)); // milliseconds
+        }
+        return order;
     }
     
     private static <T> T first(Collection<T> collection) {
@@ -222,7 +311,7 @@ public class Orders extends AbstractJsonapiResource<OrderDocument, OrderDocument
             }
         }
         
-        return OrderUtils.sanitize(order);
+        return addQueuePosition(OrderUtils.sanitize(order));
     }
 
     @GET
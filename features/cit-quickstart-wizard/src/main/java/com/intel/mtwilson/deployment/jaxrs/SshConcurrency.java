@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.jaxrs;
+
+import com.intel.mtwilson.deployment.SSHClientWrapper;
+import com.intel.mtwilson.deployment.ssh.AdaptiveConcurrencyLimiter;
+import com.intel.mtwilson.launcher.ws.ext.V2;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Reports the current state of the adaptive limit on concurrent SSH 
+ * operations.
+ * 
+ * @author jbuhacoff
+ */
+@V2
+@Path("/quickstart/ssh/concurrency")
+public class SshConcurrency {
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public ConcurrencyStatus getConcurrencyStatus() {
+        AdaptiveConcurrencyLimiter limiter = SSHClientWrapper.getConcurrencyLimiter();
+        ConcurrencyStatus status = new ConcurrencyStatus();
+        status.limit = limiter.getLimit();
+        status.minLimit = limiter.getMinLimit();
+        status.maxLimit = limiter.getMaxLimit();
+        status.inFlight = limiter.getInFlight();
+        status.successCount = limiter.getSuccessCount();
+        status.errorCount = limiter.getErrorCount();
+        status.latencyP50 = limiter.getLatencyPercentile(50);
+        status.latencyP90 = limiter.getLatencyPercentile(90);
+        status.latencyP99 = limiter.getLatencyPercentile(99);
+        return status;
+    }
+
+    /**
+     * Latencies are in milliseconds.
+     */
+    public static class ConcurrencyStatus {
+        public int limit;
+        public int minLimit;
+        public int maxLimit;
+        public int inFlight;
+        public long successCount;
+        public long errorCount;
+        public long latencyP50;
+        public long latencyP90;
+        public long latencyP99;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.jaxrs.io;
+
+/**
+ * Outcome of the tasks for one host in an order. The status is "DONE" if
+ * all the tasks for the host completed, "ERROR" if any of them failed,
+ * "SKIPPED" if none failed but some were skipped because a task they
+ * depend on failed (possibly on another host), or "INCOMPLETE" otherwise,
+ * for example when the order was cancelled.
+ *
+ * @author jbuhacoff
+ */
+public class HostSummary {
+    private String status;
+    private int completed, failed, skipped, total;
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(int completed) {
+        this.completed = completed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.jaxrs.io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tasks of an order that completed successfully, saved while the order
+ * is running so the order can be resumed after a server restart without
+ * running them again.
+ * 
+ * Task ids are random and change when the tasks are generated again, so 
+ * each completed task is recorded by a checkpoint key that describes the
+ * task (class, host, package, and occurrence) and mapped to the id it had 
+ * when it ran, which is also the name of its task directory with any 
+ * output files such as rendered env files.
+ *
+ * @author jbuhacoff
+ */
+public class OrderCheckpoint {
+    private Map<String, String> completed = new HashMap<>();
+
+    /**
+     * 
+     * @return map of checkpoint key to task id
+     */
+    public Map<String, String> getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(Map<String, String> completed) {
+        this.completed = completed;
+    }
+}
@@ -13,6 +13,7 @@ import com.intel.dcsg.cpg.validation.Fault;
 import com.intel.dcsg.cpg.validation.Faults;
 import com.intel.mtwilson.deployment.descriptor.NetworkRole;
 import com.intel.mtwilson.deployment.descriptor.Target;
+import com.intel.mtwilson.deployment.descriptor.TargetGroup;
 import com.intel.mtwilson.jaxrs2.Document;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -38,6 +39,11 @@ public class OrderDocument extends Document implements Faults {
     private final HashSet<FaultDescriptor> faultDescriptors = new HashSet<>();
     private Set<String> features;
     private Set<Target> targets;
+    /**
+     * Hosts that share credentials and packages, in a compact form that
+     * is expanded only when the order is planned
+     */
+    private Set<TargetGroup> targetGroups;
     private NetworkRole networkRole;
     
     /**
@@ -55,6 +61,16 @@ public class OrderDocument extends Document implements Faults {
     private String status = "PENDING"; // PENDING, ACTIVE, DONE, CANCELLED
     private Long progress, progressMax;
     private HashMap<String, TaskDocument> taskMap = new HashMap<>();
+    /**
+     * Outcome of the order for each target host, keyed by host; set when the
+     * order finishes
+     */
+    private Map<String, HostSummary> hosts;
+    /**
+     * Tasks completed so far, saved while the order is running so it can
+     * be resumed after a server restart
+     */
+    private OrderCheckpoint checkpoint;
 
     @JsonIgnore
     @Override
@@ -83,6 +99,10 @@ public class OrderDocument extends Document implements Faults {
         return targets;
     }
 
+    public Set<TargetGroup> getTargetGroups() {
+        return targetGroups;
+    }
+
     public Map<String, String> getSettings() {
         return settings;
     }
@@ -99,6 +119,10 @@ public class OrderDocument extends Document implements Faults {
         this.targets = targets;
     }
 
+    public void setTargetGroups(Set<TargetGroup> targetGroups) {
+        this.targetGroups = targetGroups;
+    }
+
     public void setSettings(Map<String, String> settings) {
         this.settings = settings;
     }
@@ -123,6 +147,22 @@ public class OrderDocument extends Document implements Faults {
         this.progressMax = progressMax;
     }
 
+    public Map<String, HostSummary> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(Map<String, HostSummary> hosts) {
+        this.hosts = hosts;
+    }
+
+    public OrderCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(OrderCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     public NetworkRole getNetworkRole() {
         return networkRole;
     }
@@ -162,10 +202,12 @@ public class OrderDocument extends Document implements Faults {
         OrderDocument other = (OrderDocument) obj;
         Set<String> otherFeatures = other.getFeatures();
         Set<Target> otherTargets = other.getTargets();
+        Set<TargetGroup> otherTargetGroups = other.getTargetGroups();
         Map<String, String> otherSettings = other.getSettings();
         NetworkRole otherNetworkRole = other.getNetworkRole();
         boolean equalFeatures = false;
         boolean equalTargets = false;
+        boolean equalTargetGroups = false;
         boolean equalSettings = false;
         boolean equalNetworkRole = false;
         if (features == null && otherFeatures == null || features != null && otherFeatures != null && features.equals(otherFeatures)) {
@@ -174,6 +216,9 @@ public class OrderDocument extends Document implements Faults {
         if (targets == null && otherTargets == null || targets != null && otherTargets != null && targets.equals(otherTargets)) {
             equalTargets = true;
         }
+        if (targetGroups == null && otherTargetGroups == null || targetGroups != null && otherTargetGroups != null && targetGroups.equals(otherTargetGroups)) {
+            equalTargetGroups = true;
+        }
         if (settings == null && otherSettings == null || settings != null && otherSettings != null && settings.equals(otherSettings)) {
             equalSettings = true;
         }
@@ -182,9 +227,10 @@ public class OrderDocument extends Document implements Faults {
         }
         log.debug("equalFeatures? {}", equalFeatures);
         log.debug("equalTargets? {}", equalTargets);
+        log.debug("equalTargetGroups? {}", equalTargetGroups);
         log.debug("equalSettings? {}", equalSettings);
         log.debug("equalNetworkRole? {}", equalNetworkRole);
-        return equalFeatures && equalTargets && equalSettings && equalNetworkRole;
+        return equalFeatures && equalTargets && equalTargetGroups && equalSettings && equalNetworkRole;
     }
 
     @Override
@@ -192,6 +238,7 @@ public class OrderDocument extends Document implements Faults {
         int hash = 3;
         hash = 37 * hash + Objects.hashCode(this.features);
         hash = 37 * hash + Objects.hashCode(this.targets);
+        hash = 37 * hash + Objects.hashCode(this.targetGroups);
         hash = 37 * hash + Objects.hashCode(this.settings);
         return hash;
     }
@@ -30,6 +30,8 @@ public class TaskDocument extends Document implements Faults {
     private String name;
     // the sequence number of the task;  this is optional but is useful when need to convey an order of tasks to client when they may be out of order in the response
     private int sequence = 0;
+    // the depth of the task in the dependency graph;  tasks with the same level do not depend on each other and may run at the same time
+    private int level = 0;
     private boolean done;
     private long progress, progressMax;
     private Map<String,Object> data;
@@ -74,6 +76,14 @@ public class TaskDocument extends Document implements Faults {
         return sequence;
     }
 
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
     public Map<String, Object> getData() {
         return data;
     }
@@ -5,6 +5,8 @@
 package com.intel.mtwilson.deployment.retry;
 
 import com.intel.dcsg.cpg.performance.AlarmClock;
+import com.intel.mtwilson.util.task.CancellationToken;
+import java.util.concurrent.CancellationException;
 
 /**
  *
@@ -33,4 +35,48 @@ public class Retry {
         // the last attempt, i = maxAttempts
         return retryable.call();
     }
+    
+    /**
+     * Like limited(retryable, maxAttempts, backoff) but does not start
+     * another attempt after the token is cancelled, and the delay between
+     * attempts ends early when the token is cancelled. 
+     * 
+     * @param retryable
+     * @param maxAttempts
+     * @param backoff
+     * @param token may be null
+     * @return the result of the first successful attempt
+     * @throws CancellationException if the token is cancelled before an attempt, or an attempt fails after the token is cancelled
+     * @throws Exception from the last attempt or an attempt that is not retryable
+     */
+    public static <T> T limited(Retryable<T> retryable, int maxAttempts, Backoff backoff, CancellationToken token) throws Exception {
+        if (token == null) {
+            return limited(retryable, maxAttempts, backoff);
+        }
+        log.debug("Will make up to {} attempts to execute retryable: {}", maxAttempts, retryable.toString());
+        for (int i = 1; i < maxAttempts; i++) {
+            token.throwIfCancelled();
+            try {
+                return retryable.call();
+            } catch (Exception e) {
+                // the failure is probably the connection closed by the cancellation
+                token.throwIfCancelled();
+                if( !retryable.isRetryable(e)) {
+                    throw e;
+                }
+                log.error("Caught retryable exception", e);
+            }
+            long delay = backoff.getMilliseconds();
+            log.error("Delaying next attempt by {} ms", delay);
+            token.sleep(delay);
+        }
+        token.throwIfCancelled();
+        log.debug("Last attempt to execute retryable: {}", retryable.toString());
+        try {
+            return retryable.call();
+        } catch (Exception e) {
+            token.throwIfCancelled();
+            throw e;
+        }
+    }
 }
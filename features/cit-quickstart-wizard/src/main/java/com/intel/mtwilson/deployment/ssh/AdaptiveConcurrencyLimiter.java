@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.ssh;
+
+import com.intel.mtwilson.deployment.DurationSamples;
+
+/**
+ * Limits the number of concurrent operations, such as SSH sessions to 
+ * remote hosts, and adjusts the limit based on how the operations are going
+ * using additive increase, multiplicative decrease (AIMD).
+ * 
+ * Each successful operation with a latency at or below the tolerance 
+ * increases the limit by 1/limit, so the limit grows by about 1 each time 
+ * a full limit's worth of operations succeeds. The increase only happens 
+ * when the limit was actually reached, so an idle limiter does not grow 
+ * without bound. Each error decreases the limit by the backoff ratio, at 
+ * most once per cooldown period so a burst of errors caused by the same 
+ * overload only counts once. A successful operation with a latency above 
+ * the tolerance leaves the limit unchanged.
+ * 
+ * The latency tolerance is a multiple of the 10th percentile latency of
+ * recent operations, so it adapts to the network without configuration.
+ * The percentile is computed again every 64 operations instead of on each
+ * one, since it changes slowly over a window of 1024 operations.
+ * 
+ * Usage example:
+ * <pre>
+ * limiter.acquire();
+ * try {
+ *     long start = System.currentTimeMillis();
+ *     connect();
+ *     limiter.recordLatency(System.currentTimeMillis() - start);
+ * }
+ * catch(IOException e) {
+ *     limiter.recordError();
+ * }
+ * finally {
+ *     limiter.release();
+ * }
+ * </pre>
+ * 
+ * @author jbuhacoff
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+    private static final int WINDOW = 1024; // number of latency samples kept for percentiles
+    private static final int TOLERANCE_REFRESH = 64; // number of latency samples between computing the tolerance again
+    private final int minLimit;
+    private final int maxLimit;
+    private double backoffRatio = 0.5;
+    private double latencyTolerance = 2.0;
+    private long cooldown = 1000; // milliseconds
+    private double limit;
+    private int inFlight = 0;
+    private int peakInFlight = 0; // since the last sample
+    private long lastDecrease = 0;
+    private long successes = 0;
+    private long errors = 0;
+    private final DurationSamples latencies = new DurationSamples(WINDOW);
+    private long baseLatency = 0; // 10th percentile latency when last computed
+    private long baseLatencyCount = 0; // number of latency samples when the base latency was last computed
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Concurrency limits must satisfy 1 <= min <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+        if (inFlight > peakInFlight) {
+            peakInFlight = inFlight;
+        }
+    }
+
+    /**
+     * 
+     * @param timeout in milliseconds
+     * @return true if a permit was acquired, false if none was available within the timeout
+     * @throws InterruptedException 
+     */
+    public synchronized boolean tryAcquire(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (inFlight >= getLimit()) {
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        inFlight++;
+        if (inFlight > peakInFlight) {
+            peakInFlight = inFlight;
+        }
+        return true;
+    }
+
+    public synchronized void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Records the latency of a successful operation.
+     * 
+     * @param latency in milliseconds
+     */
+    public synchronized void recordLatency(long latency) {
+        successes++;
+        long tolerance = getTolerance();
+        latencies.record(latency);
+        boolean saturated = peakInFlight >= getLimit();
+        peakInFlight = inFlight;
+        if (latencies.getCount() > 1 && latency > tolerance) {
+            log.debug("Latency {} ms above tolerance {} ms, holding limit at {}", latency, tolerance, getLimit());
+            return;
+        }
+        if (saturated && limit < maxLimit) {
+            int before = getLimit();
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+            if (getLimit() != before) {
+                log.debug("Increased concurrency limit to {}", getLimit());
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the latency in milliseconds above which the limit is not increased
+     */
+    private long getTolerance() {
+        long count = latencies.getCount();
+        // the first samples change the percentile a lot, so it is computed for each of them
+        if (count < TOLERANCE_REFRESH || count - baseLatencyCount >= TOLERANCE_REFRESH) {
+            baseLatency = latencies.getPercentile(10);
+            baseLatencyCount = count;
+        }
+        return Math.round(baseLatency * latencyTolerance);
+    }
+
+    /**
+     * Records an error that indicates the remote hosts or the network are
+     * overloaded, such as a timeout or transport error.
+     */
+    public synchronized void recordError() {
+        errors++;
+        long now = System.currentTimeMillis();
+        if (now - lastDecrease < cooldown) {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        log.debug("Decreased concurrency limit to {}", getLimit());
+    }
+
+    public synchronized int getLimit() {
+        return (int) Math.floor(limit);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successes;
+    }
+
+    public synchronized long getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * 
+     * @param percentile from 0 to 100
+     * @return the latency in milliseconds at the given percentile of recent operations, or 0 if there are no samples yet
+     */
+    public long getLatencyPercentile(double percentile) {
+        return latencies.getPercentile(percentile);
+    }
+
+    public synchronized double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * 
+     * @param backoffRatio between 0 and 1, the limit is multiplied by this after an error
+     */
+    public synchronized void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    public synchronized double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * 
+     * @param latencyTolerance multiple of the 10th percentile latency above which the limit is not increased
+     */
+    public synchronized void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public synchronized long getCooldown() {
+        return cooldown;
+    }
+
+    /**
+     * 
+     * @param cooldown minimum milliseconds between decreases
+     */
+    public synchronized void setCooldown(long cooldown) {
+        this.cooldown = cooldown;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("limit=%d inFlight=%d p50=%dms p90=%dms p99=%dms successes=%d errors=%d", getLimit(), inFlight, getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99), successes, errors);
+    }
+}
@@ -8,6 +8,7 @@ import com.intel.mtwilson.deployment.OrderAware;
 import com.intel.mtwilson.deployment.TargetAware;
 import com.intel.mtwilson.deployment.descriptor.Target;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
+import javax.ws.rs.client.WebTarget;
 
 /**
  *
@@ -15,6 +16,9 @@ import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
  */
 public abstract class AbstractPostconfigureTask extends AbstractRemoteTask implements OrderAware, TargetAware {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AbstractPostconfigureTask.class);
+    // same as org.glassfish.jersey.client.ClientProperties
+    private static final String JERSEY_CONNECT_TIMEOUT = "jersey.config.client.connectTimeout";
+    private static final String JERSEY_READ_TIMEOUT = "jersey.config.client.readTimeout";
 
     protected OrderDocument order;
     protected Target target;
@@ -5,17 +5,21 @@
 package com.intel.mtwilson.deployment.task;
 
 import com.intel.mtwilson.deployment.SSHClientWrapper;
+import com.intel.mtwilson.deployment.TaskResources;
 import com.intel.mtwilson.deployment.ssh.Exit;
 import com.intel.mtwilson.deployment.ssh.FileOutput;
 import com.intel.mtwilson.util.exec.Result;
+import com.intel.mtwilson.util.task.Resources;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import org.apache.commons.io.FileUtils;
 
 /**
  *
  * @author jbuhacoff
  */
-public abstract class AbstractRemoteTask extends AbstractTaskWithId {
+public abstract class AbstractRemoteTask extends AbstractTaskWithId implements Resources {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AbstractRemoteTask.class);
     private int sequence = 0;
@@ -25,8 +29,25 @@ public abstract class AbstractRemoteTask extends AbstractTaskWithId {
      return sshexec(clientWrapper.client(), command, timeout, timeoutUnits);
      }
      * */
+    /**
+     * Gives the client the cancellation token and deadline of this task,
+     * unless it already has a token, so a command or file transfer is 
+     * interrupted when the task is cancelled and does not run past the 
+     * deadline. Called by sshexec(); tasks that use the client directly,
+     * for example to upload files, call it after creating the client.
+     * 
+     * @param clientWrapper 
+     */
+    protected void bind(SSHClientWrapper clientWrapper) {
+        if (clientWrapper.getCancellationToken() == null) {
+            clientWrapper.setCancellationToken(getCancellationToken());
+            clientWrapper.setDeadline(getDeadline());
+        }
+    }
+    
     protected Result sshexec(SSHClientWrapper clientWrapper, String command) throws Exception {
 //        return sshexec(clientWrapper.client(), command);
+        bind(clientWrapper);
         int commandId = sequence();
         File taskDirectory = getTaskDirectory();
         if (!taskDirectory.exists()) {
@@ -191,4 +212,30 @@ public abstract class AbstractRemoteTask extends AbstractTaskWithId {
     protected int sequence() {
         return ++sequence;
     }
+
+    /**
+     * Subclasses that open an SSH session override this method so the
+     * task manager can limit concurrent sessions to each host.
+     * 
+     * @return the host this task connects to, or null if it does not connect to a remote host
+     */
+    protected String getRemoteHost() {
+        return null;
+    }
+
+    /**
+     * Subclasses that need additional resources can override this method
+     * and add to the list.
+     * 
+     * @return the resources this task needs while it runs
+     */
+    @Override
+    public Collection<String> getResources() {
+        ArrayList<String> resources = new ArrayList<>();
+        String host = getRemoteHost();
+        if (host != null) {
+            resources.add(TaskResources.ssh(host));
+        }
+        return resources;
+    }
 }
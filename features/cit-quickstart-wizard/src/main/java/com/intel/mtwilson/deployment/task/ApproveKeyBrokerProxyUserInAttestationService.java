@@ -151,4 +151,9 @@ roles:
         attestationServiceProperties.setProperty("tls.policy.certificate.sha256", setting("mtwilson.tls.cert.sha256"));
         return attestationServiceProperties;
     }
+
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
 }
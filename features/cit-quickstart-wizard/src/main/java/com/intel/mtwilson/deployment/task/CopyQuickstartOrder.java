@@ -117,4 +117,9 @@ public class CopyQuickstartOrder extends AbstractPostconfigureTask {
     }
     
     
+
+    @Override
+    protected String getRemoteHost() {
+        return target == null ? null : target.getHost();
+    }
 }
@@ -71,4 +71,9 @@ public class CreateAttestationHubUserInAttestationService extends AbstractPostco
 		}
 
 	}
+
+	@Override
+	protected String getRemoteHost() {
+		return remote == null ? null : remote.getHost();
+	}
 }
@@ -62,4 +62,9 @@ public class CreateTrustDirectorUserInAttestationService extends AbstractPostcon
         // DIRECTOR_MTWILSON_USERNAME and DIRECTOR_MTWILSON_PASSWORD must be set (and corresponding user actually created in mtwilson) 
 
     }
+
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
 }
@@ -66,4 +66,8 @@ public class CreateTrustDirectorUserInOpenstack extends AbstractPostconfigureTas
         }
     }
 
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
 }
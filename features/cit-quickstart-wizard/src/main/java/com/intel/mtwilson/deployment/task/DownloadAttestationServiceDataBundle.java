@@ -4,7 +4,6 @@
  */
 package com.intel.mtwilson.deployment.task;
 
-import com.intel.dcsg.cpg.performance.AlarmClock;
 import com.intel.dcsg.cpg.validation.Fault;
 import com.intel.mtwilson.jaxrs2.client.JaxrsClient;
 import com.intel.mtwilson.jaxrs2.client.JaxrsClientBuilder;
@@ -14,7 +13,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import org.apache.commons.io.FileUtils;
@@ -61,19 +59,25 @@ public class DownloadAttestationServiceDataBundle extends AbstractPostconfigureT
         while (zipResponse == null && progressTriesDownload < maxTriesDownload) {
             try {
                 log.debug("Downloading data bundle from mtwilson, attempt {}", progressTriesDownload+1); // +1 because we haven't completed that attempt yet
-                zipResponse = attestationServiceClient.getTargetPath("/v2/configuration/databundle").request().accept(MediaType.APPLICATION_OCTET_STREAM).get();
+                zipResponse = withDeadline(attestationServiceClient.getTargetPath("/v2/configuration/databundle")).request().accept(MediaType.APPLICATION_OCTET_STREAM).get();
                 log.debug("Downloaded data bundle from mtwilson");
             } catch (Exception e) {
                 log.error("Cannot download data bundle from mtwilson", e);
                 faults.add(new Thrown(e));
-                AlarmClock clock = new AlarmClock();
-                clock.sleep(downloadRetryIntervalSeconds, TimeUnit.SECONDS);
+                try {
+                    getCancellationToken().sleep(downloadRetryIntervalSeconds * 1000L);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                getCancellationToken().throwIfCancelled();
             }
             progressTriesDownload++;
         }
         if (zipResponse == null) {
             log.error("Cannot download data bundle from mtwilson after {} attempts", progressTriesDownload);
-            getFaults().addAll(faults); // log all collected faults
+            for (Fault fault : faults) {
+                fault(fault); // log all collected faults
+            }
             return null;
         }
         progressTriesDownload = maxTriesDownload; // since we successfully downloaded it, we reflect this in progress 
@@ -12,6 +12,7 @@ import com.intel.dcsg.cpg.performance.Progress;
 import com.intel.mtwilson.configuration.ConfigurationFactory;
 import com.intel.mtwilson.deployment.FileTransferDescriptor;
 import com.intel.mtwilson.deployment.SSHClientWrapper;
+import com.intel.mtwilson.deployment.TaskResources;
 import com.intel.mtwilson.deployment.descriptor.SSH;
 import com.intel.mtwilson.deployment.jaxrs.faults.Connection;
 import com.intel.mtwilson.deployment.jaxrs.faults.FileNotFound;
@@ -20,9 +21,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import net.schmizz.sshj.xfer.LocalSourceFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -76,14 +79,16 @@ public class FileTransfer extends AbstractRemoteTask implements Progress {
 
         // prepare all the file transfer listeners
         for (FileTransferDescriptor entry : manifest) {
-            listenerMap.put(entry, new FileTransferProgressListener(entry.getSource()));
+            listenerMap.put(entry, new FileTransferProgressListener(this, entry.getSource()));
         }
+        updateProgress();
 
         // a map to track which files should be skipped, if etag is enabled        
         HashSet<FileTransferDescriptor> etagMatches = null;
         boolean etagEnabled = Boolean.valueOf(configuration.get("mtwilson.quickstart.filetransfer.etag", "true")).booleanValue();
 
         try (SSHClientWrapper client = new SSHClientWrapper(remote)) {
+            bind(client);
 
             if (etagEnabled) {
                 etagMatches = new HashSet<>();
@@ -95,22 +100,9 @@ public class FileTransfer extends AbstractRemoteTask implements Progress {
                     // check the etag of the local file and the remote file... if same then we skip the file transfer
                     // get sha256 sum of local file.  if the cached etag is not newer than the file, then we
                     // calculat it again.
-                    String etag;
                     final File source = entry.getSource();
                     log.debug("Source file: {}", source.getAbsolutePath());
-                    File sourceEtag = new File(source.getAbsolutePath() + ".sha256");
-                    if (sourceEtag.exists() && sourceEtag.lastModified() > source.lastModified()) {
-                        log.debug("Reading etag file");
-                        etag = FileUtils.readFileToString(sourceEtag, "UTF-8").replaceAll("\\s", "");
-                        log.debug("Read etag from file: {}", sourceEtag.getAbsolutePath());
-                    } else {
-                        log.debug("Generating etag for file: {}", source.getAbsolutePath());
-                        try (FileInputStream fileInputStream = new FileInputStream(source)) {
-                            etag = Digest.sha256().digest(fileInputStream).toHex();
-                            FileUtils.writeStringToFile(sourceEtag, etag, "UTF-8");
-                            log.debug("Stored etag in file: {}", sourceEtag.getAbsolutePath());
-                        }
-                    }
+                    String etag = etag(source);
 
                     // get sha256 sum of remote file
                     Result result = sshexec(client, "/usr/bin/sha256sum " + entry.getTargetPath() + " | /usr/bin/awk '{print $1}'");
@@ -158,12 +150,42 @@ public class FileTransfer extends AbstractRemoteTask implements Progress {
                 // TODO:  set permissions on remote file if entry.getPermissions() != null 
             }
 
+        } catch (CancellationException e) {
+            log.debug("File transfer to {} cancelled", remote.getHost());
+            throw e; // AbstractTask reports whether it was cancelled or past its deadline
         } catch (Exception e) {
             log.error("Connection failed", e);
             fault(new Connection(remote.getHost()));
         }
     }
 
+    /**
+     * The etag is cached next to the source file, in a file with the 
+     * same name and a ".sha256" suffix, and generated again when the 
+     * source file is newer than the cached etag.
+     * 
+     * @param source
+     * @return the sha256 of the file in hex
+     * @throws IOException 
+     */
+    public static String etag(File source) throws IOException {
+        String etag;
+        File sourceEtag = new File(source.getAbsolutePath() + ".sha256");
+        if (sourceEtag.exists() && sourceEtag.lastModified() > source.lastModified()) {
+            log.debug("Reading etag file");
+            etag = FileUtils.readFileToString(sourceEtag, "UTF-8").replaceAll("\\s", "");
+            log.debug("Read etag from file: {}", sourceEtag.getAbsolutePath());
+        } else {
+            log.debug("Generating etag for file: {}", source.getAbsolutePath());
+            try (FileInputStream fileInputStream = new FileInputStream(source)) {
+                etag = Digest.sha256().digest(fileInputStream).toHex();
+                FileUtils.writeStringToFile(sourceEtag, etag, "UTF-8");
+                log.debug("Stored etag in file: {}", sourceEtag.getAbsolutePath());
+            }
+        }
+        return etag;
+    }
+
     public String getFilenameCsv() {
         ArrayList<String> names = new ArrayList<>();
         if (manifest != null) {
@@ -188,22 +210,31 @@ public class FileTransfer extends AbstractRemoteTask implements Progress {
         return manifest;
     }
 
-    @Override
-    public long getCurrent() {
-        long current = 0;
+    /**
+     * Publishes the total progress of all the files through max() and
+     * current(), so the snapshot has it and a PROGRESS event is sent.
+     * Only the thread executing the transfer calls this method.
+     */
+    private void updateProgress() {
+        long current = 0, max = 0;
         for (FileTransferProgressListener listener : listenerMap.values()) {
             current += listener.getProgress();
+            max += listener.getProgressMax();
         }
-        return current;
+        max(max);
+        current(current);
     }
 
     @Override
-    public long getMax() {
-        long max = 0;
-        for (FileTransferProgressListener listener : listenerMap.values()) {
-            max += listener.getProgressMax();
-        }
-        return max;
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
+
+    @Override
+    public Collection<String> getResources() {
+        Collection<String> resources = super.getResources();
+        resources.add(TaskResources.FILE_TRANSFER);
+        return resources;
     }
 
     /**
@@ -213,11 +244,22 @@ public class FileTransfer extends AbstractRemoteTask implements Progress {
      */
     public static class FileTransferProgressListener implements Observer<Progress> {
 
+        private FileTransfer task;
         private File file;
         private long progress, progressMax;
 
         public FileTransferProgressListener(File file) {
+            this(null, file);
+        }
+
+        /**
+         * 
+         * @param task to which the progress is reported, or null
+         * @param file 
+         */
+        public FileTransferProgressListener(FileTransfer task, File file) {
             log.debug("File transfer progress listener initialized with file: {} size: {}", file.getAbsolutePath(), file.length());
+            this.task = task;
             this.file = file;
             this.progress = 0;
             this.progressMax = file.length();
@@ -244,6 +286,9 @@ public class FileTransfer extends AbstractRemoteTask implements Progress {
         public void observe(Progress status) {
             progress = status.getCurrent();
             progressMax = status.getMax();
+            if (task != null) {
+                task.updateProgress();
+            }
         }
     }
 }
@@ -58,6 +58,9 @@ public class ImportAttestationServiceCertificatesToKeyBroker extends AbstractPos
         downloadDataBundle = new DownloadAttestationServiceDataBundle();
         downloadDataBundle.setOrderDocument(order);
         downloadDataBundle.setTarget(target);
+        // runs as part of this task, within its deadline
+        downloadDataBundle.setCancellationToken(getCancellationToken());
+        downloadDataBundle.setDeadline(getDeadline());
         downloadDataBundle.execute();
         // download .zip file with attestation service certificates
         // requires permission "configuration_databundle:retrieve" in mtwilson
@@ -76,7 +79,7 @@ public class ImportAttestationServiceCertificatesToKeyBroker extends AbstractPos
         zipUpload.bodyPart(body);
         JaxrsClient keybrokerClient = createKeyBrokerClient();
         progressTriesUpload = 0;
-        Response uploadResponse = keybrokerClient.getTargetPath("/v1/databundle").request().post(Entity.entity(zipUpload, zipUpload.getMediaType()));
+        Response uploadResponse = withDeadline(keybrokerClient.getTargetPath("/v1/databundle")).request().post(Entity.entity(zipUpload, zipUpload.getMediaType()));
         log.debug("Uploaded data bundle to key broker");
         progressTriesUpload = 1;
         
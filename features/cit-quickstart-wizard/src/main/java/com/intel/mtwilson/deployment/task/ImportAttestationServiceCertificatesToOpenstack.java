@@ -36,6 +36,9 @@ public class ImportAttestationServiceCertificatesToOpenstack extends AbstractPos
         downloadDataBundle = new DownloadAttestationServiceDataBundle();
         downloadDataBundle.setOrderDocument(order);
         downloadDataBundle.setTarget(target);
+        // runs as part of this task, within its deadline
+        downloadDataBundle.setCancellationToken(getCancellationToken());
+        downloadDataBundle.setDeadline(getDeadline());
         downloadDataBundle.execute();
 
         // download .zip file with attestation service certificates
@@ -88,4 +88,8 @@ public class PostconfigureAttestationHub extends AbstractPostconfigureTask {
 
 	}
 
+	@Override
+	protected String getRemoteHost() {
+		return remote == null ? null : remote.getHost();
+	}
 }
@@ -67,4 +67,9 @@ public class PostconfigureAttestationService extends AbstractPostconfigureTask {
         }
 
     }
+
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
 }
@@ -109,4 +109,9 @@ public class PostconfigureKeyBroker extends AbstractPostconfigureTask {
             fault(new Fault("Failed to set " + key));
         }
     }
+
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
 }
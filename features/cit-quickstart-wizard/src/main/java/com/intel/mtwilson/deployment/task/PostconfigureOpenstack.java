@@ -112,6 +112,11 @@ public class PostconfigureOpenstack extends AbstractPostconfigureTask {
     }
     
     
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
+
     public static class OpenstackRole {
 
         @JsonProperty("ID")
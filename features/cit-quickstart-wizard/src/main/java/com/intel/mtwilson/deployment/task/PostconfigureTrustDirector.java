@@ -58,4 +58,8 @@ public class PostconfigureTrustDirector extends AbstractPostconfigureTask {
 
     }
 
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
 }
@@ -5,28 +5,57 @@
 package com.intel.mtwilson.deployment.task;
 
 import com.intel.dcsg.cpg.crypto.RandomUtil;
-import com.intel.dcsg.cpg.performance.AlarmClock;
+import com.intel.dcsg.cpg.crypto.digest.Digest;
 import com.intel.mtwilson.deployment.SSHClientWrapper;
+import com.intel.mtwilson.deployment.TaskResources;
+import com.intel.mtwilson.deployment.FileTransferDescriptor;
 import com.intel.mtwilson.deployment.SoftwarePackage;
 import com.intel.mtwilson.deployment.descriptor.SSH;
 import com.intel.mtwilson.deployment.jaxrs.faults.Connection;
+import com.intel.mtwilson.deployment.retry.ConstantBackoff;
 import com.intel.mtwilson.util.exec.Result;
+import com.intel.mtwilson.util.task.CancellationToken;
+import com.intel.mtwilson.util.task.Fingerprint;
+import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskUtil;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CancellationException;
 
 /**
  * Runs an installer on a remote host
+ * 
+ * The fingerprint of the install is the host, the package, and the sha256
+ * of every file transferred by the FileTransfer tasks it depends on, which
+ * include the installer and the env file. After a successful install the
+ * fingerprint is written to a marker file on the remote host, so a later
+ * order with the same inputs can skip the install if the marker is still
+ * there.
+ * 
+ * The monitor script is started in a new process group with setsid and
+ * the group id is saved next to its working directory. When the task is
+ * cancelled or reaches its deadline, the polling stops right away and the
+ * process group, which includes the installer, is terminated from a new
+ * connection. 
  *
  * @author jbuhacoff
  */
-public class RemoteInstall extends AbstractRemoteTask {
+public class RemoteInstall extends AbstractRemoteTask implements Fingerprint {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RemoteInstall.class);
+    /**
+     * Relative to the home directory of the remote user, like the installer
+     */
+    private static final String FINGERPRINT_DIRECTORY = ".cit/fingerprints";
+    private static final String MONITOR_DIRECTORY = "/tmp/cit/monitor";
+    private static final long POLL_INTERVAL = 1000; // milliseconds
     private SSH remote;
     private String executablePath;
     private SoftwarePackage softwarePackage;
+    private String fingerprint;
 
     public RemoteInstall(SSH remote, SoftwarePackage softwarePackage) {
         super();
@@ -47,7 +76,11 @@ public class RemoteInstall extends AbstractRemoteTask {
 
     @Override
     public void execute() {
+        String id = RandomUtil.randomHexString(8);
+        String workingDirectory = MONITOR_DIRECTORY + "/" + id;
+        boolean launched = false;
         try (SSHClientWrapper client = new SSHClientWrapper(remote)) {
+            bind(client);
 
             /*
             String chmod = "/bin/chmod +x " + executablePath;
@@ -59,15 +92,12 @@ public class RemoteInstall extends AbstractRemoteTask {
 
             //Result installResult = sshexec(client, "./"+executablePath+" 1>"+executablePath+".out 2>"+executablePath+".err &", 1, TimeUnit.MINUTES); // give 1 minutes max for the install because it will be in background... we'll login later to check status!
             // this should return right away since we are starting it in the background.
-            String id = RandomUtil.randomHexString(8);
-            String workingDirectory = "/tmp/cit/monitor/"+id;
-            Result installResult = sshexec(client, "/bin/bash monitor.sh "+executablePath+" "+executablePath+".mark "+workingDirectory+" >/dev/null &"); // the redirection to /dev/null is so that we won't get the console text-based progress bar, which would hold up our connection and prevent us from then checking the progress output files below.
+            launched = true;
+            Result installResult = sshexec(client, "/bin/mkdir -p "+MONITOR_DIRECTORY+"; setsid /bin/bash monitor.sh "+executablePath+" "+executablePath+".mark "+workingDirectory+" >/dev/null & echo $! > "+getMonitorPidPath(workingDirectory)); // the redirection to /dev/null is so that we won't get the console text-based progress bar, which would hold up our connection and prevent us from then checking the progress output files below.
             if (installResult.getExitCode() != 0) {
                 log.error("Install failed on host: {}  file: {}", remote.getHost(), executablePath);
             }
             
-            AlarmClock delay = new AlarmClock(1, TimeUnit.SECONDS);
-            
             // first wait until the monitor script has parsed the marker file
             // and created the "status" and "max" files. we only need to get "max" once.
             String progressMax = null;
@@ -80,7 +110,8 @@ public class RemoteInstall extends AbstractRemoteTask {
                     max(Integer.valueOf(progressMax.trim()));
                     break;
                 }
-                delay.sleep();
+                getCancellationToken().sleep(POLL_INTERVAL);
+                getCancellationToken().throwIfCancelled();
             }
             
             // now get progress updates periodically while we wait for the installer to finish            
@@ -104,16 +135,99 @@ public class RemoteInstall extends AbstractRemoteTask {
                 else {
                     log.debug("status is null or empty");
                 }
-                delay.sleep();
+                getCancellationToken().sleep(POLL_INTERVAL);
+                getCancellationToken().throwIfCancelled();
             }
             
+            if( "DONE".equalsIgnoreCase(status) && fingerprint != null ) {
+                Result markerResult = sshexec(client, "/bin/mkdir -p " + FINGERPRINT_DIRECTORY + " && /bin/echo " + fingerprint + " > " + getFingerprintMarkerPath());
+                if (markerResult.getExitCode() != 0) {
+                    log.warn("Cannot write install fingerprint on host: {}", remote.getHost());
+                }
+            }
             
+        } catch (CancellationException e) {
+            log.debug("Install on host: {} file: {} cancelled", remote.getHost(), executablePath);
+            if (launched) {
+                stopRemoteInstall(workingDirectory);
+            }
+            throw e; // AbstractTask reports whether it was cancelled or past its deadline
         } catch (Exception e) {
             log.error("Connection failed", e);
             fault(new Connection(remote.getHost()));
         }
     }
 
+    /**
+     * Terminates the process group of the monitor script, which is the
+     * monitor and the installer. The task's connection was already closed
+     * by the cancellation, so this opens a new one with a token that is 
+     * not cancelled and a short backoff.
+     */
+    private void stopRemoteInstall(String workingDirectory) {
+        String pidPath = getMonitorPidPath(workingDirectory);
+        try (SSHClientWrapper client = new SSHClientWrapper(remote)) {
+            client.setCancellationToken(new CancellationToken());
+            client.setBackoff(new ConstantBackoff(1000));
+            Result result = sshexec(client, "test -f " + pidPath + " && kill -TERM -- -$(/bin/cat " + pidPath + ")");
+            if (result.getExitCode() != 0) {
+                log.warn("Cannot stop install on host: {} working directory: {}", remote.getHost(), workingDirectory);
+            }
+        } catch (Exception e) {
+            log.error("Cannot stop install on host: {}", remote.getHost(), e);
+        }
+    }
+
+    private static String getMonitorPidPath(String workingDirectory) {
+        return workingDirectory + ".pid";
+    }
+
+    private String getFingerprintMarkerPath() {
+        return FINGERPRINT_DIRECTORY + "/" + softwarePackage.getPackageName();
+    }
+
+    @Override
+    public String fingerprint() {
+        StringBuilder inputs = new StringBuilder();
+        inputs.append(remote.getHost()).append('\n');
+        inputs.append(softwarePackage.getPackageName()).append('\n');
+        inputs.append(executablePath).append('\n');
+        try {
+            for (Task dependency : getDependencies()) {
+                FileTransfer fileTransfer = TaskUtil.unwrap(FileTransfer.class, dependency);
+                if (fileTransfer == null) {
+                    continue;
+                }
+                List<FileTransferDescriptor> manifest = fileTransfer.getFileTransferManifest();
+                if (manifest == null) {
+                    return null; // dynamic file transfer that did not run yet
+                }
+                for (FileTransferDescriptor entry : manifest) {
+                    inputs.append(entry.getTargetPath()).append(' ').append(FileTransfer.etag(entry.getSource())).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Cannot compute install fingerprint", e);
+            return null;
+        }
+        fingerprint = Digest.sha256().digest(inputs.toString().getBytes(Charset.forName("UTF-8"))).toHex();
+        return fingerprint;
+    }
+
+    @Override
+    public boolean verify() {
+        if (fingerprint == null) {
+            return false;
+        }
+        try (SSHClientWrapper client = new SSHClientWrapper(remote)) {
+            Result result = sshexec(client, "/bin/cat " + getFingerprintMarkerPath());
+            return result.getExitCode() == 0 && result.getStdout() != null && fingerprint.equals(result.getStdout().trim());
+        } catch (Exception e) {
+            log.debug("Cannot read install fingerprint on host: {}", remote.getHost(), e);
+            return false;
+        }
+    }
+
     public String getPackageName() {
         return softwarePackage.getPackageName();
     }
@@ -125,4 +239,16 @@ public class RemoteInstall extends AbstractRemoteTask {
     public String getExecutablePath() {
         return executablePath;
     }
+
+    @Override
+    protected String getRemoteHost() {
+        return remote == null ? null : remote.getHost();
+    }
+
+    @Override
+    public Collection<String> getResources() {
+        Collection<String> resources = super.getResources();
+        resources.add(TaskResources.REMOTE_INSTALL);
+        return resources;
+    }
 }
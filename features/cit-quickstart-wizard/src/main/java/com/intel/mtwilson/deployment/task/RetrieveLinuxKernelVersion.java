@@ -8,6 +8,7 @@ import com.intel.mtwilson.deployment.LinuxKernelInfo;
 import com.intel.mtwilson.deployment.LinuxKernelInfoParser;
 import com.intel.mtwilson.deployment.SSHClientWrapper;
 import com.intel.mtwilson.deployment.TargetAware;
+import com.intel.mtwilson.deployment.TransientOutput;
 import com.intel.mtwilson.deployment.descriptor.Target;
 import com.intel.mtwilson.util.exec.Result;
 import java.io.IOException;
@@ -23,7 +24,7 @@ import java.io.IOException;
  * uname -i   =>   x86_64
  * </pre>
  */
-public class RetrieveLinuxKernelVersion extends AbstractRemoteTask implements TargetAware {
+public class RetrieveLinuxKernelVersion extends AbstractRemoteTask implements TargetAware, TransientOutput {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RetrieveLinuxKernelVersion.class);
     private Target target;
     private LinuxKernelInfo data;
@@ -68,4 +69,9 @@ public class RetrieveLinuxKernelVersion extends AbstractRemoteTask implements Ta
         this.target = target;
     }
     
+
+    @Override
+    protected String getRemoteHost() {
+        return target == null ? null : target.getHost();
+    }
 }
@@ -8,6 +8,7 @@ import com.intel.mtwilson.deployment.LinuxReleaseInfoParser;
 import com.intel.mtwilson.deployment.OperatingSystemInfo;
 import com.intel.mtwilson.deployment.SSHClientWrapper;
 import com.intel.mtwilson.deployment.TargetAware;
+import com.intel.mtwilson.deployment.TransientOutput;
 import com.intel.mtwilson.deployment.descriptor.Target;
 import com.intel.mtwilson.util.exec.Result;
 import java.io.IOException;
@@ -17,7 +18,7 @@ import java.io.IOException;
  *
  * @author jbuhacoff
  */
-public class RetrieveLinuxOperatingSystemVersion extends AbstractRemoteTask implements TargetAware {
+public class RetrieveLinuxOperatingSystemVersion extends AbstractRemoteTask implements TargetAware, TransientOutput {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RetrieveLinuxOperatingSystemVersion.class);
     private Target target;
@@ -62,4 +63,9 @@ public class RetrieveLinuxOperatingSystemVersion extends AbstractRemoteTask impl
     public void setTarget(Target target) {
         this.target = target;
     }
+
+    @Override
+    protected String getRemoteHost() {
+        return target == null ? null : target.getHost();
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Leases on the hosts of running orders, so two orders never install to
+ * the same host at the same time, where they would overwrite each other's
+ * env files and contend for the package manager.
+ *
+ * An order takes the leases on all of its hosts, by host and SSH port,
+ * before it starts and keeps them until it finishes. Taking them all at
+ * once means two orders can never each hold a host the other one needs.
+ * An order whose hosts are leased to another order waits; the order that
+ * holds a lease is reported so the waiting order can show who it is
+ * waiting for.
+ *
+ * A lease expires if it is not renewed, so a host is not held forever by
+ * an order that stopped without releasing its leases.
+ *
+ * @author jbuhacoff
+ */
+public class HostLeases {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(HostLeases.class);
+    private static final int DEFAULT_SSH_PORT = 22;
+    private final long expiry;
+    private final HashMap<String, Lease> leases = new HashMap<>();
+    private final HashMap<String, HashSet<String>> leasesByHolder = new HashMap<>();
+
+    /**
+     *
+     * @param expiry in milliseconds after the last renewal
+     */
+    public HostLeases(long expiry) {
+        this.expiry = Math.max(1, expiry);
+    }
+
+    public long getExpiry() {
+        return expiry;
+    }
+
+    /**
+     *
+     * @param host
+     * @param port the SSH port, or null for the default port 22
+     * @return the key of the lease on the host, like "10.1.0.7:22"
+     */
+    public static String key(String host, Integer port) {
+        return host + ":" + (port == null ? DEFAULT_SSH_PORT : port);
+    }
+
+    /**
+     *
+     * @param keys of the hosts
+     * @param holder that would take the leases
+     * @return a lease on one of the hosts held by another holder, or null if the holder can take all of them
+     */
+    public synchronized Lease findConflict(Collection<String> keys, String holder) {
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            Lease lease = leases.get(key);
+            if (lease == null || lease.holder.equals(holder)) {
+                continue;
+            }
+            if (lease.expiresAt <= now) {
+                log.warn("Lease on host {} held by {} expired", key, lease.holder);
+                remove(lease);
+                continue;
+            }
+            return lease;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the leases on all the hosts, or none of them if one is leased
+     * to another holder.
+     *
+     * @param keys of the hosts
+     * @param holder like the id of an order
+     * @return null if the holder has all the leases, otherwise the lease held by another holder
+     */
+    public synchronized Lease tryAcquire(Collection<String> keys, String holder) {
+        Lease conflict = findConflict(keys, holder);
+        if (conflict != null) {
+            return conflict;
+        }
+        long expiresAt = System.currentTimeMillis() + expiry;
+        HashSet<String> held = leasesByHolder.get(holder);
+        if (held == null) {
+            held = new HashSet<>();
+            leasesByHolder.put(holder, held);
+        }
+        for (String key : keys) {
+            leases.put(key, new Lease(key, holder, expiresAt));
+            held.add(key);
+        }
+        return null;
+    }
+
+    /**
+     * Extends the leases of the holder, for example each time the
+     * progress monitor sees the order is still running.
+     *
+     * @param holder
+     */
+    public synchronized void renew(String holder) {
+        HashSet<String> held = leasesByHolder.get(holder);
+        if (held == null) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + expiry;
+        for (String key : held) {
+            Lease lease = leases.get(key);
+            if (lease != null) {
+                lease.expiresAt = expiresAt;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param holder whose leases are released
+     */
+    public synchronized void release(String holder) {
+        HashSet<String> held = leasesByHolder.remove(holder);
+        if (held == null) {
+            return;
+        }
+        for (String key : held) {
+            Lease lease = leases.get(key);
+            if (lease != null && lease.holder.equals(holder)) {
+                leases.remove(key);
+            }
+        }
+        log.debug("Released {} host leases of {}", held.size(), holder);
+    }
+
+    /**
+     *
+     * @return the number of hosts leased, including leases that expired but were not yet removed
+     */
+    public synchronized int size() {
+        return leases.size();
+    }
+
+    /**
+     *
+     * @param holder
+     * @return the number of hosts leased to the holder
+     */
+    public synchronized int size(String holder) {
+        HashSet<String> held = leasesByHolder.get(holder);
+        return held == null ? 0 : held.size();
+    }
+
+    private void remove(Lease lease) {
+        leases.remove(lease.key);
+        HashSet<String> held = leasesByHolder.get(lease.holder);
+        if (held != null) {
+            held.remove(lease.key);
+            if (held.isEmpty()) {
+                leasesByHolder.remove(lease.holder);
+            }
+        }
+    }
+
+    /**
+     * A lease on one host. The expiry is guarded by the HostLeases.
+     */
+    public static class Lease {
+
+        private final String key;
+        private final String holder;
+        private long expiresAt;
+
+        public Lease(String key, String holder, long expiresAt) {
+            this.key = key;
+            this.holder = holder;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getHolder() {
+            return holder;
+        }
+    }
+}
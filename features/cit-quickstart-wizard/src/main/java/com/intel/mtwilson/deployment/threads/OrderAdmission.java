@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import com.intel.mtwilson.deployment.DurationSamples;
+import java.util.HashMap;
+
+/**
+ * Limits the orders the server takes on, so a burst of submissions waits
+ * in the dispatch queue or is turned away instead of all running at once.
+ *
+ * New orders are refused when the dispatch queue is full, or when their
+ * owner already has as many orders waiting as one owner may have. Orders
+ * in the queue are dispatched only while fewer than the running limit are
+ * running and their tasks fit within the limit of tasks in flight; an
+ * order larger than that limit is dispatched when no other order is
+ * running.
+ *
+ * The time to wait for a queued order to start, and for a refused client
+ * to retry, is estimated from the average time orders take to run.
+ *
+ * The time from submission until each order is ACTIVE is recorded for
+ * the recent orders, to report its percentiles.
+ *
+ * @author jbuhacoff
+ */
+public class OrderAdmission {
+
+    /**
+     * Why a new order was refused
+     */
+    public static enum Saturation {
+        NONE, OWNER, SERVER
+    }
+
+    private static final long DEFAULT_DURATION_MILLISECONDS = 60000;
+    private final int queueLimit;
+    private final int ownerQueueLimit;
+    private final int runningLimit;
+    private final long taskLimit;
+    private final HashMap<String, Integer> queuedByOwner = new HashMap<>();
+    private int queued = 0;
+    private long averageDuration = DEFAULT_DURATION_MILLISECONDS;
+    private long finished = 0;
+    private final DurationSamples latencies = new DurationSamples(1024);
+
+    /**
+     *
+     * @param queueLimit the maximum number of orders waiting to be dispatched
+     * @param ownerQueueLimit the maximum number of orders of one owner waiting to be dispatched
+     * @param runningLimit the maximum number of orders running
+     * @param taskLimit the maximum number of tasks of running orders that have not completed
+     */
+    public OrderAdmission(int queueLimit, int ownerQueueLimit, int runningLimit, long taskLimit) {
+        this.queueLimit = Math.max(1, queueLimit);
+        this.ownerQueueLimit = Math.max(1, ownerQueueLimit);
+        this.runningLimit = Math.max(1, runningLimit);
+        this.taskLimit = Math.max(1, taskLimit);
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public int getOwnerQueueLimit() {
+        return ownerQueueLimit;
+    }
+
+    public int getRunningLimit() {
+        return runningLimit;
+    }
+
+    public long getTaskLimit() {
+        return taskLimit;
+    }
+
+    /**
+     * Reserves a place in the dispatch queue for a new order. When the
+     * order is not added to the queue after all, call dequeued().
+     *
+     * @param owner may be null
+     * @return NONE if the order may be queued, otherwise the limit that was reached
+     */
+    public synchronized Saturation reserve(String owner) {
+        if (queued >= queueLimit) {
+            return Saturation.SERVER;
+        }
+        if (getQueued(owner) >= ownerQueueLimit) {
+            return Saturation.OWNER;
+        }
+        queued(owner);
+        return Saturation.NONE;
+    }
+
+    /**
+     * Counts an order added to the dispatch queue without a reservation,
+     * such as an order resumed after a restart, which is never refused.
+     *
+     * @param owner may be null
+     */
+    public synchronized void queued(String owner) {
+        queued++;
+        queuedByOwner.put(key(owner), getQueued(owner) + 1);
+    }
+
+    /**
+     *
+     * @param owner of an order taken from the dispatch queue, may be null
+     */
+    public synchronized void dequeued(String owner) {
+        queued = Math.max(0, queued - 1);
+        int count = getQueued(owner) - 1;
+        if (count > 0) {
+            queuedByOwner.put(key(owner), count);
+        } else {
+            queuedByOwner.remove(key(owner));
+        }
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized int getQueued(String owner) {
+        Integer count = queuedByOwner.get(key(owner));
+        return count == null ? 0 : count;
+    }
+
+    private static String key(String owner) {
+        return owner == null ? "" : owner;
+    }
+
+    /**
+     *
+     * @param running the number of orders running
+     * @param tasksInFlight the tasks of running orders that have not completed
+     * @param tasks of the next order
+     * @return true if the next order may be dispatched now
+     */
+    public boolean canStart(int running, long tasksInFlight, long tasks) {
+        if (running >= runningLimit) {
+            return false;
+        }
+        return running == 0 || tasksInFlight + tasks <= taskLimit;
+    }
+
+    /**
+     * Updates the average time orders take to run, weighting recent
+     * orders more.
+     *
+     * @param duration of an order that finished, in milliseconds
+     */
+    public synchronized void finished(long duration) {
+        finished++;
+        if (finished == 1) {
+            averageDuration = duration;
+        } else {
+            averageDuration = (averageDuration * 7 + duration) / 8;
+        }
+    }
+
+    public synchronized long getAverageDuration() {
+        return averageDuration;
+    }
+
+    public synchronized long getFinished() {
+        return finished;
+    }
+
+    /**
+     *
+     * @param latency from when an order was submitted until it was ACTIVE, in milliseconds
+     */
+    public void dispatched(long latency) {
+        latencies.record(latency);
+    }
+
+    /**
+     *
+     * @return the number of submitted orders that became ACTIVE
+     */
+    public long getDispatched() {
+        return latencies.getCount();
+    }
+
+    /**
+     *
+     * @param percentile from 0 to 100
+     * @return the dispatch latency in milliseconds at the given percentile of recent orders, or 0 if there are no samples yet
+     */
+    public long getDispatchLatencyPercentile(double percentile) {
+        return latencies.getPercentile(percentile);
+    }
+
+    /**
+     * Each order ahead of the queued order, and each running order, takes
+     * one of the running slots for about the average duration.
+     *
+     * @param position of the order in the dispatch queue, starting at 1
+     * @param running the number of orders running
+     * @return the estimated time until the order starts, in milliseconds
+     */
+    public synchronized long estimateWait(int position, int running) {
+        long ahead = Math.max(0, position - 1) + running;
+        return (ahead / runningLimit) * averageDuration;
+    }
+
+    /**
+     * A place in the queue opens each time an order is dispatched, which
+     * with all running slots busy is about every average duration divided
+     * by the running limit.
+     *
+     * @return seconds a refused client should wait before submitting again, at least 1
+     */
+    public synchronized long getRetryAfter() {
+        long wait = averageDuration / runningLimit;
+        return Math.max(1, (wait + 999) / 1000);
+    }
+}
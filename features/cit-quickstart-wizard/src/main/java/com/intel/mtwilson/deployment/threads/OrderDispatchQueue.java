@@ -5,46 +5,95 @@
 package com.intel.mtwilson.deployment.threads;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.io.UUID;
-import com.intel.dcsg.cpg.performance.BackgroundThread;
+import com.intel.mtwilson.Folders;
 import com.intel.mtwilson.configuration.ConfigurationFactory;
+import com.intel.mtwilson.deployment.DurationSamples;
 import com.intel.mtwilson.deployment.Id;
+import com.intel.mtwilson.deployment.TaskResources;
+import com.intel.mtwilson.deployment.descriptor.Target;
+import com.intel.mtwilson.deployment.descriptor.TargetGroup;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
+import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentCollection;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentRepository;
+import com.intel.mtwilson.deployment.jaxrs.io.OrderFilterCriteria;
+import com.intel.mtwilson.deployment.jaxrs.io.OrderLocator;
 import com.intel.mtwilson.deployment.jaxrs.io.TaskDocument;
+import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderCancelledUpdate;
+import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderDispatchedUpdate;
 import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderSettingsUpdate;
 import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderStatusUpdate;
+import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderWaitingUpdate;
+import com.intel.mtwilson.deployment.wizard.DeploymentTaskDurationEstimator;
 import com.intel.mtwilson.deployment.wizard.DeploymentTaskFactory;
+import com.intel.mtwilson.deployment.wizard.DeploymentTaskTimeouts;
+import com.intel.mtwilson.deployment.wizard.HostTaskGroup;
 import com.intel.mtwilson.deployment.wizard.OrderTransformer;
+import com.intel.mtwilson.deployment.wizard.TargetTaskGroup;
+import com.intel.mtwilson.deployment.wizard.TaskCheckpoints;
 import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.task.ExecutorProvider;
+import com.intel.mtwilson.util.task.ExecutorProviders;
+import com.intel.mtwilson.util.task.FailurePolicy;
+import com.intel.mtwilson.util.task.FairShareScheduler;
+import com.intel.mtwilson.util.task.FileFingerprintStore;
+import com.intel.mtwilson.util.task.FingerprintStore;
+import com.intel.mtwilson.util.task.ResourceLimits;
 import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskEventBuffer;
 import com.intel.mtwilson.util.task.TaskManager;
 import com.intel.mtwilson.util.validation.faults.Thrown;
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
-import org.apache.commons.beanutils.PropertyUtils;
 
 /**
  * APIs that need to submit new orders for processing should submit through this
  * thread so we can control the use of available server resources.
  *
- * The run() method of this class is invoked periodically by BackgroundThread.
+ * The run() method of this class is invoked by a TriggeredThread as soon as
+ * an order is submitted, and when a running order finishes so a queued or
+ * deferred order can start; the thread sleeps while there is nothing to
+ * dispatch. The time from submission until an order is ACTIVE is recorded
+ * in the "dispatch_latency" meta attribute of the order.
+ *
+ * The dispatch thread only takes orders from the queue and starts them;
+ * creating the tasks of each order and storing them is done by a pool of
+ * planner threads, configured with "mtwilson.quickstart.order.planner.threads",
+ * so a large order does not hold up the orders submitted after it. With
+ * "mtwilson.quickstart.order.planner.ordered" (the default) planned orders
+ * still start in the order they were submitted.
+ *
+ * An order starts only when it can take the leases on all of its hosts
+ * (see HostLeases), so two orders never install to the same host at the
+ * same time; until then the "waiting_for" meta attribute of the order
+ * shows which host it is waiting for and which order holds it.
+ *
+ * New orders are written to an OrderJournal before the API returns, and
+ * the orders in the journal that were not dispatched are dispatched again
+ * when the server starts.
  *
  * @author jbuhacoff
  */
@@ -52,35 +101,320 @@ import org.apache.commons.beanutils.PropertyUtils;
 public class OrderDispatchQueue implements ServletContextListener {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderDispatchQueue.class);
-    private static final ConcurrentLinkedQueue<OrderDocument> dispatchQueue = new ConcurrentLinkedQueue<>();
+    private static final TriggeredThread dispatchThread = new TriggeredThread("OrderDispatchQueue");
+    private static final ConcurrentLinkedQueue<OrderDocument> dispatchQueue = new TriggeredQueue<>(dispatchThread);
     private static final ConcurrentHashMap<String, OrderDispatch> currentOrders = new ConcurrentHashMap<>();
-    private static final BackgroundThread dispatchThread = new BackgroundThread();
+    /**
+     * When each order was submitted, in milliseconds since the epoch, 
+     * until it is dispatched
+     */
+    private static final ConcurrentHashMap<String, Long> submittedAt = new ConcurrentHashMap<>();
 //    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private static final ExecutorService executor = Executors.newCachedThreadPool();
+    /**
+     * Runs the task manager of each order; created in contextInitialized()
+     * with the configured executor provider
+     */
+    private static ExecutorService executor;
+    /**
+     * Waits for cancelled orders to stop, separate from the executor so
+     * a cancellation is not queued behind running orders
+     */
+    private static final ExecutorService cancellations = Executors.newCachedThreadPool();
+    /**
+     * How long the tasks of a cancelled order have to stop on their own
+     * before they are interrupted, in milliseconds
+     */
+    private static long cancellationGracePeriod = 10000;
+    /**
+     * Limits on queued and running orders; replaced in contextInitialized()
+     * with the configured limits
+     */
+    private static volatile OrderAdmission admission = new OrderAdmission(1000, 100, 16, 100000);
+    /**
+     * An order taken from the dispatch queue whose tasks did not fit
+     * within the limit of tasks in flight; it is dispatched before any
+     * order still in the queue
+     */
+    private static volatile OrderDocument deferredOrder;
+    /**
+     * Plans the orders taken from the dispatch queue, so one large order
+     * does not hold up the planning of the orders behind it; created in
+     * contextInitialized() with the configured number of threads
+     */
+    private static ExecutorService planners;
+    /**
+     * Orders taken from the dispatch queue, by sequence, until they start
+     * or cannot be planned
+     */
+    private static final ConcurrentSkipListMap<Long, OrderDocument> acceptedOrders = new ConcurrentSkipListMap<>();
+    /**
+     * The result of planning each accepted order, by sequence, until it
+     * starts; planning failures are included so an order that cannot be
+     * planned does not hold up the orders after it
+     */
+    private static final ConcurrentSkipListMap<Long, PlannedOrder> plannedOrders = new ConcurrentSkipListMap<>();
+    /**
+     * Leases on the hosts of running orders; replaced in 
+     * contextInitialized() with the configured expiry
+     */
+    private static volatile HostLeases hostLeases = new HostLeases(600000);
+    /**
+     * Orders received and not yet dispatched, on disk; created in 
+     * contextInitialized(), null if disabled or it cannot be opened
+     */
+    private static volatile OrderJournal journal;
+    private static final ObjectMapper journalMapper = JacksonObjectMapperProvider.createDefaultMapper();
+    /**
+     * How long recent orders took to plan, in milliseconds
+     */
+    private static final DurationSamples planningTimes = new DurationSamples(1024);
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         log.debug("OrderDispatchQueue contextInitialized");
-        // start a background thread to periodically get orders from the
-        // queue and start the processing in a new thread
+        // start a background thread to get orders from the queue as they
+        // are submitted and start the processing in a new thread; the
+        // interval is only a safety net in case a trigger is missed
         try {
             Configuration configuration = ConfigurationFactory.getConfiguration();
-            dispatchThread.setDelay(Long.valueOf(configuration.get("mtwilson.quickstart.order.dispatch.interval", "200")).longValue(), TimeUnit.MILLISECONDS);
+            dispatchThread.setInterval(Long.valueOf(configuration.get("mtwilson.quickstart.order.dispatch.interval", "60000")).longValue(), TimeUnit.MILLISECONDS);
 //            scheduler.scheduleWithFixedDelay(new OrderDispatchPeriodicTask(), 1, Long.valueOf(configuration.get("mtwilson.quickstart.order.dispatch.interval", "200")).longValue(), TimeUnit.MILLISECONDS);
-        } catch (IOException e) {
-            log.error("Cannot load configuration, using default period 200ms", e);
-            dispatchThread.setDelay(200, TimeUnit.MILLISECONDS);
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load configuration, using default interval 60000ms", e);
+            dispatchThread.setInterval(60000, TimeUnit.MILLISECONDS);
         }
+        // the number of orders that can run at the same time with the bounded or work-stealing executors
+        int parallelism;
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            parallelism = Integer.valueOf(configuration.get("mtwilson.quickstart.order.executor.parallelism", "64")).intValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load order executor parallelism from configuration, using default 64", e);
+            parallelism = 64;
+        }
+        executor = getExecutorProvider().newExecutor(parallelism);
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            cancellationGracePeriod = Long.valueOf(configuration.get("mtwilson.quickstart.order.cancel.grace.period", "10000")).longValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load order cancellation grace period from configuration, using default 10000ms", e);
+            cancellationGracePeriod = 10000;
+        }
+        admission = createAdmission();
+        int plannerThreads;
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            plannerThreads = Integer.valueOf(configuration.get("mtwilson.quickstart.order.planner.threads", "4")).intValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load order planner threads from configuration, using default 4", e);
+            plannerThreads = 4;
+        }
+        log.debug("Order planner threads: {}", plannerThreads);
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            hostLeases = new HostLeases(Long.valueOf(configuration.get("mtwilson.quickstart.order.host.lease.expiry", "600000")).longValue());
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load host lease expiry from configuration, using default 600000ms", e);
+            hostLeases = new HostLeases(600000);
+        }
+        planners = Executors.newFixedThreadPool(Math.max(1, plannerThreads));
+        journal = createJournal();
+        resumeOrders();
         dispatchThread.setTask(new OrderDispatchPeriodicTask());
         dispatchThread.start();
         log.debug("OrderDispatchQueue started dispatch thread");
     }
+    
+    /**
+     * The same provider is used for the thread of each order and for the
+     * worker threads of its task manager. The default "virtual" uses 
+     * virtual threads on JDK 21 or later, where a task blocked in an SSH
+     * read does not hold a platform thread, and a bounded pool of platform
+     * threads on earlier versions.
+     * 
+     * @return the executor provider configured with "mtwilson.quickstart.order.executor"
+     */
+    static ExecutorProvider getExecutorProvider() {
+        String name = ExecutorProviders.VIRTUAL;
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            name = configuration.get("mtwilson.quickstart.order.executor", ExecutorProviders.VIRTUAL);
+            return ExecutorProviders.forName(name);
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Cannot load executor provider {} from configuration, using default {}", name, ExecutorProviders.VIRTUAL, e);
+            return ExecutorProviders.forName(ExecutorProviders.VIRTUAL);
+        }
+    }
+
+    /**
+     * 
+     * @return the order journal configured with "mtwilson.quickstart.order.journal.enabled", or null if disabled or it cannot be opened
+     */
+    private static OrderJournal createJournal() {
+        boolean enabled;
+        long compactSize;
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            enabled = Boolean.valueOf(configuration.get("mtwilson.quickstart.order.journal.enabled", "true")).booleanValue();
+            compactSize = Long.valueOf(configuration.get("mtwilson.quickstart.order.journal.compact.size", "16777216")).longValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load order journal from configuration, using defaults", e);
+            enabled = true;
+            compactSize = 16777216;
+        }
+        if (!enabled) {
+            log.debug("Order journal disabled");
+            return null;
+        }
+        File file = new File(Folders.repository("journal"), "orders.log");
+        try {
+            return new OrderJournal(file, compactSize);
+        } catch (IOException e) {
+            log.error("Cannot open order journal {}", file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    private static OrderAdmission createAdmission() {
+        int queueLimit, ownerQueueLimit, runningLimit;
+        long taskLimit;
+        try {
+            Configuration configuration = ConfigurationFactory.getConfiguration();
+            queueLimit = Integer.valueOf(configuration.get("mtwilson.quickstart.order.queue.limit", "1000")).intValue();
+            ownerQueueLimit = Integer.valueOf(configuration.get("mtwilson.quickstart.order.queue.owner.limit", "100")).intValue();
+            runningLimit = Integer.valueOf(configuration.get("mtwilson.quickstart.order.running.limit", "16")).intValue();
+            taskLimit = Long.valueOf(configuration.get("mtwilson.quickstart.order.tasks.limit", "100000")).longValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load order admission limits from configuration, using defaults", e);
+            queueLimit = 1000;
+            ownerQueueLimit = 100;
+            runningLimit = 16;
+            taskLimit = 100000;
+        }
+        log.debug("Order admission limits: {} queued, {} queued per owner, {} running, {} tasks in flight", queueLimit, ownerQueueLimit, runningLimit, taskLimit);
+        return new OrderAdmission(queueLimit, ownerQueueLimit, runningLimit, taskLimit);
+    }
+
+    /**
+     * Orders that were pending or active when the server stopped are
+     * dispatched again; active orders continue from their checkpoint.
+     */
+    private void resumeOrders() {
+        OrderDocumentRepository repository = new OrderDocumentRepository();
+        HashSet<String> resumed = replayJournal(repository);
+        OrderFilterCriteria criteria = new OrderFilterCriteria();
+        criteria.filter = false;
+        OrderDocumentCollection orders = repository.search(criteria);
+        for (OrderDocument order : orders.getOrders()) {
+            if (resumed.contains(order.getId().toString())) {
+                continue;
+            }
+            if ("CANCELLING".equals(order.getStatus())) {
+                // the server stopped before the cancellation completed
+                OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(order.getId(), "CANCELLED"));
+                continue;
+            }
+            if ("PENDING".equals(order.getStatus()) || "ACTIVE".equals(order.getStatus())) {
+                int completed = order.getCheckpoint() == null ? 0 : order.getCheckpoint().getCompleted().size();
+                log.info("Resuming order {} with {} completed tasks", order.getId().toString(), completed);
+                admission.queued(getOwner(order));
+                dispatchQueue.add(order);
+            }
+        }
+    }
+
+    /**
+     * Dispatches the orders in the journal that were received but not 
+     * dispatched, storing the order document again from the journal if 
+     * it was lost. An order that is no longer pending was dispatched 
+     * before the restart, and is resumed from its document if it is 
+     * active.
+     * 
+     * @return the ids of the orders dispatched from the journal
+     */
+    private HashSet<String> replayJournal(OrderDocumentRepository repository) {
+        HashSet<String> resumed = new HashSet<>();
+        if (journal == null) {
+            return resumed;
+        }
+        List<OrderJournal.Entry> entries;
+        try {
+            entries = journal.replay();
+        } catch (IOException e) {
+            log.error("Cannot replay order journal {}", journal.getFile().getAbsolutePath(), e);
+            return resumed;
+        }
+        for (OrderJournal.Entry entry : entries) {
+            OrderDocument order;
+            try {
+                order = journalMapper.readValue(entry.getDocument(), OrderDocument.class);
+            } catch (IOException e) {
+                log.error("Cannot read order {} from journal", entry.getOrderId(), e);
+                journal(OrderJournal.State.FAILED, entry.getOrderId());
+                continue;
+            }
+            OrderLocator locator = new OrderLocator();
+            locator.id = order.getId();
+            OrderDocument stored = repository.retrieve(locator);
+            if (stored != null && !"PENDING".equals(stored.getStatus())) {
+                journal(OrderJournal.State.DISPATCHED, entry.getOrderId());
+                continue;
+            }
+            if (stored == null) {
+                log.warn("Restoring order {} from journal", entry.getOrderId());
+                repository.store(order);
+            }
+            log.info("Resuming order {} received before restart", entry.getOrderId());
+            admission.queued(getOwner(order));
+            dispatchQueue.add(order);
+            resumed.add(entry.getOrderId());
+        }
+        return resumed;
+    }
+
+    /**
+     * Appends a record to the journal, if enabled, without waiting for it
+     * to be on disk; an error is logged because the order document is also
+     * stored in the repository.
+     */
+    private static void journal(OrderJournal.State state, String orderId) {
+        OrderJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        try {
+            switch (state) {
+                case PLANNED:
+                    current.planned(orderId);
+                    break;
+                case DISPATCHED:
+                    current.dispatched(orderId);
+                    break;
+                case FAILED:
+                    current.failed(orderId);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Use submit() to journal a received order");
+            }
+        } catch (IOException e) {
+            log.error("Cannot journal order {} as {}", orderId, state, e);
+        }
+    }
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         log.debug("OrderDispatchQueue contextInitialized");
         dispatchThread.stop();
+        planners.shutdownNow();
         executor.shutdownNow();
+        cancellations.shutdownNow();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Cannot close order journal", e);
+            }
+        }
     }
 
     /**
@@ -91,72 +425,514 @@ public class OrderDispatchQueue implements ServletContextListener {
     public static class OrderDispatchPeriodicTask implements Runnable {
 
         private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderDispatchPeriodicTask.class);
+        private static final int DEFAULT_CONCURRENCY = 8;
         private final OrderDocumentRepository repository = new OrderDocumentRepository();
-        private final PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy namingStrategy = new PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy();
+        /**
+         * Copies the attributes of each task into its task document, with
+         * the getters of each task class looked up once and shared by the
+         * planner threads
+         */
+        private final TaskDocumentProjection projection = new TaskDocumentProjection();
         private final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper(); // for debug only
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private FailurePolicy failurePolicy = FailurePolicy.FAIL_BRANCH;
+        /**
+         * Shared by all orders so the limits apply to the quickstart server
+         * as a whole, for example the total number of concurrent file
+         * transfers, and to each host even if it appears in several orders.
+         */
+        private final ResourceLimits resourceLimits = new ResourceLimits();
+        /**
+         * Fingerprints of tasks that completed in previous orders, so a
+         * task that already ran with the same inputs, like installing the
+         * same package on the same host, is skipped; null when disabled
+         */
+        private FingerprintStore fingerprintStore;
+        private final ExecutorProvider executorProvider = getExecutorProvider();
+        /**
+         * Wakes the progress monitor when a task of any order publishes an
+         * event, so the monitor does not need to poll
+         */
+        private final Runnable monitorTrigger = new Runnable() {
+            @Override
+            public void run() {
+                OrderProgressMonitor.wakeup();
+            }
+        };
+        /**
+         * The time budget of each order in milliseconds, from when it is
+         * dispatched; 0 for no limit
+         */
+        private long orderTimeout;
+        /**
+         * Capacity of the event buffer of each order, to hold the task
+         * events published between runs of the OrderProgressMonitor
+         */
+        private int eventBufferSize;
+        /**
+         * Orders with more tasks than this are run and shown as one 
+         * HostTaskGroup per host; 0 to always show every task
+         */
+        private int rollupThreshold;
+        /**
+         * Orders with more tasks than this are planned as one 
+         * TargetTaskGroup per host and software package, whose tasks are
+         * created only when the group runs; 0 to create all the tasks when
+         * the order is dispatched. Such orders are not also grouped by host.
+         */
+        private int lazyThreshold;
+        /**
+         * Shares the task slots and resource limits between orders, first
+         * between their owners and then between the orders of each owner,
+         * so a very large order does not keep other orders waiting; small
+         * orders are ahead of the others and have slots reserved for them
+         */
+        private final FairShareScheduler scheduler;
+        /**
+         * True to start planned orders in the order they were taken from
+         * the dispatch queue, so a small order planned quickly does not
+         * start ahead of a large order submitted before it
+         */
+        private boolean inSubmissionOrder;
+        /**
+         * The sequence of the next order taken from the dispatch queue; 
+         * used only by the dispatch thread
+         */
+        private long nextSequence = 0;
 
+        public OrderDispatchPeriodicTask() {
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                concurrency = Integer.valueOf(configuration.get("mtwilson.quickstart.order.task.concurrency", String.valueOf(DEFAULT_CONCURRENCY))).intValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load task concurrency from configuration, using default {}", DEFAULT_CONCURRENCY, e);
+                concurrency = DEFAULT_CONCURRENCY;
+            }
+            log.debug("Order task concurrency: {}", concurrency);
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                failurePolicy = FailurePolicy.valueOf(configuration.get("mtwilson.quickstart.order.task.failure.policy", "FAIL_BRANCH").toUpperCase());
+            } catch (IOException | IllegalArgumentException e) {
+                log.error("Cannot load task failure policy from configuration, using default FAIL_BRANCH", e);
+                failurePolicy = FailurePolicy.FAIL_BRANCH;
+            }
+            log.debug("Order task failure policy: {}", failurePolicy);
+            boolean fingerprintEnabled;
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                fingerprintEnabled = Boolean.valueOf(configuration.get("mtwilson.quickstart.order.task.fingerprint.enabled", "true")).booleanValue();
+            } catch (IOException e) {
+                log.error("Cannot load task fingerprint setting from configuration, using default true", e);
+                fingerprintEnabled = true;
+            }
+            if (fingerprintEnabled) {
+                fingerprintStore = new FileFingerprintStore(new File(Folders.repository("fingerprints")));
+            }
+            log.debug("Order task fingerprints enabled: {}", fingerprintEnabled);
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                orderTimeout = Long.valueOf(configuration.get("mtwilson.quickstart.order.timeout", "14400000")).longValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load order timeout from configuration, using default 14400000ms", e);
+                orderTimeout = 14400000;
+            }
+            log.debug("Order timeout: {}ms", orderTimeout);
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                eventBufferSize = Integer.valueOf(configuration.get("mtwilson.quickstart.order.monitor.events", "1024")).intValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load order event buffer size from configuration, using default 1024", e);
+                eventBufferSize = 1024;
+            }
+            eventBufferSize = Math.max(16, eventBufferSize);
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                rollupThreshold = Integer.valueOf(configuration.get("mtwilson.quickstart.order.rollup.threshold", "1000")).intValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load order rollup threshold from configuration, using default 1000", e);
+                rollupThreshold = 1000;
+            }
+            log.debug("Order rollup threshold: {} tasks", rollupThreshold);
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                lazyThreshold = Integer.valueOf(configuration.get("mtwilson.quickstart.order.lazy.threshold", "1000")).intValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load order lazy threshold from configuration, using default 1000", e);
+                lazyThreshold = 1000;
+            }
+            log.debug("Order lazy threshold: {} tasks", lazyThreshold);
+            setResourceLimit(TaskResources.SSH, "4");
+            setResourceLimit(TaskResources.REMOTE_INSTALL, "16");
+            setResourceLimit(TaskResources.FILE_TRANSFER, "8");
+            int capacity;
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                capacity = Integer.valueOf(configuration.get("mtwilson.quickstart.order.scheduler.capacity", "32")).intValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load order scheduler capacity from configuration, using default 32", e);
+                capacity = 32;
+            }
+            capacity = Math.max(1, capacity);
+            log.debug("Order scheduler capacity: {} tasks", capacity);
+            scheduler = new FairShareScheduler(capacity, resourceLimits);
+            int fastLaneSlots;
+            long fastLaneThreshold;
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                fastLaneSlots = Integer.valueOf(configuration.get("mtwilson.quickstart.order.fastlane.slots", "4")).intValue();
+                fastLaneThreshold = Long.valueOf(configuration.get("mtwilson.quickstart.order.fastlane.threshold", "50")).longValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load order fast lane from configuration, using default 4 slots for orders up to 50 tasks", e);
+                fastLaneSlots = 4;
+                fastLaneThreshold = 50;
+            }
+            fastLaneSlots = Math.max(0, Math.min(capacity - 1, fastLaneSlots));
+            log.debug("Order fast lane: {} slots for orders up to {} tasks", fastLaneSlots, fastLaneThreshold);
+            scheduler.setFastLane(fastLaneSlots, fastLaneThreshold);
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                inSubmissionOrder = Boolean.valueOf(configuration.get("mtwilson.quickstart.order.planner.ordered", "true")).booleanValue();
+            } catch (IOException e) {
+                log.error("Cannot load order planner ordering from configuration, using default true", e);
+                inSubmissionOrder = true;
+            }
+            log.debug("Order planner starts orders in submission order: {}", inSubmissionOrder);
+        }
+
+        /**
+         * Registers the order with the scheduler for its owner, with the 
+         * owner's weight from mtwilson.quickstart.order.owner.weight.(owner)
+         * if configured.
+         */
+        private FairShareScheduler.Share register(OrderDocument order, long size) {
+            String owner = getOwner(order);
+            if (owner != null) {
+                try {
+                    Configuration configuration = ConfigurationFactory.getConfiguration();
+                    String weight = configuration.get("mtwilson.quickstart.order.owner.weight." + owner, null);
+                    if (weight != null) {
+                        scheduler.setOwnerWeight(owner, Integer.valueOf(weight).intValue());
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    log.error("Cannot load weight of owner {} from configuration, using default 1", owner, e);
+                }
+            }
+            return scheduler.register(owner, order.getId().toString(), size, 1);
+        }
+
+        private void setResourceLimit(String resource, String defaultLimit) {
+            int limit;
+            try {
+                Configuration configuration = ConfigurationFactory.getConfiguration();
+                limit = Integer.valueOf(configuration.get("mtwilson.quickstart.order.task.limit." + resource, defaultLimit)).intValue();
+            } catch (IOException | NumberFormatException e) {
+                log.error("Cannot load {} limit from configuration, using default {}", resource, defaultLimit, e);
+                limit = Integer.valueOf(defaultLimit).intValue();
+            }
+            log.debug("Order task resource limit {}: {}", resource, limit);
+            resourceLimits.setLimit(resource, Math.max(1, limit));
+        }
+
+        /**
+         * Starts the planned orders that may start now, then hands orders
+         * from the queue to the planners while fewer than the running limit
+         * are running, being planned, or planned and waiting to start.
+         */
         @Override
         public void run() {
 //            log.debug("OrderDispatchPeriodicTask run()");
-            OrderDocument nextOrder = dispatchQueue.poll();
-            while (nextOrder != null) {
-                String orderId = nextOrder.getId().toString();
-                
-                // pre-processing: consolidate targets.
-                // this is needed if client requests target A package X, target A package Y, 
-                // in order to transform it to target A package X & Y so that port coordination
-                // logic works and so displaying the order summary nicely in the report works.
-                // this feature makes it easy for clients to assemble orders of (target,package) pairs
-                OrderTransformer orderTransformer = new OrderTransformer(nextOrder);
-                orderTransformer.consolidateTargets();
-
-                // generate the tasks that will execute the order;
-                // this includes input validation on selected features and software packages
-                DeploymentTaskFactory taskFactory;
+            startPlannedOrders();
+            OrderAdmission limits = admission;
+            while (currentOrders.size() + acceptedOrders.size() < limits.getRunningLimit()) {
+                OrderDocument nextOrder = dispatchQueue.poll();
+                if (nextOrder == null) {
+                    break;
+                }
+                limits.dequeued(getOwner(nextOrder));
+                long sequence = nextSequence++;
+                acceptedOrders.put(sequence, nextOrder);
+                planners.submit(new OrderPlanning(nextOrder, sequence));
+            }
+        }
+
+        /**
+         * Starts planned orders, lowest sequence first. When starting in
+         * submission order, stops at the first order still being planned.
+         * An order whose hosts are leased to a running order waits, and so
+         * does a later order that needs any of the same hosts, so each host
+         * is given to the orders that need it in the order they were 
+         * submitted; orders on other hosts start ahead of it. An order that
+         * does not fit within the limit of tasks in flight is the deferred
+         * order and holds up the orders after it. Orders that could not be
+         * planned are skipped.
+         */
+        private void startPlannedOrders() {
+            HashSet<String> wanted = new HashSet<>(); // hosts of earlier orders waiting for leases
+            for (Long sequence : acceptedOrders.keySet()) {
+                PlannedOrder next = plannedOrders.get(sequence);
+                if (next == null) {
+                    if (inSubmissionOrder) {
+                        return;
+                    }
+                    continue;
+                }
+                if (next.taskManager != null) {
+                    String orderId = next.order.getId().toString();
+                    // hosts wanted by an earlier waiting order are not taken ahead of it
+                    String waitingFor = findWanted(next.hosts, wanted);
+                    if (waitingFor == null) {
+                        HostLeases.Lease conflict = hostLeases.tryAcquire(next.hosts, orderId);
+                        if (conflict != null) {
+                            waitingFor = "host " + conflict.getKey() + " held by order " + conflict.getHolder();
+                        }
+                    }
+                    if (waitingFor != null) {
+                        if (!waitingFor.equals(next.waitingFor)) {
+                            log.debug("Order {} waiting for {}", orderId, waitingFor);
+                            next.waitingFor = waitingFor;
+                            OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderWaitingUpdate(next.order.getId(), waitingFor));
+                        }
+                        wanted.addAll(next.hosts);
+                        continue;
+                    }
+                    // wait for running orders to finish if this one would exceed the tasks in flight
+                    if (!admission.canStart(currentOrders.size(), getTasksInFlight(), next.size)) {
+                        // the order takes its hosts again when it may start
+                        hostLeases.release(orderId);
+                        if (deferredOrder != next.order) {
+                            log.debug("Deferring order {} with {} tasks until running orders complete", orderId, next.size);
+                            deferredOrder = next.order;
+                        }
+                        return;
+                    }
+                    deferredOrder = null;
+                    start(next);
+                }
+                plannedOrders.remove(sequence);
+                acceptedOrders.remove(sequence);
+            }
+        }
+
+        /**
+         * 
+         * @return a description of the first host wanted by an earlier order, or null if none of the hosts are wanted
+         */
+        private String findWanted(Set<String> hosts, Set<String> wanted) {
+            if (wanted.isEmpty()) {
+                return null;
+            }
+            for (String host : hosts) {
+                if (wanted.contains(host)) {
+                    return "host " + host + " wanted by an earlier order";
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Plans one order on a planner thread and hands the result to the
+         * dispatch thread, even if planning failed, so orders after it in
+         * submission order are not held up.
+         */
+        private class OrderPlanning implements Runnable {
+
+            private final OrderDocument order;
+            private final long sequence;
+
+            public OrderPlanning(OrderDocument order, long sequence) {
+                this.order = order;
+                this.sequence = sequence;
+            }
+
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                PlannedOrder result = null;
                 try {
-                    taskFactory = new DeploymentTaskFactory(nextOrder);
-                    taskFactory.run();
+                    result = plan(order);
+                } catch (RuntimeException e) {
+                    log.error("Cannot plan order {}", order.getId().toString(), e);
+                    submittedAt.remove(order.getId().toString());
+                } finally {
+                    long duration = System.currentTimeMillis() - start;
+                    log.debug("Planned order {} in {} ms", order.getId().toString(), duration);
+                    planningTimes.record(duration);
+                    journal(result == null ? OrderJournal.State.FAILED : OrderJournal.State.PLANNED, order.getId().toString());
+                    plannedOrders.put(sequence, result == null ? new PlannedOrder(order) : result);
+                    wakeup();
+                }
+            }
+        }
 
-                    // create the task manager for executing the order
-                    List<Task> generatedTasks = taskFactory.getOutput();
+        /**
+         * Consolidates the targets of the order, creates and configures its
+         * task manager, restores its checkpoint, and stores the order with
+         * its task documents. Runs on a planner thread.
+         * 
+         * @param nextOrder
+         * @return the planned order, or null if the order cannot be planned, in which case its status or faults are updated
+         */
+        private PlannedOrder plan(OrderDocument nextOrder) {
+            String orderId = nextOrder.getId().toString();
 
+            // pre-processing: consolidate targets.
+            // this is needed if client requests target A package X, target A package Y, 
+            // in order to transform it to target A package X & Y so that port coordination
+            // logic works and so displaying the order summary nicely in the report works.
+            // this feature makes it easy for clients to assemble orders of (target,package) pairs
+            OrderTransformer orderTransformer = new OrderTransformer(nextOrder);
+            orderTransformer.consolidateTargets();
 
-                    if (generatedTasks != null && !generatedTasks.isEmpty()) {
-                        TaskManager taskManager = new TaskManager(generatedTasks);
-                        nextOrder.setTasks(createTaskDocuments(taskManager.getTasks()));
+            // generate the tasks that will execute the order;
+            // this includes input validation on selected features and software packages
+            DeploymentTaskFactory taskFactory;
+            try {
+                taskFactory = new DeploymentTaskFactory(nextOrder);
+                // a very large order creates the tasks of each host as it reaches them
+                taskFactory.setLazyThreshold(lazyThreshold);
+                taskFactory.run();
 
-                        if (log.isDebugEnabled()) {
-                            log.debug("order document with tasks: {}", mapper.writeValueAsString(nextOrder));
-                        }
+                // create the task manager for executing the order
+                List<Task> generatedTasks = taskFactory.getOutput();
 
-                        // store the order again, this time with task-specific data from createTaskDocuments()
-                        repository.store(nextOrder);
 
-                        log.debug("Submitting new order for execution: {}", orderId);
-                        Future<String> future = executor.submit(taskManager, orderId);
-                        OrderDispatch dispatch = new OrderDispatch(nextOrder, taskManager, future);
-                        currentOrders.put(orderId, dispatch);
-                        log.debug("Added new order to current orders map: {}", orderId);
+                if (generatedTasks != null && !generatedTasks.isEmpty()) {
+                    // a very large order is shown as one task per host instead of thousands of tasks
+                    List<TaskManager> groups = null;
+                    if (!taskFactory.isLazy() && rollupThreshold > 0 && generatedTasks.size() > rollupThreshold) {
+                        groups = HostTaskGroup.compose(generatedTasks, taskFactory.getOutputHosts(), failurePolicy);
+                        if (groups == null) {
+                            log.warn("Cannot group the {} tasks of order {} by host, showing all tasks", generatedTasks.size(), orderId);
+                        } else {
+                            log.debug("Grouped the {} tasks of order {} into {} hosts", generatedTasks.size(), orderId, groups.size());
+                        }
+                    }
+                    TaskManager taskManager = new TaskManager(groups == null ? generatedTasks : new ArrayList<Task>(groups));
+                    taskManager.setConcurrency(Math.max(1, concurrency));
+                    taskManager.setResourceLimits(resourceLimits);
+                    // a failure on one host skips only the tasks that depend on it
+                    taskManager.setFailurePolicy(failurePolicy);
+                    // skip tasks that already ran with the same inputs and whose output is still in place
+                    taskManager.setFingerprintStore(fingerprintStore);
+                    taskManager.setExecutorProvider(executorProvider);
+                    taskManager.setCancellationGracePeriod(cancellationGracePeriod);
+                    // each task gets a deadline within the order's budget so a hung task cannot keep the order active
+                    taskManager.setTaskTimeouts(new DeploymentTaskTimeouts(taskFactory.getOutputPackageNames()));
+                    // tasks publish their progress to the OrderProgressMonitor instead of being polled
+                    TaskEventBuffer eventBuffer = new TaskEventBuffer(eventBufferSize);
+                    eventBuffer.setListener(monitorTrigger);
+                    taskManager.setEventBuffer(eventBuffer);
+                    // start the tasks on the longest remaining path first, such as remote installs, based on past durations
+                    taskManager.setDurationEstimator(new DeploymentTaskDurationEstimator(taskFactory.getOutputPackageNames(), taskFactory.getOutputHosts()));
+                    // tasks running in parallel may read and write settings at the same time
+                    if (nextOrder.getSettings() != null) {
+                        nextOrder.setSettings(Collections.synchronizedMap(new HashMap<>(nextOrder.getSettings())));
+                    }
+                    // an order resumed after a restart continues after the tasks in its checkpoint
+                    TaskCheckpoints checkpoints = new TaskCheckpoints(generatedTasks, taskFactory.getOutputHosts(), taskFactory.getOutputPackageNames());
+                    List<Task> restoredTasks = checkpoints.restore(nextOrder.getCheckpoint());
+                    if (!restoredTasks.isEmpty()) {
+                        log.debug("Resuming order {} with {} of {} tasks completed", orderId, restoredTasks.size(), generatedTasks.size());
+                        if (groups == null) {
+                            taskManager.setCompletedTasks(restoredTasks);
+                        } else {
+                            // each group restores only its own tasks
+                            for (TaskManager group : groups) {
+                                group.setCompletedTasks(restoredTasks);
+                            }
+                        }
+                    }
+                    nextOrder.setCheckpoint(checkpoints.createCheckpoint(restoredTasks));
+                    nextOrder.setTasks(createTaskDocuments(taskManager));
 
-                        OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(nextOrder.getId(), "ACTIVE", 0L, Integer.valueOf(generatedTasks.size()).longValue()));
-                    } else {
-                        log.error("TaskManager did not generate tasks for this order: {}", orderId);
-                        log.debug("DeploymentTaskFactory faults: {}", mapper.writeValueAsString(taskFactory));
-                        OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(nextOrder.getId(), "ERROR", 0L, 0L));
+                    if (log.isDebugEnabled()) {
+                        log.debug("order document with tasks: {}", mapper.writeValueAsString(nextOrder));
                     }
 
-                } catch (IOException | RuntimeException e) {
-                    log.error("Cannot dispatch order", e);
-                    nextOrder.getFaults().add(new Thrown(e, "Cannot dispatch order"));
-                    repository.store(nextOrder); // store the updated order with the fault
+                    // store the order again, this time with task-specific data from createTaskDocuments()
+                    repository.store(nextOrder);
+
+                    PlannedOrder result = new PlannedOrder(nextOrder);
+                    result.taskManager = taskManager;
+                    result.size = taskManager.getLeafCount();
+                    result.taskHosts = taskFactory.getOutputHosts();
+                    result.hosts = getHostKeys(nextOrder);
+                    result.groups = groups;
+                    result.checkpoints = checkpoints;
+                    result.restoredCount = restoredTasks.size();
+                    result.restoredLeaves = countLeaves(restoredTasks);
+                    return result;
+                } else {
+                    submittedAt.remove(orderId);
+                    log.error("TaskManager did not generate tasks for this order: {}", orderId);
+                    log.debug("DeploymentTaskFactory faults: {}", mapper.writeValueAsString(taskFactory));
+                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(nextOrder.getId(), "ERROR", 0L, 0L));
                 }
 
+            } catch (IOException | RuntimeException e) {
+                log.error("Cannot dispatch order", e);
+                submittedAt.remove(orderId);
+                nextOrder.getFaults().add(new Thrown(e, "Cannot dispatch order"));
+                repository.store(nextOrder); // store the updated order with the fault
+            }
+            return null;
+        }
+
+        /**
+         * Submits a planned order for execution and marks it ACTIVE. Runs on
+         * the dispatch thread.
+         * 
+         * @param next 
+         */
+        private void start(PlannedOrder next) {
+            OrderDocument nextOrder = next.order;
+            String orderId = nextOrder.getId().toString();
+            TaskManager taskManager = next.taskManager;
+            if (next.waitingFor != null) {
+                OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderWaitingUpdate(nextOrder.getId(), null));
+            }
+            // tasks start when the scheduler admits them, in fair shares with the other orders
+            taskManager.setShare(register(nextOrder, next.size));
+            if (orderTimeout > 0) {
+                taskManager.setDeadline(System.currentTimeMillis() + orderTimeout);
+            }
+
+            log.debug("Submitting new order for execution: {}", orderId);
+            Future<String> future = executor.submit(new OrderRunner(taskManager), orderId);
+            OrderDispatch dispatch = new OrderDispatch(nextOrder, taskManager, future, next.taskHosts);
+            dispatch.setCheckpoints(next.checkpoints, next.restoredCount);
+            if (next.groups != null) {
+                dispatch.setGroups(next.groups);
+            }
+            currentOrders.put(orderId, dispatch);
+            journal(OrderJournal.State.DISPATCHED, orderId);
+            log.debug("Added new order to current orders map: {}", orderId);
+            OrderProgressMonitor.wakeup();
+
+            OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(nextOrder.getId(), "ACTIVE", next.restoredLeaves, next.size));
+            Long submitted = submittedAt.remove(orderId);
+            if (submitted != null) {
+                long latency = System.currentTimeMillis() - submitted;
+                log.debug("Order {} active {} ms after it was submitted", orderId, latency);
+                admission.dispatched(latency);
+                OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderDispatchedUpdate(nextOrder.getId(), latency));
+            }
+        }
 
-                nextOrder = dispatchQueue.poll();
+        /**
+         * 
+         * @return the number of tasks that are not task managers, such as a TargetTaskGroup restored from a checkpoint, in the given tasks
+         */
+        private long countLeaves(Collection<Task> tasks) {
+            long count = 0;
+            for (Task task : tasks) {
+                count += task instanceof TaskManager ? ((TaskManager) task).getLeafCount() : 1;
             }
+            return count;
         }
 
-        private List<TaskDocument> createTaskDocuments(Collection<Task> tasks) {
+        private List<TaskDocument> createTaskDocuments(TaskManager taskManager) {
+            Collection<Task> tasks = taskManager.getTasks();
             ArrayList<TaskDocument> taskDocuments = new ArrayList<>();
             int sequence = 0;
             for (Task task : tasks) {
@@ -171,36 +947,52 @@ public class OrderDispatchQueue implements ServletContextListener {
                 }
                 taskDocument.setName(task.getClass().getName());
                 taskDocument.setSequence(sequence);
-                // setting progress to 0/1 because we know we haven't started processing yet...
-                // once execution starts, the task progress will be updated via the OrderProgressMonitor and OrderDocumentUpdateQueue threads
-                taskDocument.setProgress(0);
-                taskDocument.setProgressMax(1);
-
-                // copy other attributes of the task
-                try {
-                    // note that the attribute keys we get back from PropertyUtils are in camelCase  , like "packageName"  ;  we translate to lowercase_with_underscores later
-                    Map<String, Object> attributes = PropertyUtils.describe(task);
-                    attributes.remove("id");  // unnecessary overlap with id in top level
-                    attributes.remove("done"); // unnecessary overlap with done in top level
-                    attributes.remove("current"); // unnecessary overlap with progress in top level
-                    attributes.remove("max"); // unnecessary overlap with progressMax in top level
-                    attributes.remove("class"); // unnecessary overlap with name in top level
-                    attributes.remove("faults"); // undesired raw faults; in top level we have the fault descriptors instead
-                    attributes.remove("dependencies"); // undesired possibly large mapping
-                    attributes.remove("preconditions");// undesired possibly large mapping
-                    attributes.remove("postconditions");// undesired possibly large mapping
-                    attributes.remove("configuration");// undesired possibly large mapping
-                    // transform keys from camelCase to lowercase_with_underscores to match jackson output
+                taskDocument.setLevel(taskManager.getLevel(task));
+                if (task instanceof HostTaskGroup) {
+                    // the progress of a group counts its tasks, some of which may be restored from a checkpoint
+                    HostTaskGroup group = (HostTaskGroup) task;
+                    taskDocument.setProgress(group.getCompletedTasks().size());
+                    taskDocument.setProgressMax(group.getLeafCount());
                     HashMap<String, Object> data = new HashMap<>();
-                    for (Map.Entry<String, Object> entry : attributes.entrySet()) {
-                        log.debug("extra data for task document: {} = {}", entry.getKey(), entry.getValue());
-                        data.put(namingStrategy.translate(entry.getKey()), entry.getValue());
+                    data.put("host", group.getHost());
+                    data.put("task_count", group.getTasks().size());
+                    taskDocument.setData(data);
+                    taskDocument.getLinks().put("output", "/v1/quickstart/tasks/" + taskDocument.getId().toString() + "/output");
+                    taskDocuments.add(taskDocument);
+                    continue;
+                }
+                if (task instanceof TargetTaskGroup) {
+                    // the tasks of the group do not exist yet, only their number
+                    TargetTaskGroup group = (TargetTaskGroup) task;
+                    if (taskManager.isCompleted(task)) {
+                        taskDocument.setDone(true);
+                        taskDocument.setProgress(group.getLeafCount());
+                    } else {
+                        taskDocument.setProgress(0);
                     }
+                    taskDocument.setProgressMax(group.getLeafCount());
+                    HashMap<String, Object> data = new HashMap<>();
+                    data.put("host", group.getHost());
+                    data.put("package_name", group.getPackageName());
+                    data.put("task_count", group.getLeafCount());
                     taskDocument.setData(data);
-                } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                    log.error("Cannot map attributes of task to task document", e);
-                    // but this is not a fatal error, so we just move on.
+                    taskDocument.getLinks().put("output", "/v1/quickstart/tasks/" + taskDocument.getId().toString() + "/output");
+                    taskDocuments.add(taskDocument);
+                    continue;
                 }
+                // setting progress to 0/1 because we know we haven't started processing yet...
+                // once execution starts, the task progress will be updated via the OrderProgressMonitor and OrderDocumentUpdateQueue threads
+                // tasks restored from a checkpoint are already done
+                if (taskManager.isCompleted(task)) {
+                    taskDocument.setDone(true);
+                    taskDocument.setProgress(1);
+                } else {
+                    taskDocument.setProgress(0);
+                }
+                taskDocument.setProgressMax(1);
+
+                // copy the attributes of the task shown in its description, like its host and package name
+                taskDocument.setData(projection.project(task));
 
                 // add a link to an API that will show any output from the task
                 // such as logs
@@ -212,11 +1004,127 @@ public class OrderDispatchQueue implements ServletContextListener {
         }
     }
 
+    /**
+     * An order with its task manager, ready to start; the task manager is
+     * null if the order could not be planned.
+     */
+    private static class PlannedOrder {
+
+        private final OrderDocument order;
+        private TaskManager taskManager;
+        private long size;
+        private Map<Task, String> taskHosts;
+        private List<TaskManager> groups;
+        private TaskCheckpoints checkpoints;
+        private int restoredCount;
+        private long restoredLeaves;
+        /**
+         * The lease keys of the order's hosts
+         */
+        private Set<String> hosts = Collections.emptySet();
+        /**
+         * What the order is waiting for, as shown in the order document
+         */
+        private String waitingFor;
+
+        public PlannedOrder(OrderDocument order) {
+            this.order = order;
+        }
+    }
+
+    /**
+     * Runs the task manager of an order, then wakes the progress monitor 
+     * so it sees right away that the order finished.
+     */
+    private static class OrderRunner implements Runnable {
+
+        private final TaskManager taskManager;
+
+        public OrderRunner(TaskManager taskManager) {
+            this.taskManager = taskManager;
+        }
+
+        @Override
+        public void run() {
+            try {
+                taskManager.run();
+            } finally {
+                OrderProgressMonitor.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Adds a new order to the dispatch queue and wakes the dispatch thread
+     * to start it, recording the time so the latency until the order is 
+     * ACTIVE can be measured. The order is first written to the journal,
+     * if enabled, so it is dispatched after a restart even if the server
+     * stops before it is dispatched.
+     * 
+     * @param order 
+     */
+    public static void submit(OrderDocument order) {
+        OrderJournal current = journal;
+        if (current != null) {
+            try {
+                // literal line breaks in json are only indentation; line breaks in values are escaped
+                current.received(order.getId().toString(), journalMapper.writeValueAsString(order).replace("\r", "").replace("\n", ""));
+            } catch (IOException e) {
+                log.error("Cannot journal order {}, it will be resumed from the repository after a restart", order.getId().toString(), e);
+            }
+        }
+        submittedAt.put(order.getId().toString(), System.currentTimeMillis());
+        dispatchQueue.add(order);
+    }
+
+    /**
+     * Wakes the dispatch thread, for example when an order finishes so 
+     * a queued order can start.
+     */
+    public static void wakeup() {
+        dispatchThread.trigger();
+    }
+
+    /**
+     * 
+     * @return the number of orders taken from the dispatch queue that are being planned
+     */
+    public static int getPlanningCount() {
+        return Math.max(0, acceptedOrders.size() - plannedOrders.size());
+    }
+
+    /**
+     * 
+     * @return the number of planned orders waiting to start, including the deferred order
+     */
+    public static int getPlannedCount() {
+        return plannedOrders.size();
+    }
+
+    /**
+     * 
+     * @return how long recent orders took to plan
+     */
+    public static DurationSamples getPlanningTimes() {
+        return planningTimes;
+    }
+
+    /**
+     * 
+     * @return true if an order is waiting for running orders to complete tasks
+     */
+    public static boolean hasDeferredOrder() {
+        return deferredOrder != null;
+    }
+
     /**
      * Example:
      * <pre>
      * OrderDispatchQueue.getDispatchQueue().add(orderDocument);
      * </pre>
+     * 
+     * New orders should be added with submit() so their dispatch latency
+     * is recorded.
      *
      * @return the thread-safe queue in which to place order document updates
      */
@@ -228,28 +1136,183 @@ public class OrderDispatchQueue implements ServletContextListener {
         return currentOrders;
     }
 
+    /**
+     * Every order that stops running, whether it finished, failed, or was
+     * cancelled, is removed here so it gives up its running slot, its 
+     * tasks in flight, and its hosts, and its duration counts toward the
+     * estimate of when queued orders will start.
+     * 
+     * @param orderId
+     * @return the order that was removed, or null if it was not running
+     */
+    public static OrderDispatch removeOrder(String orderId) {
+        OrderDispatch removed = currentOrders.remove(orderId);
+        hostLeases.release(orderId);
+        if (removed != null) {
+            admission.finished(System.currentTimeMillis() - removed.getDispatchedAt());
+        }
+        wakeup();
+        return removed;
+    }
+
+    public static OrderAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * 
+     * @return the order journal, or null if disabled
+     */
+    public static OrderJournal getJournal() {
+        return journal;
+    }
+
+    public static HostLeases getHostLeases() {
+        return hostLeases;
+    }
+
+    /**
+     * 
+     * @param order
+     * @return the lease keys of the hosts of the order's targets and target groups
+     */
+    public static Set<String> getHostKeys(OrderDocument order) {
+        HashSet<String> keys = new HashSet<>();
+        if (order.getTargets() != null) {
+            for (Target target : order.getTargets()) {
+                keys.add(HostLeases.key(target.getHost(), target.getPort()));
+            }
+        }
+        if (order.getTargetGroups() != null) {
+            for (TargetGroup group : order.getTargetGroups()) {
+                for (String host : group.expand()) {
+                    keys.add(HostLeases.key(host, group.getPort()));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 
+     * @param order
+     * @return the owner in the order's meta data, or null
+     */
+    public static String getOwner(OrderDocument order) {
+        Object owner = order.getMeta() == null ? null : order.getMeta().get("owner");
+        return owner == null ? null : owner.toString();
+    }
+
+    /**
+     * 
+     * @return the number of tasks of running orders that have not completed
+     */
+    public static long getTasksInFlight() {
+        long count = 0;
+        for (OrderDispatch dispatch : currentOrders.values()) {
+            TaskManager taskManager = dispatch.getTaskManager();
+            count += Math.max(0, taskManager.getLeafCount() - taskManager.getCurrent());
+        }
+        return count;
+    }
+
+    /**
+     * The orders being planned or waiting to start, including the deferred
+     * order, are first, followed by the orders in the dispatch queue in 
+     * the order they were submitted. This walks the queue, which is at 
+     * most as long as the queue limit.
+     * 
+     * @param orderId
+     * @return the position of the order among the orders waiting to be dispatched, starting at 1, or 0 if it is not waiting
+     */
+    public static int getQueuePosition(String orderId) {
+        int position = 0;
+        for (OrderDocument order : acceptedOrders.values()) {
+            position++;
+            if (orderId.equals(order.getId().toString())) {
+                return position;
+            }
+        }
+        for (OrderDocument order : dispatchQueue) {
+            position++;
+            if (orderId.equals(order.getId().toString())) {
+                return position;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Cancels the order's task manager, which stops starting new tasks and
+     * closes the SSH connections of running tasks so they stop right away.
+     * The order is CANCELLING until its task manager returns, and then 
+     * CANCELLED with the time it took in the "cancellation_latency" meta
+     * attribute.
+     * 
+     * @param orderId 
+     */
     public static void cancelOrder(String orderId) {
         OrderDispatch dispatch = currentOrders.get(orderId);
         if (dispatch == null) {
             log.debug("Cannot cancel order because not currently running: {}", orderId);
             return;
         }
+        if (dispatch.getTaskManager().isCancelled()) {
+            log.debug("Order is already being cancelled: {}", orderId);
+            return;
+        }
 
-        // first attempt a "graceful" termination by informing the 
-        // task manager of that order that we need to exit early
         dispatch.getTaskManager().cancel();
+        OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(dispatch.getOrderDocument().getId(), "CANCELLING"));
+        // the order stays in the current orders map so the progress monitor
+        // shows where each task stopped, until the cancellation completes
+        cancellations.submit(new OrderCancellation(dispatch, 2 * cancellationGracePeriod));
+    }
+
+    /**
+     * Waits for the task manager of a cancelled order to return, then 
+     * marks the order CANCELLED and removes it from the current orders. 
+     * The task manager interrupts tasks still running after the grace
+     * period, so it should return well within the timeout; if not, the
+     * thread running it is interrupted.
+     */
+    public static class OrderCancellation implements Runnable {
 
-        // the thread that is processing this order can be cancelled via the
-        // Future object that was returned by the Executor
-        boolean result = dispatch.getFuture().cancel(true);
-        log.debug("Order cancelled? {}", result);
+        private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderCancellation.class);
+        private final OrderDispatch dispatch;
+        private final long timeout;
 
-        // remove the order from our map
-        currentOrders.remove(orderId);
+        /**
+         * 
+         * @param dispatch of an order whose task manager was cancelled
+         * @param timeout in milliseconds
+         */
+        public OrderCancellation(OrderDispatch dispatch, long timeout) {
+            this.dispatch = dispatch;
+            this.timeout = timeout;
+        }
 
-        // submit an update request to the order record
-        OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(dispatch.getOrderDocument().getId(), "CANCELLED"));
-        OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderSettingsUpdate(dispatch.getOrderDocument().getId(), dispatch.getOrderDocument().getSettings()));
+        @Override
+        public void run() {
+            UUID orderId = dispatch.getOrderDocument().getId();
+            try {
+                dispatch.getFuture().get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("Order {} did not stop within {} ms after cancel, interrupting", orderId.toString(), timeout);
+                dispatch.getFuture().cancel(true);
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for order {} to stop", orderId.toString(), e);
+                dispatch.getFuture().cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                log.debug("Order {} stopped with exception", orderId.toString(), e);
+            }
+            long latency = System.currentTimeMillis() - dispatch.getTaskManager().getCancellationToken().getCancelledAt();
+            log.info("Order {} cancelled in {} ms", orderId.toString(), latency);
+            removeOrder(orderId.toString());
+            OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderCancelledUpdate(orderId, latency));
+            OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderSettingsUpdate(orderId, dispatch.getOrderDocument().getSettings()));
+        }
     }
 
     public static class OrderDispatch {
@@ -257,11 +1320,31 @@ public class OrderDispatchQueue implements ServletContextListener {
         private OrderDocument orderDocument;
         private TaskManager taskManager;
         private Future<String> future;
+        private Map<Task, String> taskHosts;
+        private TaskCheckpoints checkpoints;
+        private int checkpointSize;
+        private long eventsDropped = -1;
+        private final IdentityHashMap<Task, Long> taskVersions = new IdentityHashMap<>();
+        private List<TaskManager> groups;
+        private Map<Task, TaskManager> taskGroups;
+        private final long dispatchedAt = System.currentTimeMillis();
 
         public OrderDispatch(OrderDocument orderDocument, TaskManager taskManager, Future<String> future) {
+            this(orderDocument, taskManager, future, null);
+        }
+
+        /**
+         * 
+         * @param orderDocument
+         * @param taskManager
+         * @param future
+         * @param taskHosts the host of each task, for the per-host summary when the order finishes; may be null
+         */
+        public OrderDispatch(OrderDocument orderDocument, TaskManager taskManager, Future<String> future, Map<Task, String> taskHosts) {
             this.orderDocument = orderDocument;
             this.taskManager = taskManager;
             this.future = future;
+            this.taskHosts = taskHosts;
         }
 
         public OrderDocument getOrderDocument() {
@@ -275,5 +1358,98 @@ public class OrderDispatchQueue implements ServletContextListener {
         public Future<String> getFuture() {
             return future;
         }
+
+        /**
+         * 
+         * @return when the order was dispatched, in milliseconds since the epoch
+         */
+        public long getDispatchedAt() {
+            return dispatchedAt;
+        }
+
+        public Map<Task, String> getTaskHosts() {
+            return taskHosts;
+        }
+
+        /**
+         * 
+         * @param checkpoints for creating checkpoints of the order's tasks
+         * @param checkpointSize number of completed tasks in the stored checkpoint
+         */
+        public void setCheckpoints(TaskCheckpoints checkpoints, int checkpointSize) {
+            this.checkpoints = checkpoints;
+            this.checkpointSize = checkpointSize;
+        }
+
+        public TaskCheckpoints getCheckpoints() {
+            return checkpoints;
+        }
+
+        public int getCheckpointSize() {
+            return checkpointSize;
+        }
+
+        public void setCheckpointSize(int checkpointSize) {
+            this.checkpointSize = checkpointSize;
+        }
+
+        /**
+         * 
+         * @return the number of dropped task events when the OrderProgressMonitor last read all the tasks, or -1 if it has not yet
+         */
+        public long getEventsDropped() {
+            return eventsDropped;
+        }
+
+        public void setEventsDropped(long eventsDropped) {
+            this.eventsDropped = eventsDropped;
+        }
+
+        /**
+         * 
+         * @param groups the nested task managers of an order that is shown as one task per host
+         */
+        public void setGroups(List<TaskManager> groups) {
+            this.groups = groups;
+            this.taskGroups = HostTaskGroup.index(groups);
+        }
+
+        /**
+         * 
+         * @return the task managers that run the generated tasks of the order: the groups for an order shown as one task per host, otherwise the order's task manager
+         */
+        public List<TaskManager> getTaskManagers() {
+            if (groups == null) {
+                return Collections.singletonList(taskManager);
+            }
+            return groups;
+        }
+
+        /**
+         * 
+         * @param task generated for the order
+         * @return the task, or the group that contains it for an order shown as one task per host
+         */
+        public Task getDocumentTask(Task task) {
+            if (taskGroups == null) {
+                return task;
+            }
+            TaskManager group = taskGroups.get(task);
+            return group == null ? task : group;
+        }
+
+        /**
+         * Records the snapshot version of a task for which the 
+         * OrderProgressMonitor is sending an update. Only the monitor
+         * thread calls this method.
+         * 
+         * @param task
+         * @param version from the task's TaskSnapshot
+         * @return false if the version is the same as in the last update, so the update is not needed
+         */
+        public boolean setTaskVersion(Task task, long version) {
+            Long previous = taskVersions.put(task, version);
+            return previous == null || previous.longValue() != version;
+        }
     }
 }
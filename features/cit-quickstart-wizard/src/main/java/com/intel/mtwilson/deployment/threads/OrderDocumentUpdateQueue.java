@@ -7,10 +7,11 @@ package com.intel.mtwilson.deployment.threads;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.io.UUID;
-import com.intel.dcsg.cpg.performance.BackgroundThread;
 import com.intel.dcsg.cpg.validation.Fault;
 import com.intel.mtwilson.configuration.ConfigurationFactory;
 import com.intel.mtwilson.deployment.descriptor.Target;
+import com.intel.mtwilson.deployment.jaxrs.io.HostSummary;
+import com.intel.mtwilson.deployment.jaxrs.io.OrderCheckpoint;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentRepository;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderLocator;
@@ -34,28 +35,32 @@ import javax.servlet.annotation.WebListener;
  * Tasks that need to update the order document should submit the updates through
  * this thread so we can control the rate at which we write those updates.
  * 
- * The run() method of this class is invoked periodically by BackgroundThread.
+ * The run() method of this class is invoked by a TriggeredThread when updates
+ * are added to the queue, after a short delay so several updates to the 
+ * same order are written together; the thread sleeps while there are no 
+ * updates.
  * 
  * @author jbuhacoff
  */
 @WebListener
 public class OrderDocumentUpdateQueue implements ServletContextListener {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderDocumentUpdateQueue.class);
-    private static final ConcurrentLinkedQueue<OrderDocumentUpdate> queue = new ConcurrentLinkedQueue<>();
-    private static final BackgroundThread updateThread = new BackgroundThread();
+    private static final TriggeredThread updateThread = new TriggeredThread("OrderDocumentUpdateQueue");
+    private static final ConcurrentLinkedQueue<OrderDocumentUpdate> queue = new TriggeredQueue<>(updateThread);
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         log.debug("OrderDocumentUpdateQueue contextInitialized");
-        // start a background thread to periodically get updates from the
-        // queue and write them to the repository; multiple updates to the
-        // same resource can be combined in memory so we only do a single write
+        // start a background thread to get updates from the queue when they
+        // are added and write them to the repository; multiple updates to the
+        // same resource that arrive within the delay are combined in memory 
+        // so we only do a single write
         try {
             Configuration configuration = ConfigurationFactory.getConfiguration();
             updateThread.setDelay(Long.valueOf(configuration.get("mtwilson.quickstart.order.update.interval", "200")).longValue(), TimeUnit.MILLISECONDS);
         }
-        catch(IOException e) {
-            log.error("Cannot load configuration, using default period 200ms", e);
+        catch(IOException | NumberFormatException e) {
+            log.error("Cannot load configuration, using default delay 200ms", e);
             updateThread.setDelay(200, TimeUnit.MILLISECONDS);
         }
         updateThread.setTask(new OrderDocumentUpdatePeriodicTask());
@@ -260,7 +265,9 @@ public class OrderDocumentUpdateQueue implements ServletContextListener {
 
         public OrderSettingsUpdate(UUID orderId, Map<String, String> settings) {
             this.orderId = orderId;
-            this.settings.putAll(settings); // make a copy
+            synchronized (settings) { // tasks may still be writing to a synchronized settings map
+                this.settings.putAll(settings); // make a copy
+            }
         }
 
         @Override
@@ -280,6 +287,166 @@ public class OrderDocumentUpdateQueue implements ServletContextListener {
         }        
     }
     
+    /**
+     * Replaces the per-host summary of the order.
+     */
+    public static class HostSummaryUpdate implements OrderDocumentUpdate {
+        private UUID orderId;
+        private Map<String,HostSummary> hosts;
+
+        public HostSummaryUpdate(UUID orderId, Map<String, HostSummary> hosts) {
+            this.orderId = orderId;
+            this.hosts = hosts;
+        }
+
+        @Override
+        public UUID getOrderId() {
+            return orderId;
+        }
+
+        public Map<String, HostSummary> getHosts() {
+            return hosts;
+        }
+
+        @Override
+        public void update(OrderDocument order) {
+            order.setHosts(hosts);
+        }
+    }
+    
+    /**
+     * Replaces the checkpoint of the order. Submit an OrderSettingsUpdate
+     * before this update so the settings generated by the completed tasks
+     * are stored with the checkpoint.
+     */
+    public static class OrderCheckpointUpdate implements OrderDocumentUpdate {
+        private UUID orderId;
+        private OrderCheckpoint checkpoint;
+
+        public OrderCheckpointUpdate(UUID orderId, OrderCheckpoint checkpoint) {
+            this.orderId = orderId;
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public UUID getOrderId() {
+            return orderId;
+        }
+
+        public OrderCheckpoint getCheckpoint() {
+            return checkpoint;
+        }
+
+        @Override
+        public void update(OrderDocument order) {
+            order.setCheckpoint(checkpoint);
+        }
+    }
+    
+    /**
+     * Marks the order CANCELLED and records how long it took, from the 
+     * cancel request until the order's task manager returned.
+     */
+    public static class OrderCancelledUpdate implements OrderDocumentUpdate {
+        private UUID orderId;
+        private long latency;
+
+        /**
+         * 
+         * @param orderId
+         * @param latency in milliseconds
+         */
+        public OrderCancelledUpdate(UUID orderId, long latency) {
+            this.orderId = orderId;
+            this.latency = latency;
+        }
+
+        @Override
+        public UUID getOrderId() {
+            return orderId;
+        }
+
+        public long getLatency() {
+            return latency;
+        }
+
+        @Override
+        public void update(OrderDocument order) {
+            order.setStatus("CANCELLED");
+            order.getMeta().put("cancellation_latency", String.valueOf(latency)); // milliseconds
+        }
+    }
+    
+    /**
+     * Records how long the order took to become ACTIVE after it was 
+     * submitted, including time waiting in the dispatch queue.
+     */
+    public static class OrderDispatchedUpdate implements OrderDocumentUpdate {
+        private UUID orderId;
+        private long latency;
+
+        /**
+         * 
+         * @param orderId
+         * @param latency in milliseconds
+         */
+        public OrderDispatchedUpdate(UUID orderId, long latency) {
+            this.orderId = orderId;
+            this.latency = latency;
+        }
+
+        @Override
+        public UUID getOrderId() {
+            return orderId;
+        }
+
+        public long getLatency() {
+            return latency;
+        }
+
+        @Override
+        public void update(OrderDocument order) {
+            order.getMeta().put("dispatch_latency", String.valueOf(latency)); // milliseconds
+        }
+    }
+    
+    /**
+     * Shows what a planned order is waiting for before it can start, like
+     * a host leased to another order, in the "waiting_for" meta attribute.
+     */
+    public static class OrderWaitingUpdate implements OrderDocumentUpdate {
+        private UUID orderId;
+        private String waitingFor;
+
+        /**
+         * 
+         * @param orderId
+         * @param waitingFor a description like "host 10.1.0.7:22 held by order (id)", or null when the order is no longer waiting
+         */
+        public OrderWaitingUpdate(UUID orderId, String waitingFor) {
+            this.orderId = orderId;
+            this.waitingFor = waitingFor;
+        }
+
+        @Override
+        public UUID getOrderId() {
+            return orderId;
+        }
+
+        public String getWaitingFor() {
+            return waitingFor;
+        }
+
+        @Override
+        public void update(OrderDocument order) {
+            if (waitingFor == null) {
+                order.getMeta().remove("waiting_for");
+            } else {
+                order.getMeta().put("waiting_for", waitingFor);
+            }
+        }
+    }
+    
     /**
      * Updates status, progress, and progressMax for the entire order. 
      * Status is a keyword like "PENDING", "ACTIVE", etc.
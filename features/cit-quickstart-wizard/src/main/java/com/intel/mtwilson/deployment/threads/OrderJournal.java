@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * An append-only journal of the orders taken in, so an order accepted by
+ * the API is not lost if the server restarts before it is dispatched.
+ *
+ * Each order is journaled as RECEIVED, with its document, before the API
+ * returns, then PLANNED when its tasks are stored and DISPATCHED when it
+ * starts, or FAILED if it cannot be planned. When the server starts, the
+ * journal is replayed to find the orders that were received but not
+ * dispatched, and rewritten with only those orders.
+ *
+ * A RECEIVED record is on disk when received() returns. Records appended
+ * while another thread is writing are written and forced to disk together
+ * in the next batch, so a burst of new orders costs one force per batch
+ * instead of one per order. The other records are written in order with
+ * the RECEIVED records but without waiting for them to be forced.
+ *
+ * When no order is waiting to be dispatched and the journal is larger than
+ * the compaction size, it is truncated.
+ *
+ * Each record is one line: the state, the order id, and for RECEIVED the
+ * order document, separated by tabs. A partial line at the end of the
+ * journal, from a write interrupted by the restart, is ignored.
+ *
+ * @author jbuhacoff
+ */
+public class OrderJournal implements Closeable {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderJournal.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static enum State {
+        RECEIVED, PLANNED, DISPATCHED, FAILED
+    }
+
+    private final File file;
+    private final long compactSize;
+    private FileChannel channel;
+    private long size;
+    private final ArrayList<byte[]> pending = new ArrayList<>();
+    private final HashSet<String> open = new HashSet<>(); // orders received and not yet dispatched or failed
+    private long appended = 0; // sequence of the last record appended
+    private long durable = 0; // sequence of the last record forced to disk
+    private boolean writing = false;
+    private boolean syncRequested = false;
+    private IOException error;
+    private long records = 0;
+    private long commits = 0;
+
+    /**
+     *
+     * @param file of the journal, created if it does not exist
+     * @param compactSize in bytes, above which the journal is truncated when no order is waiting to be dispatched
+     * @throws IOException
+     */
+    public OrderJournal(File file, long compactSize) throws IOException {
+        this.file = file;
+        this.compactSize = compactSize;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the journal and rewrites it with only the orders that were
+     * received but not dispatched. Call before appending.
+     *
+     * @return the orders that were received but not dispatched, in the order they were received
+     * @throws IOException
+     */
+    public synchronized List<Entry> replay() throws IOException {
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        int ignored = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                State state;
+                try {
+                    state = State.valueOf(fields[0]);
+                } catch (IllegalArgumentException e) {
+                    ignored++;
+                    continue;
+                }
+                if (fields.length < 2 || (state == State.RECEIVED && fields.length < 3)) {
+                    ignored++;
+                    continue;
+                }
+                String orderId = fields[1];
+                if (state == State.RECEIVED) {
+                    entries.put(orderId, new Entry(orderId, State.RECEIVED, fields[2]));
+                } else if (state == State.PLANNED) {
+                    Entry entry = entries.get(orderId);
+                    if (entry != null) {
+                        entry.state = State.PLANNED;
+                    }
+                } else {
+                    entries.remove(orderId);
+                }
+            }
+        }
+        if (ignored > 0) {
+            log.warn("Ignored {} incomplete records in order journal {}", ignored, file.getAbsolutePath());
+        }
+        // rewrite the journal with only the open orders, replacing it only when the new one is on disk
+        File compacted = new File(file.getAbsolutePath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(compacted)) {
+            for (Entry entry : entries.values()) {
+                out.write(toRecord(State.RECEIVED, entry.orderId, entry.document));
+                if (entry.state == State.PLANNED) {
+                    out.write(toRecord(State.PLANNED, entry.orderId, null));
+                }
+            }
+            out.getChannel().force(true);
+        }
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        open.clear();
+        open.addAll(entries.keySet());
+        log.debug("Replayed order journal {} with {} orders not dispatched", file.getAbsolutePath(), entries.size());
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Returns when the order is on disk.
+     *
+     * @param orderId
+     * @param document of the order, on one line
+     * @throws IOException if the record cannot be written
+     */
+    public void received(String orderId, String document) throws IOException {
+        if (document.indexOf('\n') >= 0 || document.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Order document must be on one line");
+        }
+        append(State.RECEIVED, orderId, document, true);
+    }
+
+    public void planned(String orderId) throws IOException {
+        append(State.PLANNED, orderId, null, false);
+    }
+
+    public void dispatched(String orderId) throws IOException {
+        append(State.DISPATCHED, orderId, null, false);
+    }
+
+    public void failed(String orderId) throws IOException {
+        append(State.FAILED, orderId, null, false);
+    }
+
+    private void append(State state, String orderId, String document, boolean sync) throws IOException {
+        byte[] record = toRecord(state, orderId, document);
+        synchronized (this) {
+            if (channel == null) {
+                throw new IOException("Order journal is closed");
+            }
+            pending.add(record);
+            long sequence = ++appended;
+            if (state == State.RECEIVED) {
+                open.add(orderId);
+            } else if (state != State.PLANNED) {
+                open.remove(orderId);
+            }
+            if (sync) {
+                syncRequested = true;
+            }
+            if (writing) {
+                // the thread that is writing also writes this record in its next batch
+                if (!sync) {
+                    return;
+                }
+                try {
+                    while (writing && durable < sequence) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for order journal", e);
+                }
+                if (durable < sequence) {
+                    throw new IOException("Cannot write order journal", error);
+                }
+                return;
+            }
+            writing = true;
+        }
+        drain();
+    }
+
+    /**
+     * Writes batches of pending records until there are none; only one
+     * thread at a time drains.
+     */
+    private void drain() throws IOException {
+        while (true) {
+            ArrayList<byte[]> batch;
+            long end;
+            boolean force;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    compactIfIdle();
+                    writing = false;
+                    notifyAll();
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                end = appended;
+                force = syncRequested;
+                syncRequested = false;
+            }
+            long length = 0;
+            try {
+                for (byte[] record : batch) {
+                    length += record.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                for (byte[] record : batch) {
+                    buffer.put(record);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (force) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                log.error("Cannot write {} records to order journal {}", batch.size(), file.getAbsolutePath(), e);
+                synchronized (this) {
+                    error = e;
+                    writing = false;
+                    notifyAll();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                size += length;
+                records += batch.size();
+                if (force) {
+                    durable = end;
+                    commits++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Truncates the journal if no order is waiting to be dispatched and
+     * it is larger than the compaction size; called while draining.
+     */
+    private void compactIfIdle() {
+        if (!open.isEmpty() || size <= compactSize) {
+            return;
+        }
+        try {
+            channel.truncate(0);
+            channel.force(true);
+            log.debug("Truncated order journal {} at {} bytes", file.getAbsolutePath(), size);
+            size = 0;
+        } catch (IOException e) {
+            log.error("Cannot truncate order journal {}", file.getAbsolutePath(), e);
+        }
+    }
+
+    private static byte[] toRecord(State state, String orderId, String document) {
+        StringBuilder line = new StringBuilder();
+        line.append(state.name()).append('\t').append(orderId);
+        if (document != null) {
+            line.append('\t').append(document);
+        }
+        line.append('\n');
+        return line.toString().getBytes(UTF8);
+    }
+
+    /**
+     *
+     * @return the number of orders received and not yet dispatched
+     */
+    public synchronized int getOpen() {
+        return open.size();
+    }
+
+    /**
+     *
+     * @return the number of records written
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     *
+     * @return the number of times records were forced to disk; fewer than the orders received when several orders are received at the same time
+     */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * An order that was received and not dispatched.
+     */
+    public static class Entry {
+
+        private final String orderId;
+        private State state;
+        private final String document;
+
+        public Entry(String orderId, State state, String document) {
+            this.orderId = orderId;
+            this.state = state;
+            this.document = document;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        /**
+         *
+         * @return RECEIVED, or PLANNED if its tasks were stored
+         */
+        public State getState() {
+            return state;
+        }
+
+        public String getDocument() {
+            return document;
+        }
+    }
+}
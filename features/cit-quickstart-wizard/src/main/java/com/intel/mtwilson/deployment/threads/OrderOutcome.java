@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import com.intel.mtwilson.util.task.TaskSnapshot;
+
+/**
+ * Decides the status the OrderProgressMonitor reports for an order from
+ * the state of its task manager.
+ *
+ * An order is ERROR only when its task manager returned without
+ * completing its tasks, or stopped without completing them. A task
+ * manager that continues independent branches after a failure already has
+ * faults while those branches run; the order stays ACTIVE until they are
+ * done, so its status does not switch between ACTIVE and ERROR.
+ *
+ * @author jbuhacoff
+ */
+public class OrderOutcome {
+
+    public static final String ACTIVE = "ACTIVE";
+    public static final String DONE = "DONE";
+    public static final String ERROR = "ERROR";
+
+    /**
+     *
+     * @param progress snapshot of the task manager
+     * @param faulted true if the task manager has faults
+     * @param cancelled true if the order was cancelled
+     * @param finished true if the task manager returned
+     * @return ACTIVE or null while the order is running, or DONE or ERROR when the order is over; null if the order was cancelled, because the OrderDispatchQueue reports that
+     */
+    public static String getStatus(TaskSnapshot progress, boolean faulted, boolean cancelled, boolean finished) {
+        if (cancelled) {
+            return null;
+        }
+        if (progress.isDone() && progress.getCurrent() == progress.getMax() && !faulted) {
+            return DONE;
+        }
+        if (finished) {
+            return ERROR;
+        }
+        if (!progress.isActive() && progress.getCurrent() > 0 && progress.getCurrent() < progress.getMax()) {
+            // inactive but not completed all tasks (during postcondition testing, active=false but current=max)
+            return ERROR;
+        }
+        if (progress.isActive()) {
+            return ACTIVE;
+        }
+        return null;
+    }
+}
@@ -5,21 +5,31 @@
 package com.intel.mtwilson.deployment.threads;
 
 import com.intel.dcsg.cpg.configuration.Configuration;
-import com.intel.dcsg.cpg.performance.BackgroundThread;
 import com.intel.dcsg.cpg.performance.Progress;
 import com.intel.mtwilson.configuration.ConfigurationFactory;
 import com.intel.mtwilson.deployment.Id;
+import com.intel.mtwilson.deployment.jaxrs.io.HostSummary;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocumentRepository;
 import com.intel.mtwilson.deployment.threads.OrderDispatchQueue.OrderDispatch;
+import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.HostSummaryUpdate;
+import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderCheckpointUpdate;
 import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderSettingsUpdate;
 import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.OrderStatusUpdate;
 import com.intel.mtwilson.deployment.threads.OrderDocumentUpdateQueue.TaskProgressUpdate;
+import com.intel.mtwilson.util.task.AbstractTask;
 import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskEvent;
+import com.intel.mtwilson.util.task.TaskEventBuffer;
 import com.intel.mtwilson.util.task.TaskManager;
+import com.intel.mtwilson.util.task.TaskSnapshot;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -29,32 +39,58 @@ import javax.servlet.annotation.WebListener;
  * APIs that need to submit new orders for processing should submit through this
  * thread so we can control the use of available server resources.
  *
- * The run() method of this class is invoked periodically by BackgroundThread.
+ * The run() method of this class is invoked by a TriggeredThread when a task
+ * publishes an event, when an order is dispatched, and when the task manager
+ * of an order returns, after a short delay so the events of many tasks are
+ * handled together. While no order is making progress the thread sleeps.
  *
  * Unlike the OrderDispatchQueue and OrderDocumentUpdateQueue, this background
  * thread does not have a queue for work - it monitors the current orders
  * maintained by the OrderDispatchQueue and generates updates to their
  * corresponding order documents.
  *
+ * Tasks publish an event to the task manager's event buffer when they
+ * start, make progress, or finish. Each time it runs, the monitor drains
+ * the events of each order and updates only the tasks that changed, 
+ * combining several events for the same task into one update, so an order
+ * that is not making progress costs nothing. The monitor reads every task
+ * of an order the first time it sees the order, and again whenever events 
+ * were dropped because the buffer was full.
+ * 
+ * The progress and state of each task, and of the task manager, are read
+ * from one TaskSnapshot so they are consistent with each other. A task 
+ * whose snapshot version is the same as in the last update is not updated
+ * again.
+ * 
+ * For a very large order that is run as one HostTaskGroup per host, each
+ * event is counted toward the group of its task, and only the group's
+ * task document is updated with the group's progress. For an order 
+ * planned as one TargetTaskGroup per host and software package, the tasks
+ * inside a group have no task documents, so their events are ignored and
+ * the group's own events update its task document.
+ *
  * @author jbuhacoff
  */
 @WebListener
 public class OrderProgressMonitor implements ServletContextListener {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderProgressMonitor.class);
-    private static final BackgroundThread monitoringThread = new BackgroundThread();
+    private static final TriggeredThread monitoringThread = new TriggeredThread("OrderProgressMonitor");
 
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         log.debug("OrderProgressMonitor contextInitialized");
-        // start a background thread to periodically get orders from the
-        // queue and start the processing in a new thread
+        // start a background thread to update the order documents when
+        // tasks publish events; the idle interval is only a safety net for
+        // tasks that do not publish events
         try {
             Configuration configuration = ConfigurationFactory.getConfiguration();
             monitoringThread.setDelay(Long.valueOf(configuration.get("mtwilson.quickstart.order.monitor.interval", "200")).longValue(), TimeUnit.MILLISECONDS);
-        } catch (IOException e) {
-            log.error("Cannot load configuration, using default period 200ms", e);
+            monitoringThread.setInterval(Long.valueOf(configuration.get("mtwilson.quickstart.order.monitor.idle.interval", "10000")).longValue(), TimeUnit.MILLISECONDS);
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load configuration, using default delay 200ms and idle interval 10000ms", e);
             monitoringThread.setDelay(200, TimeUnit.MILLISECONDS);
+            monitoringThread.setInterval(10000, TimeUnit.MILLISECONDS);
         }
         monitoringThread.setTask(new OrderProgressMonitorPeriodicTask());
         monitoringThread.start();
@@ -67,6 +103,14 @@ public class OrderProgressMonitor implements ServletContextListener {
         monitoringThread.stop();
     }
 
+    /**
+     * Wakes the monitoring thread to update the current orders; does not
+     * block, so tasks can call it when they publish events.
+     */
+    public static void wakeup() {
+        monitoringThread.trigger();
+    }
+
     /**
      * Dispatching an order means creating a task manager, a thread to run the
      * task manager, and another thread to monitor the progress and update the
@@ -90,24 +134,52 @@ public class OrderProgressMonitor implements ServletContextListener {
             // avoid concurrent modification of the orders map while iterating
             // on its values in the loop
             ArrayList<String> ordersToRemove = new ArrayList<>();
+            HostLeases hostLeases = OrderDispatchQueue.getHostLeases();
 
             // look at each of the current orders and generate order document updates
             for (OrderDispatch orderDispatch : currentOrders.values()) {
 //                String status = orderDispatch.getOrderDocument().getStatus();
+                // the task manager returned, whether or not it completed its tasks
+                boolean finished = orderDispatch.getFuture().isDone();
+                if (!finished) {
+                    // the order keeps its hosts while it is running, even if it is not making progress
+                    hostLeases.renew(orderDispatch.getOrderDocument().getId().toString());
+                }
 
                 TaskManager taskManager = orderDispatch.getTaskManager();
-                // update progress on each task
-                Collection<Task> tasks = taskManager.getTasks();
+                Collection<Task> tasks = getChangedTasks(orderDispatch);
+                if (tasks.isEmpty() && !finished) {
+                    continue;
+                }
+                // update progress on each task that changed
                 for (Task task : tasks) {
+                    if (task == taskManager) {
+                        continue; // the overall progress is reported below
+                    }
                     long current, max;
 
                     // implementing Progress is optional, so we have a default
                     // progress of 0/1 or 1/1 for tasks that don't implement it
-                    if (task instanceof Progress) {
+                    TaskSnapshot snapshot = task instanceof AbstractTask ? ((AbstractTask) task).getSnapshot() : null;
+                    // a task that overrides the Progress getters has progress that is not in its snapshot
+                    boolean progressInSnapshot = snapshot != null && ((AbstractTask) task).isProgressInSnapshot();
+                    if (progressInSnapshot && !orderDispatch.setTaskVersion(task, snapshot.getVersion())) {
+                        continue; // no change since the last update
+                    }
+                    boolean done = snapshot == null ? task.isDone() : snapshot.isDone();
+                    if (taskManager.isCompleted(task) && !done) {
+                        // restored from a checkpoint, not run again
+                        done = true;
+                        current = task instanceof TaskManager ? ((TaskManager) task).getLeafCount() : 1;
+                        max = current;
+                    } else if (progressInSnapshot) {
+                        current = snapshot.getCurrent();
+                        max = snapshot.getMax();
+                    } else if (task instanceof Progress) {
                         Progress taskWithProgress = (Progress) task;
                         current = taskWithProgress.getCurrent();
                         max = taskWithProgress.getMax();
-                    } else if (task.isDone()) {
+                    } else if (done) {
                         current = 1;
                         max = 1;
                     } else {
@@ -120,42 +192,191 @@ public class OrderProgressMonitor implements ServletContextListener {
                     // AbstractTaskWithId or implement Id on their own
                     if (task instanceof Id) {
                         Id taskWithId = (Id) task;
-                        OrderDocumentUpdateQueue.getUpdateQueue().add(new TaskProgressUpdate(orderDispatch.getOrderDocument().getId(), taskWithId.getId(), task.getClass().getName(), task.isDone(), current, max));
+                        OrderDocumentUpdateQueue.getUpdateQueue().add(new TaskProgressUpdate(orderDispatch.getOrderDocument().getId(), taskWithId.getId(), task.getClass().getName(), done, current, max));
                     } else {
                         log.error("Task class {} does not implement id, cannot update progress", task.getClass().getName());
                     }
 
                 }
                 
+                addCheckpoint(orderDispatch);
+                
+                // one snapshot for all the decisions below, so they agree with each other
+                TaskSnapshot progress = taskManager.getSnapshot();
                 // NOTE: the OrderDispatchQueue already handles cancelling tasks including the OrderStatusUpdate with status "CANCELLED"
-                if (taskManager.isActive()) {
-                    // the task manager itself has the overall progress to report
-                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ACTIVE", taskManager.getCurrent(), taskManager.getMax()));
-                }
-                if (taskManager.isDone() && taskManager.getCurrent() == taskManager.getMax() && taskManager.getFaults().isEmpty()) {
+                String status = OrderOutcome.getStatus(progress, !taskManager.getFaults().isEmpty(), taskManager.isCancelled(), finished);
+                if (OrderOutcome.ACTIVE.equals(status)) {
+                    // the task manager itself has the overall progress to report; a failed
+                    // branch is reported as ERROR when the other branches are done
+                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ACTIVE", progress.getCurrent(), progress.getMax()));
+                } else if (OrderOutcome.DONE.equals(status)) {
                     log.debug("OrderProgressMonitor observed task manager is done");
                     // done (completed successfully): update status and remove the order
-                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "DONE", taskManager.getCurrent(), taskManager.getMax()));
+                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "DONE", progress.getCurrent(), progress.getMax()));
                     OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderSettingsUpdate(orderDispatch.getOrderDocument().getId(), orderDispatch.getOrderDocument().getSettings()));
+                    addHostSummary(orderDispatch);
                     ordersToRemove.add(orderDispatch.getOrderDocument().getId().toString());
-                }
-                if (!taskManager.isCancelled() && !taskManager.getFaults().isEmpty()) {
-                    // run or postcondition error (other than cancelled):  update status to "ERROR" with faults;  we check for not cancelled because if it's cancelled then OrderDispatchQueue is already changing status to "CANCELLED"
-                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ERROR", taskManager.getCurrent(), taskManager.getMax()));
-                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ERROR", taskManager.getFaults()));
-                }
-                if (!taskManager.isActive() && !taskManager.isCancelled() && taskManager.getCurrent() > 0 && taskManager.getCurrent() < taskManager.getMax()) {
-                    // it's an error for the task manager to be inactive but not completed all tasks (during postcondition testing, active=false but current=max)
-                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ERROR", taskManager.getCurrent(), taskManager.getMax()));
+                } else if (OrderOutcome.ERROR.equals(status)) {
+                    // run or postcondition error, or the task manager returned without completing its tasks:
+                    // update status to "ERROR" with faults and remove the order
+                    OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ERROR", progress.getCurrent(), progress.getMax()));
+                    if (!taskManager.getFaults().isEmpty()) {
+                        OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderStatusUpdate(orderDispatch.getOrderDocument().getId(), "ERROR", taskManager.getFaults()));
+                    }
                     OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderSettingsUpdate(orderDispatch.getOrderDocument().getId(), orderDispatch.getOrderDocument().getSettings()));
+                    addTaskFaults(orderDispatch);
+                    addHostSummary(orderDispatch);
                     ordersToRemove.add(orderDispatch.getOrderDocument().getId().toString());
                 }
             }
 
+            // removing an order wakes the dispatch thread so a queued order may start
             for(String orderId : ordersToRemove) {
-                currentOrders.remove(orderId);
+                OrderDispatchQueue.removeOrder(orderId);
+            }
+            // a deferred order may start as the tasks of running orders complete
+            if (OrderDispatchQueue.hasDeferredOrder()) {
+                OrderDispatchQueue.wakeup();
             }
 
         }
+        
+        /**
+         * 
+         * @return the tasks with events since the last run, which may include the task manager itself; or all the tasks of the order if it is new to the monitor or events were dropped
+         */
+        private Collection<Task> getChangedTasks(OrderDispatch orderDispatch) {
+            TaskManager taskManager = orderDispatch.getTaskManager();
+            TaskEventBuffer events = taskManager.getEventBuffer();
+            if (events == null) {
+                return taskManager.getTasks();
+            }
+            long dropped = events.getDropped();
+            if (dropped != orderDispatch.getEventsDropped()) {
+                if (orderDispatch.getEventsDropped() >= 0) {
+                    log.debug("Order {} dropped {} task events, reading all tasks", orderDispatch.getOrderDocument().getId(), dropped - orderDispatch.getEventsDropped());
+                }
+                orderDispatch.setEventsDropped(dropped);
+                // the current state of every task covers the pending events
+                while (events.poll() != null) { }
+                ArrayList<Task> all = new ArrayList<>(taskManager.getTasks());
+                all.add(taskManager);
+                return all;
+            }
+            TaskEvent event = events.poll();
+            if (event == null) {
+                return Collections.emptyList();
+            }
+            Collection<Task> changed = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+            while (event != null) {
+                Task task = orderDispatch.getDocumentTask(event.getTask());
+                // tasks generated inside a TargetTaskGroup are not in the order's task list
+                if (task == taskManager || taskManager.getLevel(task) >= 0) {
+                    changed.add(task);
+                }
+                event = events.poll();
+            }
+            return changed;
+        }
+
+        /**
+         * Saves the completed tasks and the current settings with the order
+         * when more tasks have completed since the last checkpoint, so the
+         * order can be resumed after a server restart.
+         */
+        private void addCheckpoint(OrderDispatch orderDispatch) {
+            if (orderDispatch.getCheckpoints() == null) {
+                return;
+            }
+            List<Task> completed = new ArrayList<>();
+            for (TaskManager taskManager : orderDispatch.getTaskManagers()) {
+                completed.addAll(taskManager.getCompletedTasks());
+            }
+            if (completed.size() <= orderDispatch.getCheckpointSize()) {
+                return;
+            }
+            // settings first so the tasks in the checkpoint do not need to run again to generate them
+            OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderSettingsUpdate(orderDispatch.getOrderDocument().getId(), orderDispatch.getOrderDocument().getSettings()));
+            OrderDocumentUpdateQueue.getUpdateQueue().add(new OrderCheckpointUpdate(orderDispatch.getOrderDocument().getId(), orderDispatch.getCheckpoints().createCheckpoint(completed)));
+            orderDispatch.setCheckpointSize(completed.size());
+        }
+
+        /**
+         * Copies the faults of each failed or skipped task to its task
+         * document once, when the order is finished, so the user can see
+         * which tasks were skipped and why. For an order shown as one task
+         * per host, the faults of the tasks in a group are copied to the
+         * group's task document.
+         */
+        private void addTaskFaults(OrderDispatch orderDispatch) {
+            ArrayList<TaskManager> taskManagers = new ArrayList<>(orderDispatch.getTaskManagers());
+            if (!taskManagers.contains(orderDispatch.getTaskManager())) {
+                // groups that failed or were skipped as a whole
+                taskManagers.add(orderDispatch.getTaskManager());
+            }
+            for (TaskManager taskManager : taskManagers) {
+                for (Task task : taskManager.getTasks()) {
+                    if (!taskManager.isFailed(task) && !taskManager.isSkipped(task)) { continue; }
+                    Task documentTask = orderDispatch.getDocumentTask(task);
+                    if (!(documentTask instanceof Id)) { continue; }
+                    long current = 0, max = 1;
+                    if (documentTask instanceof Progress) {
+                        current = ((Progress) documentTask).getCurrent();
+                        max = ((Progress) documentTask).getMax();
+                    }
+                    TaskProgressUpdate update = new TaskProgressUpdate(orderDispatch.getOrderDocument().getId(), ((Id) documentTask).getId(), documentTask.getClass().getName(), documentTask.isDone(), current, max);
+                    update.getFaults().addAll(task.getFaults());
+                    OrderDocumentUpdateQueue.getUpdateQueue().add(update);
+                }
+            }
+        }
+
+        /**
+         * Summarizes the outcome of the order for each target host, so when
+         * some hosts fail the user can see which hosts were completed.
+         */
+        private void addHostSummary(OrderDispatch orderDispatch) {
+            Map<Task, String> taskHosts = orderDispatch.getTaskHosts();
+            if (taskHosts == null || taskHosts.isEmpty()) {
+                return;
+            }
+            TaskManager order = orderDispatch.getTaskManager();
+            TreeMap<String, HostSummary> hosts = new TreeMap<>();
+            for (TaskManager taskManager : orderDispatch.getTaskManagers()) {
+                // the tasks of a group that was skipped did not run
+                boolean groupSkipped = taskManager != order && order.isSkipped(taskManager);
+                for (Task task : taskManager.getTasks()) {
+                    String host = taskHosts.get(task);
+                    if (host == null) { continue; }
+                    HostSummary summary = hosts.get(host);
+                    if (summary == null) {
+                        summary = new HostSummary();
+                        hosts.put(host, summary);
+                    }
+                    // a TargetTaskGroup counts as the tasks it generates
+                    int count = task instanceof TaskManager ? (int) ((TaskManager) task).getLeafCount() : 1;
+                    summary.setTotal(summary.getTotal() + count);
+                    if (taskManager.isFailed(task)) {
+                        summary.setFailed(summary.getFailed() + count);
+                    } else if (taskManager.isSkipped(task) || (groupSkipped && !taskManager.isCompleted(task))) {
+                        summary.setSkipped(summary.getSkipped() + count);
+                    } else if (taskManager.isCompleted(task)) {
+                        summary.setCompleted(summary.getCompleted() + count);
+                    }
+                }
+            }
+            for (HostSummary summary : hosts.values()) {
+                if (summary.getFailed() > 0) {
+                    summary.setStatus("ERROR");
+                } else if (summary.getSkipped() > 0) {
+                    summary.setStatus("SKIPPED");
+                } else if (summary.getCompleted() == summary.getTotal()) {
+                    summary.setStatus("DONE");
+                } else {
+                    summary.setStatus("INCOMPLETE");
+                }
+            }
+            OrderDocumentUpdateQueue.getUpdateQueue().add(new HostSummaryUpdate(orderDispatch.getOrderDocument().getId(), hosts));
+        }
     }
 }
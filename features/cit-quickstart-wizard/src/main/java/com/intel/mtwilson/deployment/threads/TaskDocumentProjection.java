@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copies selected properties of a task into the "data" of its task
+ * document, such as the host and package name shown by the wizard.
+ *
+ * Only the properties in the include list are read, so getters that are
+ * expensive or internal, like the progress of a file transfer or the
+ * task's configuration, are never called. The getters of each task class
+ * are looked up once and cached as method handles with their keys already
+ * in lowercase_with_underscores, so projecting a large order does not
+ * introspect every task or translate every key again.
+ *
+ * @author jbuhacoff
+ */
+public class TaskDocumentProjection {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskDocumentProjection.class);
+    /**
+     * The properties used in the task descriptions of the wizard
+     */
+    public static final List<String> DEFAULT_PROPERTIES = Collections.unmodifiableList(Arrays.asList("host", "packageName", "filenameCsv", "hostCsv"));
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private final List<String> properties;
+    private final ConcurrentHashMap<Class<?>, Descriptor> descriptors = new ConcurrentHashMap<>();
+    private final PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy namingStrategy = new PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy();
+
+    public TaskDocumentProjection() {
+        this(DEFAULT_PROPERTIES);
+    }
+
+    /**
+     *
+     * @param properties the camelCase names of the properties to include, like "packageName"
+     */
+    public TaskDocumentProjection(List<String> properties) {
+        this.properties = new ArrayList<>(properties);
+    }
+
+    public List<String> getProperties() {
+        return Collections.unmodifiableList(properties);
+    }
+
+    /**
+     * A property whose getter throws an exception or returns null is left
+     * out.
+     *
+     * @param task
+     * @return the included properties the task has, with keys in lowercase_with_underscores
+     */
+    public Map<String, Object> project(Object task) {
+        Descriptor descriptor = getDescriptor(task.getClass());
+        HashMap<String, Object> data = new HashMap<>();
+        for (int i = 0; i < descriptor.keys.length; i++) {
+            try {
+                Object value = (Object) descriptor.getters[i].invokeExact(task);
+                if (value != null) {
+                    data.put(descriptor.keys[i], value);
+                }
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                log.error("Cannot read {} of task {}", descriptor.keys[i], task.getClass().getName(), e);
+            }
+        }
+        return data;
+    }
+
+    /**
+     *
+     * @param type of task
+     * @return the cached descriptor of the task class, created the first time the class is projected
+     */
+    private Descriptor getDescriptor(Class<?> type) {
+        Descriptor descriptor = descriptors.get(type);
+        if (descriptor == null) {
+            descriptor = createDescriptor(type);
+            Descriptor existing = descriptors.putIfAbsent(type, descriptor);
+            if (existing != null) {
+                descriptor = existing;
+            }
+        }
+        return descriptor;
+    }
+
+    private Descriptor createDescriptor(Class<?> type) {
+        ArrayList<String> keys = new ArrayList<>();
+        ArrayList<MethodHandle> getters = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (String property : properties) {
+            Method method = findGetter(type, property);
+            if (method == null) {
+                continue;
+            }
+            try {
+                // the getter may be declared by a class that is not public, like an anonymous task
+                method.setAccessible(true);
+                getters.add(lookup.unreflect(method).asType(GETTER_TYPE));
+                keys.add(namingStrategy.translate(property));
+            } catch (IllegalAccessException | SecurityException e) {
+                log.error("Cannot access {} of task {}", property, type.getName(), e);
+            }
+        }
+        log.debug("Task {} projects properties {}", type.getName(), keys);
+        return new Descriptor(keys.toArray(new String[keys.size()]), getters.toArray(new MethodHandle[getters.size()]));
+    }
+
+    /**
+     *
+     * @return the public getter of the property, named like getPackageName or isActive, or null if the class does not have one
+     */
+    private static Method findGetter(Class<?> type, String property) {
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String name : new String[]{"get" + suffix, "is" + suffix}) {
+            try {
+                Method method = type.getMethod(name);
+                if (method.getReturnType() != void.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException e) {
+                // try the next name
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The keys and getters of the included properties of one task class.
+     */
+    private static class Descriptor {
+
+        private final String[] keys;
+        private final MethodHandle[] getters;
+
+        public Descriptor(String[] keys, MethodHandle[] getters) {
+            this.keys = keys;
+            this.getters = getters;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A queue that triggers the thread that consumes it whenever an item is
+ * added, so the consumer does not need to poll.
+ *
+ * @author jbuhacoff
+ */
+public class TriggeredQueue<T> extends ConcurrentLinkedQueue<T> {
+
+    private static final long serialVersionUID = 1L;
+    private final transient TriggeredThread consumer;
+
+    /**
+     *
+     * @param consumer triggered after each item is added
+     */
+    public TriggeredQueue(TriggeredThread consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public boolean offer(T item) {
+        boolean added = super.offer(item);
+        consumer.trigger();
+        return added;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> items) {
+        boolean added = super.addAll(items);
+        consumer.trigger();
+        return added;
+    }
+}
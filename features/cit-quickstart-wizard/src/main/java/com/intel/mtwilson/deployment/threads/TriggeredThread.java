@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a task on a background thread each time it is triggered, instead
+ * of periodically like BackgroundThread, so the thread sleeps while there
+ * is nothing to do and starts right away when there is.
+ *
+ * Triggers that arrive while the task is waiting to run are combined into
+ * one run; a trigger that arrives while the task is running causes one
+ * more run after it. With a delay, the task waits that long after the
+ * first trigger before it runs so a burst of triggers, like many updates
+ * to the same order, is handled together. With an interval, the task also
+ * runs after that long without a trigger, as a safety net.
+ *
+ * Triggering is lock-free and does not block, so it can be called from
+ * tasks publishing events.
+ *
+ * @author jbuhacoff
+ */
+public class TriggeredThread {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TriggeredThread.class);
+    private final String name;
+    private final AtomicBoolean triggered = new AtomicBoolean(false);
+    private volatile boolean stopped = true;
+    private volatile Thread thread;
+    private Runnable task;
+    private long delay = 0; // milliseconds
+    private long interval = 0; // milliseconds
+
+    /**
+     *
+     * @param name of the thread
+     */
+    public TriggeredThread(String name) {
+        this.name = name;
+    }
+
+    public void setTask(Runnable task) {
+        this.task = task;
+    }
+
+    /**
+     *
+     * @param delay after a trigger before the task runs
+     * @param unit
+     */
+    public void setDelay(long delay, TimeUnit unit) {
+        this.delay = unit.toMillis(delay);
+    }
+
+    /**
+     *
+     * @param interval after which the task runs without a trigger, or 0 to wait only for triggers
+     * @param unit
+     */
+    public void setInterval(long interval, TimeUnit unit) {
+        this.interval = unit.toMillis(interval);
+    }
+
+    /**
+     * Causes the task to run soon if it is not already about to run.
+     */
+    public void trigger() {
+        if (triggered.compareAndSet(false, true)) {
+            Thread waiting = thread;
+            if (waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        stopped = false;
+        Thread worker = new Thread(new Worker(), name);
+        worker.setDaemon(true);
+        thread = worker;
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        Thread worker = thread;
+        thread = null;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                await(interval);
+                if (stopped) {
+                    break;
+                }
+                if (delay > 0 && triggered.get()) {
+                    // let more triggers arrive; they are combined into this run
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                    long remaining = end - System.nanoTime();
+                    while (remaining > 0 && !stopped) {
+                        Thread.interrupted();
+                        LockSupport.parkNanos(TriggeredThread.this, remaining);
+                        remaining = end - System.nanoTime();
+                    }
+                    if (stopped) {
+                        break;
+                    }
+                }
+                triggered.set(false);
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Error in {}", name, e);
+                }
+            }
+            log.debug("Stopped {}", name);
+        }
+
+        /**
+         * Waits until triggered, stopped, or the timeout.
+         *
+         * @param timeout in milliseconds, or 0 for no timeout
+         */
+        private void await(long timeout) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!triggered.get() && !stopped) {
+                Thread.interrupted(); // an interrupt would keep park from waiting; stop() also sets stopped
+                if (timeout > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    LockSupport.parkNanos(TriggeredThread.this, remaining);
+                } else {
+                    LockSupport.park(TriggeredThread.this);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.wizard;
+
+import com.intel.mtwilson.deployment.OperatingSystemInfo;
+import com.intel.mtwilson.deployment.task.RetrieveLinuxOperatingSystemVersion;
+import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskDurationEstimator;
+import com.intel.mtwilson.util.task.TaskDurationHistory;
+import com.intel.mtwilson.util.task.TaskUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates task durations for one order from the durations of tasks in
+ * all orders since the server started. The history is broken down by
+ * task class, software package, and host operating system, so that for
+ * example a remote install of the trust agent on Red Hat is estimated
+ * separately from a remote install of the key broker on Ubuntu. 
+ * 
+ * The operating system of a host is learned when a 
+ * RetrieveLinuxOperatingSystemVersion task for that host completes, so
+ * the first order for a new host is estimated by task class and software
+ * package only.
+ * 
+ * @author jbuhacoff
+ */
+public class DeploymentTaskDurationEstimator implements TaskDurationEstimator {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DeploymentTaskDurationEstimator.class);
+    private static final TaskDurationHistory history = new TaskDurationHistory();
+    private static final ConcurrentHashMap<String,String> hostOperatingSystems = new ConcurrentHashMap<>();
+    private final Map<Task,String> packageNames;
+    private final Map<Task,String> hosts;
+
+    /**
+     * 
+     * @param packageNames software package name of each task, from DeploymentTaskFactory
+     * @param hosts host of each task, from DeploymentTaskFactory
+     */
+    public DeploymentTaskDurationEstimator(Map<Task,String> packageNames, Map<Task,String> hosts) {
+        this.packageNames = packageNames;
+        this.hosts = hosts;
+    }
+    
+    @Override
+    public long estimate(Task task) {
+        Long average = history.getAverage(getKeys(task));
+        if( average == null ) {
+            return history.getDefaultDuration();
+        }
+        return average;
+    }
+
+    @Override
+    public void record(Task task, long duration) {
+        Task delegate = TaskUtil.getDelegate(task);
+        if( delegate instanceof RetrieveLinuxOperatingSystemVersion ) {
+            OperatingSystemInfo info = ((RetrieveLinuxOperatingSystemVersion)delegate).getData();
+            String host = hosts.get(task);
+            if( info != null && info.getDistributor() != null && host != null ) {
+                log.debug("Host {} operating system {} {}", host, info.getDistributor(), info.getVersion());
+                hostOperatingSystems.put(host, info.getDistributor() + " " + info.getVersion());
+            }
+        }
+        history.record(getKeys(task), duration);
+    }
+    
+    /**
+     * 
+     * @param task
+     * @return keys for the task from most specific to least specific
+     */
+    private List<String> getKeys(Task task) {
+        String className = TaskUtil.getDelegate(task).getClass().getName();
+        String packageName = packageNames.get(task);
+        String host = hosts.get(task);
+        String operatingSystem = host == null ? null : hostOperatingSystems.get(host);
+        ArrayList<String> keys = new ArrayList<>();
+        if( packageName != null && operatingSystem != null ) {
+            keys.add(className + "|" + packageName + "|" + operatingSystem);
+        }
+        if( packageName != null ) {
+            keys.add(className + "|" + packageName);
+        }
+        keys.add(className);
+        return keys;
+    }
+}
@@ -57,6 +57,7 @@ import com.intel.mtwilson.deployment.task.SynchronizeSoftwarePackageTargets;
 import com.intel.mtwilson.deployment.task.TrustAgentFileTransferManifestProvider;
 import com.intel.mtwilson.util.task.AbstractTask;
 import com.intel.mtwilson.util.task.DependenciesUtil;
+import com.intel.mtwilson.util.task.LazyTaskManager;
 import com.intel.mtwilson.util.task.Task;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -64,7 +65,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -89,6 +92,10 @@ public class DeploymentTaskFactory extends AbstractTask {
     private SoftwarePackageRepository softwarePackageRepository;
     private FeatureRepository featureRepository;
     private OrderDocument order;
+    /**
+     * The targets of the order and of its target groups
+     */
+    private Set<Target> targets;
     private List<Feature> availableFeatureList;
     private Map<String,Feature> availableFeatureMap;
     private List<Feature> selectedFeatures;
@@ -97,6 +104,16 @@ public class DeploymentTaskFactory extends AbstractTask {
     private List<SoftwarePackage> selectedSoftwarePackages;
     private Map<String,SoftwarePackage> selectedSoftwarePackageMap;
     private ArrayList<Task> output;
+    private Map<Task,String> outputPackageNames;
+    private Map<Task,String> outputHosts;
+    /**
+     * Orders with more tasks than this are planned as one TargetTaskGroup
+     * for each target and software package, whose tasks are created only
+     * when the group runs; 0 to always create all the tasks
+     */
+    private int lazyThreshold = 0;
+    private boolean lazy = false;
+    private final HashMap<String,Long> targetTaskCounts = new HashMap<>();
 
     public DeploymentTaskFactory(OrderDocument request) throws IOException {
         order = request;
@@ -123,6 +140,9 @@ public class DeploymentTaskFactory extends AbstractTask {
         Set<String> selectedFeatureNames = request.getFeatures();
         precondition(new FeatureAvailable(availableFeatureMap, selectedFeatureNames));
 
+        // the hosts of target groups are expanded here and not in the order document
+        targets = new OrderTransformer(order).expandTargets();
+
         // do the specified features include all required feature-dependencies?
         selectedFeatures = createFeatureList(selectedFeatureNames);
         precondition(new FeatureDependenciesIncluded(selectedFeatures));
@@ -130,7 +150,7 @@ public class DeploymentTaskFactory extends AbstractTask {
         // do we have all the specified software packages?
         availableSoftwarePackageList = softwarePackageRepository.listAll();
         availableSoftwarePackageMap = SoftwarePackageUtils.mapSoftwarePackages(availableSoftwarePackageList);
-        Set<String> selectedSoftwarePackageNames = getSoftwarePackageNamesFromTargets(request.getTargets());
+        Set<String> selectedSoftwarePackageNames = getSoftwarePackageNamesFromTargets(targets);
         precondition(new SoftwarePackageAvailable(availableSoftwarePackageMap, selectedSoftwarePackageNames));
 
         // do the specified software packages include all required software for selected features?
@@ -436,6 +456,69 @@ public class DeploymentTaskFactory extends AbstractTask {
         return tasks;
     }
 
+    /**
+     * The number of tasks for the first target of a software package is
+     * used as the estimate for each of its targets, so the tasks are
+     * created only once per software package to count them. A 
+     * TargetTaskGroup whose target has a different number of tasks 
+     * corrects the progress of the order when it creates them.
+     *
+     * @return the number of tasks createSoftwarePackageTargetTasks() is expected to create for the software package
+     */
+    private long getTargetTaskCount(SoftwarePackage softwarePackage, Target target) {
+        Long count = targetTaskCounts.get(softwarePackage.getPackageName());
+        if (count == null) {
+            count = Long.valueOf(createSoftwarePackageTargetTasks(softwarePackage, target).size());
+            targetTaskCounts.put(softwarePackage.getPackageName(), count);
+        }
+        return count.longValue();
+    }
+
+    /**
+     * The generated tasks are added to the output maps while the group
+     * runs, so the task timeouts and duration estimates of the order apply
+     * to them, and removed when the group finishes.
+     */
+    private Task createTargetTaskGroup(final SoftwarePackage softwarePackage, final Target target) {
+        LazyTaskManager.Generator generator = new LazyTaskManager.Generator() {
+            @Override
+            public List<Task> generate() {
+                List<Task> targetTasks = createSoftwarePackageTargetTasks(softwarePackage, target);
+                for (Task targetTask : targetTasks) {
+                    outputPackageNames.put(targetTask, softwarePackage.getPackageName());
+                    outputHosts.put(targetTask, target.getHost());
+                }
+                return targetTasks;
+            }
+
+            @Override
+            public void release(List<Task> targetTasks) {
+                for (Task targetTask : targetTasks) {
+                    outputPackageNames.remove(targetTask);
+                    outputHosts.remove(targetTask);
+                }
+            }
+        };
+        return new TargetTaskGroup(target.getHost(), softwarePackage.getPackageName(), generator, getTargetTaskCount(softwarePackage, target));
+    }
+
+    /**
+     *
+     * @return an estimate of the number of tasks execute() would create for all the targets, including the synchronization tasks
+     */
+    private long countOutput(Collection<Target> targets) {
+        long count = 0;
+        for (SoftwarePackage softwarePackage : selectedSoftwarePackages) {
+            for (Target target : targets) {
+                if (target.getPackages().contains(softwarePackage.getPackageName())) {
+                    count += getTargetTaskCount(softwarePackage, target);
+                }
+            }
+            count++;
+        }
+        return count;
+    }
+
     private Task createSoftwarePackageSyncTask(SoftwarePackage softwarePackage, Collection<Target> targets) {
         SynchronizeSoftwarePackageTargets task = new SynchronizeSoftwarePackageTargets(softwarePackage, targets);
         return task;
@@ -545,6 +628,11 @@ public class DeploymentTaskFactory extends AbstractTask {
      * repository) to create dependencies across these pairs, and then sort them
      * in dependency order so caller gets an ordered list of tasks to execute.
      * 
+     * When the order has more tasks than the lazy threshold, each pair
+     * (target,package) is a single TargetTaskGroup in the output instead
+     * of its tasks, and the output maps include only the groups and the
+     * synchronization tasks until each group runs.
+     * 
      */
     @Override
     public void execute() {
@@ -553,7 +641,6 @@ public class DeploymentTaskFactory extends AbstractTask {
 //        List<String> orderedAvailableSoftwarePackageNameList = createOrderedAvailableSoftwarePackageNameList();
         
         // each target specifies host, port, username, password, publicKeyDigest, timeout, networkRole, and packages list with any of [key_broker, key_broker_proxy, director, trustagent, attestation_service, openstack_extensions]
-        Set<Target> targets = order.getTargets(); 
         log.debug("targets: {}", targets.size());
         // the software packages are installed in groups:  given the list of software
         // packages to install, each package wil be installed on all the targets that
@@ -581,6 +668,14 @@ public class DeploymentTaskFactory extends AbstractTask {
 //        List<SoftwarePackage> orderedSelectedSoftwarePackages = //createSoftwarePackageList(orderedAvailableSoftwarePackageNameList);
         log.debug("Creating new output list");
         output = new ArrayList<>();
+        // synchronized because target task groups add and remove their tasks while the order runs
+        outputPackageNames = Collections.synchronizedMap(new IdentityHashMap<Task,String>());
+        outputHosts = Collections.synchronizedMap(new IdentityHashMap<Task,String>());
+        long outputSize = lazyThreshold > 0 ? countOutput(targets) : 0;
+        lazy = lazyThreshold > 0 && outputSize > lazyThreshold;
+        if (lazy) {
+            log.debug("Creating a task group for each target because the order has {} tasks", outputSize);
+        }
         Task priorSyncTask = null;
         for (SoftwarePackage softwarePackage : selectedSoftwarePackages) {
             log.debug("processing software package: {}", softwarePackage.getPackageName());
@@ -590,7 +685,12 @@ public class DeploymentTaskFactory extends AbstractTask {
             for (Target target : targets) {
                 if (target.getPackages().contains(softwarePackage.getPackageName())) {
                     log.debug("adding target: {}", target.getHost());
-                    softwarePackageTasks.addAll(createSoftwarePackageTargetTasks(softwarePackage, target));
+                    List<Task> targetTasks = lazy ? Collections.singletonList(createTargetTaskGroup(softwarePackage, target)) : createSoftwarePackageTargetTasks(softwarePackage, target);
+                    for (Task targetTask : targetTasks) {
+                        outputPackageNames.put(targetTask, softwarePackage.getPackageName());
+                        outputHosts.put(targetTask, target.getHost());
+                    }
+                    softwarePackageTasks.addAll(targetTasks);
                     applicableTargets.add(target);
                 }
             }
@@ -598,12 +698,17 @@ public class DeploymentTaskFactory extends AbstractTask {
             // make a synchronization task for all those targets
             Task softwarePackageSyncTask = createSoftwarePackageSyncTask(softwarePackage, applicableTargets);
             softwarePackageSyncTask.getDependencies().addAll(softwarePackageTasks);
+            outputPackageNames.put(softwarePackageSyncTask, softwarePackage.getPackageName());
 
             // set the sync task of the prior software group as a dependency
-            // of this sync task, to ensure the prior group installs before
-            // this group does.  
+            // of this sync task and of every task in this group, to ensure 
+            // the prior group installs before this group starts even when
+            // the task manager runs independent tasks in parallel.
             if (priorSyncTask != null) {
                 softwarePackageSyncTask.getDependencies().add(priorSyncTask);
+                for (Task softwarePackageTask : softwarePackageTasks) {
+                    softwarePackageTask.getDependencies().add(priorSyncTask);
+                }
             }
             priorSyncTask = softwarePackageSyncTask;
 
@@ -614,6 +719,27 @@ public class DeploymentTaskFactory extends AbstractTask {
         }
     }
 
+    public int getLazyThreshold() {
+        return lazyThreshold;
+    }
+
+    /**
+     * Must be set before run().
+     *
+     * @param lazyThreshold orders with more tasks than this are planned as one TargetTaskGroup for each target and software package; 0 to always create all the tasks
+     */
+    public void setLazyThreshold(int lazyThreshold) {
+        this.lazyThreshold = Math.max(0, lazyThreshold);
+    }
+
+    /**
+     *
+     * @return true if run() created a TargetTaskGroup for each target and software package instead of their tasks
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
     /**
      * 
      * @return the list of tasks generated by run(), or null if called before run()
@@ -621,5 +747,23 @@ public class DeploymentTaskFactory extends AbstractTask {
     public List<Task> getOutput() {
         return output;
     }
+
+    /**
+     * 
+     * @return map of each generated task to the name of the software package it is for, or null if called before run()
+     */
+    public Map<Task,String> getOutputPackageNames() {
+        return outputPackageNames;
+    }
+
+    /**
+     * The software package synchronization tasks are not in this map
+     * because they are for all the targets of a software package.
+     * 
+     * @return map of each generated task to the host it runs on, or null if called before run()
+     */
+    public Map<Task,String> getOutputHosts() {
+        return outputHosts;
+    }
     
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.wizard;
+
+import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.mtwilson.configuration.ConfigurationFactory;
+import com.intel.mtwilson.deployment.FileTransferDescriptor;
+import com.intel.mtwilson.deployment.task.FileTransfer;
+import com.intel.mtwilson.deployment.task.RemoteInstall;
+import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskTimeouts;
+import com.intel.mtwilson.util.task.TaskUtil;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timeouts for the tasks of one order. A remote install is allowed the
+ * timeout of its software package, configured with
+ * "mtwilson.quickstart.order.task.timeout.install.(package)", for example
+ * "mtwilson.quickstart.order.task.timeout.install.attestation_service";
+ * the attestation service installs a database and gets more time than the
+ * other packages by default. 
+ * 
+ * A file transfer is allowed "mtwilson.quickstart.order.task.timeout.filetransfer"
+ * plus the time to send its files at the slowest expected rate, 
+ * "mtwilson.quickstart.order.task.timeout.filetransfer.rate" in bytes per
+ * second, so a large installer on a slow link is not cut off. The files of
+ * a DynamicFileTransfer are not known before it runs, so it gets only the 
+ * first part. 
+ * 
+ * All other tasks, which run a few commands, are allowed 
+ * "mtwilson.quickstart.order.task.timeout".
+ * 
+ * All timeouts are in milliseconds; 0 means no timeout of its own, so the
+ * task is limited only by the deadline of the order.
+ * 
+ * @author jbuhacoff
+ */
+public class DeploymentTaskTimeouts implements TaskTimeouts {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DeploymentTaskTimeouts.class);
+    private static final long DEFAULT_TIMEOUT = 15 * 60 * 1000;
+    private static final long DEFAULT_INSTALL_TIMEOUT = 30 * 60 * 1000;
+    private static final long DEFAULT_FILE_TRANSFER_TIMEOUT = 15 * 60 * 1000;
+    private static final long DEFAULT_FILE_TRANSFER_RATE = 256 * 1024;
+    private static final Map<String,Long> defaultInstallTimeouts = new HashMap<>();
+    static {
+        defaultInstallTimeouts.put("attestation_service", 60 * 60 * 1000L);
+    }
+    private final Map<Task,String> packageNames;
+    private final HashMap<String,Long> installTimeouts = new HashMap<>();
+    private long timeout = DEFAULT_TIMEOUT;
+    private long fileTransferTimeout = DEFAULT_FILE_TRANSFER_TIMEOUT;
+    private long fileTransferRate = DEFAULT_FILE_TRANSFER_RATE;
+    private Configuration configuration;
+
+    /**
+     * 
+     * @param packageNames software package name of each task, from DeploymentTaskFactory
+     */
+    public DeploymentTaskTimeouts(Map<Task,String> packageNames) {
+        this.packageNames = packageNames;
+        try {
+            configuration = ConfigurationFactory.getConfiguration();
+            timeout = Long.valueOf(configuration.get("mtwilson.quickstart.order.task.timeout", String.valueOf(DEFAULT_TIMEOUT))).longValue();
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot load task timeout from configuration, using default {}ms", DEFAULT_TIMEOUT, e);
+            timeout = DEFAULT_TIMEOUT;
+        }
+        if( configuration != null ) {
+            try {
+                fileTransferTimeout = Long.valueOf(configuration.get("mtwilson.quickstart.order.task.timeout.filetransfer", String.valueOf(DEFAULT_FILE_TRANSFER_TIMEOUT))).longValue();
+                fileTransferRate = Long.valueOf(configuration.get("mtwilson.quickstart.order.task.timeout.filetransfer.rate", String.valueOf(DEFAULT_FILE_TRANSFER_RATE))).longValue();
+            } catch (NumberFormatException e) {
+                log.error("Invalid file transfer timeout, using default {}ms plus the time to send at {} bytes per second", DEFAULT_FILE_TRANSFER_TIMEOUT, DEFAULT_FILE_TRANSFER_RATE, e);
+                fileTransferTimeout = DEFAULT_FILE_TRANSFER_TIMEOUT;
+                fileTransferRate = DEFAULT_FILE_TRANSFER_RATE;
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getTimeout(Task task) {
+        if( TaskUtil.getDelegate(task) instanceof RemoteInstall ) {
+            return getInstallTimeout(packageNames.get(task));
+        }
+        if( TaskUtil.getDelegate(task) instanceof FileTransfer ) {
+            return getFileTransferTimeout((FileTransfer) TaskUtil.getDelegate(task));
+        }
+        return timeout;
+    }
+    
+    private long getFileTransferTimeout(FileTransfer fileTransfer) {
+        if( fileTransferTimeout <= 0 ) {
+            return 0; // no timeout of its own
+        }
+        List<FileTransferDescriptor> manifest = fileTransfer.getFileTransferManifest();
+        if( manifest == null || fileTransferRate <= 0 ) {
+            return fileTransferTimeout;
+        }
+        long length = 0;
+        for (FileTransferDescriptor entry : manifest) {
+            length += entry.getSource().length();
+        }
+        return fileTransferTimeout + length * 1000 / fileTransferRate;
+    }
+    
+    private long getInstallTimeout(String packageName) {
+        Long cached = installTimeouts.get(packageName);
+        if( cached != null ) {
+            return cached;
+        }
+        Long defaultTimeout = defaultInstallTimeouts.get(packageName);
+        long installTimeout = defaultTimeout == null ? DEFAULT_INSTALL_TIMEOUT : defaultTimeout;
+        if( configuration != null && packageName != null ) {
+            try {
+                installTimeout = Long.valueOf(configuration.get("mtwilson.quickstart.order.task.timeout.install." + packageName, String.valueOf(installTimeout))).longValue();
+            } catch (NumberFormatException e) {
+                log.error("Invalid install timeout for package {}, using default {}ms", packageName, installTimeout, e);
+            }
+        }
+        installTimeouts.put(packageName, installTimeout);
+        return installTimeout;
+    }
+}
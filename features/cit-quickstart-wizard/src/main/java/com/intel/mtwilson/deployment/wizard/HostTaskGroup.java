@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.wizard;
+
+import com.intel.mtwilson.deployment.Id;
+import com.intel.mtwilson.util.task.FailurePolicy;
+import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskGroups;
+import com.intel.mtwilson.util.task.TaskManager;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The tasks of a very large order for one target host, run by a nested 
+ * task manager so the order document can show one task document per host
+ * instead of one per task. The tasks of a host run one at a time in 
+ * dependency order; different hosts run in parallel as far as the 
+ * dependencies between them allow.
+ * 
+ * A task of the order that does not have a host, like the task that 
+ * synchronizes the targets of a software package before the packages that
+ * depend on it are installed, is in a group of its own, so an order with 
+ * several software packages can still be grouped by host.
+ * 
+ * @author jbuhacoff
+ */
+public class HostTaskGroup extends TaskManager implements Id {
+
+    private final String id;
+    private final String host;
+
+    public HostTaskGroup(String host, List<Task> tasks) {
+        super(tasks);
+        this.id = UUID.randomUUID().toString();
+        this.host = host;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 
+     * @return the host of the tasks in this group, or null for a task of the order that does not have a host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public String toString() {
+        return host == null ? "order" : host;
+    }
+
+    /**
+     * 
+     * @param tasks generated by DeploymentTaskFactory
+     * @param hosts from DeploymentTaskFactory.getOutputHosts()
+     * @param failurePolicy for the tasks within each group
+     * @return a group for each host, or null if the tasks cannot be grouped by host because hosts depend on each other in both directions
+     */
+    public static List<TaskManager> compose(List<Task> tasks, Map<Task, String> hosts, final FailurePolicy failurePolicy) {
+        return TaskGroups.compose(tasks, hosts, new TaskGroups.GroupFactory() {
+            @Override
+            public TaskManager create(String key, List<Task> tasks) {
+                HostTaskGroup group = new HostTaskGroup(key, tasks);
+                group.setFailurePolicy(failurePolicy);
+                return group;
+            }
+        });
+    }
+
+    /**
+     * 
+     * @param groups from compose()
+     * @return the group of each task
+     */
+    public static Map<Task, TaskManager> index(List<TaskManager> groups) {
+        IdentityHashMap<Task, TaskManager> index = new IdentityHashMap<>();
+        for (TaskManager group : groups) {
+            for (Task task : group.getTasks()) {
+                index.put(task, group);
+            }
+        }
+        return index;
+    }
+}
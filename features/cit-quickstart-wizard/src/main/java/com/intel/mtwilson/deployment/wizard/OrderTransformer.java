@@ -5,8 +5,11 @@
 package com.intel.mtwilson.deployment.wizard;
 
 import com.intel.mtwilson.deployment.descriptor.Target;
+import com.intel.mtwilson.deployment.descriptor.TargetGroup;
 import com.intel.mtwilson.deployment.jaxrs.io.OrderDocument;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Set;
 
 /**
@@ -41,4 +44,57 @@ public class OrderTransformer {
         order.getTargets().clear();
         order.getTargets().addAll(hostMap.values());
     }
+
+    /**
+     * Creates the targets of the order's target groups, without adding
+     * them to the order document, so the document keeps the compact form.
+     * A host that is in more than one group, or is also one of the order's
+     * targets, gets the packages of all of them and the credentials of the
+     * first; the order's targets come first. Call consolidateTargets()
+     * before this method.
+     *
+     * @return the targets of the order and of its target groups, one for each host
+     * @throws IllegalArgumentException if a target group has an invalid host
+     */
+    public Set<Target> expandTargets() {
+        Set<Target> targets = order.getTargets();
+        Set<TargetGroup> targetGroups = order.getTargetGroups();
+        if( targetGroups == null || targetGroups.isEmpty() ) {
+            return targets == null ? new HashSet<Target>() : targets;
+        }
+        LinkedHashMap<String,Target> hostMap = new LinkedHashMap<>();
+        if( targets != null ) {
+            for(Target target : targets) {
+                hostMap.put(target.getHost(), target);
+            }
+        }
+        for(TargetGroup targetGroup : targetGroups) {
+            for(String host : targetGroup.expand()) {
+                Target existing = hostMap.get(host);
+                if( existing == null ) {
+                    hostMap.put(host, targetGroup.createTarget(host));
+                }
+                else if( targetGroup.getPackages() != null ) {
+                    // a copy so the target in the order document is not changed
+                    Target merged = copy(existing);
+                    merged.getPackages().addAll(targetGroup.getPackages());
+                    hostMap.put(host, merged);
+                }
+            }
+        }
+        return new HashSet<>(hostMap.values());
+    }
+
+    private static Target copy(Target target) {
+        Target copy = new Target();
+        copy.setHost(target.getHost());
+        copy.setPort(target.getPort());
+        copy.setUsername(target.getUsername());
+        copy.setPassword(target.getPassword());
+        copy.setPublicKeyDigest(target.getPublicKeyDigest());
+        copy.setTimeout(target.getTimeout());
+        copy.setPackages(target.getPackages() == null ? new HashSet<String>() : new HashSet<>(target.getPackages()));
+        copy.setPackagesInstalled(target.getPackagesInstalled());
+        return copy;
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.wizard;
+
+import com.intel.mtwilson.deployment.Id;
+import com.intel.mtwilson.util.task.LazyTaskManager;
+import java.util.UUID;
+
+/**
+ * The tasks that install one software package on one target host, for a
+ * very large order. DeploymentTaskFactory creates only this group when it
+ * plans the order; the tasks themselves are created when the group starts
+ * and released when it finishes, so the order holds only the tasks of the
+ * groups that are running. The order document shows one task document per
+ * group.
+ *
+ * @author jbuhacoff
+ */
+public class TargetTaskGroup extends LazyTaskManager implements Id {
+
+    private final String id;
+    private final String host;
+    private final String packageName;
+
+    /**
+     *
+     * @param host of the target
+     * @param packageName of the software package to install on the target
+     * @param generator of the tasks
+     * @param leafCount the number of tasks the generator is expected to create
+     */
+    public TargetTaskGroup(String host, String packageName, Generator generator, long leafCount) {
+        super(generator, leafCount);
+        this.id = UUID.randomUUID().toString();
+        this.host = host;
+        this.packageName = packageName;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    @Override
+    public String toString() {
+        return host + " " + packageName;
+    }
+}
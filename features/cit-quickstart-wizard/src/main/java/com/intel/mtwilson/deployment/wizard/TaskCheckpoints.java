@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment.wizard;
+
+import com.intel.mtwilson.Folders;
+import com.intel.mtwilson.deployment.Id;
+import com.intel.mtwilson.deployment.TransientOutput;
+import com.intel.mtwilson.deployment.jaxrs.io.OrderCheckpoint;
+import com.intel.mtwilson.deployment.task.AbstractTaskWithId;
+import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskUtil;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Matches the tasks generated by DeploymentTaskFactory for an order to the
+ * tasks recorded in the order's checkpoint.
+ *
+ * The checkpoint key of a task is its class name, host, and package name,
+ * and a sequence number among the tasks with the same class, host, and
+ * package, for example "com.intel.mtwilson.deployment.task.FileTransfer|10.1.0.5|trustagent_ubuntu|2".
+ * DeploymentTaskFactory generates the tasks for each host and package in
+ * the same order every time, so the keys are the same when the tasks are
+ * generated again for the same order.
+ *
+ * A TargetTaskGroup is checkpointed as a single task, when all of its
+ * tasks are completed, because its tasks exist only while it runs.
+ *
+ * @author jbuhacoff
+ */
+public class TaskCheckpoints {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskCheckpoints.class);
+    private final IdentityHashMap<Task, String> keys = new IdentityHashMap<>();
+
+    /**
+     *
+     * @param tasks generated by DeploymentTaskFactory
+     * @param hosts from DeploymentTaskFactory.getOutputHosts()
+     * @param packageNames from DeploymentTaskFactory.getOutputPackageNames()
+     */
+    public TaskCheckpoints(List<Task> tasks, Map<Task, String> hosts, Map<Task, String> packageNames) {
+        HashMap<String, Integer> sequence = new HashMap<>();
+        for (Task task : tasks) {
+            String prefix = TaskUtil.getDelegate(task).getClass().getName() + "|" + valueOf(hosts.get(task)) + "|" + valueOf(packageNames.get(task));
+            Integer count = sequence.get(prefix);
+            int next = count == null ? 1 : count + 1;
+            sequence.put(prefix, next);
+            keys.put(task, prefix + "|" + next);
+        }
+    }
+
+    private static String valueOf(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     *
+     * @param task
+     * @return the checkpoint key of the task, or null if the task was not generated for this order
+     */
+    public String getKey(Task task) {
+        return keys.get(task);
+    }
+
+    /**
+     *
+     * @param completed tasks that completed successfully, from TaskManager.getCompletedTasks()
+     * @return a new checkpoint with the completed tasks
+     */
+    public OrderCheckpoint createCheckpoint(Collection<Task> completed) {
+        OrderCheckpoint checkpoint = new OrderCheckpoint();
+        for (Task task : completed) {
+            String key = keys.get(task);
+            Id id = TaskUtil.unwrap(Id.class, task);
+            if (key != null && id != null) {
+                checkpoint.getCompleted().put(key, id.getId());
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Finds the tasks that were completed according to the checkpoint and
+     * moves the task directory of each one from the previous task id to the
+     * new task id, so files rendered by a completed task are available to
+     * the tasks that still need to run. Tasks with transient output, and
+     * tasks whose directory cannot be moved, are not restored so they
+     * will run again.
+     *
+     * @param checkpoint may be null
+     * @return the tasks to restore with TaskManager.setCompletedTasks()
+     */
+    public List<Task> restore(OrderCheckpoint checkpoint) {
+        ArrayList<Task> restored = new ArrayList<>();
+        if (checkpoint == null || checkpoint.getCompleted() == null) {
+            return restored;
+        }
+        for (Map.Entry<Task, String> entry : keys.entrySet()) {
+            Task task = entry.getKey();
+            String previousId = checkpoint.getCompleted().get(entry.getValue());
+            if (previousId == null) {
+                continue;
+            }
+            if (TaskUtil.unwrap(TransientOutput.class, task) != null) {
+                log.debug("Task {} will run again because its output is not saved", entry.getValue());
+                continue;
+            }
+            AbstractTaskWithId taskWithId = TaskUtil.unwrap(AbstractTaskWithId.class, task);
+            if (taskWithId != null && taskWithId.getTaskDirectory() != null) {
+                File previousDirectory = new File(Folders.repository("tasks") + File.separator + previousId);
+                if (previousDirectory.exists()) {
+                    try {
+                        FileUtils.moveDirectory(previousDirectory, taskWithId.getTaskDirectory());
+                    } catch (IOException e) {
+                        log.error("Cannot move task directory {} to {}, task will run again", previousDirectory.getAbsolutePath(), taskWithId.getTaskDirectory().getAbsolutePath(), e);
+                        continue;
+                    }
+                }
+            }
+            log.debug("Restored completed task {}", entry.getValue());
+            restored.add(task);
+        }
+        return restored;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.mtwilson.deployment.ssh.AdaptiveConcurrencyLimiter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class AdaptiveConcurrencyLimiterTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AdaptiveConcurrencyLimiterTest.class);
+
+    /**
+     * The limit grows while operations at the limit succeed with steady
+     * latency, and is cut by the backoff ratio after an error.
+     */
+    @Test
+    public void testIncreaseAndDecrease() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10);
+        for (int i = 0; i < 50; i++) {
+            int limit = limiter.getLimit();
+            for (int j = 0; j < limit; j++) {
+                limiter.acquire();
+            }
+            for (int j = 0; j < limit; j++) {
+                limiter.recordLatency(100);
+                limiter.release();
+            }
+        }
+        log.debug("After successes: {}", limiter.toString());
+        assertEquals(10, limiter.getLimit());
+        limiter.recordError();
+        assertEquals(5, limiter.getLimit());
+        limiter.recordError(); // within cooldown, ignored
+        assertEquals(5, limiter.getLimit());
+        assertEquals(100, limiter.getLatencyPercentile(50));
+    }
+
+    /**
+     * An idle limiter does not grow, and a slow operation does not raise
+     * the limit.
+     */
+    @Test
+    public void testHoldWhenNotSaturatedOrSlow() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10);
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.recordLatency(100);
+            limiter.release();
+        }
+        assertEquals(4, limiter.getLimit());
+        for (int j = 0; j < 4; j++) {
+            limiter.acquire();
+        }
+        limiter.recordLatency(1000);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1000, limiter.getLatencyPercentile(99));
+    }
+}
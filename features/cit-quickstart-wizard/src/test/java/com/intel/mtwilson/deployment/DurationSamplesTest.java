@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class DurationSamplesTest {
+
+    @Test
+    public void testWindowKeepsRecentSamples() {
+        DurationSamples samples = new DurationSamples(4);
+        assertEquals(0, samples.getPercentile(50));
+        for (long i = 1; i <= 10; i++) {
+            samples.record(i * 100);
+        }
+        // only 700, 800, 900, 1000 are kept
+        assertEquals(10, samples.getCount());
+        assertEquals(700, samples.getPercentile(0));
+        assertEquals(800, samples.getPercentile(50));
+        assertEquals(1000, samples.getPercentile(100));
+    }
+}
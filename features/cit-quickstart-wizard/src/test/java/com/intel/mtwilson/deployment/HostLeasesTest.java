@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.mtwilson.deployment.threads.HostLeases;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class HostLeasesTest {
+
+    @Test
+    public void testLeasesAreAllOrNothing() {
+        HostLeases leases = new HostLeases(60000);
+        List<String> first = Arrays.asList(HostLeases.key("10.1.0.7", null), HostLeases.key("10.1.0.8", 22));
+        List<String> second = Arrays.asList(HostLeases.key("10.1.0.8", null), HostLeases.key("10.1.0.9", null));
+        assertNull(leases.tryAcquire(first, "order-1"));
+        HostLeases.Lease conflict = leases.tryAcquire(second, "order-2");
+        assertNotNull(conflict);
+        assertEquals("10.1.0.8:22", conflict.getKey());
+        assertEquals("order-1", conflict.getHolder());
+        assertEquals(0, leases.size("order-2")); // did not take 10.1.0.9 either
+        // another port on the same address is another host
+        assertNull(leases.tryAcquire(Arrays.asList(HostLeases.key("10.1.0.8", 2222)), "order-3"));
+        leases.release("order-1");
+        assertNull(leases.tryAcquire(second, "order-2"));
+        assertEquals(3, leases.size());
+    }
+
+    @Test
+    public void testLeaseExpiresUnlessRenewed() throws InterruptedException {
+        HostLeases leases = new HostLeases(100);
+        List<String> hosts = Arrays.asList(HostLeases.key("10.1.0.7", null));
+        assertNull(leases.tryAcquire(hosts, "order-1"));
+        Thread.sleep(60);
+        leases.renew("order-1");
+        Thread.sleep(60);
+        assertNotNull(leases.findConflict(hosts, "order-2"));
+        Thread.sleep(60);
+        assertNull(leases.tryAcquire(hosts, "order-2"));
+        assertEquals(0, leases.size("order-1"));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class HostRangesTest {
+
+    private static List<String> list(String entry) {
+        ArrayList<String> hosts = new ArrayList<>();
+        for (String host : HostRanges.parse(entry)) {
+            hosts.add(host);
+        }
+        return hosts;
+    }
+
+    @Test
+    public void testSingleHost() {
+        assertEquals(Arrays.asList("10.1.0.5"), list("10.1.0.5"));
+        assertEquals(Arrays.asList("node-1.example.com"), list(" node-1.example.com "));
+    }
+
+    @Test
+    public void testAddressRange() {
+        assertEquals(Arrays.asList("10.1.0.254", "10.1.0.255", "10.1.1.0", "10.1.1.1"), list("10.1.0.254-10.1.1.1"));
+        assertEquals(Arrays.asList("10.1.0.5", "10.1.0.6", "10.1.0.7"), list("10.1.0.5-7"));
+        assertEquals(196, HostRanges.count("10.1.0.5-200"));
+    }
+
+    @Test
+    public void testCidr() {
+        assertEquals(254, HostRanges.count("10.1.0.0/24"));
+        assertEquals("10.1.0.1", HostRanges.parse("10.1.0.77/24").get(0));
+        assertEquals("10.1.0.254", HostRanges.parse("10.1.0.0/24").get(253));
+        assertEquals(Arrays.asList("10.1.0.4", "10.1.0.5"), list("10.1.0.5/31"));
+        assertEquals(Arrays.asList("10.1.0.5"), list("10.1.0.5/32"));
+        assertEquals(65534, HostRanges.count("10.1.0.0/16"));
+    }
+
+    @Test
+    public void testNameRange() {
+        assertEquals(Arrays.asList("node008.example.com", "node009.example.com", "node010.example.com"), list("node[008-010].example.com"));
+        assertEquals(Arrays.asList("rack9", "rack10"), list("rack[9-10]"));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String entry : Arrays.asList("", "10.1.0.300", "10.1.0.9-5", "10.0.0.0/8", "10.1.0.0/33", "node[1-2][3-4]", "a b", "node[1-100000]")) {
+            try {
+                HostRanges.parse(entry);
+                fail("Expected invalid: " + entry);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
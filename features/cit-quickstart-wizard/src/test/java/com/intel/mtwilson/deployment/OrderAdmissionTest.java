@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.mtwilson.deployment.threads.OrderAdmission;
+import com.intel.mtwilson.deployment.threads.OrderAdmission.Saturation;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class OrderAdmissionTest {
+
+    @Test
+    public void testQueueLimits() {
+        OrderAdmission admission = new OrderAdmission(3, 2, 1, 100);
+        assertEquals(Saturation.NONE, admission.reserve("alice"));
+        assertEquals(Saturation.NONE, admission.reserve("alice"));
+        assertEquals(Saturation.OWNER, admission.reserve("alice"));
+        assertEquals(Saturation.NONE, admission.reserve("bob"));
+        assertEquals(Saturation.SERVER, admission.reserve("carol"));
+        admission.dequeued("alice");
+        assertEquals(1, admission.getQueued("alice"));
+        assertEquals(Saturation.NONE, admission.reserve("carol"));
+        assertEquals(3, admission.getQueued());
+    }
+
+    @Test
+    public void testRunningLimits() {
+        OrderAdmission admission = new OrderAdmission(10, 10, 2, 100);
+        assertTrue(admission.canStart(0, 0, 500)); // too large, but nothing else is running
+        assertFalse(admission.canStart(1, 60, 50));
+        assertTrue(admission.canStart(1, 60, 40));
+        assertFalse(admission.canStart(2, 0, 1));
+    }
+
+    @Test
+    public void testEstimates() {
+        OrderAdmission admission = new OrderAdmission(10, 10, 2, 100);
+        admission.finished(10000);
+        assertEquals(10000, admission.getAverageDuration());
+        assertEquals(0, admission.estimateWait(1, 1));
+        assertEquals(10000, admission.estimateWait(1, 2));
+        assertEquals(20000, admission.estimateWait(4, 2));
+        assertEquals(5, admission.getRetryAfter());
+    }
+
+    @Test
+    public void testDispatchLatency() {
+        OrderAdmission admission = new OrderAdmission(10, 10, 2, 100);
+        assertEquals(0, admission.getDispatchLatencyPercentile(50));
+        for (long latency = 1; latency <= 100; latency++) {
+            admission.dispatched(latency);
+        }
+        assertEquals(100, admission.getDispatched());
+        assertEquals(50, admission.getDispatchLatencyPercentile(50));
+        assertEquals(99, admission.getDispatchLatencyPercentile(99));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.mtwilson.deployment.threads.OrderJournal;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class OrderJournalTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderJournalTest.class);
+
+    @Test
+    public void testReplayOrdersNotDispatched() throws IOException {
+        File file = File.createTempFile("orders", ".log");
+        file.deleteOnExit();
+        try (OrderJournal journal = new OrderJournal(file, 1024 * 1024)) {
+            journal.received("order-1", "{\"id\":\"order-1\"}");
+            journal.received("order-2", "{\"id\":\"order-2\"}");
+            journal.received("order-3", "{\"id\":\"order-3\"}");
+            journal.planned("order-1");
+            journal.planned("order-2");
+            journal.dispatched("order-1");
+            journal.failed("order-3");
+        }
+        // a record cut short by the restart
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("RECEIVED\torder-4".getBytes("UTF-8"));
+        }
+        try (OrderJournal journal = new OrderJournal(file, 1024 * 1024)) {
+            List<OrderJournal.Entry> entries = journal.replay();
+            assertEquals(1, entries.size());
+            assertEquals("order-2", entries.get(0).getOrderId());
+            assertEquals(OrderJournal.State.PLANNED, entries.get(0).getState());
+            assertEquals("{\"id\":\"order-2\"}", entries.get(0).getDocument());
+            assertEquals(1, journal.getOpen());
+        }
+        // the journal was rewritten with only the open order
+        try (OrderJournal journal = new OrderJournal(file, 1024 * 1024)) {
+            assertEquals(1, journal.replay().size());
+        }
+    }
+
+    @Test
+    public void testTruncateWhenNoOrdersOpen() throws IOException {
+        File file = File.createTempFile("orders", ".log");
+        file.deleteOnExit();
+        try (OrderJournal journal = new OrderJournal(file, 64)) {
+            journal.received("order-1", "{\"id\":\"order-1\",\"settings\":{\"a\":\"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"}}");
+            assertTrue(journal.getSize() > 64);
+            journal.dispatched("order-1");
+            assertEquals(0, journal.getSize());
+        }
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        File file = File.createTempFile("orders", ".log");
+        file.deleteOnExit();
+        final int threads = 8, orders = 200;
+        try (final OrderJournal journal = new OrderJournal(file, 1024 * 1024 * 64)) {
+            final CountDownLatch start = new CountDownLatch(1);
+            ArrayList<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int worker = t;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < orders; i++) {
+                                journal.received("order-" + worker + "-" + i, "{}");
+                            }
+                        } catch (InterruptedException | IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+                thread.start();
+                workers.add(thread);
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : workers) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            log.debug("Journaled {} orders in {} ms with {} commits", threads * orders, elapsed / 1000000, journal.getCommits());
+            assertEquals(threads * orders, journal.getRecords());
+            assertTrue(journal.getCommits() <= threads * orders);
+            assertEquals(threads * orders, journal.getOpen());
+        }
+        try (OrderJournal journal = new OrderJournal(file, 1024 * 1024 * 64)) {
+            assertEquals(threads * orders, journal.replay().size());
+        }
+    }
+}
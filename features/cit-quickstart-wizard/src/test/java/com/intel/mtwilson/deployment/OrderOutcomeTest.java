@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.dcsg.cpg.validation.Fault;
+import com.intel.mtwilson.deployment.threads.OrderOutcome;
+import com.intel.mtwilson.util.task.AbstractTask;
+import com.intel.mtwilson.util.task.FailurePolicy;
+import com.intel.mtwilson.util.task.Task;
+import com.intel.mtwilson.util.task.TaskManager;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class OrderOutcomeTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(OrderOutcomeTest.class);
+
+    /**
+     * When one branch fails and another branch is still running, the task
+     * manager already has a fault but the order stays ACTIVE; it is ERROR
+     * only after the task manager returns.
+     */
+    @Test
+    public void testFailedBranchStaysActiveUntilFinished() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        // a task that throws gives the task manager a fault right away
+        Task failure = new Task() {
+            @Override
+            public boolean isDone() {
+                return false;
+            }
+
+            @Override
+            public Collection<Task> getDependencies() {
+                return null;
+            }
+
+            @Override
+            public Collection<Fault> getFaults() {
+                return null;
+            }
+
+            @Override
+            public void run() {
+                throw new IllegalStateException("failed branch");
+            }
+        };
+        Task running = new AbstractTask() {
+            @Override
+            public void execute() {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final TaskManager taskManager = new TaskManager(Arrays.asList(failure, running));
+        taskManager.setConcurrency(2);
+        taskManager.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+        Thread thread = new Thread(taskManager);
+        thread.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000 && taskManager.getFaults().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(taskManager.getFaults().isEmpty());
+        // the monitor runs several times while the other branch is running
+        for (int i = 0; i < 3; i++) {
+            assertEquals(OrderOutcome.ACTIVE, OrderOutcome.getStatus(taskManager.getSnapshot(), true, false, false));
+        }
+        release.countDown();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        log.debug("Task manager finished with {} of {} tasks", taskManager.getCurrent(), taskManager.getMax());
+        assertEquals(OrderOutcome.ERROR, OrderOutcome.getStatus(taskManager.getSnapshot(), true, false, true));
+        assertNull(OrderOutcome.getStatus(taskManager.getSnapshot(), true, true, true));
+    }
+
+    @Test
+    public void testCompletedOrderIsDone() {
+        TaskManager taskManager = new TaskManager(Arrays.<Task>asList(new AbstractTask() {
+            @Override
+            public void execute() {
+            }
+        }));
+        taskManager.run();
+        assertEquals(OrderOutcome.DONE, OrderOutcome.getStatus(taskManager.getSnapshot(), false, false, true));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.intel.mtwilson.deployment.task.AbstractTaskWithId;
+import com.intel.mtwilson.deployment.threads.TaskDocumentProjection;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares copying task attributes into task documents with the previous
+ * PropertyUtils.describe, which calls every getter and translates every
+ * key, and with the cached TaskDocumentProjection, on tasks shaped like 
+ * the file transfers and remote installs of a large order.
+ * 
+ * This is not a unit test; run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.intel.mtwilson.deployment.TaskDocumentProjectionBenchmark
+ * </pre>
+ * 
+ * @author jbuhacoff
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TaskDocumentProjectionBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    private List<Object> tasks;
+    private final PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy namingStrategy = new PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy();
+
+    @Setup(Level.Trial)
+    public void createTasks() {
+        tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String host = "10.1." + (i / 250) + "." + (i % 250);
+            tasks.add(i % 2 == 0 ? new TransferTask(host) : new InstallTask(host));
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> describe() throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+        ArrayList<Map<String, Object>> result = new ArrayList<>(tasks.size());
+        for (Object task : tasks) {
+            Map<String, Object> attributes = PropertyUtils.describe(task);
+            attributes.remove("id");
+            attributes.remove("done");
+            attributes.remove("current");
+            attributes.remove("max");
+            attributes.remove("class");
+            attributes.remove("faults");
+            attributes.remove("dependencies");
+            attributes.remove("preconditions");
+            attributes.remove("postconditions");
+            attributes.remove("configuration");
+            attributes.remove("fingerprintStore");
+            attributes.remove("cancellationToken");
+            attributes.remove("deadline");
+            attributes.remove("eventBuffer");
+            HashMap<String, Object> data = new HashMap<>();
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                data.put(namingStrategy.translate(entry.getKey()), entry.getValue());
+            }
+            result.add(data);
+        }
+        return result;
+    }
+
+    /**
+     * A new projection each time, so looking up the getters of each 
+     * class is included.
+     */
+    @Benchmark
+    public List<Map<String, Object>> project() {
+        TaskDocumentProjection projection = new TaskDocumentProjection();
+        ArrayList<Map<String, Object>> result = new ArrayList<>(tasks.size());
+        for (Object task : tasks) {
+            result.add(projection.project(task));
+        }
+        return result;
+    }
+
+    /**
+     * Like a FileTransfer: the progress adds up the progress of each file
+     * and the file names are joined.
+     */
+    public static class TransferTask extends AbstractTaskWithId {
+
+        private final String host;
+        private final long[] files = new long[32];
+
+        public TransferTask(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void execute() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getFilenameCsv() {
+            StringBuilder names = new StringBuilder();
+            for (int i = 0; i < files.length; i++) {
+                if (i > 0) {
+                    names.append(", ");
+                }
+                names.append("file").append(i).append(".bin");
+            }
+            return names.toString();
+        }
+
+        @Override
+        public long getCurrent() {
+            long current = 0;
+            for (long file : files) {
+                current += file;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Like a RemoteInstall
+     */
+    public static class InstallTask extends AbstractTaskWithId {
+
+        private final String host;
+
+        public InstallTask(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void execute() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPackageName() {
+            return "trustagent";
+        }
+
+        public String getExecutablePath() {
+            return "/tmp/trustagent.bin";
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(TaskDocumentProjectionBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.mtwilson.deployment.threads.TaskDocumentProjection;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TaskDocumentProjectionTest {
+
+    @Test
+    public void testProjectIncludedProperties() {
+        TaskDocumentProjection projection = new TaskDocumentProjection(Arrays.asList("host", "packageName", "missing", "broken", "empty"));
+        CustomTask task = new CustomTask();
+        Map<String, Object> data = projection.project(task);
+        assertEquals(2, data.size());
+        assertEquals("10.1.68.33", data.get("host"));
+        assertEquals("trustagent", data.get("package_name"));
+        assertEquals(0, task.progressCalls); // not in the include list
+        // the same class again uses the cached getters
+        assertEquals(data, projection.project(task));
+    }
+
+    @Test
+    public void testProjectTaskOfPrivateClass() {
+        TaskDocumentProjection projection = new TaskDocumentProjection();
+        Object task = new Object() {
+            public String getHost() {
+                return "10.1.68.34";
+            }
+        };
+        assertEquals("10.1.68.34", projection.project(task).get("host"));
+    }
+
+    public static class CustomTask {
+
+        private int progressCalls = 0;
+
+        public String getHost() {
+            return "10.1.68.33";
+        }
+
+        public String getPackageName() {
+            return "trustagent";
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException("not available");
+        }
+
+        public String getEmpty() {
+            return null;
+        }
+
+        public long getCurrent() {
+            progressCalls++;
+            return 0;
+        }
+    }
+}
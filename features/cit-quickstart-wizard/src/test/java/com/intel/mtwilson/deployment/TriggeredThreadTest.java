@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.deployment;
+
+import com.intel.mtwilson.deployment.threads.TriggeredQueue;
+import com.intel.mtwilson.deployment.threads.TriggeredThread;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TriggeredThreadTest {
+
+    @Test
+    public void testRunsWhenTriggered() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(1);
+        TriggeredThread thread = new TriggeredThread("test");
+        thread.setTask(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                ran.countDown();
+            }
+        });
+        thread.start();
+        try {
+            Thread.sleep(100);
+            assertEquals(0, runs.get()); // idle without a trigger
+            TriggeredQueue<String> queue = new TriggeredQueue<>(thread);
+            long start = System.currentTimeMillis();
+            queue.add("order");
+            assertTrue(ran.await(1, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - start < 100);
+        } finally {
+            thread.stop();
+        }
+    }
+
+    @Test
+    public void testCombinesTriggersWithinDelay() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        TriggeredThread thread = new TriggeredThread("test");
+        thread.setDelay(200, TimeUnit.MILLISECONDS);
+        thread.setTask(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+        thread.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                thread.trigger();
+                Thread.sleep(5);
+            }
+            Thread.sleep(400);
+            assertEquals(1, runs.get());
+        } finally {
+            thread.stop();
+        }
+    }
+}
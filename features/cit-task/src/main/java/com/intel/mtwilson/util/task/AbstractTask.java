@@ -12,10 +12,20 @@ import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.configuration.PropertiesConfiguration;
 import com.intel.dcsg.cpg.performance.Progress;
 import com.intel.dcsg.cpg.validation.Fault;
+import com.intel.mtwilson.util.task.faults.DeadlineExceeded;
+import com.intel.mtwilson.util.task.faults.ExecutionCancelled;
 import com.intel.mtwilson.util.task.faults.ExecutionFailed;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A task can be in one of the following states: 
@@ -34,55 +44,121 @@ import java.util.Collections;
  * DONE - task completed execution (active is false); this does not imply
  * if there are errors or not;  errors must be checked via getFaults()
  * 
+ * A task that implements Fingerprint and has a fingerprint store goes from
+ * PRECONDITIONS directly to DONE, without executing, when it is up to date.
+ * 
+ * A task whose cancellation token is already cancelled does not execute.
+ * A running task can stop early by throwing CancellationException from
+ * execute(), for example with getCancellationToken().throwIfCancelled(),
+ * and is then not done and has an ExecutionCancelled fault.
+ * 
+ * A task with a deadline does not start after the deadline, and if it is
+ * still executing at the deadline the Watchdog cancels its token; the task
+ * then has a DeadlineExceeded fault instead of ExecutionCancelled.
+ * 
+ * When an event buffer is set, the task publishes a STARTED event when it
+ * starts executing, a PROGRESS event when current() or max() changes the
+ * progress, and a FINISHED event when run() returns for any reason.
+ * 
+ * The progress and state are kept together in an immutable TaskSnapshot
+ * that is replaced atomically on each change, so getSnapshot() gives
+ * another thread a consistent view without locking. getCurrent(), 
+ * getMax(), isActive() and isDone() each read the latest snapshot, so a 
+ * caller that needs more than one of them should use getSnapshot().
+ * 
  * @author jbuhacoff
  */
 public abstract class AbstractTask implements Task, Progress, Preconditions, Postconditions, Configurable {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AbstractTask.class);
-    private final ArrayList<Fault> faults;
+    private static final ConcurrentHashMap<Class<?>, Boolean> progressInSnapshot = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Fault> faults;
     private final ArrayList<Task> dependencies;
     private final ArrayList<Condition> preconditions, postconditions;
     private Configuration configuration;
-    private long current, max;
-    private boolean active, done;
+    private final AtomicReference<TaskSnapshot> snapshot = new AtomicReference<>(new TaskSnapshot(0, 0, 0, false, false));
+    private FingerprintStore fingerprintStore;
+    private volatile boolean upToDate;
+    private CancellationToken cancellationToken = new CancellationToken();
+    private volatile long deadline = 0;
+    private volatile TaskEventBuffer eventBuffer;
 
     public AbstractTask() {
-        faults = new ArrayList<>();
+        faults = new CopyOnWriteArrayList<>();
         preconditions = new ArrayList<>();
         postconditions = new ArrayList<>();
         dependencies = new ArrayList<>();
         configuration = new PropertiesConfiguration();
-        active = false;
-        done = false;
     }
 
     @Override
     public final void run() {
+        try {
+            runTask();
+        }
+        finally {
+            publish(TaskEvent.Type.FINISHED);
+        }
+    }
+    
+    private void runTask() {
         // reset.  subclasses can reset at beginning of execute()
         faults.clear();
-        active = false;
-        done = false;
-        current = 0;
-        max = 1;
+        update(0L, 1L, false, false);
+        upToDate = false;
 
         if( !testPreconditions() ) {
             log.debug("Aborting task due to failed preconditions");
             return;
         }
 
-        active = true;
+        // checking the fingerprint may connect to the host, so a cancelled
+        // task does not check it
+        if( cancellationToken.isCancelled() || isDeadlineExceeded() ) {
+            log.debug("Not executing task {} because it was cancelled", getClass().getName());
+            faults.add(createCancellationFault());
+            return;
+        }
+
+        String fingerprint = getStoredFingerprint();
+        if( fingerprint != null && isFingerprintSatisfied(fingerprint) ) {
+            log.debug("Skipping task {} because it is up to date", getClass().getName());
+            upToDate = true;
+            update(getMax(), null, null, true);
+            return;
+        }
+
+        update(null, null, true, null);
+        publish(TaskEvent.Type.STARTED);
+        ScheduledFuture<?> alarm = deadline > 0 ? Watchdog.schedule(toString(), cancellationToken, deadline) : null;
         
         try {
             execute();
+        } catch (CancellationException e) {
+            log.debug("Task {} stopped because it was cancelled", getClass().getName());
+            faults.add(createCancellationFault());
         } catch (RuntimeException e) {
             log.error("Execution failed", e);
             faults.add(new ExecutionFailed(e));
-        } 
+        } finally {
+            if( alarm != null ) {
+                alarm.cancel(false);
+            }
+        }
         
-        active = false;
-        if (max == 1 && current == 0) {
-            current = 1;
-        }        
+        // a task that handles its own exceptions may report a connection
+        // error when the cancellation closes its connection
+        if( !faults.isEmpty() && cancellationToken.isCancelled() && !hasCancellationFault() ) {
+            faults.add(createCancellationFault());
+        }
+        
+        TaskSnapshot executed = getSnapshot();
+        if (executed.getMax() == 1 && executed.getCurrent() == 0) {
+            update(1L, null, false, null);
+        }
+        else {
+            update(null, null, false, null);
+        }
         
         if( !testPostconditions() ) {
             log.debug("Unfinished task due to failed postconditions");
@@ -91,19 +167,154 @@ public abstract class AbstractTask implements Task, Progress, Preconditions, Pos
 
         // done is only on successful completion
         if( faults.isEmpty() ) {
-            done = true;
+            update(null, null, null, true);
+            if( fingerprint != null ) {
+                fingerprintStore.add(fingerprint);
+            }
+        }
+    }
+    
+    /**
+     * 
+     * @return the fingerprint to look up in the store, or null if this task does not use fingerprints
+     */
+    private String getStoredFingerprint() {
+        if( fingerprintStore == null || !(this instanceof Fingerprint) ) {
+            return null;
+        }
+        try {
+            String fingerprint = ((Fingerprint)this).fingerprint();
+            if( fingerprint == null ) {
+                return null;
+            }
+            return getClass().getName() + ":" + fingerprint;
+        }
+        catch(RuntimeException e) {
+            log.error("Cannot compute fingerprint", e);
+            return null;
+        }
+    }
+    
+    private boolean isFingerprintSatisfied(String fingerprint) {
+        try {
+            if( !fingerprintStore.contains(fingerprint) || !isDependenciesUpToDate() ) {
+                return false;
+            }
+            if( ((Fingerprint)this).verify() && isPostconditionsSatisfied() ) {
+                return true;
+            }
+            // output is gone, for example the remote host was reset
+            fingerprintStore.remove(fingerprint);
+            return false;
+        }
+        catch(RuntimeException e) {
+            log.error("Cannot verify fingerprint", e);
+            return false;
+        }
+    }
+
+    /**
+     * 
+     * @return false if any fingerprinted task this task depends on, directly or transitively, executed in its last run 
+     */
+    private boolean isDependenciesUpToDate() {
+        Set<Task> visited = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+        ArrayDeque<Task> stack = new ArrayDeque<>();
+        stack.push(this);
+        while(!stack.isEmpty()) {
+            Task next = stack.pop();
+            Collection<Task> dependencies = next.getDependencies();
+            if( dependencies == null ) { continue; }
+            for(Task dependency : dependencies) {
+                if( dependency == null || !visited.add(dependency) ) { continue; }
+                AbstractTask target = TaskUtil.unwrap(AbstractTask.class, dependency);
+                if( target instanceof Fingerprint && target.isDone() && !target.isUpToDate() ) {
+                    return false;
+                }
+                stack.push(dependency);
+            }
         }
+        return true;
+    }
+    
+    /**
+     * Like testPostconditions() but without adding faults.
+     */
+    private boolean isPostconditionsSatisfied() {
+        for (Condition postcondition : postconditions) {
+            try {
+                if (!postcondition.test()) {
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                log.debug("Postcondition test exception", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Fault createCancellationFault() {
+        if( isDeadlineExceeded() ) {
+            return new DeadlineExceeded(toString());
+        }
+        return new ExecutionCancelled();
+    }
+    
+    private boolean hasCancellationFault() {
+        for(Fault fault : faults) {
+            if( fault instanceof ExecutionCancelled || fault instanceof DeadlineExceeded ) {
+                return true;
+            }
+        }
+        return false;
     }
 
     abstract public void execute();
 
+    /**
+     * Replaces the snapshot with one that has the given values, keeping
+     * the value from the previous snapshot for each null argument.
+     * 
+     * @return true if any value changed
+     */
+    private boolean update(Long current, Long max, Boolean active, Boolean done) {
+        while (true) {
+            TaskSnapshot previous = snapshot.get();
+            long nextCurrent = current == null ? previous.getCurrent() : current;
+            long nextMax = max == null ? previous.getMax() : max;
+            boolean nextActive = active == null ? previous.isActive() : active;
+            boolean nextDone = done == null ? previous.isDone() : done;
+            if (nextCurrent == previous.getCurrent() && nextMax == previous.getMax() && nextActive == previous.isActive() && nextDone == previous.isDone()) {
+                return false;
+            }
+            if (snapshot.compareAndSet(previous, previous.next(nextCurrent, nextMax, nextActive, nextDone))) {
+                return true;
+            }
+        }
+    }
+
+    private void publish(TaskEvent.Type type) {
+        TaskEventBuffer buffer = eventBuffer;
+        if( buffer != null ) {
+            buffer.offer(new TaskEvent(this, type));
+        }
+    }
+
     protected void fault(Fault fault) {
         faults.add(fault);
     }
 
+    /**
+     * The task manager, a cancellation, and the task itself can add faults
+     * from different threads while a monitor reads them, so this returns
+     * a copy; use fault() to add a fault.
+     * 
+     * @return a copy of the faults of the task
+     */
     @Override
     public Collection<Fault> getFaults() {
-        return faults;
+        return new ArrayList<>(faults);
     }
 
     private boolean testPreconditions() {
@@ -166,13 +377,115 @@ public abstract class AbstractTask implements Task, Progress, Preconditions, Pos
         this.configuration = configuration;
     }
 
+    public FingerprintStore getFingerprintStore() {
+        return fingerprintStore;
+    }
+
+    /**
+     * 
+     * @param fingerprintStore may be null to always execute the task
+     */
+    public void setFingerprintStore(FingerprintStore fingerprintStore) {
+        this.fingerprintStore = fingerprintStore;
+    }
+
+    /**
+     * 
+     * @return true if the last run skipped execute() because the task was up to date
+     */
+    public boolean isUpToDate() {
+        return upToDate;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * A task manager gives its own token to the tasks it runs.
+     * 
+     * @param cancellationToken must not be null
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        if( cancellationToken == null ) {
+            throw new IllegalArgumentException("Cancellation token must not be null");
+        }
+        this.cancellationToken = cancellationToken;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * A task manager with task timeouts or a deadline of its own sets 
+     * the deadline of each task when it starts the task.
+     * 
+     * @param deadline in milliseconds since the epoch, or 0 for no deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * 
+     * @return true if the task has a deadline and it has passed
+     */
+    protected boolean isDeadlineExceeded() {
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    public TaskEventBuffer getEventBuffer() {
+        return eventBuffer;
+    }
+
+    /**
+     * A task manager with an event buffer gives it to the tasks it runs.
+     * 
+     * @param eventBuffer may be null to not publish events
+     */
+    public void setEventBuffer(TaskEventBuffer eventBuffer) {
+        this.eventBuffer = eventBuffer;
+    }
+
+    /**
+     * 
+     * @return the progress and state of the task, consistent with each other
+     */
+    public TaskSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * A subclass that overrides getCurrent() or getMax(), for example to
+     * add up the progress of other tasks, has progress that is not in its
+     * snapshot and that changes without changing the snapshot version.
+     * Callers that read progress should then use the Progress getters.
+     * 
+     * @return true if getCurrent() and getMax() return the progress in the snapshot
+     */
+    public boolean isProgressInSnapshot() {
+        Class<?> type = getClass();
+        Boolean inSnapshot = progressInSnapshot.get(type);
+        if (inSnapshot == null) {
+            try {
+                inSnapshot = type.getMethod("getCurrent").getDeclaringClass() == AbstractTask.class
+                        && type.getMethod("getMax").getDeclaringClass() == AbstractTask.class;
+            } catch (NoSuchMethodException e) {
+                inSnapshot = false;
+            }
+            progressInSnapshot.put(type, inSnapshot);
+        }
+        return inSnapshot;
+    }
+
     public boolean isActive() {
-        return active;
+        return snapshot.get().isActive();
     }
 
     @Override
     public boolean isDone() {
-        return done;
+        return snapshot.get().isDone();
     }
 
     @Override
@@ -185,20 +498,62 @@ public abstract class AbstractTask implements Task, Progress, Preconditions, Pos
     }
 
     protected void max(long max) {
-        this.max = max;
+        if( update(null, max, null, null) ) {
+            publish(TaskEvent.Type.PROGRESS);
+        }
     }
 
     protected void current(long current) {
-        this.current = current;
+        if( update(current, null, null, null) ) {
+            publish(TaskEvent.Type.PROGRESS);
+        }
+    }
+
+    /**
+     * Adds to the current progress. Unlike current(getCurrent() + delta),
+     * this is safe when several threads report progress for the same task.
+     * 
+     * @param delta 
+     */
+    protected void advance(long delta) {
+        if( delta == 0 ) {
+            return;
+        }
+        while (true) {
+            TaskSnapshot previous = snapshot.get();
+            if (snapshot.compareAndSet(previous, previous.next(previous.getCurrent() + delta, previous.getMax(), previous.isActive(), previous.isDone()))) {
+                break;
+            }
+        }
+        publish(TaskEvent.Type.PROGRESS);
+    }
+
+    /**
+     * Adds to the max. Unlike max(getMax() + delta), this is safe when 
+     * several threads change the max of the same task.
+     * 
+     * @param delta 
+     */
+    protected void extend(long delta) {
+        if( delta == 0 ) {
+            return;
+        }
+        while (true) {
+            TaskSnapshot previous = snapshot.get();
+            if (snapshot.compareAndSet(previous, previous.next(previous.getCurrent(), previous.getMax() + delta, previous.isActive(), previous.isDone()))) {
+                break;
+            }
+        }
+        publish(TaskEvent.Type.PROGRESS);
     }
 
     @Override
     public long getCurrent() {
-        return current;
+        return snapshot.get().getCurrent();
     }
 
     @Override
     public long getMax() {
-        return max;
+        return snapshot.get().getMax();
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A cancellation token is shared by a task manager and the tasks it runs
+ * so a request to cancel reaches tasks that are already running.
+ *
+ * Tasks check isCancelled() or call throwIfCancelled() between steps, and
+ * use sleep() instead of Thread.sleep() so a polling loop wakes up as soon
+ * as the token is cancelled. A task that is blocked in I/O, such as an SSH
+ * read, registers a listener that closes the connection so the blocked
+ * call fails right away instead of when it times out.
+ *
+ * Cancelling is permanent; a token cannot be reset.
+ *
+ * @author jbuhacoff
+ */
+public class CancellationToken {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CancellationToken.class);
+    private final Object lock = new Object();
+    private final ArrayList<Runnable> listeners = new ArrayList<>();
+    private volatile boolean cancelled = false;
+    private volatile long cancelledAt = 0;
+
+    /**
+     * Marks the token as cancelled, wakes up any thread in sleep(), and
+     * runs each registered listener once on the calling thread. Calling
+     * cancel() again has no effect.
+     */
+    public void cancel() {
+        List<Runnable> notify;
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            cancelledAt = System.currentTimeMillis();
+            cancelled = true;
+            notify = new ArrayList<>(listeners);
+            listeners.clear();
+            lock.notifyAll();
+        }
+        for (Runnable listener : notify) {
+            run(listener);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     *
+     * @return the time cancel() was first called, in milliseconds since the epoch, or 0 if not cancelled
+     */
+    public long getCancelledAt() {
+        return cancelledAt;
+    }
+
+    /**
+     *
+     * @throws CancellationException if the token is cancelled
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Waits for the specified time or until the token is cancelled,
+     * whichever comes first.
+     *
+     * @param milliseconds
+     * @return true if the token is cancelled
+     * @throws InterruptedException
+     */
+    public boolean sleep(long milliseconds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + milliseconds;
+        synchronized (lock) {
+            long remaining = milliseconds;
+            while (!cancelled && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * The listener should return quickly, for example by closing a
+     * connection; it must not wait for the task to stop.
+     *
+     * @param listener to run when the token is cancelled; runs immediately if the token is already cancelled
+     */
+    public void register(Runnable listener) {
+        synchronized (lock) {
+            if (!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        run(listener);
+    }
+
+    /**
+     *
+     * @param listener that was registered and is no longer needed, for example because the connection was closed normally
+     */
+    public void unregister(Runnable listener) {
+        synchronized (lock) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * The child stays registered with this token until this token is
+     * cancelled, so children should be created for a bounded number of
+     * tasks, like the tasks of one task manager.
+     * 
+     * @return a new token that is cancelled when this token is cancelled, and can also be cancelled by itself
+     */
+    public CancellationToken newChild() {
+        final CancellationToken child = new CancellationToken();
+        register(new Runnable() {
+            @Override
+            public void run() {
+                child.cancel();
+            }
+        });
+        return child;
+    }
+
+    private static void run(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException e) {
+            log.error("Cancellation listener failed", e);
+        }
+    }
+}
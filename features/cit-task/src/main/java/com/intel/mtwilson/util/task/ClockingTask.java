@@ -7,14 +7,24 @@ package com.intel.mtwilson.util.task;
 import com.intel.mtwilson.util.task.Task;
 
 /**
+ * Records when the delegate task started and stopped. If a duration 
+ * estimator is provided, the duration of each run that completes without
+ * faults is recorded with the estimator, except a run that was skipped
+ * because the task was up to date, which would make the estimate too short.
  *
  * @author jbuhacoff
  */
 public class ClockingTask extends AbstractTaskDecorator {
     private long started, stopped;
+    private final TaskDurationEstimator estimator;
 
     public ClockingTask(Task delegate) {
+        this(delegate, null);
+    }
+
+    public ClockingTask(Task delegate, TaskDurationEstimator estimator) {
         super(delegate);
+        this.estimator = estimator;
         started = 0;
         stopped = 0;
     }
@@ -26,6 +36,11 @@ public class ClockingTask extends AbstractTaskDecorator {
         stopped = 0;
         delegate.run();
         stopped = System.currentTimeMillis();
+        AbstractTask target = TaskUtil.unwrap(AbstractTask.class, delegate);
+        boolean skipped = target != null && target.isUpToDate();
+        if( estimator != null && !skipped && (delegate.getFaults() == null || delegate.getFaults().isEmpty()) ) {
+            estimator.record(delegate, stopped - started);
+        }
     }
 
     public long getTimeStarted() {
@@ -36,5 +51,16 @@ public class ClockingTask extends AbstractTaskDecorator {
         return stopped;
     }
 
+    /**
+     * 
+     * @return duration of the last run in milliseconds, or 0 if the task has not finished running
+     */
+    public long getDuration() {
+        if( stopped == 0 ) {
+            return 0;
+        }
+        return stopped - started;
+    }
+
     
 }
@@ -4,7 +4,10 @@
  */
 package com.intel.mtwilson.util.task;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
@@ -12,49 +15,166 @@ import java.util.List;
  * @author jbuhacoff
  */
 public class DependenciesUtil {
-        /**
-     * Invariant: after each iteration "i+1" of the outer loop, the number of items
-     * in the list that have dependencies AFTER them in the list is smaller 
-     * than it was in iteration "i" (the previous iteration) or the loop counter
-     * i is incremented.
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DependenciesUtil.class);
+
+    /**
+     * Sorts the list so that every item appears after all of its 
+     * dependencies. 
+     * 
+     * Note that dependencies of an item are not required to be in the list;
+     * dependencies that are not in the list are ignored. 
      * 
-     * Note that dependencies of an item are not required to be in the list...
-     * we use "indexOf" so if a dependency is not in the list, it's indexOf 
-     * return value will be -1 and it will always be skipped when considering
-     * if anything needs to be moved since -1 is less than even the first element
-     * at index 0.
+     * If the list contains a dependency cycle, the items that cannot be
+     * sorted are moved to the end of the list in their original relative
+     * order. Use sortWithLevels(list) to find out which items those are.
      * 
      * @param list 
      */
     public static <T extends Dependencies<T>> void sort(List<T> list) {
-        int i = 0, length = list.size(), highestDependencyIndex, currentDependencyIndex;
-        T highestDependency;
-        while (i < length) {
-            Collection<T> dependencies = list.get(i).getDependencies();
-            // if this item has dependencies, identify which one has the highest index in the list
-            if (dependencies != null) {
-                highestDependency = null;
-                highestDependencyIndex = 0;
+        TopologicalOrder<T> order = sortWithLevels(list);
+        if( order.hasCycle() ) {
+            log.error("Cannot sort {} items with cyclic dependencies", order.getCycle().size() + order.getBlocked().size());
+        }
+    }
+    
+    /**
+     * Sorts the list so that every item appears after all of its 
+     * dependencies, and assigns each item a depth level. 
+     * 
+     * This is Kahn's algorithm: items are identified by reference (not
+     * equals) using an index of their positions in the list, and each
+     * item and each dependency is visited once, so it runs in O(V+E) time.
+     * Items with no unsorted dependencies are emitted in the order they
+     * appear in the list.
+     * 
+     * Items that remain after the sort are part of a cycle or depend on
+     * one; they are moved to the end of the list in their original relative
+     * order and reported by the returned TopologicalOrder.
+     * 
+     * @param list
+     * @return the level of each item and any items that could not be sorted
+     */
+    public static <T extends Dependencies<T>> TopologicalOrder<T> sortWithLevels(List<T> list) {
+        int length = list.size();
+        ArrayList<T> items = new ArrayList<>(list);
+        IdentityHashMap<T, Integer> index = new IdentityHashMap<>(length);
+        for (int i = 0; i < length; i++) {
+            index.put(items.get(i), i);
+        }
+        // count the dependencies of each item that are in the list, and
+        // record the reverse edges from each dependency to its dependents
+        int[] unsorted = new int[length];
+        int[][] dependents = new int[length][];
+        int[] dependentsCount = new int[length];
+        for (int i = 0; i < length; i++) {
+            Collection<T> dependencies = items.get(i).getDependencies();
+            if (dependencies == null) { continue; }
+            for (T dependency : dependencies) {
+                Integer j = index.get(dependency);
+                if (j == null) { continue; }
+                unsorted[i]++;
+                add(dependents, dependentsCount, j, i);
+            }
+        }
+        
+        int[] levels = new int[length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < length; i++) {
+            if (unsorted[i] == 0) {
+                queue.add(i);
+            }
+        }
+        IdentityHashMap<T, Integer> levelMap = new IdentityHashMap<>(length);
+        int maxLevel = -1;
+        int position = 0;
+        while (!queue.isEmpty()) {
+            int j = queue.poll();
+            T item = items.get(j);
+            list.set(position++, item);
+            levelMap.put(item, levels[j]);
+            if (levels[j] > maxLevel) {
+                maxLevel = levels[j];
+            }
+            for (int k = 0; k < dependentsCount[j]; k++) {
+                int i = dependents[j][k];
+                if (levels[j] + 1 > levels[i]) {
+                    levels[i] = levels[j] + 1;
+                }
+                unsorted[i]--;
+                if (unsorted[i] == 0) {
+                    queue.add(i);
+                }
+            }
+        }
+        
+        ArrayList<T> cycle = new ArrayList<>();
+        ArrayList<T> blocked = new ArrayList<>();
+        if (position < length) {
+            // the remaining items are in a cycle or depend on one; peel off 
+            // the items that nothing else remaining depends on, in reverse
+            // dependency order, so only the items in cycles are left
+            int[] remainingDependents = new int[length];
+            boolean[] peeled = new boolean[length];
+            for (int j = 0; j < length; j++) {
+                if (unsorted[j] == 0) { continue; }
+                for (int k = 0; k < dependentsCount[j]; k++) {
+                    if (unsorted[dependents[j][k]] > 0) {
+                        remainingDependents[j]++;
+                    }
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                if (unsorted[i] > 0 && remainingDependents[i] == 0) {
+                    queue.add(i);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                peeled[i] = true;
+                Collection<T> dependencies = items.get(i).getDependencies();
                 for (T dependency : dependencies) {
-                    currentDependencyIndex = list.indexOf(dependency);
-                    if (currentDependencyIndex > highestDependencyIndex) {
-                        highestDependencyIndex = currentDependencyIndex;
-                        highestDependency = dependency;
+                    Integer j = index.get(dependency);
+                    if (j == null || unsorted[j] == 0) { continue; }
+                    remainingDependents[j]--;
+                    if (remainingDependents[j] == 0) {
+                        queue.add(j);
                     }
                 }
-                // if the dependency with the highest index has a higher index than this item, then insert it right before this item and process it
-                if( highestDependencyIndex > i ) {
-                    list.remove(highestDependencyIndex);
-                    list.add(i, highestDependency);
-                    continue;
+            }
+            for (int i = 0; i < length; i++) {
+                if (unsorted[i] > 0) {
+                    T item = items.get(i);
+                    list.set(position++, item);
+                    if (peeled[i]) {
+                        blocked.add(item);
+                    } else {
+                        cycle.add(item);
+                    }
                 }
             }
-            // otherwise... either no dependencies or all of them are before this item in the list, go on to next item
-            i++;
         }
+        return new TopologicalOrder<>(levelMap, maxLevel, cycle, blocked);
+    }
+    
+    private static void add(int[][] lists, int[] counts, int list, int value) {
+        int[] values = lists[list];
+        if (values == null) {
+            values = new int[4];
+            lists[list] = values;
+        } else if (counts[list] == values.length) {
+            int[] larger = new int[values.length * 2];
+            System.arraycopy(values, 0, larger, 0, values.length);
+            values = larger;
+            lists[list] = values;
+        }
+        values[counts[list]++] = value;
     }
     
-        /**
+    /**
+     * Walks the dependency graph of the subject without recursion, visiting
+     * each node once, so deep or diamond-shaped graphs don't repeat work
+     * or overflow the stack. To ask many questions about the same graph
+     * use a {@link ReachabilityIndex} instead.
      * 
      * @param subject must not be null
      * @param other can be null;   isDependent(x,null) is false for any x
@@ -63,17 +183,23 @@ public class DependenciesUtil {
     public static <T extends Dependencies<T>> boolean isDependent(Dependencies<T> subject, Dependencies<T> other) {
         if( subject == null ) { throw new NullPointerException(); }
         if( other == null ) { return false; }
-        Collection<T> dependencies = subject.getDependencies();
-        if( dependencies == null ) { return false; }
-        for(T t : dependencies) {
-            if( t == null ) { continue; }
-            if( t.equals(other) ) {
-                // subject directly dependent on other
-                return true;
-            }
-            if( isDependent(t, other) ) {
-                // subject indirectly dependent on other, through t
-                return true;
+        IdentityHashMap<Dependencies<T>, Boolean> visited = new IdentityHashMap<>();
+        ArrayDeque<Dependencies<T>> stack = new ArrayDeque<>();
+        stack.push(subject);
+        visited.put(subject, Boolean.TRUE);
+        while (!stack.isEmpty()) {
+            Collection<T> dependencies = stack.pop().getDependencies();
+            if( dependencies == null ) { continue; }
+            for(T t : dependencies) {
+                if( t == null ) { continue; }
+                if( t.equals(other) ) {
+                    // subject directly or transitively dependent on other
+                    return true;
+                }
+                if( !visited.containsKey(t) ) {
+                    visited.put(t, Boolean.TRUE);
+                    stack.push(t);
+                }
             }
         }
         // subject is not directly or transitively dependent on other task
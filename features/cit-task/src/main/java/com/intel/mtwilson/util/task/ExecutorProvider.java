@@ -0,0 +1,24 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the executors that run tasks, so the threading model can be 
+ * chosen by configuration without changing task code. See 
+ * {@link ExecutorProviders} for the available implementations.
+ * 
+ * @author jbuhacoff
+ */
+public interface ExecutorProvider {
+    /**
+     * The caller shuts down the executor when it is no longer needed.
+     * 
+     * @param parallelism the number of tasks the caller will run at the same time; an implementation may use it to size a pool or ignore it
+     * @return a new executor
+     */
+    ExecutorService newExecutor(int parallelism);
+}
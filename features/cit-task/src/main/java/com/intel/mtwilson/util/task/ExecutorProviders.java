@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The executor providers that can be selected by name:
+ * 
+ * "cached" - a new platform thread for each task when no idle thread is available
+ * 
+ * "bounded" - a fixed number of platform threads
+ * 
+ * "work-stealing" - a fork/join pool with the given parallelism
+ * 
+ * "virtual" - a new virtual thread for each task, on JDK 21 or later;
+ * on earlier versions it is the same as "bounded", so a large order does
+ * not start a platform thread for every task. A virtual thread
+ * blocked in a socket read or a sleep does not hold a platform thread, so
+ * thousands of long-running remote tasks need only a small amount of
+ * memory each. 
+ * 
+ * Any other name is taken as the class name of an ExecutorProvider with
+ * a public no-arg constructor.
+ * 
+ * @author jbuhacoff
+ */
+public class ExecutorProviders {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ExecutorProviders.class);
+    
+    public static final String CACHED = "cached";
+    public static final String BOUNDED = "bounded";
+    public static final String WORK_STEALING = "work-stealing";
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * 
+     * @param name one of the provider names or the class name of an ExecutorProvider
+     * @return the executor provider
+     * @throws IllegalArgumentException if the name is not a known provider and cannot be instantiated as an ExecutorProvider
+     */
+    public static ExecutorProvider forName(String name) {
+        if( name == null || CACHED.equals(name) ) {
+            return new CachedExecutorProvider();
+        }
+        if( BOUNDED.equals(name) ) {
+            return new BoundedExecutorProvider();
+        }
+        if( WORK_STEALING.equals(name) ) {
+            return new WorkStealingExecutorProvider();
+        }
+        if( VIRTUAL.equals(name) ) {
+            return new VirtualThreadExecutorProvider();
+        }
+        try {
+            Class<?> clazz = Class.forName(name);
+            return (ExecutorProvider)clazz.getDeclaredConstructor().newInstance();
+        }
+        catch(ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown executor provider: "+name, e);
+        }
+    }
+    
+    public static class CachedExecutorProvider implements ExecutorProvider {
+        @Override
+        public ExecutorService newExecutor(int parallelism) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+    
+    public static class BoundedExecutorProvider implements ExecutorProvider {
+        @Override
+        public ExecutorService newExecutor(int parallelism) {
+            return Executors.newFixedThreadPool(Math.max(1, parallelism));
+        }
+    }
+    
+    public static class WorkStealingExecutorProvider implements ExecutorProvider {
+        @Override
+        public ExecutorService newExecutor(int parallelism) {
+            return new ForkJoinPool(Math.max(1, parallelism));
+        }
+    }
+    
+    /**
+     * Uses Executors.newVirtualThreadPerTaskExecutor() through reflection so
+     * this class can be compiled and run on earlier versions of Java.
+     */
+    public static class VirtualThreadExecutorProvider implements ExecutorProvider {
+        private static final Method factory = findFactory();
+        
+        private static Method findFactory() {
+            try {
+                return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            }
+            catch(NoSuchMethodException e) {
+                log.debug("Virtual threads are not available, using a bounded pool of platform threads instead");
+                return null;
+            }
+        }
+        
+        public static boolean isAvailable() {
+            return factory != null;
+        }
+        
+        @Override
+        public ExecutorService newExecutor(int parallelism) {
+            if( factory != null ) {
+                try {
+                    return (ExecutorService)factory.invoke(null);
+                }
+                catch(IllegalAccessException | InvocationTargetException e) {
+                    log.error("Cannot create virtual thread executor, using a bounded pool of platform threads instead", e);
+                }
+            }
+            return Executors.newFixedThreadPool(Math.max(1, parallelism));
+        }
+    }
+}
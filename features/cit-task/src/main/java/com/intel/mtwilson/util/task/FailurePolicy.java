@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * What the task manager does after a task finishes with faults.
+ * 
+ * @author jbuhacoff
+ */
+public enum FailurePolicy {
+    /**
+     * Do not start any more tasks. Tasks that are already running are
+     * allowed to finish.
+     */
+    STOP,
+    /**
+     * Skip only the tasks that depend on the failed task, directly or 
+     * transitively, and continue running all other tasks.
+     */
+    FAIL_BRANCH
+}
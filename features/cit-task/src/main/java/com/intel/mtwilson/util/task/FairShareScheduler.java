@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Shares the capacity to run tasks, and the resources in a ResourceLimits,
+ * between the task managers of several owners, so one owner with a very
+ * large order cannot keep another owner's small order waiting.
+ *
+ * Each task manager has a Share, registered for an owner with a weight.
+ * Before a task manager starts a task it asks its share; the scheduler
+ * admits the task if a slot and the task's resources are available and
+ * no share that is ahead in line is waiting for the same slot or
+ * resources. Shares are in line by weighted fair queuing: each task
+ * started advances the virtual time of its owner by 1/(owner weight) and
+ * the virtual time of its share by 1/(share weight), and the share whose
+ * owner has the lowest virtual time is first, then among the shares of
+ * one owner the share with the lowest virtual time. A share or owner that
+ * was idle starts at the lowest virtual time of those that are active, so
+ * it does not get credit for the time it was idle.
+ *
+ * Shares registered with a size at or below the fast lane threshold, like
+ * an order to add one host, are ahead of all others and can use a number
+ * of slots reserved for them, so they start right away even when large
+ * orders are using every other slot.
+ *
+ * A share that asked for a task and was refused is waiting until it is
+ * admitted or until it has not asked again for a second, for example
+ * because its task manager was cancelled.
+ *
+ * @author jbuhacoff
+ */
+public class FairShareScheduler {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FairShareScheduler.class);
+    private static final long WAIT_MILLISECONDS = 200;
+    private static final long WAITING_EXPIRES_MILLISECONDS = 1000;
+    private final int capacity;
+    private final ResourceLimits resourceLimits;
+    private int fastLaneSlots = 0;
+    private long fastLaneThreshold = 0;
+    private int used = 0;
+    private final HashMap<String, Integer> ownerWeights = new HashMap<>();
+    private final HashMap<String, Owner> owners = new HashMap<>();
+    private final LinkedHashSet<Share> active = new LinkedHashSet<>();
+
+    /**
+     *
+     * @param capacity the maximum number of tasks running at the same time across all shares
+     * @param resourceLimits shared by all shares, may be null to not limit resources
+     */
+    public FairShareScheduler(int capacity, ResourceLimits resourceLimits) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.resourceLimits = resourceLimits;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public ResourceLimits getResourceLimits() {
+        return resourceLimits;
+    }
+
+    /**
+     *
+     * @param slots reserved for shares in the fast lane, less than the capacity
+     * @param threshold the largest size of a share in the fast lane; 0 for no fast lane
+     */
+    public synchronized void setFastLane(int slots, long threshold) {
+        if (slots < 0 || slots >= capacity) {
+            throw new IllegalArgumentException("Fast lane slots must be less than the capacity");
+        }
+        this.fastLaneSlots = slots;
+        this.fastLaneThreshold = threshold;
+    }
+
+    /**
+     *
+     * @param owner
+     * @param weight relative to other owners, at least 1; the default is 1
+     */
+    public synchronized void setOwnerWeight(String owner, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+        ownerWeights.put(owner, weight);
+    }
+
+    private int getOwnerWeight(String owner) {
+        Integer weight = ownerWeights.get(owner);
+        return weight == null ? 1 : weight;
+    }
+
+    /**
+     *
+     * @param owner of the task manager, such as the user who submitted the order; may be null
+     * @param name of the task manager, for logging
+     * @param size the number of tasks, to decide if the share is in the fast lane
+     * @param weight relative to other shares of the same owner, at least 1
+     * @return a share for the task manager
+     */
+    public synchronized Share register(String owner, String name, long size, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+        boolean fastLane = fastLaneThreshold > 0 && size <= fastLaneThreshold;
+        log.debug("Registered share {} of owner {} with {} tasks, fast lane: {}", name, owner, size, fastLane);
+        return new Share(this, owner == null ? "" : owner, name, weight, fastLane);
+    }
+
+    /**
+     *
+     * @return the number of tasks running across all shares
+     */
+    public synchronized int getUsed() {
+        return used;
+    }
+
+    synchronized boolean tryAcquire(Share share, Collection<String> resources) {
+        long now = System.currentTimeMillis();
+        prune(now);
+        activate(share);
+        for (Share other : active) {
+            if (other != share && other.isWaiting(now) && precedes(other, share) && conflicts(other, resources)) {
+                return refuse(share, resources, now);
+            }
+        }
+        if (getFree(share) < 1) {
+            return refuse(share, resources, now);
+        }
+        if (resourceLimits != null && !resourceLimits.tryAcquire(resources)) {
+            return refuse(share, resources, now);
+        }
+        used++;
+        share.running++;
+        share.waitingSince = 0;
+        share.waitingFor = null;
+        share.time += 1.0 / share.weight;
+        owners.get(share.owner).time += 1.0 / getOwnerWeight(share.owner);
+        return true;
+    }
+
+    synchronized void acquire(Share share, Collection<String> resources) throws InterruptedException {
+        while (!tryAcquire(share, resources)) {
+            wait(WAIT_MILLISECONDS);
+        }
+    }
+
+    synchronized void release(Share share, Collection<String> resources) {
+        used--;
+        share.running--;
+        if (resourceLimits != null) {
+            resourceLimits.release(resources);
+        }
+        notifyAll();
+    }
+
+    private boolean refuse(Share share, Collection<String> resources, long now) {
+        share.waitingSince = now;
+        share.waitingFor = resources;
+        return false;
+    }
+
+    /**
+     * Removes the shares that have no running tasks and are no longer
+     * waiting, and the owners that have no active shares.
+     */
+    private void prune(long now) {
+        Iterator<Share> it = active.iterator();
+        while (it.hasNext()) {
+            Share share = it.next();
+            if (share.running == 0 && !share.isWaiting(now)) {
+                it.remove();
+                Owner owner = owners.get(share.owner);
+                owner.shares--;
+                if (owner.shares == 0) {
+                    owners.remove(share.owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a share to the active shares, starting it and its owner, if
+     * the owner was not active, at the lowest virtual time of the active
+     * ones.
+     */
+    private void activate(Share share) {
+        if (active.contains(share)) {
+            return;
+        }
+        Owner owner = owners.get(share.owner);
+        if (owner == null) {
+            owner = new Owner();
+            double min = Double.MAX_VALUE;
+            for (Owner other : owners.values()) {
+                min = Math.min(min, other.time);
+            }
+            owner.time = min == Double.MAX_VALUE ? 0 : min;
+            owners.put(share.owner, owner);
+        }
+        double min = Double.MAX_VALUE;
+        for (Share other : active) {
+            if (other.owner.equals(share.owner)) {
+                min = Math.min(min, other.time);
+            }
+        }
+        if (min != Double.MAX_VALUE) {
+            share.time = Math.max(share.time, min);
+        }
+        owner.shares++;
+        active.add(share);
+    }
+
+    /**
+     *
+     * @return true if share a is ahead of share b in line
+     */
+    private boolean precedes(Share a, Share b) {
+        if (a.fastLane != b.fastLane) {
+            return a.fastLane;
+        }
+        double ownerA = owners.get(a.owner).time;
+        double ownerB = owners.get(b.owner).time;
+        if (ownerA != ownerB) {
+            return ownerA < ownerB;
+        }
+        return a.time < b.time;
+    }
+
+    /**
+     *
+     * @return true if admitting a task with the resources could keep the waiting share from starting its task
+     */
+    private boolean conflicts(Share waiting, Collection<String> resources) {
+        if (getFree(waiting) <= 1) {
+            return true;
+        }
+        if (resourceLimits == null || resources == null || waiting.waitingFor == null) {
+            return false;
+        }
+        for (String resource : resources) {
+            if (resource != null && waiting.waitingFor.contains(resource) && resourceLimits.getLimit(resource) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return the number of slots the share can use now
+     */
+    private int getFree(Share share) {
+        int limit = share.fastLane ? capacity : capacity - fastLaneSlots;
+        return limit - used;
+    }
+
+    private static class Owner {
+        private double time = 0;
+        private int shares = 0;
+    }
+
+    /**
+     * The share of one task manager. All fields are guarded by the
+     * scheduler.
+     */
+    public static class Share implements TaskAdmission {
+
+        private final FairShareScheduler scheduler;
+        private final String owner;
+        private final String name;
+        private final int weight;
+        private final boolean fastLane;
+        private double time = 0;
+        private int running = 0;
+        private long waitingSince = 0;
+        private Collection<String> waitingFor;
+
+        private Share(FairShareScheduler scheduler, String owner, String name, int weight, boolean fastLane) {
+            this.scheduler = scheduler;
+            this.owner = owner;
+            this.name = name;
+            this.weight = weight;
+            this.fastLane = fastLane;
+        }
+
+        private boolean isWaiting(long now) {
+            return waitingSince > 0 && now - waitingSince < WAITING_EXPIRES_MILLISECONDS;
+        }
+
+        @Override
+        public boolean tryAcquire(Collection<String> resources) {
+            return scheduler.tryAcquire(this, resources);
+        }
+
+        @Override
+        public void acquire(Collection<String> resources) throws InterruptedException {
+            scheduler.acquire(this, resources);
+        }
+
+        @Override
+        public void release(Collection<String> resources) {
+            scheduler.release(this, resources);
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isFastLane() {
+            return fastLane;
+        }
+
+        /**
+         *
+         * @return the number of tasks of this share that are running
+         */
+        public int getRunning() {
+            synchronized (scheduler) {
+                return running;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
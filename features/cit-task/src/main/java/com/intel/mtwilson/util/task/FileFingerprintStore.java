@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores each fingerprint as an empty file in a directory, so fingerprints
+ * are kept across restarts. The file name is the SHA-256 of the
+ * fingerprint, so fingerprints may contain any characters.
+ * 
+ * @author jbuhacoff
+ */
+public class FileFingerprintStore implements FingerprintStore {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FileFingerprintStore.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File directory;
+
+    public FileFingerprintStore(File directory) {
+        this.directory = directory;
+    }
+
+    private File getFile(String fingerprint) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(UTF8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return new File(directory, hex.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public boolean contains(String fingerprint) {
+        return getFile(fingerprint).exists();
+    }
+
+    @Override
+    public void add(String fingerprint) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            log.error("Cannot create fingerprint directory: {}", directory.getAbsolutePath());
+            return;
+        }
+        File file = getFile(fingerprint);
+        try {
+            file.createNewFile();
+        } catch (IOException e) {
+            log.error("Cannot store fingerprint: {}", file.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public void remove(String fingerprint) {
+        File file = getFile(fingerprint);
+        if (file.exists() && !file.delete()) {
+            log.error("Cannot remove fingerprint: {}", file.getAbsolutePath());
+        }
+    }
+}
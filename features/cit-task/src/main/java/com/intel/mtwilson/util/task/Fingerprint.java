@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * A task that implements this interface can be skipped when it already ran
+ * with the same inputs and its output is still in place. 
+ * 
+ * When an AbstractTask that implements Fingerprint has a fingerprint store,
+ * run() skips execute() if the store contains the task's fingerprint, 
+ * no fingerprinted task that it depends on (directly or transitively)
+ * executed in the same run, verify() returns true, and
+ * the postconditions hold. After execute() completes without faults the
+ * fingerprint is added to the store. 
+ * 
+ * The methods are not named like bean properties so that tools which 
+ * describe a task by its properties do not compute the fingerprint or 
+ * contact a remote host.
+ * 
+ * @author jbuhacoff
+ */
+public interface Fingerprint {
+    /**
+     * The fingerprint should be a digest of everything that affects the
+     * output of the task, for example the installer sha256, the rendered 
+     * configuration file digests, and the target host.
+     * 
+     * @return fingerprint of the task inputs, or null if the task must run
+     */
+    String fingerprint();
+    
+    /**
+     * A cheap check that the output of the task is still in place, for 
+     * example a marker file on the remote host. Only called when the
+     * fingerprint is in the store. 
+     * 
+     * @return true if the output of a previous run with the same fingerprint is still in place
+     */
+    boolean verify();
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * Remembers the fingerprints of tasks that completed successfully. See 
+ * {@link Fingerprint}.
+ * 
+ * Implementations must be safe to call from multiple threads.
+ * 
+ * @author jbuhacoff
+ */
+public interface FingerprintStore {
+    /**
+     * 
+     * @param fingerprint
+     * @return true if a task with this fingerprint completed successfully before
+     */
+    boolean contains(String fingerprint);
+    
+    void add(String fingerprint);
+    
+    void remove(String fingerprint);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import com.intel.dcsg.cpg.validation.Fault;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A nested task manager that generates its tasks when its parent starts
+ * it, and releases them when it finishes. A graph of many of these, such
+ * as one per target host, holds only the tasks of the ones that are
+ * running, so memory does not grow with the size of the graph. The parent
+ * starts no more of them at a time than its concurrency.
+ *
+ * The number of tasks is given before they are generated, so the parent
+ * can report its progress from the start. It may be an estimate: when the
+ * generated tasks are a different number, the max of the parents is
+ * corrected and the task manager reports the generated number from then on.
+ *
+ * The faults of the tasks that failed are copied to the task manager
+ * before the tasks are released, so they are still available to show
+ * afterwards. The tasks cannot be restored from a checkpoint one at a
+ * time; the task manager as a whole is restored or run again.
+ *
+ * @author jbuhacoff
+ */
+public class LazyTaskManager extends TaskManager {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LazyTaskManager.class);
+    private final Generator generator;
+    private volatile long leafCount;
+    private volatile boolean generated = false;
+
+    public static interface Generator {
+        /**
+         * Called once each time the task manager runs.
+         *
+         * @return new tasks to run
+         */
+        List<Task> generate();
+
+        /**
+         * Called after the tasks have run, so any references kept to them
+         * outside the task manager can be removed.
+         *
+         * @param tasks that were returned by generate()
+         */
+        void release(List<Task> tasks);
+    }
+
+    /**
+     *
+     * @param generator of the tasks
+     * @param leafCount the number of tasks the generator is expected to create that are not task managers, at all levels
+     */
+    public LazyTaskManager(Generator generator, long leafCount) {
+        super();
+        this.generator = generator;
+        this.leafCount = leafCount;
+    }
+
+    @Override
+    public void execute() {
+        List<Task> tasks = generator.generate();
+        setTasks(tasks);
+        generated = true;
+        try {
+            long generatedCount = super.getLeafCount();
+            if (generatedCount != leafCount) {
+                log.debug("Task manager {} generated {} tasks, expected {}", toString(), generatedCount, leafCount);
+                resizeParents(generatedCount - leafCount);
+                leafCount = generatedCount;
+            }
+            super.execute();
+            for (Task task : tasks) {
+                Collection<Fault> faults = task.getFaults();
+                if (isFailed(task) && faults != null) {
+                    for (Fault fault : faults) {
+                        fault(fault);
+                    }
+                }
+            }
+        } finally {
+            generated = false;
+            clearTasks();
+            generator.release(new ArrayList<>(tasks));
+        }
+    }
+
+    /**
+     *
+     * @return true while the tasks are generated, which is only while the task manager is running
+     */
+    public boolean isGenerated() {
+        return generated;
+    }
+
+    /**
+     *
+     * @return the number of generated tasks while running, otherwise the number generated the last time it ran, or the number given to the constructor if it has not run
+     */
+    @Override
+    public long getLeafCount() {
+        return generated ? super.getLeafCount() : leafCount;
+    }
+}
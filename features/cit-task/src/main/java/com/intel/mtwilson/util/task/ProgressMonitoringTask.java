@@ -6,25 +6,33 @@ package com.intel.mtwilson.util.task;
 
 import com.intel.dcsg.cpg.performance.Observer;
 import com.intel.dcsg.cpg.performance.Progress;
-import com.intel.dcsg.cpg.performance.ProgressMonitor;
 import com.intel.dcsg.cpg.performance.ProgressMonitor.ProgressLogObserver;
 
 /**
+ * Reports the progress of the delegate task to an observer while it runs.
+ * The progress is sampled by a ProgressSampler, which is shared by all
+ * monitoring tasks unless one is given, so running many monitored tasks
+ * at the same time does not need a thread for each one.
  *
  * @author jbuhacoff
  */
 public class ProgressMonitoringTask extends AbstractTaskDecorator {
 
     private Observer<Progress> observer;
+    private final ProgressSampler sampler;
 
     public ProgressMonitoringTask(Task delegate) {
-        super(delegate);
-        this.observer = new ProgressLogObserver();
+        this(delegate, new ProgressLogObserver());
     }
 
     public ProgressMonitoringTask(Task delegate, Observer<Progress> observer) {
+        this(delegate, observer, ProgressSampler.getInstance());
+    }
+
+    public ProgressMonitoringTask(Task delegate, Observer<Progress> observer, ProgressSampler sampler) {
         super(delegate);
         this.observer = observer;
+        this.sampler = sampler;
     }
 
     @Override
@@ -36,13 +44,16 @@ public class ProgressMonitoringTask extends AbstractTaskDecorator {
         } else {
             report = counter = new ProgressCounter(0, 1);
         }
-        ProgressMonitor monitor = new ProgressMonitor(report, observer);
-        monitor.start();
-        delegate.run();
-        if (counter != null) {
-            counter.increment();
+        ProgressSampler.Registration registration = sampler.register(report, observer);
+        try {
+            delegate.run();
+            if (counter != null) {
+                counter.increment();
+            }
+        }
+        finally {
+            sampler.unregister(registration);
         }
-        monitor.stop();
     }
 
     /**
@@ -51,7 +62,7 @@ public class ProgressMonitoringTask extends AbstractTaskDecorator {
      */
     public static class ProgressCounter implements Progress {
 
-        private long current, max;
+        private volatile long current, max; // read by the sampler thread
 
         public ProgressCounter(long current, long max) {
             this.current = current;
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import com.intel.dcsg.cpg.performance.Observer;
+import com.intel.dcsg.cpg.performance.Progress;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the progress of any number of tasks on one thread, instead of a
+ * ProgressMonitor thread for each task.
+ * 
+ * At each interval the sampler reads the progress of every registered
+ * task and, for the tasks whose progress changed since the last sample,
+ * calls the observers: all the samples for the same observer are 
+ * delivered together, one observer after another. When a task is
+ * unregistered its observer gets a last sample right away, so the observer
+ * sees the final progress before the task's run() returns.
+ * 
+ * The sampler thread runs only while tasks are registered.
+ * 
+ * Example:
+ * <pre>
+ * Registration registration = ProgressSampler.getInstance().register(task, observer);
+ * try {
+ *     task.run();
+ * }
+ * finally {
+ *     ProgressSampler.getInstance().unregister(registration);
+ * }
+ * </pre>
+ * 
+ * @author jbuhacoff
+ */
+public class ProgressSampler {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ProgressSampler.class);
+    private static final ProgressSampler instance = new ProgressSampler(1000);
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Object lock = new Object();
+    private final Object delivery = new Object();
+    private final ArrayList<Registration> registrations = new ArrayList<>();
+    private ScheduledFuture<?> sampling;
+    private long interval;
+
+    /**
+     * 
+     * @param interval between samples, in milliseconds
+     */
+    public ProgressSampler(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        this.interval = interval;
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cit-task-progress-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setKeepAliveTime(60, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 
+     * @return the sampler shared by all ProgressMonitoringTask instances that are not given one
+     */
+    public static ProgressSampler getInstance() {
+        return instance;
+    }
+
+    public long getInterval() {
+        synchronized (lock) {
+            return interval;
+        }
+    }
+
+    /**
+     * 
+     * @param interval between samples, in milliseconds; applies right away to the registered tasks
+     */
+    public void setInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        synchronized (lock) {
+            this.interval = interval;
+            if (sampling != null) {
+                sampling.cancel(false);
+                sampling = scheduleSampling();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param progress to sample
+     * @param observer to notify when the progress changes
+     * @return the registration, to unregister when the task finishes
+     */
+    public Registration register(Progress progress, Observer<Progress> observer) {
+        Registration registration = new Registration(progress, observer);
+        synchronized (lock) {
+            registrations.add(registration);
+            if (sampling == null) {
+                sampling = scheduleSampling();
+            }
+        }
+        return registration;
+    }
+
+    /**
+     * Stops sampling the task and delivers its last sample on the calling
+     * thread.
+     * 
+     * @param registration from register()
+     */
+    public void unregister(Registration registration) {
+        synchronized (lock) {
+            if (!registrations.remove(registration)) {
+                return;
+            }
+            if (registrations.isEmpty() && sampling != null) {
+                sampling.cancel(false);
+                sampling = null;
+            }
+        }
+        synchronized (delivery) {
+            registration.sample();
+            observe(registration.observer, registration.progress);
+        }
+    }
+
+    /**
+     * 
+     * @return the number of registered tasks
+     */
+    public int size() {
+        synchronized (lock) {
+            return registrations.size();
+        }
+    }
+
+    private ScheduledFuture<?> scheduleSampling() {
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        ArrayList<Registration> current;
+        synchronized (lock) {
+            current = new ArrayList<>(registrations);
+        }
+        synchronized (delivery) {
+            // group by observer so each observer gets its samples together
+            IdentityHashMap<Observer<Progress>, List<Progress>> batches = new IdentityHashMap<>();
+            for (Registration registration : current) {
+                if (!registration.sample()) {
+                    continue;
+                }
+                List<Progress> batch = batches.get(registration.observer);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(registration.observer, batch);
+                }
+                batch.add(registration.progress);
+            }
+            for (Map.Entry<Observer<Progress>, List<Progress>> batch : batches.entrySet()) {
+                for (Progress progress : batch.getValue()) {
+                    observe(batch.getKey(), progress);
+                }
+            }
+        }
+    }
+
+    private static void observe(Observer<Progress> observer, Progress progress) {
+        try {
+            observer.observe(progress);
+        } catch (RuntimeException e) {
+            log.error("Progress observer failed", e);
+        }
+    }
+
+    /**
+     * A task registered with the sampler. The last sampled values are
+     * only used by the thread holding the delivery lock.
+     */
+    public static class Registration {
+
+        private final Progress progress;
+        private final Observer<Progress> observer;
+        private long version = -1, current = -1, max = -1;
+
+        private Registration(Progress progress, Observer<Progress> observer) {
+            this.progress = progress;
+            this.observer = observer;
+        }
+
+        /**
+         * 
+         * @return true if the progress changed since the last sample
+         */
+        private boolean sample() {
+            // a task that overrides the Progress getters has progress that is not in its snapshot
+            if (progress instanceof AbstractTask && ((AbstractTask) progress).isProgressInSnapshot()) {
+                long next = ((AbstractTask) progress).getSnapshot().getVersion();
+                boolean changed = next != version;
+                version = next;
+                return changed;
+            }
+            long nextCurrent = progress.getCurrent();
+            long nextMax = progress.getMax();
+            boolean changed = nextCurrent != current || nextMax != max;
+            current = nextCurrent;
+            max = nextMax;
+            return changed;
+        }
+
+        public Progress getProgress() {
+            return progress;
+        }
+
+        public Observer<Progress> getObserver() {
+            return observer;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A transitive closure of a dependency graph, built once and then queried
+ * many times. 
+ * 
+ * Each item is assigned a number when it is added, and each item has a bit
+ * set of the numbers of all the items it depends on directly or 
+ * transitively. Items are added after their dependencies, so the bit set of
+ * an item is the union of the bit sets of its direct dependencies, and 
+ * isDependent(subject,other) is a single bit lookup.
+ * 
+ * Adding an item also adds any of its dependencies that are not already in
+ * the index. Adding an item that is already in the index updates it with any
+ * new dependencies and updates every item that depends on it. 
+ * 
+ * Items are identified by reference, not by equals(). If the graph has
+ * a cycle, the items in the cycle are indexed but the closure of the cycle
+ * may be incomplete.
+ * 
+ * This class is not thread-safe.
+ * 
+ * Usage example:
+ * <pre>
+ * ReachabilityIndex&lt;Task&gt; index = new ReachabilityIndex&lt;&gt;(tasks);
+ * if( index.isDependent(install, transfer) ) { ... }
+ * </pre>
+ * 
+ * @author jbuhacoff
+ */
+public class ReachabilityIndex<T extends Dependencies<T>> {
+    private final IdentityHashMap<T, Integer> numbers = new IdentityHashMap<>();
+    private final ArrayList<T> items = new ArrayList<>();
+    private final ArrayList<BitSet> ancestors = new ArrayList<>();
+    private final ArrayList<List<Integer>> dependents = new ArrayList<>();
+
+    public ReachabilityIndex() {
+    }
+
+    public ReachabilityIndex(Collection<T> items) {
+        addAll(items);
+    }
+    
+    public final void addAll(Collection<T> collection) {
+        if( collection == null ) { return; }
+        for(T item : collection) {
+            add(item);
+        }
+    }
+    
+    /**
+     * Adds the item and any of its dependencies that are not already in the
+     * index. If the item is already in the index, its dependencies are
+     * read again and any new ones are added to the item and to everything
+     * that depends on it.
+     * 
+     * @param item 
+     */
+    public final void add(T item) {
+        if( item == null ) { return; }
+        Integer existing = numbers.get(item);
+        if( existing != null ) {
+            update(existing);
+            return;
+        }
+        // depth-first, so each item is numbered after its dependencies
+        IdentityHashMap<T, Boolean> visiting = new IdentityHashMap<>();
+        ArrayDeque<T> stack = new ArrayDeque<>();
+        ArrayDeque<Iterator<T>> iterators = new ArrayDeque<>();
+        stack.push(item);
+        iterators.push(iterator(item));
+        visiting.put(item, Boolean.TRUE);
+        while (!stack.isEmpty()) {
+            Iterator<T> it = iterators.peek();
+            if (it.hasNext()) {
+                T dependency = it.next();
+                if (dependency == null || numbers.containsKey(dependency) || visiting.containsKey(dependency)) {
+                    continue; // already indexed, or a cycle
+                }
+                stack.push(dependency);
+                iterators.push(iterator(dependency));
+                visiting.put(dependency, Boolean.TRUE);
+            } else {
+                iterators.pop();
+                index(stack.pop());
+            }
+        }
+    }
+
+    private Iterator<T> iterator(T item) {
+        Collection<T> dependencies = item.getDependencies();
+        if (dependencies == null) {
+            return new ArrayList<T>().iterator();
+        }
+        return dependencies.iterator();
+    }
+    
+    private void index(T item) {
+        int number = items.size();
+        numbers.put(item, number);
+        items.add(item);
+        dependents.add(new ArrayList<Integer>());
+        BitSet closure = new BitSet();
+        Collection<T> dependencies = item.getDependencies();
+        if (dependencies != null) {
+            for (T dependency : dependencies) {
+                Integer d = numbers.get(dependency);
+                if (d == null || d == number) { continue; }
+                closure.set(d);
+                closure.or(ancestors.get(d));
+                dependents.get(d).add(number);
+            }
+        }
+        ancestors.add(closure);
+    }
+    
+    /**
+     * Called when an item that is already in the index may have new
+     * dependencies; adds them and propagates the new closure to every
+     * item that depends on the updated item.
+     */
+    private void update(int number) {
+        T item = items.get(number);
+        Collection<T> dependencies = item.getDependencies();
+        if (dependencies == null) { return; }
+        BitSet closure = ancestors.get(number);
+        boolean changed = false;
+        for (T dependency : dependencies) {
+            if (dependency == null) { continue; }
+            if (!numbers.containsKey(dependency)) {
+                add(dependency);
+            }
+            int d = numbers.get(dependency);
+            if (d == number || closure.get(d)) { continue; }
+            closure.set(d);
+            closure.or(ancestors.get(d));
+            dependents.get(d).add(number);
+            changed = true;
+        }
+        if (!changed) { return; }
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(number);
+        while (!queue.isEmpty()) {
+            int n = queue.poll();
+            for (int dependent : dependents.get(n)) {
+                BitSet dependentClosure = ancestors.get(dependent);
+                int before = dependentClosure.cardinality();
+                dependentClosure.set(n);
+                dependentClosure.or(ancestors.get(n));
+                if (dependentClosure.cardinality() != before) {
+                    queue.add(dependent);
+                }
+            }
+        }
+    }
+    
+    public boolean contains(T item) {
+        return numbers.containsKey(item);
+    }
+    
+    public int size() {
+        return items.size();
+    }
+    
+    /**
+     * Items that are not yet in the index are added first, so a query
+     * about an item that is not indexed is still correct.
+     * 
+     * @param subject must not be null
+     * @param other can be null;   isDependent(x,null) is false for any x
+     * @return true if subject is dependent on other, or in other words, if other appears in the dependency graph of subject
+     */
+    public boolean isDependent(T subject, T other) {
+        if( subject == null ) { throw new NullPointerException(); }
+        if( other == null ) { return false; }
+        if( !numbers.containsKey(subject) ) {
+            add(subject);
+        }
+        Integer o = numbers.get(other);
+        if( o == null ) { return false; }
+        return ancestors.get(numbers.get(subject)).get(o);
+    }
+    
+    /**
+     * 
+     * @param subject
+     * @return all direct and transitive dependencies of the subject, in the order they were added to the index
+     */
+    public List<T> getAllDependencies(T subject) {
+        if( !numbers.containsKey(subject) ) {
+            add(subject);
+        }
+        BitSet closure = ancestors.get(numbers.get(subject));
+        ArrayList<T> list = new ArrayList<>(closure.cardinality());
+        for (int i = closure.nextSetBit(0); i >= 0; i = closure.nextSetBit(i + 1)) {
+            list.add(items.get(i));
+        }
+        return list;
+    }
+    
+    /**
+     * 
+     * @param subject
+     * @return all items in the index that depend on the subject directly or transitively, or an empty list if subject is not in the index
+     */
+    public List<T> getAllDependents(T subject) {
+        ArrayList<T> list = new ArrayList<>();
+        Integer s = numbers.get(subject);
+        if( s == null ) { return list; }
+        for (int i = s + 1; i < items.size(); i++) {
+            if (ancestors.get(i).get(s)) {
+                list.add(items.get(i));
+            }
+        }
+        // an updated item may have been numbered before a new dependency
+        for (int i = 0; i < s; i++) {
+            if (ancestors.get(i).get(s)) {
+                list.add(items.get(i));
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Limits how many tasks can use a resource at the same time. 
+ * 
+ * A limit is set for a resource type or for a specific resource name. For 
+ * example setLimit("ssh", 4) allows 4 tokens for each of "ssh:host1",
+ * "ssh:host2", and so on, while setLimit("file_transfer", 8) allows 8 tokens
+ * of "file_transfer" in total. A limit for a full name like "ssh:host1"
+ * overrides the limit for its type. Resources without a limit are not 
+ * counted.
+ * 
+ * A task that needs more tokens of one resource than its limit is allowed
+ * to run when no other task holds that resource, so it cannot be blocked
+ * forever.
+ * 
+ * One instance can be shared by several task managers to enforce a limit 
+ * across all of them.
+ * 
+ * @author jbuhacoff
+ */
+public class ResourceLimits implements TaskAdmission {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ResourceLimits.class);
+    private final HashMap<String, Integer> limits = new HashMap<>();
+    private final HashMap<String, Integer> used = new HashMap<>();
+
+    public synchronized void setLimit(String resource, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Resource limit must be at least 1");
+        }
+        limits.put(resource, limit);
+        notifyAll();
+    }
+
+    /**
+     * 
+     * @param resource name or type
+     * @return the limit for the resource, or null if the resource is not limited
+     */
+    public synchronized Integer getLimit(String resource) {
+        Integer limit = limits.get(resource);
+        if (limit == null) {
+            int separator = resource.indexOf(':');
+            if (separator > 0) {
+                limit = limits.get(resource.substring(0, separator));
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 
+     * @param resource name
+     * @return number of tokens of the resource currently in use
+     */
+    public synchronized int getUsed(String resource) {
+        Integer count = used.get(resource);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 
+     * @param resources may be null or empty
+     * @return true if a token for each of the resources was acquired, false if any of them is not available in which case nothing was acquired
+     */
+    @Override
+    public synchronized boolean tryAcquire(Collection<String> resources) {
+        if (resources == null || resources.isEmpty()) {
+            return true;
+        }
+        HashMap<String, Integer> needed = count(resources);
+        for (String resource : needed.keySet()) {
+            Integer limit = getLimit(resource);
+            if (limit == null) {
+                continue;
+            }
+            int current = getUsed(resource);
+            if (current > 0 && current + needed.get(resource) > limit) {
+                return false;
+            }
+        }
+        for (String resource : needed.keySet()) {
+            if (getLimit(resource) != null) {
+                used.put(resource, getUsed(resource) + needed.get(resource));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until a token for each of the resources is available and 
+     * acquires them.
+     * 
+     * @param resources may be null or empty
+     * @throws InterruptedException 
+     */
+    @Override
+    public synchronized void acquire(Collection<String> resources) throws InterruptedException {
+        while (!tryAcquire(resources)) {
+            log.debug("Waiting for resources: {}", resources);
+            wait();
+        }
+    }
+
+    /**
+     * 
+     * @param resources that were previously acquired with tryAcquire or acquire
+     */
+    @Override
+    public synchronized void release(Collection<String> resources) {
+        if (resources == null || resources.isEmpty()) {
+            return;
+        }
+        HashMap<String, Integer> released = count(resources);
+        for (String resource : released.keySet()) {
+            if (getLimit(resource) == null) {
+                continue;
+            }
+            int remaining = getUsed(resource) - released.get(resource);
+            if (remaining > 0) {
+                used.put(resource, remaining);
+            } else {
+                used.remove(resource);
+            }
+        }
+        notifyAll();
+    }
+
+    private static HashMap<String, Integer> count(Collection<String> resources) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (String resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            Integer count = counts.get(resource);
+            counts.put(resource, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
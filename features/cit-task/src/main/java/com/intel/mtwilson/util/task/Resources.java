@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collection;
+
+/**
+ * A task that implements this interface lists the resources it needs while
+ * it runs, so the task manager can hold it back until a token for each
+ * resource is available instead of oversubscribing the resource.
+ * 
+ * A resource name is either a type, like "file_transfer", for a resource
+ * shared by all tasks, or a type and an instance separated by a colon, like
+ * "ssh:192.168.1.100", for a resource of which there is one per instance.
+ * See {@link ResourceLimits}.
+ * 
+ * @author jbuhacoff
+ */
+public interface Resources {
+    /**
+     * 
+     * @return the resources needed by the task; may be empty or null
+     */
+    Collection<String> getResources();
+}
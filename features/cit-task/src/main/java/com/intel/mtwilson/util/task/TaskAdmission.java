@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collection;
+
+/**
+ * Decides when a task manager may start a task that needs the given
+ * resources. A task manager uses its ResourceLimits, or the share of a
+ * FairShareScheduler when it has one.
+ *
+ * @author jbuhacoff
+ */
+public interface TaskAdmission {
+
+    /**
+     *
+     * @param resources may be null or empty
+     * @return true if the task may start now, in which case release() must be called when it finishes
+     */
+    boolean tryAcquire(Collection<String> resources);
+
+    /**
+     * Waits until the task may start.
+     *
+     * @param resources may be null or empty
+     * @throws InterruptedException
+     */
+    void acquire(Collection<String> resources) throws InterruptedException;
+
+    /**
+     *
+     * @param resources that were acquired with tryAcquire or acquire
+     */
+    void release(Collection<String> resources);
+}
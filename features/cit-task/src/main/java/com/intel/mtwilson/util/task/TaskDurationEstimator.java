@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * Estimates how long a task will take to run, based on how long similar
+ * tasks took before. The task manager uses the estimates to start the
+ * tasks on the longest remaining path first, and reports how long each task
+ * actually took so the estimates improve over time.
+ * 
+ * Implementations must be safe to call from multiple threads.
+ * 
+ * @author jbuhacoff
+ */
+public interface TaskDurationEstimator {
+    
+    /**
+     * 
+     * @param task
+     * @return estimated duration in milliseconds, must not be negative
+     */
+    long estimate(Task task);
+    
+    /**
+     * Called after a task completes without faults, unless it was skipped
+     * because it was up to date.
+     * 
+     * @param task
+     * @param duration in milliseconds
+     */
+    void record(Task task, long duration);
+}
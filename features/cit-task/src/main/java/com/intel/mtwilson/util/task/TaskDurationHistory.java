@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a moving average of task durations under one or more keys per
+ * task. By default the only key is the class name of the task (or of the
+ * innermost task, for decorated tasks). Subclasses can override getKeys to
+ * break the history down further, for example by software package and host
+ * operating system, listing the most specific key first. An estimate uses
+ * the most specific key that has any history, and a duration is recorded
+ * under every key so the less specific keys can answer for combinations
+ * that have not been seen yet.
+ * 
+ * Tasks without any history are estimated at the default duration.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskDurationHistory implements TaskDurationEstimator {
+    private static final double WEIGHT = 0.3; // weight of the newest sample in the moving average
+    private final ConcurrentHashMap<String, Average> averages = new ConcurrentHashMap<>();
+    private final long defaultDuration;
+
+    public TaskDurationHistory() {
+        this(1000L);
+    }
+
+    /**
+     * 
+     * @param defaultDuration in milliseconds, used for tasks without any history
+     */
+    public TaskDurationHistory(long defaultDuration) {
+        this.defaultDuration = defaultDuration;
+    }
+
+    public long getDefaultDuration() {
+        return defaultDuration;
+    }
+
+    @Override
+    public long estimate(Task task) {
+        Long average = getAverage(getKeys(task));
+        if (average == null) {
+            return defaultDuration;
+        }
+        return average;
+    }
+
+    @Override
+    public void record(Task task, long duration) {
+        record(getKeys(task), duration);
+    }
+
+    /**
+     * 
+     * @param keys most specific first
+     * @return the average duration in milliseconds under the first key that has any history, or null if none of them have history
+     */
+    public Long getAverage(List<String> keys) {
+        for (String key : keys) {
+            Average average = averages.get(key);
+            if (average != null) {
+                return average.get();
+            }
+        }
+        return null;
+    }
+
+    public void record(List<String> keys, long duration) {
+        if (duration < 0) {
+            return;
+        }
+        for (String key : keys) {
+            Average average = averages.get(key);
+            if (average == null) {
+                Average created = new Average();
+                average = averages.putIfAbsent(key, created);
+                if (average == null) {
+                    average = created;
+                }
+            }
+            average.add(duration);
+        }
+    }
+
+    /**
+     * 
+     * @param task
+     * @return list of keys for the task, most specific first
+     */
+    protected List<String> getKeys(Task task) {
+        return Collections.singletonList(TaskUtil.getDelegate(task).getClass().getName());
+    }
+
+    private static class Average {
+
+        private double value;
+        private long count = 0;
+
+        public synchronized void add(long sample) {
+            if (count == 0) {
+                value = sample;
+            } else {
+                value = WEIGHT * sample + (1 - WEIGHT) * value;
+            }
+            count++;
+        }
+
+        public synchronized long get() {
+            return Math.round(value);
+        }
+    }
+}
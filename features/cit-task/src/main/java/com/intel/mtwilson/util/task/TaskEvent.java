@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * A change in the state or progress of a task, published to a
+ * TaskEventBuffer. The event only identifies what changed; a consumer
+ * reads the current state from the task itself, so several events for
+ * the same task can be combined into one update.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskEvent {
+
+    public static enum Type {
+        /**
+         * The task started executing
+         */
+        STARTED,
+        /**
+         * The current or max progress of the task changed
+         */
+        PROGRESS,
+        /**
+         * The task finished running, with or without faults, or was 
+         * restored from a checkpoint without running
+         */
+        FINISHED
+    }
+    
+    private final Task task;
+    private final Type type;
+    private final long time;
+
+    public TaskEvent(Task task, Type type) {
+        this.task = task;
+        this.type = type;
+        this.time = System.currentTimeMillis();
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * 
+     * @return when the event was created, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer of task events. Any number of tasks 
+ * can publish events at the same time without blocking; the events are 
+ * normally consumed by one thread, such as a progress monitor, which can
+ * sleep while nothing is changing instead of polling every task.
+ * 
+ * When the buffer is full, new events are dropped and counted instead of 
+ * blocking the task. A consumer that sees getDropped() increase should 
+ * read the state of all the tasks once to catch up.
+ * 
+ * Each slot has a sequence number that tells a publisher when the slot is
+ * free and the consumer when the event in the slot is ready, so a 
+ * publisher and the consumer never use the same slot at the same time.
+ * 
+ * A listener, if set, is called after each event is added so a consumer
+ * can wait for events instead of checking the buffer periodically.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskEventBuffer {
+
+    private final int mask;
+    private final AtomicReferenceArray<TaskEvent> events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong(0); // next position to read
+    private final AtomicLong tail = new AtomicLong(0); // next position to write
+    private final AtomicLong dropped = new AtomicLong(0);
+    private volatile Runnable listener;
+
+    /**
+     * 
+     * @param capacity maximum number of events waiting to be consumed; rounded up to a power of two
+     */
+    public TaskEventBuffer(int capacity) {
+        if( capacity < 1 || capacity > (1 << 30) ) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if( size < capacity ) {
+            size = size << 1;
+        }
+        mask = size - 1;
+        events = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 
+     * @param event
+     * @return true if the event was added, false if it was dropped because the buffer is full
+     */
+    public boolean offer(TaskEvent event) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events.set(index, event);
+                    sequences.set(index, position + 1); // ready to read
+                    Runnable wakeup = listener;
+                    if (wakeup != null) {
+                        wakeup.run();
+                    }
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot still has the event from one lap ago
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                // another publisher took this position first
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the next event, or null if the buffer is empty
+     */
+    public TaskEvent poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    TaskEvent event = events.get(index);
+                    events.set(index, null);
+                    sequences.set(index, position + mask + 1); // free for the next lap
+                    return event;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // empty, or a publisher has the slot but has not written the event yet
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param collection to which the events are added
+     * @return the number of events removed from the buffer
+     */
+    public int drainTo(Collection<? super TaskEvent> collection) {
+        int count = 0;
+        TaskEvent event = poll();
+        while (event != null) {
+            collection.add(event);
+            count++;
+            event = poll();
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public Runnable getListener() {
+        return listener;
+    }
+
+    /**
+     * 
+     * @param listener called on the publishing thread after each event is added, so it must return quickly without blocking; may be null
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 
+     * @return the number of events dropped because the buffer was full, since it was created
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
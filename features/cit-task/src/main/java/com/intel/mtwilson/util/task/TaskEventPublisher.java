@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * Publishes STARTED and FINISHED events for tasks that do not extend
+ * AbstractTask, which publishes its own events. Use with 
+ * TaskRunListenerDecorator.
+ * 
+ * The events name the innermost delegate of the task, so they identify
+ * the same task regardless of other decorators, such as a ClockingTask, 
+ * between the listener and the task.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskEventPublisher implements TaskRunListener {
+
+    private final TaskEventBuffer events;
+
+    public TaskEventPublisher(TaskEventBuffer events) {
+        this.events = events;
+    }
+
+    @Override
+    public void beforeRun(Task task) {
+        events.offer(new TaskEvent(TaskUtil.getDelegate(task), TaskEvent.Type.STARTED));
+    }
+
+    @Override
+    public void afterRun(Task task) {
+        events.offer(new TaskEvent(TaskUtil.getDelegate(task), TaskEvent.Type.FINISHED));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Composes a list of tasks into groups, such as one group for each host,
+ * where each group is a nested task manager that appears as a single task
+ * to the parent task manager.
+ * 
+ * A dependency between tasks in different groups becomes a dependency 
+ * between the groups, so a group starts only after every group with a 
+ * task that any of its tasks depends on is done. That is coarser than the
+ * original dependencies, and when it would create a cycle between groups
+ * the tasks cannot be grouped that way.
+ * 
+ * A task without a key is in a group of its own. Tasks without a key, 
+ * such as a task that waits for all the hosts of one software package 
+ * before the next package starts, often sit between groups; put together
+ * in one group, they would make it depend on the groups before and after
+ * each of them, which is a cycle as soon as there are two of them.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskGroups {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskGroups.class);
+
+    public static interface GroupFactory {
+        /**
+         * 
+         * @param key of the group, may be null for a task without a key
+         * @param tasks in the group, in their original order
+         * @return a task manager for the tasks, which may be a subclass with more information about the group
+         */
+        TaskManager create(String key, List<Task> tasks);
+    }
+
+    /**
+     * 
+     * @param tasks to group
+     * @param keys the group of each task; each task without a key is in a group of its own under the key null
+     * @param factory creates the task manager for each group
+     * @return a task manager for each group in order of the first task in each group, or null if grouping the tasks would create a dependency cycle between groups
+     */
+    public static List<TaskManager> compose(List<Task> tasks, Map<Task, String> keys, GroupFactory factory) {
+        ArrayList<String> memberKeys = new ArrayList<>();
+        ArrayList<List<Task>> members = new ArrayList<>();
+        HashMap<String, List<Task>> membersByKey = new HashMap<>();
+        for (Task task : tasks) {
+            String key = keys.get(task);
+            List<Task> list = key == null ? null : membersByKey.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                memberKeys.add(key);
+                members.add(list);
+                if (key != null) {
+                    membersByKey.put(key, list);
+                }
+            }
+            list.add(task);
+        }
+        ArrayList<TaskManager> groups = new ArrayList<>();
+        IdentityHashMap<Task, TaskManager> groupOf = new IdentityHashMap<>();
+        for (int i = 0; i < members.size(); i++) {
+            TaskManager group = factory.create(memberKeys.get(i), members.get(i));
+            groups.add(group);
+            for (Task task : members.get(i)) {
+                // dependencies may refer to a task or to any of its decorators
+                Task target = task;
+                while (target != null) {
+                    groupOf.put(target, group);
+                    target = target instanceof TaskDecorator ? ((TaskDecorator) target).getDelegate() : null;
+                }
+            }
+        }
+        for (TaskManager group : groups) {
+            Set<Task> added = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+            for (Task task : group.getTasks()) {
+                Collection<Task> dependencies = task.getDependencies();
+                if (dependencies == null) {
+                    continue;
+                }
+                for (Task dependency : dependencies) {
+                    TaskManager other = groupOf.get(dependency);
+                    if (other != null && other != group && added.add(other)) {
+                        group.getDependencies().add(other);
+                    }
+                }
+            }
+        }
+        TopologicalOrder<Task> order = DependenciesUtil.sortWithLevels(new ArrayList<Task>(groups));
+        if (order.hasCycle()) {
+            log.debug("Cannot group {} tasks into {} groups without a dependency cycle between groups", tasks.size(), groups.size());
+            return null;
+        }
+        return groups;
+    }
+}
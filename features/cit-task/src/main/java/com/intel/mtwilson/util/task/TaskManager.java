@@ -10,12 +10,32 @@ import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.performance.CountingIterator;
 import com.intel.dcsg.cpg.validation.Fault;
 import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.util.task.faults.DeadlineExceeded;
+import com.intel.mtwilson.util.task.faults.DependenciesNotDone;
+import com.intel.mtwilson.util.task.faults.DependencyCycle;
+import com.intel.mtwilson.util.task.faults.DependencyFailed;
 import com.intel.mtwilson.util.task.faults.ExecutionCancelled;
 import com.intel.mtwilson.util.task.faults.ExecutionFailed;
+import com.intel.mtwilson.util.task.faults.TasksIncomplete;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -25,15 +45,107 @@ import java.util.List;
  *
  * A task will normally be executed after its dependencies if all the
  * dependencies report true for isDone() and empty or null for getFaults().
+ * 
+ * By default the task manager runs one task at a time in dependency order.
+ * When concurrency is set to a value greater than 1, the task manager runs
+ * up to that many tasks at the same time on a worker pool, starting each
+ * task as soon as all of its dependencies report true for isDone(). 
+ * Dependencies that are not managed by this task manager are not waited on,
+ * the same as in sequential mode.
+ * 
+ * When a duration estimator is set, each task is timed with a ClockingTask
+ * and its duration is recorded with the estimator. In parallel mode the
+ * ready tasks are then started in order of their longest remaining path
+ * through the dependency graph, measured in estimated duration, so the
+ * tasks that the rest of the work is waiting on start first. Without an
+ * estimator, ready tasks start in list order.
+ * 
+ * When resource limits are set, a task that implements Resources is started
+ * only when a token is available for each of its resources, so for example
+ * no more than a given number of tasks connect to the same host at once.
+ * In parallel mode a ready task waiting for resources does not hold back
+ * ready tasks that need other resources.
+ * 
+ * By default no more tasks are started after a task finishes with faults.
+ * With the FAIL_BRANCH failure policy, only the tasks that depend on the 
+ * failed task, directly or transitively, are skipped and all other tasks 
+ * keep running. Each skipped task gets a DependencyFailed fault naming the
+ * failed task. 
+ * 
+ * The tasks that completed successfully can be saved with getCompletedTasks()
+ * as a checkpoint. A new task manager for the same work can be given the
+ * corresponding tasks with setCompletedTasks() so they are not run again;
+ * they count toward progress and satisfy the dependencies of other tasks
+ * even though they do not report true for isDone().
+ * 
+ * When a fingerprint store is set, it is given to each task that
+ * implements Fingerprint so the task can be skipped if it is up to date.
+ * 
+ * Each task that extends AbstractTask is given a child of the task 
+ * manager's cancellation token, so cancel() reaches tasks that are already
+ * running and tasks that have not started yet do not execute. In parallel
+ * mode, tasks still running when the cancellation grace period expires are 
+ * interrupted and the task manager returns without waiting for them.
+ * 
+ * When task timeouts are set, or the task manager itself has a deadline,
+ * each task is given a deadline when it starts: the earlier of its timeout
+ * from the start time and the task manager's deadline. The Watchdog cancels
+ * a task at its deadline. In parallel mode, a task still running after its
+ * deadline plus the grace period is abandoned: its thread is interrupted,
+ * its resources are released, and it fails with DeadlineExceeded. In 
+ * sequential mode tasks run on the task manager's thread and cannot be 
+ * abandoned, so a task that ignores its token delays the task manager.
+ * 
+ * When an event buffer is set, it is given to each task that extends
+ * AbstractTask, and tasks that do not extend AbstractTask are run with a
+ * TaskEventPublisher, so a progress monitor can wait for events instead of
+ * polling every task. The task manager publishes its own progress to the
+ * same buffer, and a FINISHED event for each task restored from a 
+ * checkpoint.
+ * 
+ * A task manager can be one of the tasks of another task manager, so a 
+ * large graph can be composed of smaller ones, for example one per host;
+ * see TaskGroups. The nested task manager is given the parent's 
+ * cancellation token, event buffer, and deadline like any other task, and
+ * uses the parent's resource limits, executor provider, task timeouts, 
+ * duration estimator, and fingerprint store unless it has its own. Its 
+ * task timeouts apply to its own tasks, not to the nested task manager as
+ * a whole.
+ * 
+ * Progress counts the tasks that are not task managers, at all levels:
+ * the max of a task manager is the number of such tasks under it, and 
+ * each one that completes adds one to the current progress of its task 
+ * manager and of every task manager above it. Reading the progress of 
+ * any level is a single snapshot read, without visiting the tasks.
+ * 
+ * A LazyTaskManager generates its tasks only when it starts and releases
+ * them when it finishes, so a very large graph composed of them holds 
+ * only the tasks of the nested task managers that are running.
  *
  * @author jbuhacoff
  */
 public class TaskManager extends AbstractTask {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskManager.class);
+    private static final long RESOURCE_WAIT_MILLISECONDS = 200;
     private static final ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper(); // for debugging only
     private final ArrayList<Task> tasks = new ArrayList<>();
-    private boolean cancel = false;
+    private volatile TaskManager parent;
+    private volatile boolean cancelRequested = false;
+    private long cancellationGracePeriod = 10000; // milliseconds
+    private TaskTimeouts taskTimeouts;
+    private int concurrency = 1;
+    private TopologicalOrder<Task> order;
+    private ReachabilityIndex<Task> reachability;
+    private TaskDurationEstimator durationEstimator;
+    private ResourceLimits resourceLimits;
+    private FairShareScheduler.Share share;
+    private ExecutorProvider executorProvider;
+    private FailurePolicy failurePolicy = FailurePolicy.STOP;
+    private final Set<Task> failed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>()));
+    private final Set<Task> skipped = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>()));
+    private final Set<Task> restored = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+    private final Set<Task> completedTasks = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>()));
 
     public TaskManager() {
         super();
@@ -42,12 +154,23 @@ public class TaskManager extends AbstractTask {
     public TaskManager(List<Task> tasks) {
         super();
         this.tasks.addAll(tasks);
-        DependenciesUtil.sort(this.tasks);
+        order = DependenciesUtil.sortWithLevels(this.tasks);
     }
     
     
     @Override
     public void execute() {
+        if( order == null ) {
+            order = DependenciesUtil.sortWithLevels(tasks);
+        }
+        // a cycle means the tasks cannot be executed in dependency order
+        if( order.hasCycle() ) {
+            for (Task task : order.getCycle()) {
+                log.error("Task {} is part of a dependency cycle", task.toString());
+                fault(new DependencyCycle(task.toString()));
+            }
+            return;
+        }
         // configure each task that is configurable
         Configuration configuration = getConfiguration();
         for (Task task : tasks) {
@@ -55,21 +178,88 @@ public class TaskManager extends AbstractTask {
                 Configurable configurable = (Configurable) task;
                 configurable.configure(configuration);
             }
+            // tasks share the task manager's fingerprint store
+            AbstractTask target = TaskUtil.unwrap(AbstractTask.class, task);
+            if (target instanceof Fingerprint && getFingerprintStore() != null) {
+                target.setFingerprintStore(getFingerprintStore());
+            }
+            // a child token so the watchdog can cancel one task at its deadline
+            if (target != null) {
+                target.setCancellationToken(getCancellationToken().newChild());
+                if (getEventBuffer() != null) {
+                    target.setEventBuffer(getEventBuffer());
+                }
+            }
+            TaskManager nested = TaskUtil.unwrap(TaskManager.class, task);
+            if (nested != null) {
+                inherit(nested);
+            }
+        }
+        max(getLeafCount());
+        failed.clear();
+        skipped.clear();
+        completedTasks.clear();
+        completedTasks.addAll(restored);
+        for (Task task : restored) {
+            progress(getLeafCount(task));
+            if (getEventBuffer() != null) {
+                getEventBuffer().offer(new TaskEvent(task, TaskEvent.Type.FINISHED));
+            }
+        }
+        if( concurrency > 1 && tasks.size() > 1 ) {
+            executeParallel();
         }
+        else {
+            executeSequential();
+        }
+        if( isDeadlineExceeded() && getCurrent() < getMax() ) {
+            log.warn("Task manager exceeded its deadline with {} of {} tasks completed", getCurrent(), getMax());
+            fault(new DeadlineExceeded(toString()));
+        }
+        // so the parent skips the tasks that depend on this one under FAIL_BRANCH
+        if( parent != null && getCurrent() < getMax() && getFaults().isEmpty() ) {
+            fault(new TasksIncomplete(toString(), getCurrent(), getMax()));
+        }
+    }
+    
+    private void executeSequential() {
         // run each task and update progress, continuing only if the task
-        // completed successfully
-        max(tasks.size());
+        // completed successfully or the failure policy allows it
+        IdentityHashMap<Task, Task> managed = createManagedMap();
         CountingIterator<Task> it = new CountingIterator(tasks.iterator());
+        long completed = 0;
         while (it.hasNext()) {
-            if( cancel ) { break; }
+            if( getCancellationToken().isCancelled() ) { break; }
             Task task = it.next(); // counter increments here
+            if( restored.contains(task) ) {
+                completed++;
+                continue;
+            }
+            if( failurePolicy == FailurePolicy.FAIL_BRANCH && skipIfDependencyFailed(task, managed) ) {
+                continue;
+            }
+            Collection<String> resources = getResources(task);
+            TaskAdmission admission = getAdmission(task);
             try {
-                task.run();
+                if( admission != null ) {
+                    admission.acquire(resources);
+                }
+            } catch (InterruptedException e) {
+                log.debug("Task manager interrupted while waiting for resources", e);
+                Thread.currentThread().interrupt();
+                fault(new ExecutionFailed(e));
+                break;
+            }
+            try {
+                startDeadline(task);
+                instrument(task).run();
                 // we only record counter value as progres after task is run 
                 // because it represents "completed" without errors
                 Collection<Fault> faults = task.getFaults();
                 if( faults == null || faults.isEmpty() ) {
-                    current(it.getValue());
+                    completedTasks.add(task);
+                    completed++;
+                    progress(task);
                 }
                 else {
                     log.debug("Task {} execution faults: {}", task.getClass().getName(), faults.size());                    
@@ -77,16 +267,574 @@ public class TaskManager extends AbstractTask {
                         log.debug("Fault {}: {}", fault.getClass().getName(), fault.getDescription());
                         log.debug("Fault: {}", mapper.writeValueAsString(fault));
                     }
-                    break;
+                    failed.add(task);
+                    if( failurePolicy == FailurePolicy.STOP ) {
+                        break;
+                    }
                 }
             } catch (Exception e) {
                 log.error("Task run exception", e);
                 fault(new ExecutionFailed(e));
-                break;
+                failed.add(task);
+                if( failurePolicy == FailurePolicy.STOP ) {
+                    break;
+                }
+            } finally {
+                if( admission != null ) {
+                    admission.release(resources);
+                }
+            }
+            log.debug("Task manager completed {} tasks", completed);
+        }
+    }
+    
+    /**
+     * Runs tasks on a worker pool of up to {@code concurrency} threads. 
+     * Every task is in exactly one of these states: blocked (waiting for
+     * dependencies), ready (dependencies done, waiting for a worker), 
+     * running, or finished. Only this thread moves tasks between states,
+     * so the collections do not need to be synchronized.
+     * 
+     * As in sequential mode, after the first task with faults no more
+     * tasks are started unless the failure policy is FAIL_BRANCH; tasks 
+     * that are already running are allowed to finish.
+     */
+    private void executeParallel() {
+        IdentityHashMap<Task, Task> managed = createManagedMap();
+        // reverse edges so that when a task finishes we only look at its dependents
+        IdentityHashMap<Task, List<Task>> dependents = new IdentityHashMap<>();
+        for (Task task : tasks) {
+            for (Task dependency : getManagedDependencies(task, managed)) {
+                List<Task> list = dependents.get(dependency);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dependents.put(dependency, list);
+                }
+                list.add(task);
+            }
+        }
+
+        PriorityQueue<Task> ready = new PriorityQueue<>(tasks.size(), new CriticalPathFirst(tasks, dependents, durationEstimator));
+        IdentityHashMap<Task, TaskExecution> running = new IdentityHashMap<>();
+        Set<Task> blocked = new LinkedHashSet<>();
+        for (Task task : tasks) {
+            if (restored.contains(task)) {
+                continue;
+            }
+            if (isReady(task, managed)) {
+                ready.add(task);
+            } else {
+                blocked.add(task);
+            }
+        }
+
+        int parallelism = Math.min(concurrency, tasks.size());
+        ExecutorService workers = executorProvider == null ? Executors.newFixedThreadPool(parallelism) : executorProvider.newExecutor(parallelism);
+        CompletionService<TaskExecution> completion = new ExecutorCompletionService<>(workers);
+        long completed = restored.size();
+        boolean stop = false;
+        long cancelDeadline = 0;
+        try {
+            while (true) {
+                boolean cancel = getCancellationToken().isCancelled();
+                ArrayList<Task> waitingForResources = new ArrayList<>();
+                while (!stop && !cancel && running.size() < concurrency && !ready.isEmpty()) {
+                    Task task = ready.poll();
+                    Collection<String> resources = getResources(task);
+                    TaskAdmission admission = getAdmission(task);
+                    if (admission != null && !admission.tryAcquire(resources)) {
+                        waitingForResources.add(task);
+                        continue;
+                    }
+                    long deadline = startDeadline(task);
+                    TaskExecution execution = new TaskExecution(task, instrument(task), admission, resources, deadline);
+                    execution.setFuture(completion.submit(execution));
+                    running.put(task, execution);
+                }
+                ready.addAll(waitingForResources);
+                Future<TaskExecution> next;
+                if (cancel && !running.isEmpty()) {
+                    // running tasks have the same token and should stop soon
+                    if (cancelDeadline == 0) {
+                        cancelDeadline = System.currentTimeMillis() + cancellationGracePeriod;
+                    }
+                    long remaining = cancelDeadline - System.currentTimeMillis();
+                    next = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                    if (next == null) {
+                        log.warn("Interrupting {} tasks still running {} ms after cancel", running.size(), cancellationGracePeriod);
+                        break;
+                    }
+                } else if (running.isEmpty()) {
+                    if (stop || cancel || waitingForResources.isEmpty()) {
+                        break;
+                    }
+                    // resources are held by another task manager sharing the same limits
+                    next = completion.poll(RESOURCE_WAIT_MILLISECONDS, TimeUnit.MILLISECONDS);
+                } else if (!waitingForResources.isEmpty()) {
+                    // wake up to retry if another task manager releases resources first
+                    next = completion.poll(RESOURCE_WAIT_MILLISECONDS, TimeUnit.MILLISECONDS);
+                } else {
+                    // wake up when cancelled so the grace period applies, and to check deadlines
+                    next = completion.poll(RESOURCE_WAIT_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
+                if (!abandonOverdue(running, dependents, blocked)) {
+                    stop = true;
+                }
+                if (next == null) {
+                    continue;
+                }
+                TaskExecution execution = next.get(); // TaskExecution.call() does not throw
+                Task task = execution.getTask();
+                if (running.remove(task) == null) {
+                    continue; // abandoned after its deadline
+                }
+                if (execution.getException() != null) {
+                    log.error("Task run exception", execution.getException());
+                    fault(new ExecutionFailed(execution.getException()));
+                    stop = !failBranch(task, dependents, blocked);
+                    continue;
+                }
+                Collection<Fault> faults = task.getFaults();
+                if (faults != null && !faults.isEmpty()) {
+                    log.debug("Task {} execution faults: {}", task.getClass().getName(), faults.size());
+                    for (Fault fault : faults) {
+                        log.debug("Fault {}: {}", fault.getClass().getName(), fault.getDescription());
+                    }
+                    stop = !failBranch(task, dependents, blocked);
+                    continue;
+                }
+                completedTasks.add(task);
+                completed++;
+                progress(task);
+                log.debug("Task manager completed {} tasks, {} running, {} ready, {} blocked", completed, running.size(), ready.size(), blocked.size());
+                List<Task> waiting = dependents.get(task);
+                if (waiting != null) {
+                    for (Task dependent : waiting) {
+                        if (blocked.contains(dependent) && isReady(dependent, managed)) {
+                            blocked.remove(dependent);
+                            ready.add(dependent);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Task manager interrupted while waiting for tasks", e);
+            Thread.currentThread().interrupt();
+            fault(new ExecutionFailed(e));
+        } catch (ExecutionException e) {
+            log.error("Task execution wrapper failed", e);
+            fault(new ExecutionFailed(e));
+        } finally {
+            workers.shutdownNow();
+        }
+
+        // blocked tasks remaining after a clean run indicate a dependency
+        // that finished without reporting isDone()
+        if (!stop && !getCancellationToken().isCancelled() && !blocked.isEmpty()) {
+            for (Task task : blocked) {
+                log.error("Task {} cannot start because its dependencies are not done", task.toString());
+                fault(new DependenciesNotDone(task.toString()));
+            }
+        }
+    }
+
+    /**
+     * Sets the deadline of a task that is about to start, if the task 
+     * manager has task timeouts or a deadline of its own.
+     * 
+     * @return the deadline of the task in milliseconds since the epoch, or 0 for none
+     */
+    private long startDeadline(Task task) {
+        AbstractTask target = TaskUtil.unwrap(AbstractTask.class, task);
+        if (target == null) {
+            return 0;
+        }
+        long deadline = getDeadline();
+        // a nested task manager applies the timeouts to each of its own tasks
+        long timeout = taskTimeouts == null || target instanceof TaskManager ? 0 : taskTimeouts.getTimeout(task);
+        if (timeout > 0) {
+            long taskDeadline = System.currentTimeMillis() + timeout;
+            deadline = deadline > 0 ? Math.min(deadline, taskDeadline) : taskDeadline;
+        }
+        target.setDeadline(deadline);
+        return deadline;
+    }
+
+    /**
+     * Stops waiting for running tasks that are past their deadline by more
+     * than the grace period, which means they did not stop when the
+     * watchdog cancelled them. Each one is interrupted, its resources are
+     * released, and it is failed like a task with faults.
+     * 
+     * @return true if the task manager should continue with other tasks, false if it should stop
+     */
+    private boolean abandonOverdue(IdentityHashMap<Task, TaskExecution> running, IdentityHashMap<Task, List<Task>> dependents, Set<Task> blocked) {
+        boolean proceed = true;
+        long now = System.currentTimeMillis();
+        for (TaskExecution execution : new ArrayList<>(running.values())) {
+            if (execution.getDeadline() <= 0 || now < execution.getDeadline() + cancellationGracePeriod) {
+                continue;
+            }
+            Task task = execution.getTask();
+            log.warn("Abandoning task {} still running {} ms after its deadline", task.toString(), now - execution.getDeadline());
+            running.remove(task);
+            execution.abandon();
+            fault(new DeadlineExceeded(task.toString()));
+            if (!failBranch(task, dependents, blocked)) {
+                proceed = false;
+            }
+        }
+        return proceed;
+    }
+
+    /**
+     * Records the failed task and, under the FAIL_BRANCH policy, skips all
+     * blocked tasks that depend on it directly or transitively. 
+     * 
+     * @return true if the task manager should continue with other tasks, false if it should stop
+     */
+    private boolean failBranch(Task task, IdentityHashMap<Task, List<Task>> dependents, Set<Task> blocked) {
+        failed.add(task);
+        if (failurePolicy != FailurePolicy.FAIL_BRANCH) {
+            return false;
+        }
+        ArrayDeque<Task> queue = new ArrayDeque<>();
+        queue.add(task);
+        while (!queue.isEmpty()) {
+            List<Task> list = dependents.get(queue.poll());
+            if (list == null) {
+                continue;
+            }
+            for (Task dependent : list) {
+                if (blocked.remove(dependent)) {
+                    skip(dependent, task);
+                    queue.add(dependent);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * In sequential mode tasks are in dependency order, so any failed or
+     * skipped dependency has already been seen.
+     * 
+     * @return true if the task was skipped
+     */
+    private boolean skipIfDependencyFailed(Task task, IdentityHashMap<Task, Task> managed) {
+        for (Task dependency : getManagedDependencies(task, managed)) {
+            if (failed.contains(dependency) || skipped.contains(dependency)) {
+                skip(task, dependency);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skip(Task task, Task failedDependency) {
+        log.debug("Skipping task {} because dependency {} failed", task.toString(), failedDependency.toString());
+        skipped.add(task);
+        AbstractTask abstractTask = TaskUtil.unwrap(AbstractTask.class, task);
+        if (abstractTask != null) {
+            abstractTask.fault(new DependencyFailed(failedDependency.toString()));
+            return;
+        }
+        try {
+            task.getFaults().add(new DependencyFailed(failedDependency.toString()));
+        } catch (UnsupportedOperationException e) {
+            log.debug("Cannot add fault to skipped task {}", task.toString(), e);
+        }
+    }
+
+    /**
+     * A nested task manager does not take a slot of the share, because
+     * each of its own tasks takes one; otherwise nested task managers
+     * holding slots could wait forever for their tasks.
+     */
+    private TaskAdmission getAdmission(Task task) {
+        if (share != null && TaskUtil.unwrap(TaskManager.class, task) == null) {
+            return share;
+        }
+        return resourceLimits;
+    }
+
+    /**
+     * Gives a nested task manager the settings of this task manager that
+     * it does not have itself, and makes this task manager its parent for
+     * progress.
+     */
+    private void inherit(TaskManager nested) {
+        nested.parent = this;
+        if (nested.resourceLimits == null) {
+            nested.resourceLimits = resourceLimits;
+        }
+        if (nested.share == null) {
+            nested.share = share;
+        }
+        if (nested.executorProvider == null) {
+            nested.executorProvider = executorProvider;
+        }
+        if (nested.taskTimeouts == null) {
+            nested.taskTimeouts = taskTimeouts;
+        }
+        if (nested.durationEstimator == null) {
+            nested.durationEstimator = durationEstimator;
+        }
+        if (nested.getFingerprintStore() == null) {
+            nested.setFingerprintStore(getFingerprintStore());
+        }
+    }
+
+    /**
+     * Adds the tasks of a task that completed to the progress of this task 
+     * manager and its parents. A nested task manager is not counted when 
+     * it completes because its tasks were counted as they completed.
+     */
+    private void progress(Task task) {
+        if (TaskUtil.unwrap(TaskManager.class, task) == null) {
+            progress(1);
+        }
+    }
+
+    private void progress(long leaves) {
+        advance(leaves);
+        TaskManager above = parent;
+        if (above != null) {
+            above.progress(leaves);
+        }
+    }
+
+    /**
+     * Adds to the max of the parents of this task manager when it turns
+     * out to have a different number of tasks than they counted when they
+     * started.
+     * 
+     * @param delta the number of tasks more than counted, or negative for fewer
+     */
+    protected void resizeParents(long delta) {
+        TaskManager above = parent;
+        if (above != null) {
+            above.extend(delta);
+            above.resizeParents(delta);
+        }
+    }
+
+    /**
+     * 
+     * @return the number of tasks under this task manager that are not task managers, at all levels
+     */
+    public long getLeafCount() {
+        long count = 0;
+        for (Task task : tasks) {
+            count += getLeafCount(task);
+        }
+        return count;
+    }
+
+    private static long getLeafCount(Task task) {
+        TaskManager nested = TaskUtil.unwrap(TaskManager.class, task);
+        return nested == null ? 1 : nested.getLeafCount();
+    }
+
+    /**
+     * Maps each task, and any task it decorates, to the managed task
+     * so a dependency on either one is recognized.
+     */
+    private IdentityHashMap<Task, Task> createManagedMap() {
+        IdentityHashMap<Task, Task> managed = new IdentityHashMap<>();
+        for (Task task : tasks) {
+            Task target = task;
+            while (target != null) {
+                managed.put(target, task);
+                target = target instanceof TaskDecorator ? ((TaskDecorator) target).getDelegate() : null;
+            }
+        }
+        return managed;
+    }
+
+    private static Collection<String> getResources(Task task) {
+        Resources resources = TaskUtil.unwrap(Resources.class, task);
+        if (resources == null) {
+            return null;
+        }
+        return resources.getResources();
+    }
+
+    private Task clock(Task task) {
+        if (durationEstimator == null) {
+            return task;
+        }
+        return new ClockingTask(task, durationEstimator);
+    }
+
+    /**
+     * 
+     * @return the task to run in place of the given task, with a clock and an event publisher as needed
+     */
+    private Task instrument(Task task) {
+        Task runner = clock(task);
+        if (getEventBuffer() == null || TaskUtil.unwrap(AbstractTask.class, task) != null) {
+            return runner;
+        }
+        TaskRunListenerDecorator publisher = new TaskRunListenerDecorator(runner);
+        publisher.getListeners().add(new TaskEventPublisher(getEventBuffer()));
+        return publisher;
+    }
+
+    /**
+     * Orders tasks by the estimated duration of the longest path from
+     * the task through its dependents, longest first, and then by 
+     * position in the task list. 
+     */
+    private static class CriticalPathFirst implements Comparator<Task> {
+
+        private final IdentityHashMap<Task, Long> remaining = new IdentityHashMap<>();
+        private final IdentityHashMap<Task, Integer> position = new IdentityHashMap<>();
+
+        /**
+         * 
+         * @param tasks must be in dependency order
+         * @param dependents
+         * @param estimator may be null, then all paths are equal
+         */
+        public CriticalPathFirst(List<Task> tasks, IdentityHashMap<Task, List<Task>> dependents, TaskDurationEstimator estimator) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                Task task = tasks.get(i);
+                position.put(task, i);
+                if (estimator == null) {
+                    continue;
+                }
+                long longest = 0;
+                List<Task> list = dependents.get(task);
+                if (list != null) {
+                    for (Task dependent : list) {
+                        Long path = remaining.get(dependent);
+                        if (path != null && path > longest) {
+                            longest = path;
+                        }
+                    }
+                }
+                remaining.put(task, Math.max(0, estimator.estimate(task)) + longest);
             }
-            log.debug("Task manager completed {} tasks", it.getValue());
         }
 
+        private long getRemaining(Task task) {
+            Long path = remaining.get(task);
+            return path == null ? 0 : path;
+        }
+
+        @Override
+        public int compare(Task o1, Task o2) {
+            int byPath = Long.compare(getRemaining(o2), getRemaining(o1));
+            if (byPath != 0) {
+                return byPath;
+            }
+            return Integer.compare(position.get(o1), position.get(o2));
+        }
+    }
+
+    private static List<Task> getManagedDependencies(Task task, IdentityHashMap<Task, Task> managed) {
+        ArrayList<Task> list = new ArrayList<>();
+        Collection<Task> dependencies = task.getDependencies();
+        if (dependencies != null) {
+            for (Task dependency : dependencies) {
+                Task managedDependency = managed.get(dependency);
+                if (managedDependency != null && managedDependency != task) {
+                    list.add(managedDependency);
+                }
+            }
+        }
+        return list;
+    }
+
+    private boolean isReady(Task task, IdentityHashMap<Task, Task> managed) {
+        for (Task dependency : getManagedDependencies(task, managed)) {
+            if (!dependency.isDone() && !restored.contains(dependency)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a task on a worker thread and captures any exception so the task
+     * manager can tell which task failed.
+     */
+    private static class TaskExecution implements Callable<TaskExecution> {
+
+        private final Task task;
+        private final Task runner;
+        private final TaskAdmission admission;
+        private final Collection<String> resources;
+        private final long deadline;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private Future<TaskExecution> future;
+        private Exception exception;
+
+        /**
+         * 
+         * @param task the managed task
+         * @param runner the managed task or a decorator of it
+         * @param admission may be null
+         * @param resources already acquired for the task, released when the task finishes
+         * @param deadline of the task in milliseconds since the epoch, or 0 for none
+         */
+        public TaskExecution(Task task, Task runner, TaskAdmission admission, Collection<String> resources, long deadline) {
+            this.task = task;
+            this.runner = runner;
+            this.admission = admission;
+            this.resources = resources;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public TaskExecution call() {
+            try {
+                runner.run();
+            } catch (Exception e) {
+                exception = e;
+            } finally {
+                release();
+            }
+            return this;
+        }
+
+        /**
+         * Releases the resources once, whether the task finishes or is
+         * abandoned first.
+         */
+        private void release() {
+            if (admission != null && released.compareAndSet(false, true)) {
+                admission.release(resources);
+            }
+        }
+
+        /**
+         * Interrupts the task and releases its resources without waiting
+         * for it to finish.
+         */
+        public void abandon() {
+            if (future != null) {
+                future.cancel(true);
+            }
+            release();
+        }
+
+        public void setFuture(Future<TaskExecution> future) {
+            this.future = future;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public Task getTask() {
+            return task;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
     }
 
     /**
@@ -103,15 +851,234 @@ public class TaskManager extends AbstractTask {
         this.tasks.clear();
         this.tasks.addAll(tasks);
         // sort the tasks to ensure any dependencies are executed before their dependent tasks
-        DependenciesUtil.sort(this.tasks);
+        order = DependenciesUtil.sortWithLevels(this.tasks);
+        reachability = null;
+        restored.clear();
+    }
+    
+    /**
+     * Removes the tasks along with the record of which tasks completed,
+     * failed, or were skipped, so they can be garbage collected. The 
+     * progress and faults of the task manager itself are kept.
+     */
+    void clearTasks() {
+        tasks.clear();
+        order = null;
+        reachability = null;
+        restored.clear();
+        failed.clear();
+        skipped.clear();
+        completedTasks.clear();
+    }
+
+    /**
+     * The reachability index is built on first use and reused until the
+     * task list is replaced.
+     * 
+     * @param subject must not be null
+     * @param other can be null
+     * @return true if subject is directly or transitively dependent on other
+     */
+    public boolean isDependent(Task subject, Task other) {
+        if( reachability == null ) {
+            reachability = new ReachabilityIndex<>(tasks);
+        }
+        return reachability.isDependent(subject, other);
+    }
+    
+    /**
+     * Tasks at the same level do not depend on each other. Level 0 tasks 
+     * have no dependencies in this task manager.
+     * 
+     * @param task
+     * @return the depth level of the task in the dependency graph, or -1 if the task is not managed by this task manager or is part of a dependency cycle
+     */
+    public int getLevel(Task task) {
+        if( order == null ) {
+            return -1;
+        }
+        return order.getLevel(task);
     }
     
+    public TaskDurationEstimator getDurationEstimator() {
+        return durationEstimator;
+    }
+
+    /**
+     * 
+     * @param durationEstimator may be null to start ready tasks in list order and not record durations
+     */
+    public void setDurationEstimator(TaskDurationEstimator durationEstimator) {
+        this.durationEstimator = durationEstimator;
+    }
+    
+    public FailurePolicy getFailurePolicy() {
+        return failurePolicy;
+    }
+
+    public void setFailurePolicy(FailurePolicy failurePolicy) {
+        this.failurePolicy = failurePolicy == null ? FailurePolicy.STOP : failurePolicy;
+    }
+
+    /**
+     * 
+     * @param task
+     * @return true if the task finished with faults or an exception in the last run
+     */
+    public boolean isFailed(Task task) {
+        return failed.contains(task);
+    }
+
+    /**
+     * 
+     * @param task
+     * @return true if the task was not run because a dependency failed, under the FAIL_BRANCH policy
+     */
+    public boolean isSkipped(Task task) {
+        return skipped.contains(task);
+    }
+
+    /**
+     * 
+     * @param task
+     * @return true if the task completed without faults in the last run or was restored from a checkpoint
+     */
+    public boolean isCompleted(Task task) {
+        return completedTasks.contains(task);
+    }
+
+    /**
+     * May be called while the task manager is running to save a checkpoint.
+     * 
+     * @return a snapshot of the tasks that completed without faults, including tasks restored from a checkpoint, in task list order
+     */
+    public List<Task> getCompletedTasks() {
+        ArrayList<Task> list = new ArrayList<>();
+        for (Task task : tasks) {
+            if (completedTasks.contains(task)) {
+                list.add(task);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Must be set before running the task manager. Tasks that are not 
+     * managed by this task manager are ignored.
+     * 
+     * @param completed tasks restored from a checkpoint, which will not be run again; may be null or empty to run all tasks
+     */
+    public void setCompletedTasks(Collection<Task> completed) {
+        restored.clear();
+        if (completed != null) {
+            Set<Task> managed = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+            managed.addAll(tasks);
+            for (Task task : completed) {
+                if (managed.contains(task)) {
+                    restored.add(task);
+                }
+            }
+        }
+        completedTasks.clear();
+        completedTasks.addAll(restored);
+    }
+
+    public ResourceLimits getResourceLimits() {
+        return resourceLimits;
+    }
+
+    /**
+     * 
+     * @param resourceLimits may be shared with other task managers; may be null to not limit resources
+     */
+    public void setResourceLimits(ResourceLimits resourceLimits) {
+        this.resourceLimits = resourceLimits;
+    }
+
+    public FairShareScheduler.Share getShare() {
+        return share;
+    }
+
+    /**
+     * When a task manager has a share, it starts each task only when the
+     * scheduler admits it, instead of asking its resource limits; the 
+     * scheduler should have the same resource limits.
+     * 
+     * @param share of a FairShareScheduler, may be null
+     */
+    public void setShare(FairShareScheduler.Share share) {
+        this.share = share;
+    }
+    
+    public ExecutorProvider getExecutorProvider() {
+        return executorProvider;
+    }
+
+    /**
+     * The executor runs the tasks in parallel mode; no more than the
+     * concurrency are started at the same time regardless of the executor.
+     * 
+     * @param executorProvider may be null to use a fixed pool of platform threads
+     */
+    public void setExecutorProvider(ExecutorProvider executorProvider) {
+        this.executorProvider = executorProvider;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Must be set before running the task manager.
+     * 
+     * @param concurrency maximum number of tasks to run at the same time; 1 (the default) runs tasks sequentially
+     */
+    public void setConcurrency(int concurrency) {
+        if( concurrency < 1 ) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+    
+    public long getCancellationGracePeriod() {
+        return cancellationGracePeriod;
+    }
+
+    /**
+     * 
+     * @param cancellationGracePeriod in milliseconds, how long to wait for running tasks to stop after cancel() before interrupting them in parallel mode
+     */
+    public void setCancellationGracePeriod(long cancellationGracePeriod) {
+        this.cancellationGracePeriod = Math.max(0, cancellationGracePeriod);
+    }
+
+    public TaskTimeouts getTaskTimeouts() {
+        return taskTimeouts;
+    }
+
+    /**
+     * 
+     * @param taskTimeouts may be null so tasks have only the task manager's deadline, if any
+     */
+    public void setTaskTimeouts(TaskTimeouts taskTimeouts) {
+        this.taskTimeouts = taskTimeouts;
+    }
+
+    /**
+     * Stops starting new tasks and cancels the token shared with the
+     * running tasks. May be called from any thread.
+     */
     public void cancel() {
-        cancel = true;
+        cancelRequested = true;
         fault(new ExecutionCancelled());
+        getCancellationToken().cancel();
     }
     
+    /**
+     * 
+     * @return true if cancel() was called; false if the task manager was only stopped by its deadline
+     */
     public boolean isCancelled() {
-        return cancel;
+        return cancelRequested;
     }
 }
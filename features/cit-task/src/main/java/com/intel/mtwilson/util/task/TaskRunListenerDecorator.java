@@ -25,9 +25,14 @@ public class TaskRunListenerDecorator extends AbstractTaskDecorator {
         for (TaskRunListener listener : listeners) {
             listener.beforeRun(delegate);
         }
-        delegate.run();
-        for (TaskRunListener listener : listeners) {
-            listener.afterRun(delegate);
+        try {
+            delegate.run();
+        }
+        finally {
+            // also after an exception, so listeners know the run stopped
+            for (TaskRunListener listener : listeners) {
+                listener.afterRun(delegate);
+            }
         }
     }
 
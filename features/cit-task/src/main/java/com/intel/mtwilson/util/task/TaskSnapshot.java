@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * The progress and state of a task at one point in time. A snapshot is 
+ * immutable, so a monitoring thread that reads it while the task is 
+ * running always sees values that belong together, for example it never
+ * sees a task that is done with the current progress of an earlier step.
+ * 
+ * The version increases by one with each change, so comparing the version
+ * with that of an earlier snapshot of the same task tells whether anything
+ * changed in between.
+ * 
+ * @author jbuhacoff
+ */
+public class TaskSnapshot {
+    private final long version;
+    private final long current, max;
+    private final boolean active, done;
+
+    public TaskSnapshot(long version, long current, long max, boolean active, boolean done) {
+        this.version = version;
+        this.current = current;
+        this.max = max;
+        this.active = active;
+        this.done = done;
+    }
+
+    /**
+     * 
+     * @return a snapshot with the next version and the given values
+     */
+    public TaskSnapshot next(long current, long max, boolean active, boolean done) {
+        return new TaskSnapshot(version + 1, current, max, active, done);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getCurrent() {
+        return current;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("v%d %d/%d%s%s", version, current, max, active ? " active" : "", done ? " done" : "");
+    }
+}
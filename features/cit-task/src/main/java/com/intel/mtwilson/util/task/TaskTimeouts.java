@@ -0,0 +1,24 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+/**
+ * Provides the maximum time each task may run. The task manager sets the 
+ * deadline of a task when it starts the task, to the earlier of the start
+ * time plus the timeout and the task manager's own deadline.
+ * 
+ * Implementations must be safe to call from multiple threads.
+ * 
+ * @author jbuhacoff
+ */
+public interface TaskTimeouts {
+    
+    /**
+     * 
+     * @param task
+     * @return timeout in milliseconds, or 0 if the task has no timeout of its own
+     */
+    long getTimeout(Task task);
+}
@@ -26,4 +26,17 @@ public class TaskUtil {
         }
         return null;
     }
+    
+    /**
+     * 
+     * @param task
+     * @return the innermost task if task is a decorator, otherwise task itself
+     */
+    public static Task getDelegate(Task task) {
+        Task target = task;
+        while( target instanceof TaskDecorator && ((TaskDecorator)target).getDelegate() != null ) {
+            target = ((TaskDecorator)target).getDelegate();
+        }
+        return target;
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The result of sorting items by their dependencies with 
+ * DependenciesUtil.sortWithLevels(list).
+ * 
+ * The level of an item is 0 if it has no dependencies in the sorted list,
+ * otherwise it is one more than the highest level of its dependencies.
+ * Items with the same level do not depend on each other and can be 
+ * executed at the same time. 
+ * 
+ * Items that are part of a dependency cycle, or that depend on one, cannot
+ * be sorted and do not have a level.
+ * 
+ * @author jbuhacoff
+ */
+public class TopologicalOrder<T> {
+    private final IdentityHashMap<T, Integer> levels;
+    private final List<T> cycle;
+    private final List<T> blocked;
+    private final int maxLevel;
+
+    public TopologicalOrder(IdentityHashMap<T, Integer> levels, int maxLevel, List<T> cycle, List<T> blocked) {
+        this.levels = levels;
+        this.maxLevel = maxLevel;
+        this.cycle = Collections.unmodifiableList(cycle);
+        this.blocked = Collections.unmodifiableList(blocked);
+    }
+    
+    /**
+     * 
+     * @param item
+     * @return the depth level of the item, or -1 if the item was not sorted
+     */
+    public int getLevel(T item) {
+        Integer level = levels.get(item);
+        if( level == null ) {
+            return -1;
+        }
+        return level.intValue();
+    }
+
+    /**
+     * 
+     * @return the highest level assigned to any item, or -1 if no items were sorted
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+    
+    /**
+     * 
+     * @return true if some items could not be sorted because of a dependency cycle
+     */
+    public boolean hasCycle() {
+        return !cycle.isEmpty();
+    }
+
+    /**
+     * 
+     * @return items that are part of a dependency cycle, in their original relative order
+     */
+    public List<T> getCycle() {
+        return cycle;
+    }
+
+    /**
+     * 
+     * @return items that are not part of a cycle but depend on an item in a cycle, in their original relative order
+     */
+    public List<T> getBlocked() {
+        return blocked;
+    }
+    
+}
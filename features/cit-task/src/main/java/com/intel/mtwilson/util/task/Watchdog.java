@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels the token of a task that is still running at its deadline. 
+ * A single daemon thread serves all tasks, so a task with a deadline does
+ * not need a thread of its own to enforce it.
+ * 
+ * @author jbuhacoff
+ */
+public class Watchdog {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(Watchdog.class);
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cit-task-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true); // most tasks finish before their deadline
+        return executor;
+    }
+
+    /**
+     * 
+     * @param name of the task, for logging
+     * @param token of the task
+     * @param deadline in milliseconds since the epoch
+     * @return the alarm, to cancel when the task finishes
+     */
+    public static ScheduledFuture<?> schedule(final String name, final CancellationToken token, long deadline) {
+        long delay = Math.max(0, deadline - System.currentTimeMillis());
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                log.warn("Task {} exceeded its deadline, cancelling", name);
+                token.cancel();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task.faults;
+
+import com.intel.dcsg.cpg.validation.Fault;
+
+/**
+ * Reported on a task that was still running at its deadline, and on the
+ * task manager when it stops waiting for such a task.
+ * 
+ * @author jbuhacoff
+ */
+public class DeadlineExceeded extends Fault {
+    private String task;
+
+    public DeadlineExceeded(String task) {
+        super("Deadline exceeded: %s", task);
+        this.task = task;
+    }
+
+    public String getTask() {
+        return task;
+    }
+    
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task.faults;
+
+import com.intel.dcsg.cpg.validation.Fault;
+
+/**
+ * Reported by the task manager when a task could not be started because
+ * one or more of its dependencies is not done and nothing else is running
+ * that could complete them.
+ * 
+ * @author jbuhacoff
+ */
+public class DependenciesNotDone extends Fault {
+    private String task;
+
+    public DependenciesNotDone(String task) {
+        super("Dependencies not done: %s", task);
+        this.task = task;
+    }
+
+    public String getTask() {
+        return task;
+    }
+    
+}
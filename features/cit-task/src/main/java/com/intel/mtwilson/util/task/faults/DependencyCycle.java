@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task.faults;
+
+import com.intel.dcsg.cpg.validation.Fault;
+
+/**
+ * Reported by the task manager for each task that is part of a dependency
+ * cycle; none of the tasks are executed when there is a cycle.
+ * 
+ * @author jbuhacoff
+ */
+public class DependencyCycle extends Fault {
+    private String task;
+
+    public DependencyCycle(String task) {
+        super("Dependency cycle: %s", task);
+        this.task = task;
+    }
+
+    public String getTask() {
+        return task;
+    }
+    
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task.faults;
+
+import com.intel.dcsg.cpg.validation.Fault;
+
+/**
+ * Reported on a task that was skipped because a task it depends on,
+ * directly or transitively, failed.
+ * 
+ * @author jbuhacoff
+ */
+public class DependencyFailed extends Fault {
+    private String dependency;
+
+    public DependencyFailed(String dependency) {
+        super("Dependency failed: %s", dependency);
+        this.dependency = dependency;
+    }
+
+    public String getDependency() {
+        return dependency;
+    }
+    
+}
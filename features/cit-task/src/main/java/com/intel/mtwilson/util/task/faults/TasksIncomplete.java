@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task.faults;
+
+import com.intel.dcsg.cpg.validation.Fault;
+
+/**
+ * Reported on a nested task manager that finished without completing all
+ * of its tasks, for example because some of them failed or were skipped,
+ * so the parent task manager does not treat it as done.
+ * 
+ * @author jbuhacoff
+ */
+public class TasksIncomplete extends Fault {
+    private String task;
+    private long completed, total;
+
+    public TasksIncomplete(String task, long completed, long total) {
+        super("Tasks incomplete: %s completed %d of %d", task, completed, total);
+        this.task = task;
+        this.completed = completed;
+        this.total = total;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+    
+}
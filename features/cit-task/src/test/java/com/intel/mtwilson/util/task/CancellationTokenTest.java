@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class CancellationTokenTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CancellationTokenTest.class);
+
+    /**
+     * Each listener runs once when the token is cancelled, a listener
+     * registered after that runs right away, and an unregistered listener
+     * does not run.
+     */
+    @Test
+    public void testCancellationTokenListeners() {
+        final AtomicInteger calls = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                calls.incrementAndGet();
+            }
+        };
+        Runnable removed = new Runnable() {
+            @Override
+            public void run() {
+                fail("Unregistered listener should not run");
+            }
+        };
+        CancellationToken token = new CancellationToken();
+        token.register(listener);
+        token.register(removed);
+        token.unregister(removed);
+        assertFalse(token.isCancelled());
+        assertEquals(0, token.getCancelledAt());
+        token.cancel();
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertTrue(token.getCancelledAt() > 0);
+        assertEquals(1, calls.get());
+        token.register(listener);
+        assertEquals(2, calls.get());
+        try {
+            token.throwIfCancelled();
+            fail("Expected CancellationException");
+        } catch (CancellationException e) {
+            log.debug("Cancelled token threw {}", e.getClass().getName());
+        }
+    }
+
+    /**
+     * A thread in sleep() wakes up as soon as the token is cancelled.
+     */
+    @Test
+    public void testCancellationTokenSleep() throws InterruptedException {
+        final CancellationToken token = new CancellationToken();
+        assertFalse(token.sleep(10));
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                token.cancel();
+            }
+        });
+        long start = System.currentTimeMillis();
+        canceller.start();
+        assertTrue(token.sleep(10000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        canceller.join();
+    }
+
+    /**
+     * A child token is cancelled with its parent, but cancelling the child
+     * does not cancel the parent.
+     */
+    @Test
+    public void testCancellationTokenChild() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.newChild();
+        child.cancel();
+        assertTrue(child.isCancelled());
+        assertFalse(parent.isCancelled());
+        CancellationToken other = parent.newChild();
+        parent.cancel();
+        assertTrue(other.isCancelled());
+        assertTrue(parent.newChild().isCancelled());
+    }
+}
@@ -9,6 +9,7 @@ import com.intel.dcsg.cpg.performance.report.PerformanceInfo;
 import java.util.ArrayList;
 import org.apache.commons.lang.math.RandomUtils;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -32,6 +33,35 @@ public class ClockingTaskTest {
         log.debug("min {}ms max {}ms avg {}ms over {} iterations", info.getMin(), info.getMax(), info.getAverage(), iterations);
     }
     
+    /**
+     * A run that is skipped because the task is up to date is not recorded
+     * as the duration of the task.
+     */
+    @Test
+    public void testClockingTaskSkipsUpToDateRuns() {
+        final ArrayList<Long> recorded = new ArrayList<>();
+        TaskDurationEstimator estimator = new TaskDurationEstimator() {
+            @Override
+            public long estimate(Task task) {
+                return 0;
+            }
+
+            @Override
+            public void record(Task task, long duration) {
+                recorded.add(duration);
+            }
+        };
+        TaskManagerTest.Installer install = new TaskManagerTest.Installer("host1", "v1");
+        install.setFingerprintStore(new TaskManagerTest.MemoryFingerprintStore());
+        ClockingTask clockingTask = new ClockingTask(install, estimator);
+        clockingTask.run();
+        assertFalse(install.isUpToDate());
+        assertEquals(1, recorded.size());
+        clockingTask.run();
+        assertTrue(install.isUpToDate());
+        assertEquals(1, recorded.size());
+    }
+    
     public static class Delay extends AbstractTask {
 
         @Override
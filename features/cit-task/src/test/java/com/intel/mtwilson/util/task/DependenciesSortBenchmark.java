@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the previous insertion-based DependenciesUtil.sort with the 
+ * current linear-time sort on generated task graphs shaped like the ones
+ * DeploymentTaskFactory creates: per-host chains of tasks that depend on
+ * earlier tasks, plus a few fan-in synchronization tasks.
+ * 
+ * This is not a unit test; run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.intel.mtwilson.util.task.DependenciesSortBenchmark
+ * </pre>
+ * 
+ * @author jbuhacoff
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DependenciesSortBenchmark {
+
+    @Param({"1000", "10000"})
+    public int size;
+    
+    private List<Node> graph;
+    private ArrayList<Node> list;
+
+    @Setup(Level.Trial)
+    public void createGraph() {
+        graph = createGraph(size, new Random(size));
+    }
+    
+    @Setup(Level.Invocation)
+    public void shuffle() {
+        list = new ArrayList<>(graph);
+        Collections.shuffle(list, new Random(size));
+    }
+
+    @Benchmark
+    public List<Node> sortLinear() {
+        DependenciesUtil.sort(list);
+        return list;
+    }
+
+    @Benchmark
+    public List<Node> sortInsertion() {
+        insertionSort(list);
+        return list;
+    }
+
+    /**
+     * Every 8 nodes form a chain (like FileTransfer, Preconfigure, RemoteInstall
+     * on one host) with one extra random dependency on an earlier node, and
+     * every 500 nodes a sync node depends on all nodes since the prior sync.
+     */
+    public static List<Node> createGraph(int size, Random random) {
+        ArrayList<Node> nodes = new ArrayList<>(size);
+        Node priorSync = null;
+        int groupStart = 0;
+        for (int i = 0; i < size; i++) {
+            Node node = new Node(i);
+            if (i % 500 == 499) {
+                node.dependencies.addAll(nodes.subList(groupStart, i));
+                if (priorSync != null) {
+                    node.dependencies.add(priorSync);
+                }
+                priorSync = node;
+                groupStart = i + 1;
+            } else {
+                if (i % 8 != 0) {
+                    node.dependencies.add(nodes.get(i - 1));
+                }
+                if (i > 0) {
+                    node.dependencies.add(nodes.get(random.nextInt(i)));
+                }
+                if (priorSync != null) {
+                    node.dependencies.add(priorSync);
+                }
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /**
+     * The sort algorithm used by DependenciesUtil before the linear-time
+     * sort, kept here for comparison.
+     */
+    public static <T extends Dependencies<T>> void insertionSort(List<T> list) {
+        int i = 0, length = list.size(), highestDependencyIndex, currentDependencyIndex;
+        T highestDependency;
+        while (i < length) {
+            Collection<T> dependencies = list.get(i).getDependencies();
+            if (dependencies != null) {
+                highestDependency = null;
+                highestDependencyIndex = 0;
+                for (T dependency : dependencies) {
+                    currentDependencyIndex = list.indexOf(dependency);
+                    if (currentDependencyIndex > highestDependencyIndex) {
+                        highestDependencyIndex = currentDependencyIndex;
+                        highestDependency = dependency;
+                    }
+                }
+                if (highestDependencyIndex > i) {
+                    list.remove(highestDependencyIndex);
+                    list.add(i, highestDependency);
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    public static class Node implements Dependencies<Node> {
+
+        private final int id;
+        private final ArrayList<Node> dependencies = new ArrayList<>();
+
+        public Node(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Collection<Node> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(id);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(DependenciesSortBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
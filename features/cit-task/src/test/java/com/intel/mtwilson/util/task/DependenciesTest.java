@@ -49,6 +49,92 @@ public class DependenciesTest {
         }
     }
 
+    @Test
+    public void testSortLevels() {
+        SoftwarePackageExample a = new SoftwarePackageExample("a");
+        SoftwarePackageExample b = new SoftwarePackageExample("b");
+        SoftwarePackageExample c = new SoftwarePackageExample("c");
+        SoftwarePackageExample d = new SoftwarePackageExample("d");
+        SoftwarePackageExample e = new SoftwarePackageExample("e");
+        a.getDependencies().add(b);
+        b.getDependencies().add(c);
+        c.getDependencies().add(e);
+        d.getDependencies().add(b);
+        d.getDependencies().add(e);
+        ArrayList<SoftwarePackageExample> list = new ArrayList<>();
+        list.addAll(Arrays.asList(a, b, c, d, e));
+        Collections.shuffle(list);
+        TopologicalOrder<SoftwarePackageExample> order = DependenciesUtil.sortWithLevels(list);
+        postcondition(list);
+        assertFalse(order.hasCycle());
+        assertEquals(0, order.getLevel(e));
+        assertEquals(1, order.getLevel(c));
+        assertEquals(2, order.getLevel(b));
+        assertEquals(3, order.getLevel(a));
+        assertEquals(3, order.getLevel(d));
+        assertEquals(3, order.getMaxLevel());
+    }
+
+    /**
+     * A cycle must not cause the sort to loop forever; the items in the
+     * cycle and the items that depend on them are moved to the end.
+     */
+    @Test
+    public void testSortCycle() {
+        SoftwarePackageExample a = new SoftwarePackageExample("a");
+        SoftwarePackageExample b = new SoftwarePackageExample("b");
+        SoftwarePackageExample c = new SoftwarePackageExample("c");
+        SoftwarePackageExample d = new SoftwarePackageExample("d");
+        SoftwarePackageExample e = new SoftwarePackageExample("e");
+        a.getDependencies().add(b);
+        b.getDependencies().add(c);
+        c.getDependencies().add(a);
+        d.getDependencies().add(a);
+        ArrayList<SoftwarePackageExample> list = new ArrayList<>();
+        list.addAll(Arrays.asList(d, c, b, a, e));
+        TopologicalOrder<SoftwarePackageExample> order = DependenciesUtil.sortWithLevels(list);
+        assertTrue(order.hasCycle());
+        assertEquals(Arrays.asList(c, b, a), order.getCycle());
+        assertEquals(Arrays.asList(d), order.getBlocked());
+        assertEquals(e, list.get(0));
+        assertEquals(0, order.getLevel(e));
+        assertEquals(-1, order.getLevel(d));
+    }
+
+    @Test
+    public void testReachabilityIndex() {
+        SoftwarePackageExample a = new SoftwarePackageExample("a");
+        SoftwarePackageExample b = new SoftwarePackageExample("b");
+        SoftwarePackageExample c = new SoftwarePackageExample("c");
+        SoftwarePackageExample d = new SoftwarePackageExample("d");
+        SoftwarePackageExample e = new SoftwarePackageExample("e");
+        // diamond: a -> b -> d, a -> c -> d
+        a.getDependencies().add(b);
+        a.getDependencies().add(c);
+        b.getDependencies().add(d);
+        c.getDependencies().add(d);
+        ReachabilityIndex<SoftwarePackageExample> index = new ReachabilityIndex<>(Arrays.asList(a, e));
+        assertEquals(5, index.size());
+        assertTrue(index.isDependent(a, d));
+        assertTrue(index.isDependent(b, d));
+        assertFalse(index.isDependent(d, a));
+        assertFalse(index.isDependent(a, e));
+        assertFalse(index.isDependent(a, null));
+        for (SoftwarePackageExample x : Arrays.asList(a, b, c, d, e)) {
+            for (SoftwarePackageExample y : Arrays.asList(a, b, c, d, e)) {
+                assertEquals(DependenciesUtil.isDependent(x, y), index.isDependent(x, y));
+            }
+        }
+        assertEquals(3, index.getAllDependencies(a).size());
+        assertEquals(3, index.getAllDependents(d).size());
+        // incremental: adding a dependency on e to d is seen by a, b, and c
+        d.getDependencies().add(e);
+        index.add(d);
+        assertTrue(index.isDependent(a, e));
+        assertTrue(index.isDependent(c, e));
+        assertEquals(4, index.getAllDependents(e).size());
+    }
+
     /**
      * Checks that each element in list appears AFTER all its dependencies.
      *
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class FairShareSchedulerTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FairShareSchedulerTest.class);
+
+    @Test
+    public void testFairShareScheduler() {
+        FairShareScheduler scheduler = new FairShareScheduler(3, null);
+        scheduler.setFastLane(1, 5);
+        FairShareScheduler.Share big = scheduler.register("alice", "big", 1000, 1);
+        FairShareScheduler.Share other = scheduler.register("bob", "other", 1000, 1);
+        FairShareScheduler.Share small = scheduler.register("carol", "small", 2, 1);
+        assertFalse(big.isFastLane());
+        assertTrue(small.isFastLane());
+        // the big order takes every slot that is not reserved for the fast lane
+        assertTrue(big.tryAcquire(null));
+        assertTrue(big.tryAcquire(null));
+        assertFalse(big.tryAcquire(null));
+        // another owner is waiting, so the big order cannot take back the slot it releases
+        assertFalse(other.tryAcquire(null));
+        big.release(null);
+        assertFalse(big.tryAcquire(null));
+        assertTrue(other.tryAcquire(null));
+        // the small order starts right away in the reserved slot
+        assertTrue(small.tryAcquire(null));
+        assertEquals(3, scheduler.getUsed());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import com.intel.dcsg.cpg.performance.Observer;
+import com.intel.dcsg.cpg.performance.Progress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class ProgressSamplerTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ProgressSamplerTest.class);
+
+    /**
+     * Many monitored tasks running at the same time are sampled by the 
+     * shared sampler thread, each observer sees the final progress of its 
+     * task, and the tasks are unregistered when they finish.
+     */
+    @Test
+    public void testProgressMonitoringTasksShareSampler() {
+        ProgressSampler sampler = new ProgressSampler(10);
+        final Map<Progress, Long> observed = Collections.synchronizedMap(new IdentityHashMap<Progress, Long>());
+        final AtomicInteger sampled = new AtomicInteger();
+        Observer<Progress> observer = new Observer<Progress>() {
+            @Override
+            public void observe(Progress progress) {
+                observed.put(progress, progress.getCurrent());
+                if (Thread.currentThread().getName().equals("cit-task-progress-sampler")) {
+                    sampled.incrementAndGet();
+                }
+            }
+        };
+        ArrayList<TaskManagerTest.Counter> counters = new ArrayList<>();
+        ArrayList<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            TaskManagerTest.Counter counter = new TaskManagerTest.Counter(5, 20);
+            counters.add(counter);
+            tasks.add(new ProgressMonitoringTask(counter, observer, sampler));
+        }
+        TaskManager taskManager = new TaskManager(tasks);
+        taskManager.setConcurrency(20);
+        taskManager.run();
+        assertTrue(taskManager.isDone());
+        assertEquals(0, sampler.size());
+        assertTrue(sampled.get() > 0);
+        for (TaskManagerTest.Counter counter : counters) {
+            assertEquals(Long.valueOf(5), observed.get(counter));
+        }
+    }
+
+    /**
+     * The sampler notices changes in a task that overrides the Progress
+     * getters, even though its snapshot version does not change.
+     */
+    @Test
+    public void testProgressSamplerOverriddenProgress() throws InterruptedException {
+        ProgressSampler sampler = new ProgressSampler(10);
+        final AtomicLong progress = new AtomicLong();
+        final AtomicLong observed = new AtomicLong(-1);
+        AbstractTask task = new AbstractTask() {
+            @Override
+            public void execute() {
+            }
+
+            @Override
+            public long getCurrent() {
+                return progress.get();
+            }
+        };
+        ProgressSampler.Registration registration = sampler.register(task, new Observer<Progress>() {
+            @Override
+            public void observe(Progress status) {
+                observed.set(status.getCurrent());
+            }
+        });
+        try {
+            // the first sample is taken before the progress changes
+            for (int i = 0; i < 200 && observed.get() != 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, observed.get());
+            progress.set(3);
+            for (int i = 0; i < 200 && observed.get() != 3; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, observed.get());
+        } finally {
+            sampler.unregister(registration);
+        }
+    }
+}
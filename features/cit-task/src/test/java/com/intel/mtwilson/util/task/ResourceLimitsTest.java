@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class ResourceLimitsTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ResourceLimitsTest.class);
+
+    @Test
+    public void testResourceLimits() {
+        ResourceLimits limits = new ResourceLimits();
+        limits.setLimit("ssh", 2);
+        limits.setLimit("ssh:shared", 1);
+        assertTrue(limits.tryAcquire(Arrays.asList("ssh:a", "unlimited")));
+        assertTrue(limits.tryAcquire(Arrays.asList("ssh:a")));
+        assertFalse(limits.tryAcquire(Arrays.asList("ssh:a", "ssh:b")));
+        assertEquals(0, limits.getUsed("ssh:b"));
+        assertTrue(limits.tryAcquire(Arrays.asList("ssh:shared")));
+        assertFalse(limits.tryAcquire(Arrays.asList("ssh:shared")));
+        limits.release(Arrays.asList("ssh:a"));
+        assertEquals(1, limits.getUsed("ssh:a"));
+        assertTrue(limits.tryAcquire(Arrays.asList("ssh:a", "ssh:b")));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TaskEventBufferTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskEventBufferTest.class);
+
+    /**
+     * Events from several publishers all arrive, in order for each 
+     * publisher, or are counted as dropped when the buffer is full.
+     */
+    @Test
+    public void testTaskEventBuffer() throws InterruptedException {
+        TaskEventBuffer small = new TaskEventBuffer(2);
+        TaskManagerTest.HelloName a = new TaskManagerTest.HelloName("a");
+        assertTrue(small.offer(new TaskEvent(a, TaskEvent.Type.STARTED)));
+        assertTrue(small.offer(new TaskEvent(a, TaskEvent.Type.PROGRESS)));
+        assertFalse(small.offer(new TaskEvent(a, TaskEvent.Type.FINISHED)));
+        assertEquals(1, small.getDropped());
+        assertEquals(TaskEvent.Type.STARTED, small.poll().getType());
+        assertTrue(small.offer(new TaskEvent(a, TaskEvent.Type.FINISHED)));
+        assertEquals(TaskEvent.Type.PROGRESS, small.poll().getType());
+        assertEquals(TaskEvent.Type.FINISHED, small.poll().getType());
+        assertNull(small.poll());
+
+        final TaskEventBuffer events = new TaskEventBuffer(1024);
+        final int publishers = 4, count = 20000;
+        final TaskManagerTest.HelloName[] sources = new TaskManagerTest.HelloName[publishers];
+        Thread[] threads = new Thread[publishers];
+        for (int i = 0; i < publishers; i++) {
+            final TaskManagerTest.HelloName source = sources[i] = new TaskManagerTest.HelloName("p" + i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        events.offer(new TaskEvent(source, TaskEvent.Type.PROGRESS));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        long received = 0, previous[] = new long[publishers];
+        boolean running = true;
+        while (running || !events.isEmpty()) {
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+            TaskEvent event = events.poll();
+            while (event != null) {
+                received++;
+                for (int i = 0; i < publishers; i++) {
+                    if (event.getTask() == sources[i]) {
+                        assertTrue(event.getTime() >= previous[i]);
+                        previous[i] = event.getTime();
+                    }
+                }
+                event = events.poll();
+            }
+        }
+        log.debug("Received {} events, dropped {}", received, events.getDropped());
+        assertEquals(publishers * count, received + events.getDropped());
+    }
+}
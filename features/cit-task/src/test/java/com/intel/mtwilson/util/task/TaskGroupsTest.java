@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TaskGroupsTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskGroupsTest.class);
+
+    private static final TaskGroups.GroupFactory factory = new TaskGroups.GroupFactory() {
+        @Override
+        public TaskManager create(String key, List<Task> tasks) {
+            return new TaskManager(tasks);
+        }
+    };
+
+    /**
+     * An order with two software packages has a task without a host after
+     * each package that waits for all its hosts. Each of those tasks is in
+     * a group of its own, so the order can still be grouped by host.
+     */
+    @Test
+    public void testTasksWithoutKeyAreSeparateGroups() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        TaskManagerTest.Recorder installA = new TaskManagerTest.Recorder("installA", running, peak);
+        TaskManagerTest.Recorder syncA = new TaskManagerTest.Recorder("syncA", running, peak);
+        syncA.getDependencies().add(installA);
+        TaskManagerTest.Recorder installB = new TaskManagerTest.Recorder("installB", running, peak);
+        installB.getDependencies().add(syncA);
+        TaskManagerTest.Recorder syncB = new TaskManagerTest.Recorder("syncB", running, peak);
+        syncB.getDependencies().add(installB);
+        List<Task> tasks = Arrays.<Task>asList(installA, syncA, installB, syncB);
+        HashMap<Task, String> hosts = new HashMap<>();
+        hosts.put(installA, "a");
+        hosts.put(installB, "b");
+        List<TaskManager> groups = TaskGroups.compose(tasks, hosts, factory);
+        assertNotNull(groups);
+        assertEquals(4, groups.size());
+        assertEquals(Arrays.<Task>asList(syncA), groups.get(1).getTasks());
+        assertEquals(Arrays.<Task>asList(syncB), groups.get(3).getTasks());
+        assertTrue(groups.get(2).getDependencies().contains(groups.get(1)));
+        TaskManager taskManager = new TaskManager(new ArrayList<Task>(groups));
+        taskManager.run();
+        assertTrue(taskManager.isDone());
+        assertEquals(4, taskManager.getCurrent());
+        assertTrue(syncA.isDone());
+        assertTrue(syncB.isDone());
+    }
+
+    /**
+     * Tasks with the same key are in one group, in their original order,
+     * and the groups are in the order of their first task.
+     */
+    @Test
+    public void testTasksWithSameKeyAreOneGroup() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        TaskManagerTest.Recorder a1 = new TaskManagerTest.Recorder("a1", running, peak);
+        TaskManagerTest.Recorder b1 = new TaskManagerTest.Recorder("b1", running, peak);
+        TaskManagerTest.Recorder a2 = new TaskManagerTest.Recorder("a2", running, peak);
+        HashMap<Task, String> hosts = new HashMap<>();
+        hosts.put(a1, "a");
+        hosts.put(b1, "b");
+        hosts.put(a2, "a");
+        List<TaskManager> groups = TaskGroups.compose(Arrays.<Task>asList(a1, b1, a2), hosts, factory);
+        assertEquals(2, groups.size());
+        assertEquals(Arrays.<Task>asList(a1, a2), groups.get(0).getTasks());
+        assertEquals(Arrays.<Task>asList(b1), groups.get(1).getTasks());
+    }
+}
@@ -5,14 +5,27 @@
 package com.intel.mtwilson.util.task;
 
 import com.intel.dcsg.cpg.performance.AlarmClock;
+import com.intel.dcsg.cpg.performance.Progress;
 import com.intel.dcsg.cpg.performance.ProgressMonitor;
 import com.intel.dcsg.cpg.validation.Fault;
+import com.intel.mtwilson.util.task.faults.DeadlineExceeded;
+import com.intel.mtwilson.util.task.faults.ExecutionCancelled;
+import com.intel.mtwilson.util.task.faults.ExecutionFailed;
+import com.intel.mtwilson.util.task.faults.TasksIncomplete;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang.math.RandomUtils;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -108,6 +121,830 @@ public class TaskManagerTest {
         monitoringTask.run();
     }
     
+    /**
+     * Independent chains of tasks should run at the same time when
+     * concurrency is greater than 1, and each task must still start only
+     * after its dependencies are done.
+     */
+    @Test
+    public void testParallelTaskManagerDependencyOrder() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        ArrayList<Task> tasks = new ArrayList<>();
+        for (int host = 0; host < 4; host++) {
+            Recorder transfer = new Recorder("transfer" + host, running, peak);
+            Recorder preconfigure = new Recorder("preconfigure" + host, running, peak);
+            Recorder install = new Recorder("install" + host, running, peak);
+            preconfigure.getDependencies().add(transfer);
+            install.getDependencies().add(preconfigure);
+            tasks.addAll(Arrays.asList(install, preconfigure, transfer));
+        }
+        Collections.shuffle(tasks);
+        TaskManager taskManager = new TaskManager(tasks);
+        taskManager.setConcurrency(4);
+        taskManager.run();
+        assertTrue(taskManager.getFaults().isEmpty());
+        assertTrue(taskManager.isDone());
+        assertEquals(tasks.size(), taskManager.getCurrent());
+        assertEquals(tasks.size(), taskManager.getMax());
+        assertTrue(peak.get() > 1);
+        assertTrue(peak.get() <= 4);
+        for (Task task : tasks) {
+            Recorder recorder = (Recorder) task;
+            for (Task dependency : recorder.getDependencies()) {
+                assertTrue(((Recorder) dependency).stopped <= recorder.started);
+            }
+        }
+    }
+
+    /**
+     * Each executor provider runs the tasks in dependency order with no
+     * more than the configured concurrency.
+     */
+    @Test
+    public void testParallelTaskManagerExecutorProviders() {
+        for (String name : new String[]{ExecutorProviders.CACHED, ExecutorProviders.BOUNDED, ExecutorProviders.WORK_STEALING, ExecutorProviders.VIRTUAL}) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            ArrayList<Task> tasks = new ArrayList<>();
+            for (int host = 0; host < 4; host++) {
+                Recorder transfer = new Recorder("transfer" + host, running, peak);
+                Recorder install = new Recorder("install" + host, running, peak);
+                install.getDependencies().add(transfer);
+                tasks.addAll(Arrays.asList(install, transfer));
+            }
+            TaskManager taskManager = new TaskManager(tasks);
+            taskManager.setConcurrency(3);
+            taskManager.setExecutorProvider(ExecutorProviders.forName(name));
+            taskManager.run();
+            log.debug("Executor provider {} peak concurrency {}", name, peak.get());
+            assertTrue(taskManager.getFaults().isEmpty());
+            assertEquals(tasks.size(), taskManager.getCurrent());
+            assertTrue(peak.get() <= 3);
+            for (Task task : tasks) {
+                Recorder recorder = (Recorder) task;
+                for (Task dependency : recorder.getDependencies()) {
+                    assertTrue(((Recorder) dependency).stopped <= recorder.started);
+                }
+            }
+        }
+    }
+
+    /**
+     * After a task fails no more tasks are started, the same as in 
+     * sequential mode.
+     */
+    @Test
+    public void testParallelTaskManagerStopsAfterFault() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Recorder a = new Recorder("a", running, peak);
+        Failure b = new Failure();
+        Recorder c = new Recorder("c", running, peak);
+        c.getDependencies().add(b);
+        List<Task> tasks = Arrays.asList(a, b, c);
+        TaskManager taskManager = new TaskManager(tasks);
+        taskManager.setConcurrency(2);
+        taskManager.run();
+        assertFalse(c.isDone());
+        assertTrue(taskManager.getCurrent() < taskManager.getMax());
+    }
+    
+    /**
+     * With a duration estimator, the start of a long chain of tasks is
+     * started before short independent tasks that appear earlier in the
+     * list, and the actual durations are recorded.
+     */
+    @Test
+    public void testParallelTaskManagerCriticalPathFirst() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Recorder s1 = new Recorder("s1", running, peak);
+        Recorder s2 = new Recorder("s2", running, peak);
+        Recorder s3 = new Recorder("s3", running, peak);
+        Recorder c1 = new Recorder("c1", running, peak);
+        Recorder c2 = new Recorder("c2", running, peak);
+        c2.getDependencies().add(c1);
+        TaskDurationHistory history = new TaskDurationHistory() {
+            @Override
+            protected List<String> getKeys(Task task) {
+                return Arrays.asList(task.toString());
+            }
+        };
+        history.record(Arrays.asList("s1", "s2", "s3"), 10);
+        history.record(Arrays.asList("c1", "c2"), 1000);
+        TaskManager taskManager = new TaskManager(Arrays.<Task>asList(s1, s2, s3, c1, c2));
+        taskManager.setConcurrency(2);
+        taskManager.setDurationEstimator(history);
+        taskManager.run();
+        assertEquals(taskManager.getMax(), taskManager.getCurrent());
+        assertTrue(c1.started < s2.started);
+        assertTrue(history.estimate(s1) > 10);
+        assertTrue(history.estimate(c1) < 1000);
+    }
+    
+    /**
+     * Tasks that need the same limited resource are queued instead of
+     * running at the same time, while a task that needs a different 
+     * resource is not held back.
+     */
+    @Test
+    public void testParallelTaskManagerResourceLimits() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicInteger otherPeak = new AtomicInteger();
+        ArrayList<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new ResourceRecorder("host1-" + i, running, peak, "ssh:host1"));
+        }
+        ResourceRecorder other = new ResourceRecorder("host2", new AtomicInteger(), otherPeak, "ssh:host2");
+        tasks.add(other);
+        ResourceLimits limits = new ResourceLimits();
+        limits.setLimit("ssh", 1);
+        TaskManager taskManager = new TaskManager(tasks);
+        taskManager.setConcurrency(4);
+        taskManager.setResourceLimits(limits);
+        taskManager.run();
+        assertEquals(taskManager.getMax(), taskManager.getCurrent());
+        assertEquals(1, peak.get());
+        assertTrue(((Recorder) other).started < ((Recorder) tasks.get(1)).started);
+        assertEquals(0, limits.getUsed("ssh:host1"));
+    }
+    
+    @Test
+    public void testParallelTaskManagerFairShare() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        ArrayList<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tasks.add(new Recorder("task" + i, running, peak));
+        }
+        FairShareScheduler scheduler = new FairShareScheduler(2, new ResourceLimits());
+        TaskManager taskManager = new TaskManager(tasks);
+        taskManager.setConcurrency(4);
+        taskManager.setShare(scheduler.register("alice", "order", tasks.size(), 1));
+        taskManager.run();
+        assertEquals(taskManager.getMax(), taskManager.getCurrent());
+        assertTrue(peak.get() <= 2);
+        assertEquals(0, scheduler.getUsed());
+    }
+
+    /**
+     * With the FAIL_BRANCH policy a failure on one host skips only the
+     * tasks that depend on it, in both parallel and sequential mode.
+     */
+    @Test
+    public void testTaskManagerFailBranch() {
+        for (int concurrency : new int[]{1, 4}) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            Failure a1 = new Failure();
+            Recorder a2 = new Recorder("a2", running, peak);
+            Recorder a3 = new Recorder("a3", running, peak);
+            a2.getDependencies().add(a1);
+            a3.getDependencies().add(a2);
+            Recorder b1 = new Recorder("b1", running, peak);
+            Recorder b2 = new Recorder("b2", running, peak);
+            b2.getDependencies().add(b1);
+            TaskManager taskManager = new TaskManager(Arrays.<Task>asList(a1, a2, a3, b1, b2));
+            taskManager.setConcurrency(concurrency);
+            taskManager.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+            taskManager.run();
+            assertTrue(b1.isDone());
+            assertTrue(b2.isDone());
+            assertFalse(a2.isDone());
+            assertFalse(a3.isDone());
+            assertTrue(taskManager.isFailed(a1));
+            assertTrue(taskManager.isSkipped(a2));
+            assertTrue(taskManager.isSkipped(a3));
+            assertEquals(1, a3.getFaults().size());
+            assertEquals(2, taskManager.getCurrent());
+        }
+    }
+    
+    /**
+     * Tasks grouped by host run in nested task managers. A dependency 
+     * between hosts becomes a dependency between their groups, the 
+     * progress of the parent counts the tasks in all the groups, and a 
+     * group with a failed task fails the groups that depend on it.
+     */
+    @Test
+    public void testTaskManagerNestedGroups() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Recorder a1 = new Recorder("a1", running, peak);
+        Recorder a2 = new Recorder("a2", running, peak);
+        a2.getDependencies().add(a1);
+        Recorder b1 = new Recorder("b1", running, peak);
+        b1.getDependencies().add(a1);
+        Recorder b2 = new Recorder("b2", running, peak);
+        Recorder c1 = new Recorder("c1", running, peak);
+        List<Task> tasks = Arrays.<Task>asList(a1, a2, b1, b2, c1);
+        HashMap<Task, String> hosts = new HashMap<>();
+        hosts.put(a1, "a");
+        hosts.put(a2, "a");
+        hosts.put(b1, "b");
+        hosts.put(b2, "b");
+        hosts.put(c1, "c");
+        TaskGroups.GroupFactory factory = new TaskGroups.GroupFactory() {
+            @Override
+            public TaskManager create(String key, List<Task> tasks) {
+                TaskManager group = new TaskManager(tasks);
+                group.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+                return group;
+            }
+        };
+        List<TaskManager> groups = TaskGroups.compose(tasks, hosts, factory);
+        assertEquals(3, groups.size());
+        assertTrue(groups.get(1).getDependencies().contains(groups.get(0)));
+        TaskManager taskManager = new TaskManager(new ArrayList<Task>(groups));
+        taskManager.setConcurrency(3);
+        taskManager.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+        TaskEventBuffer events = new TaskEventBuffer(64);
+        taskManager.setEventBuffer(events);
+        assertEquals(5, taskManager.getLeafCount());
+        taskManager.run();
+        assertTrue(taskManager.isDone());
+        assertEquals(5, taskManager.getMax());
+        assertEquals(5, taskManager.getCurrent());
+        assertEquals(2, groups.get(0).getCurrent());
+        assertTrue(a1.stopped <= b1.started);
+        ArrayList<TaskEvent> list = new ArrayList<>();
+        events.drainTo(list);
+        assertTrue(hasEvent(list, b2, TaskEvent.Type.FINISHED));
+
+        // a failure in group a fails group b, which depends on it, but not group c
+        Failure f = new Failure();
+        a2.getDependencies().clear();
+        a2.getDependencies().add(f);
+        hosts.put(f, "a");
+        groups = TaskGroups.compose(Arrays.<Task>asList(a1, f, a2, b1, b2, c1), hosts, factory);
+        taskManager = new TaskManager(new ArrayList<Task>(groups));
+        taskManager.setConcurrency(3);
+        taskManager.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+        taskManager.run();
+        assertTrue(hasFault(groups.get(0), TasksIncomplete.class));
+        assertTrue(taskManager.isFailed(groups.get(0)));
+        assertTrue(taskManager.isSkipped(groups.get(1)));
+        assertTrue(c1.isDone());
+        assertEquals(6, taskManager.getMax());
+        assertEquals(2, taskManager.getCurrent()); // a1 and c1
+
+        // b1 depends on a1 and a2 depends on b1: the groups would depend on each other
+        a2.getDependencies().clear();
+        a2.getDependencies().add(b1);
+        assertNull(TaskGroups.compose(tasks, hosts, factory));
+    }
+    
+    /**
+     * Lazy task managers generate their tasks only while they run, so no
+     * more subgraphs are live at a time than the parent's concurrency, and
+     * the faults of a failed task are kept after its subgraph is released.
+     */
+    @Test
+    public void testLazyTaskManager() {
+        AtomicInteger live = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        ArrayList<Task> groups = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            groups.add(new LazyTaskManager(new Subgraph(live, peak, i == 7), 3));
+        }
+        TaskManager taskManager = new TaskManager(groups);
+        taskManager.setConcurrency(2);
+        taskManager.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+        assertEquals(30, taskManager.getLeafCount());
+        assertTrue(((LazyTaskManager) groups.get(0)).getTasks().isEmpty());
+        taskManager.run();
+        assertTrue(taskManager.isDone());
+        assertEquals(30, taskManager.getMax());
+        assertEquals(29, taskManager.getCurrent());
+        assertEquals(0, live.get());
+        assertTrue(peak.get() <= 2);
+        LazyTaskManager failed = (LazyTaskManager) groups.get(7);
+        assertTrue(taskManager.isFailed(failed));
+        assertTrue(failed.getTasks().isEmpty());
+        assertEquals(3, failed.getLeafCount());
+        assertTrue(hasFault(failed, TasksIncomplete.class));
+        assertTrue(hasFault(failed, ExecutionFailed.class));
+    }
+    
+    /**
+     * The number of tasks given to a lazy task manager is an estimate; 
+     * when targets generate different numbers of tasks, the max of the
+     * parent is corrected so the order still completes at 100%.
+     */
+    @Test
+    public void testLazyTaskManagerCountsGeneratedTasks() {
+        for (int concurrency : new int[]{1, 2}) {
+            ArrayList<Task> groups = new ArrayList<>();
+            for (int count : new int[]{2, 3, 5}) {
+                groups.add(new LazyTaskManager(new Chain(count), 3));
+            }
+            TaskManager taskManager = new TaskManager(groups);
+            taskManager.setConcurrency(concurrency);
+            assertEquals(9, taskManager.getLeafCount());
+            taskManager.run();
+            assertTrue(taskManager.getFaults().isEmpty());
+            assertTrue(taskManager.isDone());
+            assertEquals(10, taskManager.getMax());
+            assertEquals(10, taskManager.getCurrent());
+            assertEquals(2, ((LazyTaskManager) groups.get(0)).getLeafCount());
+            assertEquals(5, ((LazyTaskManager) groups.get(2)).getLeafCount());
+            assertEquals(10, taskManager.getLeafCount());
+        }
+    }
+    
+    /**
+     * Tasks restored from a checkpoint are not run again but still satisfy
+     * the dependencies of the remaining tasks.
+     */
+    @Test
+    public void testTaskManagerResumeFromCheckpoint() {
+        for (int concurrency : new int[]{1, 4}) {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            Recorder a = new Recorder("a", running, peak);
+            Recorder b = new Recorder("b", running, peak);
+            Recorder c = new Recorder("c", running, peak);
+            b.getDependencies().add(a);
+            c.getDependencies().add(b);
+            TaskManager first = new TaskManager(Arrays.<Task>asList(a, b, c));
+            first.setConcurrency(concurrency);
+            first.run();
+            assertEquals(Arrays.<Task>asList(a, b, c), first.getCompletedTasks());
+            
+            // rebuild the same tasks as after a restart, with a and b completed
+            Recorder a2 = new Recorder("a", running, peak);
+            Recorder b2 = new Recorder("b", running, peak);
+            Recorder c2 = new Recorder("c", running, peak);
+            b2.getDependencies().add(a2);
+            c2.getDependencies().add(b2);
+            TaskManager resumed = new TaskManager(Arrays.<Task>asList(a2, b2, c2));
+            resumed.setConcurrency(concurrency);
+            resumed.setCompletedTasks(Arrays.<Task>asList(a2, b2));
+            resumed.run();
+            assertFalse(a2.isDone());
+            assertFalse(b2.isDone());
+            assertTrue(c2.isDone());
+            assertTrue(resumed.isCompleted(a2));
+            assertEquals(3, resumed.getCurrent());
+            assertEquals(3, resumed.getCompletedTasks().size());
+        }
+    }
+    
+    /**
+     * A fingerprinted task is skipped when the store has its fingerprint
+     * and it is satisfied, and runs again when its inputs change or a
+     * fingerprinted dependency runs again.
+     */
+    @Test
+    public void testTaskManagerSkipsUpToDateTasks() {
+        FingerprintStore store = new MemoryFingerprintStore();
+        Installer install = new Installer("host1", "v1");
+        Installer configure = new Installer("host1", "config");
+        configure.getDependencies().add(install);
+        TaskManager first = new TaskManager(Arrays.<Task>asList(install, configure));
+        first.setFingerprintStore(store);
+        first.run();
+        assertEquals(1, install.executed);
+        assertEquals(1, configure.executed);
+        
+        // same inputs: both are up to date
+        first.run();
+        assertEquals(1, install.executed);
+        assertEquals(1, configure.executed);
+        assertTrue(install.isDone());
+        assertTrue(install.isUpToDate());
+        assertEquals(2, first.getCurrent());
+        
+        // output removed from the host: the install runs again and so does the task after it
+        install.satisfied = false;
+        first.run();
+        assertEquals(2, install.executed);
+        assertEquals(2, configure.executed);
+        
+        // new input: runs again
+        install.satisfied = true;
+        install.version = "v2";
+        first.run();
+        assertEquals(3, install.executed);
+    }
+    
+    /**
+     * A cancelled task does not verify its fingerprint, because verifying
+     * may connect to the host; it reports the cancellation instead.
+     */
+    @Test
+    public void testCancelledTaskDoesNotVerifyFingerprint() {
+        FingerprintStore store = new MemoryFingerprintStore();
+        Installer install = new Installer("host1", "v1");
+        install.setFingerprintStore(store);
+        install.run();
+        assertEquals(1, install.executed);
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        install.setCancellationToken(token);
+        install.run();
+        assertEquals(1, install.executed);
+        assertEquals(0, install.verified);
+        assertFalse(install.isDone());
+        assertFalse(install.isUpToDate());
+        assertEquals(1, install.getFaults().size());
+    }
+    
+    /**
+     * Cancelling the task manager reaches running tasks through the shared
+     * token: a task polling with the token's sleep() wakes up, a task
+     * blocked in I/O is released by its cancellation listener, and the
+     * task that depends on them never starts. The task manager returns
+     * well before the tasks would have finished on their own.
+     */
+    @Test
+    public void testTaskManagerCancelRunningTasks() throws InterruptedException {
+        Poller a = new Poller();
+        Blocker b = new Blocker();
+        Recorder c = new Recorder("c", new AtomicInteger(), new AtomicInteger());
+        c.getDependencies().add(a);
+        c.getDependencies().add(b);
+        final TaskManager taskManager = new TaskManager(Arrays.<Task>asList(a, b, c));
+        taskManager.setConcurrency(2);
+        Thread thread = new Thread(taskManager);
+        thread.start();
+        assertTrue(b.started.await(5, TimeUnit.SECONDS));
+        taskManager.cancel();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        long latency = System.currentTimeMillis() - taskManager.getCancellationToken().getCancelledAt();
+        log.debug("Task manager stopped {} ms after cancel", latency);
+        assertTrue(latency < 2000);
+        assertFalse(a.isDone());
+        assertFalse(b.isDone());
+        assertFalse(c.isDone());
+        assertTrue(hasFault(a, ExecutionCancelled.class));
+        assertTrue(hasFault(b, ExecutionCancelled.class));
+        assertTrue(taskManager.isCancelled());
+    }
+    
+    /**
+     * A task that stops when the watchdog cancels it at its deadline fails
+     * with DeadlineExceeded, and a task that ignores its token is abandoned
+     * after the grace period so the task manager does not wait for it. 
+     * An independent task still completes under FAIL_BRANCH.
+     */
+    @Test
+    public void testTaskManagerTaskDeadlines() {
+        Poller a = new Poller();
+        Stubborn b = new Stubborn(3000);
+        Recorder c = new Recorder("c", new AtomicInteger(), new AtomicInteger());
+        TaskManager taskManager = new TaskManager(Arrays.<Task>asList(a, b, c));
+        taskManager.setConcurrency(3);
+        taskManager.setFailurePolicy(FailurePolicy.FAIL_BRANCH);
+        taskManager.setCancellationGracePeriod(200);
+        taskManager.setTaskTimeouts(new TaskTimeouts() {
+            @Override
+            public long getTimeout(Task task) {
+                return task instanceof Recorder ? 0 : 300;
+            }
+        });
+        long started = System.currentTimeMillis();
+        taskManager.run();
+        long elapsed = System.currentTimeMillis() - started;
+        log.debug("Task manager returned after {} ms", elapsed);
+        assertTrue(elapsed < 2000);
+        assertTrue(hasFault(a, DeadlineExceeded.class));
+        assertFalse(a.isDone());
+        assertTrue(taskManager.isFailed(b));
+        assertTrue(hasFault(taskManager, DeadlineExceeded.class));
+        assertTrue(c.isDone());
+        assertFalse(taskManager.isCancelled());
+    }
+    
+    /**
+     * Each task publishes when it starts and finishes, a task that does not
+     * extend AbstractTask is published by the task manager, a restored task
+     * is published as finished, and the task manager publishes its own 
+     * progress.
+     */
+    @Test
+    public void testTaskManagerPublishesEvents() {
+        Recorder restored = new Recorder("restored", new AtomicInteger(), new AtomicInteger());
+        HelloName a = new HelloName("a");
+        NonProgressReportingTask b = new NonProgressReportingTask();
+        TaskManager taskManager = new TaskManager(Arrays.<Task>asList(restored, a, b));
+        taskManager.setCompletedTasks(Arrays.<Task>asList(restored));
+        TaskEventBuffer events = new TaskEventBuffer(64);
+        taskManager.setEventBuffer(events);
+        taskManager.run();
+        ArrayList<TaskEvent> list = new ArrayList<>();
+        events.drainTo(list);
+        assertTrue(hasEvent(list, restored, TaskEvent.Type.FINISHED));
+        assertFalse(hasEvent(list, restored, TaskEvent.Type.STARTED));
+        assertTrue(hasEvent(list, a, TaskEvent.Type.STARTED));
+        assertTrue(hasEvent(list, a, TaskEvent.Type.FINISHED));
+        assertTrue(hasEvent(list, b, TaskEvent.Type.STARTED));
+        assertTrue(hasEvent(list, b, TaskEvent.Type.FINISHED));
+        assertTrue(hasEvent(list, taskManager, TaskEvent.Type.PROGRESS));
+        assertTrue(hasEvent(list, taskManager, TaskEvent.Type.FINISHED));
+        assertEquals(0, events.getDropped());
+        assertTrue(events.isEmpty());
+    }
+
+    private static boolean hasEvent(List<TaskEvent> events, Task task, TaskEvent.Type type) {
+        for (TaskEvent event : events) {
+            if (event.getTask() == task && event.getType() == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean hasFault(Task task, Class<? extends Fault> faultClass) {
+        for (Fault fault : task.getFaults()) {
+            if (faultClass.isInstance(fault)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * A dependency cycle is reported as faults instead of running any tasks.
+     */
+    @Test
+    public void testTaskManagerDependencyCycle() {
+        HelloName a = new HelloName("a");
+        HelloName b = new HelloName("b");
+        a.getDependencies().add(b);
+        b.getDependencies().add(a);
+        TaskManager taskManager = new TaskManager(Arrays.<Task>asList(a, b));
+        taskManager.run();
+        assertEquals(2, taskManager.getFaults().size());
+        assertFalse(a.isDone());
+        assertFalse(b.isDone());
+    }
+    
+    public static class MemoryFingerprintStore implements FingerprintStore {
+        private final Set<String> fingerprints = Collections.synchronizedSet(new HashSet<String>());
+
+        @Override
+        public boolean contains(String fingerprint) {
+            return fingerprints.contains(fingerprint);
+        }
+
+        @Override
+        public void add(String fingerprint) {
+            fingerprints.add(fingerprint);
+        }
+
+        @Override
+        public void remove(String fingerprint) {
+            fingerprints.remove(fingerprint);
+        }
+    }
+    
+    public static class Installer extends AbstractTask implements Fingerprint {
+        private final String host;
+        private String version;
+        private boolean satisfied = true;
+        private int executed = 0;
+        private int verified = 0;
+
+        public Installer(String host, String version) {
+            this.host = host;
+            this.version = version;
+        }
+
+        @Override
+        public void execute() {
+            executed++;
+        }
+
+        @Override
+        public String fingerprint() {
+            return host + "|" + version;
+        }
+
+        @Override
+        public boolean verify() {
+            verified++;
+            return satisfied;
+        }
+    }
+    
+    public static class Recorder extends AbstractTask {
+        private final String name;
+        private final AtomicInteger running, peak;
+        private volatile long started, stopped;
+
+        public Recorder(String name, AtomicInteger running, AtomicInteger peak) {
+            this.name = name;
+            this.running = running;
+            this.peak = peak;
+        }
+
+        @Override
+        public void execute() {
+            started = System.nanoTime();
+            int now = running.incrementAndGet();
+            synchronized (peak) {
+                if (now > peak.get()) {
+                    peak.set(now);
+                }
+            }
+            new AlarmClock().sleep(100); // ms
+            running.decrementAndGet();
+            stopped = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+    
+    public static class ResourceRecorder extends Recorder implements Resources {
+        private final List<String> resources;
+
+        public ResourceRecorder(String name, AtomicInteger running, AtomicInteger peak, String... resources) {
+            super(name, running, peak);
+            this.resources = Arrays.asList(resources);
+        }
+
+        @Override
+        public Collection<String> getResources() {
+            return resources;
+        }
+    }
+    
+    /**
+     * Polls for 30 seconds unless cancelled.
+     */
+    public static class Poller extends AbstractTask {
+        @Override
+        public void execute() {
+            try {
+                for (int i = 0; i < 300; i++) {
+                    if (getCancellationToken().sleep(100)) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            getCancellationToken().throwIfCancelled();
+        }
+    }
+    
+    /**
+     * Ignores its token and interrupts, like a task stuck in a call that
+     * has no timeout.
+     */
+    public static class Stubborn extends AbstractTask {
+        private final long duration;
+
+        public Stubborn(long duration) {
+            this.duration = duration;
+        }
+        
+        @Override
+        public void execute() {
+            long end = System.currentTimeMillis() + duration;
+            while (System.currentTimeMillis() < end) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    log.debug("Ignoring interrupt");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Waits like a blocking read until its cancellation listener "closes
+     * the connection".
+     */
+    public static class Blocker extends AbstractTask {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+        
+        @Override
+        public void execute() {
+            Runnable close = new Runnable() {
+                @Override
+                public void run() {
+                    closed.countDown();
+                }
+            };
+            getCancellationToken().register(close);
+            started.countDown();
+            try {
+                closed.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                getCancellationToken().unregister(close);
+            }
+            getCancellationToken().throwIfCancelled();
+        }
+    }
+    
+    /**
+     * Generates three tasks, the last of which fails if requested, and 
+     * counts how many generated subgraphs are live at the same time.
+     */
+    public static class Subgraph implements LazyTaskManager.Generator {
+        private final AtomicInteger live, peak;
+        private final boolean fail;
+
+        public Subgraph(AtomicInteger live, AtomicInteger peak, boolean fail) {
+            this.live = live;
+            this.peak = peak;
+            this.fail = fail;
+        }
+
+        @Override
+        public List<Task> generate() {
+            int now = live.incrementAndGet();
+            synchronized (peak) {
+                if (now > peak.get()) {
+                    peak.set(now);
+                }
+            }
+            Task first = new Counter(2, 5);
+            Task second = new Counter(2, 5);
+            second.getDependencies().add(first);
+            Task third = fail ? new Failure() : new Counter(1);
+            third.getDependencies().add(second);
+            return Arrays.asList(first, second, third);
+        }
+
+        @Override
+        public void release(List<Task> tasks) {
+            live.decrementAndGet();
+        }
+    }
+    
+    public static class Chain implements LazyTaskManager.Generator {
+        private final int count;
+
+        public Chain(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public List<Task> generate() {
+            ArrayList<Task> tasks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Task task = new Counter(1);
+                if (i > 0) {
+                    task.getDependencies().add(tasks.get(i - 1));
+                }
+                tasks.add(task);
+            }
+            return tasks;
+        }
+
+        @Override
+        public void release(List<Task> tasks) {
+        }
+    }
+    
+    public static class Failure extends AbstractTask {
+        @Override
+        public void execute() {
+            throw new IllegalStateException("expected failure");
+        }
+    }
+    
+    public static class Counter extends AbstractTask {
+        private final long count, delay;
+
+        public Counter(long count) {
+            this(count, 0);
+        }
+
+        /**
+         * 
+         * @param count
+         * @param delay milliseconds to wait after each step
+         */
+        public Counter(long count, long delay) {
+            this.count = count;
+            this.delay = delay;
+        }
+
+        @Override
+        public void execute() {
+            max(count);
+            for (long i = 1; i <= count; i++) {
+                current(i);
+                if (delay > 0) {
+                    new AlarmClock().sleep(delay);
+                }
+            }
+        }
+    }
+    
     public static class HelloName extends AbstractTask {
         private String name;
         private AlarmClock clock;
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.task;
+
+import com.intel.dcsg.cpg.performance.Progress;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TaskSnapshotTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TaskSnapshotTest.class);
+
+    /**
+     * Another thread reading snapshots while the task runs sees the
+     * version increase with each change, and never sees a task that is 
+     * both active and done, or done with less than its full progress.
+     */
+    @Test
+    public void testTaskSnapshot() throws InterruptedException {
+        final TaskManagerTest.Counter counter = new TaskManagerTest.Counter(10000);
+        final AtomicInteger inconsistent = new AtomicInteger();
+        final AtomicInteger observed = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TaskSnapshot previous = counter.getSnapshot();
+                while (!previous.isDone()) {
+                    TaskSnapshot snapshot = counter.getSnapshot();
+                    if (snapshot.getVersion() < previous.getVersion()
+                            || (snapshot.isActive() && snapshot.isDone())
+                            || (snapshot.isDone() && snapshot.getCurrent() != snapshot.getMax())) {
+                        inconsistent.incrementAndGet();
+                    }
+                    if (snapshot.getVersion() != previous.getVersion()) {
+                        observed.incrementAndGet();
+                    }
+                    previous = snapshot;
+                }
+            }
+        });
+        reader.start();
+        counter.run();
+        reader.join(5000);
+        log.debug("Observed {} of {} versions", observed.get(), counter.getSnapshot().getVersion());
+        assertFalse(reader.isAlive());
+        assertEquals(0, inconsistent.get());
+        assertTrue(counter.isDone());
+        assertEquals(10000, counter.getCurrent());
+        // run() resets, executes, and finishes: each change is one version
+        assertEquals(1 + 1 + 1 + 10000 + 1 + 1, counter.getSnapshot().getVersion());
+    }
+
+    /**
+     * A task that overrides the Progress getters does not have its 
+     * progress in its snapshot, so readers must use the getters.
+     */
+    @Test
+    public void testTaskProgressInSnapshot() {
+        assertTrue(new TaskManagerTest.Counter(10).isProgressInSnapshot());
+        AbstractTask overridden = new AbstractTask() {
+            @Override
+            public void execute() {
+            }
+
+            @Override
+            public long getCurrent() {
+                return 5;
+            }
+        };
+        assertFalse(overridden.isProgressInSnapshot());
+    }
+}
@@ -71,6 +71,10 @@ $installer_dirname/$installer_basename 1>$workdir/stdout 2>$workdir/stderr  &
 installer_pid=$!
 echo "ACTIVE" > $workdir/status
 
+# when started with setsid, the quickstart cancels an install by sending
+# TERM to the process group, which includes the installer
+trap 'echo "CANCELLED" > $workdir/status; exit 143' TERM
+
 # we're looking for the following things:
 # 1. check that the installer is still running
 # 2. identify the next marker in the output